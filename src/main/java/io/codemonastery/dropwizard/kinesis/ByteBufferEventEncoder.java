@@ -0,0 +1,19 @@
+package io.codemonastery.dropwizard.kinesis;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * Encoder which writes into a buffer it is handed, for example a pooled one, rather than allocating an array per event.
+ */
+public interface ByteBufferEventEncoder<E> extends EventEncoder<E> {
+
+    /**
+     * @param event event to encode
+     * @param buffer empty buffer to write into, may be too small for event
+     * @return buffer holding the encoded event from position zero to its limit, buffer itself if event fit,
+     * otherwise a larger buffer; null to skip event
+     */
+    @Nullable ByteBuffer encode(E event, ByteBuffer buffer) throws Exception;
+
+}
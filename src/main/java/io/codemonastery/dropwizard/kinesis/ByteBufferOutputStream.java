@@ -0,0 +1,44 @@
+package io.codemonastery.dropwizard.kinesis;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes into a buffer, moving to a larger heap buffer if it fills up. Not thread safe.
+ */
+final class ByteBufferOutputStream extends OutputStream {
+
+    private ByteBuffer buffer;
+
+    ByteBufferOutputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureRemaining(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureRemaining(len);
+        buffer.put(b, off, len);
+    }
+
+    /**
+     * @return buffer written to, the one given or a larger one, not flipped
+     */
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    private void ensureRemaining(int length) {
+        if (buffer.remaining() < length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package io.codemonastery.dropwizard.kinesis;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+
+/**
+ * Compresses whatever the wrapped encoder produces, see {@link Compression}.
+ */
+public final class CompressingEventEncoder<E> implements EventEncoder<E> {
+
+    private final EventEncoder<E> encoder;
+    private final Compression compression;
+
+    public CompressingEventEncoder(EventEncoder<E> encoder, Compression compression) {
+        Preconditions.checkNotNull(encoder, "encoder cannot be null");
+        Preconditions.checkNotNull(compression, "compression cannot be null");
+        this.encoder = encoder;
+        this.compression = compression;
+    }
+
+    @Nullable
+    @Override
+    public byte[] encode(E event) throws Exception {
+        byte[] bytes = encoder.encode(event);
+        return bytes == null ? null : compression.compress(bytes);
+    }
+}
@@ -0,0 +1,140 @@
+package io.codemonastery.dropwizard.kinesis;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Pure java compression codecs for record data. Compressed data is framed with a magic header
+ * and codec id, so a decoder can tell compressed from uncompressed records and read streams
+ * which have both, for example while rolling out compression.
+ */
+public enum Compression {
+
+    NONE(0) {
+        @Override
+        protected OutputStream compressing(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        protected InputStream decompressing(InputStream in) {
+            return in;
+        }
+    },
+
+    GZIP(1) {
+        @Override
+        protected OutputStream compressing(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out);
+        }
+
+        @Override
+        protected InputStream decompressing(InputStream in) throws IOException {
+            return new GZIPInputStream(in);
+        }
+    },
+
+    DEFLATE(2) {
+        @Override
+        protected OutputStream compressing(OutputStream out) {
+            return new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+        }
+
+        @Override
+        protected InputStream decompressing(InputStream in) {
+            return new InflaterInputStream(in, new Inflater(true));
+        }
+    },
+
+    /**
+     * Deflate at best speed, trades some ratio for much cheaper compression.
+     */
+    FAST(3) {
+        @Override
+        protected OutputStream compressing(OutputStream out) {
+            return new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED, true));
+        }
+
+        @Override
+        protected InputStream decompressing(InputStream in) {
+            return new InflaterInputStream(in, new Inflater(true));
+        }
+    };
+
+    static final byte[] MAGIC = new byte[]{(byte) 0xC0, (byte) 0xDE};
+
+    private static final int HEADER_SIZE = MAGIC.length + 1;
+
+    private final byte id;
+
+    Compression(int id) {
+        this.id = (byte) id;
+    }
+
+    /**
+     * @param data uncompressed data
+     * @return framed compressed data, or data unchanged if this is NONE or compressing would not make it smaller
+     */
+    public byte[] compress(byte[] data) throws IOException {
+        byte[] framed = data;
+        if (this != NONE) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2 + HEADER_SIZE);
+            bytes.write(MAGIC);
+            bytes.write(id);
+            try (OutputStream out = compressing(bytes)) {
+                out.write(data);
+            }
+            if (bytes.size() < data.length) {
+                framed = bytes.toByteArray();
+            }
+        }
+        return framed;
+    }
+
+    /**
+     * @param data framed compressed data, or uncompressed data
+     * @return decompressed data if framed, otherwise data unchanged
+     */
+    public static byte[] decompress(byte[] data) throws IOException {
+        byte[] decompressed = data;
+        if (isFramed(data)) {
+            Compression codec = forId(data[MAGIC.length]);
+            InputStream in = new ByteArrayInputStream(data, HEADER_SIZE, data.length - HEADER_SIZE);
+            try (InputStream decompressing = codec.decompressing(in)) {
+                decompressed = ByteStreams.toByteArray(decompressing);
+            }
+        }
+        return decompressed;
+    }
+
+    public static boolean isFramed(byte[] data) {
+        return data != null
+                && data.length >= HEADER_SIZE
+                && data[0] == MAGIC[0]
+                && data[1] == MAGIC[1];
+    }
+
+    private static Compression forId(byte id) throws IOException {
+        for (Compression compression : values()) {
+            if (compression.id == id) {
+                return compression;
+            }
+        }
+        throw new IOException("unknown compression codec " + id);
+    }
+
+    protected abstract OutputStream compressing(OutputStream out) throws IOException;
+
+    protected abstract InputStream decompressing(InputStream in) throws IOException;
+}
@@ -0,0 +1,34 @@
+package io.codemonastery.dropwizard.kinesis;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * Decompresses records written by {@link CompressingEventEncoder} before handing them to the wrapped decoder,
+ * records without a compression header are passed through as is.
+ */
+public final class DecompressingEventDecoder<E> implements EventDecoder<E> {
+
+    private final EventDecoder<E> decoder;
+
+    public DecompressingEventDecoder(EventDecoder<E> decoder) {
+        Preconditions.checkNotNull(decoder, "decoder cannot be null");
+        this.decoder = decoder;
+    }
+
+    @Nullable
+    @Override
+    public E decode(ByteBuffer bytes) throws Exception {
+        ByteBuffer decoded = bytes;
+        if (bytes.remaining() > Compression.MAGIC.length
+                && bytes.get(bytes.position()) == Compression.MAGIC[0]
+                && bytes.get(bytes.position() + 1) == Compression.MAGIC[1]) {
+            byte[] data = new byte[bytes.remaining()];
+            bytes.duplicate().get(data);
+            decoded = ByteBuffer.wrap(Compression.decompress(data));
+        }
+        return decoder.decode(decoded);
+    }
+}
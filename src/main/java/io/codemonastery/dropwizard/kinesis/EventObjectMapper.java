@@ -1,29 +1,44 @@
 package io.codemonastery.dropwizard.kinesis;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
 import com.google.common.base.Preconditions;
 
 import javax.annotation.Nullable;
 import java.nio.ByteBuffer;
 
-public final class EventObjectMapper<E> implements EventEncoder<E>, EventDecoder<E> {
+public final class EventObjectMapper<E> implements ByteBufferEventEncoder<E>, EventDecoder<E> {
 
     private final ObjectMapper objectMapper;
-    private final Class<E> klass;
+    private final ObjectReader reader;
 
+    /**
+     * @param objectMapper mapper events are written and read with, decoding uses a reader built from it here, so
+     *                     later changes to its configuration do not apply to decoding
+     * @param klass class of events, null if only encoding
+     */
     public EventObjectMapper(ObjectMapper objectMapper, @Nullable Class<E> klass) {
         Preconditions.checkNotNull(objectMapper);
         this.objectMapper = objectMapper;
-        this.klass = klass;
+        this.reader = klass == null ? null : objectMapper.readerFor(klass);
     }
 
     @Nullable
     @Override
     public E decode(ByteBuffer bytes) throws Exception {
-        if(klass == null){
+        if(reader == null){
             throw new UnsupportedOperationException("cannot decode if event class was not specified");
         }
-        return objectMapper.readValue(bytes.array(), klass);
+        E event;
+        if(bytes.hasArray()){
+            //bytes may be a view of part of its array, for example a record without its id stamp
+            event = reader.readValue(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        }else{
+            //direct or read only, read in place without moving the position of bytes
+            event = reader.readValue(new ByteBufferBackedInputStream(bytes.duplicate()));
+        }
+        return event;
     }
 
     @Nullable
@@ -31,4 +46,14 @@ public final class EventObjectMapper<E> implements EventEncoder<E>, EventDecoder
     public byte[] encode(E event) throws Exception {
         return objectMapper.writeValueAsBytes(event);
     }
+
+    @Nullable
+    @Override
+    public ByteBuffer encode(E event, ByteBuffer buffer) throws Exception {
+        ByteBufferOutputStream out = new ByteBufferOutputStream(buffer);
+        objectMapper.writeValue(out, event);
+        ByteBuffer encoded = out.buffer();
+        encoded.flip();
+        return encoded;
+    }
 }
@@ -0,0 +1,39 @@
+package io.codemonastery.dropwizard.kinesis;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stamps whatever the wrapped encoder produces with a {@link RecordId}, a random producer id of this encoder and
+ * the next sequence. Retried puts resend the same data, so a consumer deduplicating by id sees them as repeats.
+ */
+public final class IdempotentEventEncoder<E> implements EventEncoder<E> {
+
+    private final EventEncoder<E> encoder;
+    private final long producerId;
+    private final AtomicLong sequence = new AtomicLong();
+
+    public IdempotentEventEncoder(EventEncoder<E> encoder) {
+        this(encoder, new SecureRandom().nextLong());
+    }
+
+    public IdempotentEventEncoder(EventEncoder<E> encoder, long producerId) {
+        Preconditions.checkNotNull(encoder, "encoder cannot be null");
+        this.encoder = encoder;
+        this.producerId = producerId;
+    }
+
+    public long getProducerId() {
+        return producerId;
+    }
+
+    @Nullable
+    @Override
+    public byte[] encode(E event) throws Exception {
+        byte[] bytes = encoder.encode(event);
+        return bytes == null ? null : RecordId.stamp(bytes, producerId, sequence.getAndIncrement());
+    }
+}
@@ -0,0 +1,103 @@
+package io.codemonastery.dropwizard.kinesis;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * Id a producer stamps on record data, its producer id and the sequence of the record within that producer,
+ * framed with a magic header so a consumer can tell stamped from unstamped records and drop records put twice.
+ */
+public final class RecordId {
+
+    //0xF5 never starts utf-8 text, so plain text and json records are never mistaken for stamped ones
+    static final byte[] MAGIC = new byte[]{(byte) 0xF5, (byte) 0x1D};
+
+    public static final int HEADER_SIZE = MAGIC.length + 2 * Long.BYTES;
+
+    /**
+     * @param data record data, compressed or not
+     * @return data framed with producerId and sequence
+     */
+    public static byte[] stamp(byte[] data, long producerId, long sequence) {
+        Preconditions.checkNotNull(data, "data cannot be null");
+        return ByteBuffer.allocate(HEADER_SIZE + data.length)
+                .put(MAGIC)
+                .putLong(producerId)
+                .putLong(sequence)
+                .put(data)
+                .array();
+    }
+
+    /**
+     * @return id data was stamped with, null if data was not stamped
+     */
+    @Nullable
+    public static RecordId read(ByteBuffer data) {
+        RecordId id = null;
+        if (isStamped(data)) {
+            int position = data.position() + MAGIC.length;
+            id = new RecordId(data.getLong(position), data.getLong(position + Long.BYTES));
+        }
+        return id;
+    }
+
+    /**
+     * @return view of data after the header if stamped, otherwise data unchanged
+     */
+    public static ByteBuffer unstamped(ByteBuffer data) {
+        ByteBuffer unstamped = data;
+        if (isStamped(data)) {
+            unstamped = data.duplicate();
+            unstamped.position(data.position() + HEADER_SIZE);
+            unstamped = unstamped.slice();
+        }
+        return unstamped;
+    }
+
+    public static boolean isStamped(ByteBuffer data) {
+        return data != null
+                && data.remaining() >= HEADER_SIZE
+                && data.get(data.position()) == MAGIC[0]
+                && data.get(data.position() + 1) == MAGIC[1];
+    }
+
+    private final long producerId;
+    private final long sequence;
+
+    public RecordId(long producerId, long sequence) {
+        this.producerId = producerId;
+        this.sequence = sequence;
+    }
+
+    public long getProducerId() {
+        return producerId;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        RecordId recordId = (RecordId) o;
+        return producerId == recordId.producerId && sequence == recordId.sequence;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(producerId) + Long.hashCode(sequence);
+    }
+
+    @Override
+    public String toString() {
+        return Long.toHexString(producerId) + "-" + sequence;
+    }
+}
@@ -39,6 +39,14 @@ public class StreamConfiguration {
 
     @JsonIgnore
     protected boolean setupStream(AmazonKinesis kinesis) {
+        return setupStream(kinesis, streamName);
+    }
+
+    /**
+     * Like {@link #setupStream(AmazonKinesis)}, but for another stream configured the same way.
+     */
+    @JsonIgnore
+    protected boolean setupStream(AmazonKinesis kinesis, String streamName) {
         Preconditions.checkNotNull(streamName, "stream name cannot be null");
         boolean setup = true;
         if (create != null) {
@@ -0,0 +1,27 @@
+package io.codemonastery.dropwizard.kinesis;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * Removes the {@link RecordId} stamped by {@link IdempotentEventEncoder} before handing records to the wrapped decoder,
+ * records without a stamp are passed through as is. Only for streams written by idempotent producers, the stamp is
+ * recognized by a short magic header which arbitrary binary data could start with.
+ */
+public final class UnstampingEventDecoder<E> implements EventDecoder<E> {
+
+    private final EventDecoder<E> decoder;
+
+    public UnstampingEventDecoder(EventDecoder<E> decoder) {
+        Preconditions.checkNotNull(decoder, "decoder cannot be null");
+        this.decoder = decoder;
+    }
+
+    @Nullable
+    @Override
+    public E decode(ByteBuffer bytes) throws Exception {
+        return decoder.decode(RecordId.unstamped(bytes));
+    }
+}
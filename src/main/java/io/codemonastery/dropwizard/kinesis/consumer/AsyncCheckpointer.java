@@ -0,0 +1,94 @@
+package io.codemonastery.dropwizard.kinesis.consumer;
+
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
+import com.amazonaws.services.kinesis.model.Record;
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Writes the checkpoints of one processor on an executor, so processing never waits on dynamo db.
+ * One checkpoint is written at a time, and a checkpoint asked for while another is written replaces any
+ * still waiting, so checkpoints are written in order and only the latest waits. Executors may be shared
+ * between processors, if one rejects a checkpoint it is written on the calling thread.
+ */
+public final class AsyncCheckpointer {
+
+    private final Executor executor;
+    private final CheckpointMetrics metrics;
+
+    //guarded by this
+    private IRecordProcessorCheckpointer checkpointer = null;
+    private Record record = null;
+    private boolean scheduled = false;
+    private boolean writing = false;
+
+    public AsyncCheckpointer(Executor executor, CheckpointMetrics metrics) {
+        Preconditions.checkNotNull(executor, "executor cannot be null");
+        Preconditions.checkNotNull(metrics, "metrics cannot be null");
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param record record to checkpoint at, unlike checkpointing synchronously cannot be null because the last
+     *               record handed to the processor may have changed by the time the checkpoint is written
+     */
+    public void checkpoint(IRecordProcessorCheckpointer checkpointer, Record record) {
+        Preconditions.checkNotNull(checkpointer, "checkpointer cannot be null");
+        Preconditions.checkNotNull(record, "record cannot be null");
+        synchronized (this) {
+            this.checkpointer = checkpointer;
+            this.record = record;
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        try {
+            executor.execute(this::write);
+        } catch (RejectedExecutionException e) {
+            write();
+        }
+    }
+
+    /**
+     * Drops checkpoints not yet written and waits for the one being written, if any, so that a checkpoint
+     * written afterwards, for example on shutdown, is written last. Does not wait on a write still queued
+     * on the executor, that finds nothing to write.
+     */
+    public synchronized void close() throws InterruptedException {
+        checkpointer = null;
+        record = null;
+        while (writing) {
+            wait();
+        }
+    }
+
+    private void write() {
+        while (true) {
+            IRecordProcessorCheckpointer nextCheckpointer;
+            Record nextRecord;
+            synchronized (this) {
+                if (record == null) {
+                    scheduled = false;
+                    return;
+                }
+                nextCheckpointer = checkpointer;
+                nextRecord = record;
+                checkpointer = null;
+                record = null;
+                writing = true;
+            }
+            try {
+                Checkpoints.write(nextCheckpointer, nextRecord, metrics);
+            } finally {
+                synchronized (this) {
+                    writing = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+}
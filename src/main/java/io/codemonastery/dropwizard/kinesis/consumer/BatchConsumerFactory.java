@@ -6,11 +6,14 @@ import com.amazonaws.services.kinesis.clientlibrary.lib.worker.SimpleWorker;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.health.HealthCheckRegistry;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
+import io.codemonastery.dropwizard.kinesis.DecompressingEventDecoder;
 import io.codemonastery.dropwizard.kinesis.EventDecoder;
 import io.codemonastery.dropwizard.kinesis.EventObjectMapper;
 import io.codemonastery.dropwizard.kinesis.StreamCreateConfiguration;
+import io.codemonastery.dropwizard.kinesis.UnstampingEventDecoder;
 import io.codemonastery.dropwizard.kinesis.healthcheck.StreamHealthCheck;
 import io.codemonastery.dropwizard.kinesis.producer.StreamFailureCheck;
 import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
@@ -19,8 +22,13 @@ import org.eclipse.jetty.util.component.AbstractLifeCycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
 import java.lang.reflect.ParameterizedType;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Supplier;
 
 public class BatchConsumerFactory<E> extends KinesisClientLibConfig {
@@ -30,6 +38,26 @@ public class BatchConsumerFactory<E> extends KinesisClientLibConfig {
     private BatchConsumerFactory<E> decoderInheritParent = null;
 
     private EventDecoder<E> decoder;
+
+    private boolean decompress = false;
+
+    private boolean stamped = false;
+
+    @Min(0)
+    private int dedupWindow = 0;
+
+    @Valid
+    @NotNull
+    private CheckpointPolicy checkpoint = new CheckpointPolicy();
+
+    @Min(0)
+    private int checkpointThreads = 0;
+
+    @Min(0)
+    private int decodeThreads = 0;
+
+    @Min(1)
+    private int decodeChunkSize = 500;
     private Supplier<BatchConsumer<E>> consumer;
 
     @JsonIgnore
@@ -70,6 +98,149 @@ public class BatchConsumerFactory<E> extends KinesisClientLibConfig {
         return this;
     }
 
+    /**
+     * If true, records compressed by a producer with compression configured are decompressed before decoding,
+     * uncompressed records are still decoded as is.
+     */
+    @JsonProperty
+    public boolean isDecompress() {
+        return decompress;
+    }
+
+    @JsonProperty
+    public void setDecompress(boolean decompress) {
+        this.decompress = decompress;
+    }
+
+    @JsonIgnore
+    public BatchConsumerFactory<E> decompress(boolean decompress) {
+        this.setDecompress(decompress);
+        return this;
+    }
+
+    /**
+     * If true, stamps of idempotent producers are removed before decoding. Only turn this on for streams written by
+     * idempotent producers, other records starting with the stamp's magic bytes would lose their first bytes.
+     * Implied by a positive dedupWindow.
+     */
+    @JsonProperty
+    public boolean isStamped() {
+        return stamped;
+    }
+
+    @JsonProperty
+    public void setStamped(boolean stamped) {
+        this.stamped = stamped;
+    }
+
+    @JsonIgnore
+    public BatchConsumerFactory<E> stamped(boolean stamped) {
+        this.setStamped(stamped);
+        return this;
+    }
+
+    /**
+     * If positive, this worker remembers the ids of the last dedupWindow records of each of its shards and drops
+     * records put again by an idempotent producer, or delivered again to this worker after it lost and took back
+     * a shard's lease, before decoding them. Records another worker processed before taking over a shard are not
+     * known, so are processed again. Zero, the default, turns this off. A positive window implies
+     * {@link #isStamped()}.
+     */
+    @JsonProperty
+    public int getDedupWindow() {
+        return dedupWindow;
+    }
+
+    @JsonProperty
+    public void setDedupWindow(int dedupWindow) {
+        this.dedupWindow = dedupWindow;
+    }
+
+    @JsonIgnore
+    public BatchConsumerFactory<E> dedupWindow(int dedupWindow) {
+        this.setDedupWindow(dedupWindow);
+        return this;
+    }
+
+    @JsonProperty
+    public CheckpointPolicy getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * @param checkpoint when processors checkpoint, after every batch of records by default, with an interval set
+     *                   callIfEmpty lets idle shards write checkpoints held back
+     */
+    @JsonProperty
+    public void setCheckpoint(CheckpointPolicy checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    @JsonIgnore
+    public BatchConsumerFactory<E> checkpoint(CheckpointPolicy checkpoint) {
+        this.setCheckpoint(checkpoint);
+        return this;
+    }
+
+    /**
+     * If positive, processors hand their checkpoints to this many threads, shared by all shards, and go on
+     * processing instead of waiting on dynamo db. Zero, the default, checkpoints on the processing threads.
+     */
+    @JsonProperty
+    public int getCheckpointThreads() {
+        return checkpointThreads;
+    }
+
+    @JsonProperty
+    public void setCheckpointThreads(int checkpointThreads) {
+        this.checkpointThreads = checkpointThreads;
+    }
+
+    @JsonIgnore
+    public BatchConsumerFactory<E> checkpointThreads(int checkpointThreads) {
+        this.setCheckpointThreads(checkpointThreads);
+        return this;
+    }
+
+    /**
+     * If positive, batches larger than decodeChunkSize are decoded in chunks on this many threads, shared by all
+     * shards, see {@link ParallelDecoder}. Zero, the default, decodes on the processing threads.
+     */
+    @JsonProperty
+    public int getDecodeThreads() {
+        return decodeThreads;
+    }
+
+    @JsonProperty
+    public void setDecodeThreads(int decodeThreads) {
+        this.decodeThreads = decodeThreads;
+    }
+
+    @JsonIgnore
+    public BatchConsumerFactory<E> decodeThreads(int decodeThreads) {
+        this.setDecodeThreads(decodeThreads);
+        return this;
+    }
+
+    @JsonProperty
+    public int getDecodeChunkSize() {
+        return decodeChunkSize;
+    }
+
+    /**
+     * @param decodeChunkSize most records decoded by one task when decoding in parallel
+     */
+    @JsonProperty
+    public void setDecodeChunkSize(int decodeChunkSize) {
+        this.decodeChunkSize = decodeChunkSize;
+    }
+
+    @JsonIgnore
+    public BatchConsumerFactory<E> decodeChunkSize(int decodeChunkSize) {
+        this.setDecodeChunkSize(decodeChunkSize);
+        return this;
+    }
+
     @JsonIgnore
     public BatchConsumerFactory<E> create(StreamCreateConfiguration create){
         this.setCreate(create);
@@ -144,14 +315,24 @@ public class BatchConsumerFactory<E> extends KinesisClientLibConfig {
                               String name) {
         Preconditions.checkNotNull(decoder, "decoder cannot be null");
         Preconditions.checkNotNull(consumer, "consumer cannot be null");
+        Preconditions.checkNotNull(checkpoint, "checkpoint cannot be null");
 
         super.setupStream(kinesis);
 
+        EventDecoder<E> eventDecoder = decompress ? new DecompressingEventDecoder<>(decoder) : decoder;
+        if (stamped || dedupWindow > 0) {
+            //producers stamp after compressing, so stamps are removed before decompressing
+            eventDecoder = new UnstampingEventDecoder<>(eventDecoder);
+        }
         BatchProcessorMetrics processorMetrics = new BatchProcessorMetrics(metrics, name);
         BatchRecordProcessorFactory<E> recordProcessorFactory = new BatchRecordProcessorFactory<>(
-                decoder,
+                eventDecoder,
                 consumer,
-                processorMetrics);
+                processorMetrics,
+                dedupWindow,
+                checkpoint,
+                checkpointExecutor(lifeCycle, name),
+                parallelDecoder(lifeCycle, name));
         SimpleWorker.Builder builder = new SimpleWorker.Builder()
                 .recordProcessorFactory(recordProcessorFactory)
                 .config(makeKinesisClientLibConfiguration(name))
@@ -188,6 +369,31 @@ public class BatchConsumerFactory<E> extends KinesisClientLibConfig {
         return worker;
     }
 
+    private ExecutorService checkpointExecutor(LifecycleEnvironment lifeCycle, String name) {
+        ExecutorService executor = null;
+        if (checkpointThreads > 0) {
+            executor = lifeCycle == null
+                    ? Executors.newFixedThreadPool(checkpointThreads)
+                    : lifeCycle.executorService(name + "-checkpoint-%d")
+                    .minThreads(checkpointThreads).maxThreads(checkpointThreads)
+                    .build();
+        }
+        return executor;
+    }
+
+    private ParallelDecoder parallelDecoder(LifecycleEnvironment lifeCycle, String name) {
+        ParallelDecoder parallelDecoder = null;
+        if (decodeThreads > 0) {
+            ExecutorService executor = lifeCycle == null
+                    ? new ForkJoinPool(decodeThreads)
+                    : lifeCycle.executorService(name + "-decode-%d")
+                    .minThreads(decodeThreads).maxThreads(decodeThreads)
+                    .build();
+            parallelDecoder = new ParallelDecoder(executor, decodeChunkSize);
+        }
+        return parallelDecoder;
+    }
+
     EventObjectMapper<E> inferDecoder(ObjectMapper objectMapper) {
         EventObjectMapper<E> decoder = null;
         Class eventClass = null;
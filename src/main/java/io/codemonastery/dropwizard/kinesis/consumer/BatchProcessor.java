@@ -1,17 +1,21 @@
 package io.codemonastery.dropwizard.kinesis.consumer;
 
-import com.amazonaws.services.kinesis.clientlibrary.exceptions.ShutdownException;
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
 import com.amazonaws.services.kinesis.clientlibrary.interfaces.v2.IRecordProcessor;
 import com.amazonaws.services.kinesis.clientlibrary.types.InitializationInput;
 import com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput;
 import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownReason;
 import com.amazonaws.services.kinesis.model.Record;
 import io.codemonastery.dropwizard.kinesis.EventDecoder;
+import io.codemonastery.dropwizard.kinesis.RecordId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 public class BatchProcessor<E> implements IRecordProcessor {
 
@@ -20,12 +24,83 @@ public class BatchProcessor<E> implements IRecordProcessor {
     private final EventDecoder<E> decoder;
     private final BatchConsumer<E> processor;
     private final BatchProcessorMetrics metrics;
+    private final DuplicateFilters shardDuplicates;
+    private final CheckpointPolicy checkpointPolicy;
+    private final AsyncCheckpointer asyncCheckpointer;
+    private final ParallelDecoder parallelDecoder;
     private String shardId;
+    //filter of this processor's shard, set once initialized
+    private DuplicateFilter duplicates = null;
+    //last record of the batches consumed but not yet checkpointed, held back by the checkpoint policy
+    private Record pendingCheckpoint = null;
+    //last record of the last batch consumed, checkpointed on shutdown unless the shard ended with every batch consumed
+    private Record lastProcessed = null;
+    //false while the last batch handed to this processor was not consumed
+    private boolean caughtUp = true;
+    private long processedSinceCheckpoint = 0;
+    private long lastCheckpointNanos = System.nanoTime();
 
     public BatchProcessor(EventDecoder<E> decoder, BatchConsumer<E> processor, BatchProcessorMetrics metrics) {
+        this(decoder, processor, metrics, null);
+    }
+
+    /**
+     * @param duplicates if not null, records stamped with a {@link RecordId} already consumed, in an earlier batch
+     *                   of this processor or an earlier one of its shard, or earlier in the same batch, are dropped
+     *                   before decoding. The decoder must remove stamps,
+     *                   see {@link io.codemonastery.dropwizard.kinesis.UnstampingEventDecoder}.
+     */
+    public BatchProcessor(EventDecoder<E> decoder,
+                          BatchConsumer<E> processor,
+                          BatchProcessorMetrics metrics,
+                          DuplicateFilters duplicates) {
+        this(decoder, processor, metrics, duplicates, new CheckpointPolicy());
+    }
+
+    /**
+     * @param checkpointPolicy when to checkpoint after consuming a batch, see {@link CheckpointPolicy}, a checkpoint
+     *                         held back is written after the next batch consumed once due, or on shutdown
+     */
+    public BatchProcessor(EventDecoder<E> decoder,
+                          BatchConsumer<E> processor,
+                          BatchProcessorMetrics metrics,
+                          DuplicateFilters duplicates,
+                          CheckpointPolicy checkpointPolicy) {
+        this(decoder, processor, metrics, duplicates, checkpointPolicy, null);
+    }
+
+    /**
+     * @param asyncCheckpointer if not null, checkpoints at the last record of each batch consumed are written by it
+     *                          rather than on the processing thread, shutdown still checkpoints synchronously once
+     *                          it wrote any checkpoint in progress
+     */
+    public BatchProcessor(EventDecoder<E> decoder,
+                          BatchConsumer<E> processor,
+                          BatchProcessorMetrics metrics,
+                          DuplicateFilters duplicates,
+                          CheckpointPolicy checkpointPolicy,
+                          AsyncCheckpointer asyncCheckpointer) {
+        this(decoder, processor, metrics, duplicates, checkpointPolicy, asyncCheckpointer, null);
+    }
+
+    /**
+     * @param parallelDecoder if not null, large batches are decoded in chunks on its executor, see
+     *                        {@link ParallelDecoder}
+     */
+    public BatchProcessor(EventDecoder<E> decoder,
+                          BatchConsumer<E> processor,
+                          BatchProcessorMetrics metrics,
+                          DuplicateFilters duplicates,
+                          CheckpointPolicy checkpointPolicy,
+                          AsyncCheckpointer asyncCheckpointer,
+                          ParallelDecoder parallelDecoder) {
         this.decoder = decoder;
         this.processor = processor;
         this.metrics = metrics;
+        this.shardDuplicates = duplicates;
+        this.checkpointPolicy = checkpointPolicy;
+        this.asyncCheckpointer = asyncCheckpointer;
+        this.parallelDecoder = parallelDecoder;
     }
 
 
@@ -35,6 +110,9 @@ public class BatchProcessor<E> implements IRecordProcessor {
         if(initializationInput != null){
             shardId = initializationInput.getShardId();
         }
+        if(shardDuplicates != null){
+            duplicates = shardDuplicates.forShard(shardId);
+        }
     }
 
     @Override
@@ -44,7 +122,9 @@ public class BatchProcessor<E> implements IRecordProcessor {
         }
 
         boolean processed = false;
-        List<E> batch = decodeBatch(processRecordsInput.getRecords());
+        List<Record> records = UserRecords.deaggregate(processRecordsInput.getRecords());
+        Set<RecordId> batchIds = new LinkedHashSet<>();
+        List<E> batch = decodeBatch(withoutDuplicates(records, batchIds));
 
         if(batch != null){
             try {
@@ -56,39 +136,96 @@ public class BatchProcessor<E> implements IRecordProcessor {
             }
             if(processed){
                 metrics.processSuccess(batch.size());
-                try (AutoCloseable ignore = metrics.checkpointTime()) {
-                    processRecordsInput.getCheckpointer().checkpoint();
-                } catch (ShutdownException e) {
-                    metrics.checkpointFailed();
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Abandoning checkpoint because processor was shutdown");
+                if(duplicates != null){
+                    batchIds.forEach(duplicates::add);
+                }
+                if (!records.isEmpty()) {
+                    pendingCheckpoint = records.get(records.size() - 1);
+                    lastProcessed = pendingCheckpoint;
+                    processedSinceCheckpoint += records.size();
+                }
+                //empty batches, with callIfEmpty, still write a held back checkpoint once the interval is due
+                if (pendingCheckpoint != null) {
+                    long now = System.nanoTime();
+                    if (checkpointPolicy.isDue(processedSinceCheckpoint, now - lastCheckpointNanos)) {
+                        checkpoint(processRecordsInput.getCheckpointer(), now);
+                    } else {
+                        metrics.checkpointSkipped();
                     }
-                } catch (Exception e) {
-                    metrics.checkpointFailed();
-                    LOG.error("Could not checkpoint because of unexpected exception", e);
                 }
             }
         }
 
         if(!processed) {
-            metrics.processFailure(processRecordsInput.getRecords().size());
+            metrics.processFailure(records.size());
         }
+        caughtUp = processed || records.isEmpty();
     }
 
     @Override
     public void shutdown(ShutdownInput shutdownInput) {
+        ShutdownReason reason = shutdownInput == null ? null : shutdownInput.getShutdownReason();
+        if(shardDuplicates != null && reason == ShutdownReason.TERMINATE){
+            shardDuplicates.shardEnded(shardId);
+        }
         metrics.processorShutdown(shardId);
-        try {
-            shutdownInput.getCheckpointer().checkpoint();
-        }catch (Exception e){
-            LOG.error("Error check-pointing for shutdown:", e);
+        awaitAsyncCheckpoint();
+        if(shutdownInput != null){
+            Checkpoints.shutdown(shutdownInput, lastProcessed, caughtUp, shardId, metrics);
+        }
+    }
+
+    private void checkpoint(IRecordProcessorCheckpointer checkpointer, long nowNanos) {
+        if (asyncCheckpointer == null) {
+            Checkpoints.write(checkpointer, null, metrics);
+        } else {
+            //not the last record handed to this processor, by the time it is written that may be a later batch
+            asyncCheckpointer.checkpoint(checkpointer, pendingCheckpoint);
+        }
+        //failed checkpoints are not retried until due again, the next checkpoint covers them
+        pendingCheckpoint = null;
+        processedSinceCheckpoint = 0;
+        lastCheckpointNanos = nowNanos;
+    }
+
+    private void awaitAsyncCheckpoint() {
+        if (asyncCheckpointer != null) {
+            try {
+                asyncCheckpointer.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn("Interrupted waiting for checkpoint in progress before shutdown");
+            }
         }
     }
 
+    /*
+     * @returns records not consumed before, adding the ids of stamped ones to batchIds
+     */
+    private List<Record> withoutDuplicates(List<Record> records, Set<RecordId> batchIds) {
+        List<Record> fresh = records;
+        if (duplicates != null) {
+            fresh = new ArrayList<>(records.size());
+            for (Record record : records) {
+                RecordId id = RecordId.read(record.getData());
+                if (id != null && (duplicates.contains(id) || !batchIds.add(id))) {
+                    metrics.duplicate();
+                } else {
+                    fresh.add(record);
+                }
+            }
+        }
+        return fresh;
+    }
+
     /*
      * @returns batch if there were no decoding errors, null otherwise.
      */
     private List<E> decodeBatch(List<Record> records) {
+        return parallelDecoder == null ? decodeRecords(records) : parallelDecoder.decode(records, this::decodeRecords);
+    }
+
+    private List<E> decodeRecords(List<Record> records) {
         List<E> batch = new ArrayList<>();
         for (Record record : records) {
             try {
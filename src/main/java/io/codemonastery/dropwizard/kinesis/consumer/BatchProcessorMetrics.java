@@ -9,7 +9,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-public class BatchProcessorMetrics implements HasFailureThresholds {
+public class BatchProcessorMetrics implements HasFailureThresholds, CheckpointMetrics {
 
     public static BatchProcessorMetrics noOp() {
         return new BatchProcessorMetrics(null, "");
@@ -27,7 +27,10 @@ public class BatchProcessorMetrics implements HasFailureThresholds {
     private Timer processTimer;
     private Timer checkpointTimer;
     private Meter checkpointFailure;
+    private Meter checkpointWrittenMeter;
+    private Meter checkpointSkippedMeter;
     private Meter unhandledExceptionMeter;
+    private Meter duplicateMeter;
     private final Map<String, LongGauge> millisBehindLatest = new HashMap<>();
 
     public BatchProcessorMetrics(MetricRegistry metrics, String name) {
@@ -44,7 +47,10 @@ public class BatchProcessorMetrics implements HasFailureThresholds {
             processTimer = metrics.timer(name + "-process");
             checkpointTimer = metrics.timer(name + "-checkpoint");
             checkpointFailure = metrics.meter(name + "-checkpoint-failure");
+            checkpointWrittenMeter = metrics.meter(name + "-checkpoint-written");
+            checkpointSkippedMeter = metrics.meter(name + "-checkpoint-skipped");
             unhandledExceptionMeter = metrics.meter(name + "-unhandled-exception");
+            duplicateMeter = metrics.meter(name + "-duplicate");
         }
     }
 
@@ -108,16 +114,43 @@ public class BatchProcessorMetrics implements HasFailureThresholds {
         }
     }
 
+    public void duplicate(){
+        if(duplicateMeter != null){
+            duplicateMeter.mark();
+        }
+    }
+
     public AutoCloseable processTime(){
         return processTimer == null ? NoOpClose.INSTANCE : processTimer.time();
     }
 
+    @Override
     public AutoCloseable checkpointTime(){
         return checkpointTimer == null ? NoOpClose.INSTANCE : checkpointTimer.time();
     }
 
+    @Override
     public void checkpointFailed(){
-        checkpointFailure.mark();
+        if(checkpointFailure != null){
+            checkpointFailure.mark();
+        }
+    }
+
+    @Override
+    public void checkpointWritten(){
+        if(checkpointWrittenMeter != null){
+            checkpointWrittenMeter.mark();
+        }
+    }
+
+    /**
+     * Marks a checkpoint the checkpoint policy held back.
+     */
+    @Override
+    public void checkpointSkipped(){
+        if(checkpointSkippedMeter != null){
+            checkpointSkippedMeter.mark();
+        }
     }
 
     private synchronized LongGauge millisBehindLatest(String shardId) {
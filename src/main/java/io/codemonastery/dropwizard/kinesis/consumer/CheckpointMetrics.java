@@ -0,0 +1,15 @@
+package io.codemonastery.dropwizard.kinesis.consumer;
+
+/**
+ * Metrics of checkpointing, common to record and batch processors.
+ */
+public interface CheckpointMetrics {
+
+    AutoCloseable checkpointTime();
+
+    void checkpointWritten();
+
+    void checkpointFailed();
+
+    void checkpointSkipped();
+}
@@ -0,0 +1,80 @@
+package io.codemonastery.dropwizard.kinesis.consumer;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+
+/**
+ * How often a processor checkpoints. Once records have been processed since the last checkpoint, a processor
+ * checkpoints when at least records were processed or interval went by, whichever comes first. With neither set,
+ * the default, a processor checkpoints after every batch of records it gets.
+ * <p>
+ * Processors only check the policy when they are handed a batch. KCL does not hand processors empty batches
+ * unless callIfEmpty is set, so without it a checkpoint held back on a shard which goes idle waits for the shard's
+ * next records, or shutdown.
+ * <p>
+ * Shutdown always checkpoints, so checkpoints held back are only lost with the lease. Then up to records or
+ * interval worth of records are processed again by the next owner of the shard, more than without a policy.
+ * Dedup does not help here, a worker only remembers the records it processed itself.
+ */
+public class CheckpointPolicy {
+
+    @Min(0)
+    private int records = 0;
+
+    @Valid
+    private Duration interval;
+
+    @JsonProperty
+    public int getRecords() {
+        return records;
+    }
+
+    /**
+     * @param records checkpoint once this many records were processed, zero to not count records
+     */
+    @JsonProperty
+    public void setRecords(int records) {
+        this.records = records;
+    }
+
+    @JsonIgnore
+    public CheckpointPolicy records(int records) {
+        this.setRecords(records);
+        return this;
+    }
+
+    @JsonProperty
+    public Duration getInterval() {
+        return interval;
+    }
+
+    /**
+     * @param interval checkpoint once this long went by since the last checkpoint, null to not wait on time
+     */
+    @JsonProperty
+    public void setInterval(Duration interval) {
+        this.interval = interval;
+    }
+
+    @JsonIgnore
+    public CheckpointPolicy interval(Duration interval) {
+        this.setInterval(interval);
+        return this;
+    }
+
+    /**
+     * @param processed records processed since the last checkpoint
+     * @param elapsedNanos time since the last checkpoint
+     * @return true if a processor should checkpoint now
+     */
+    public boolean isDue(long processed, long elapsedNanos) {
+        long intervalNanos = interval == null ? 0 : interval.toNanoseconds();
+        return (records <= 0 && intervalNanos <= 0)
+                || (records > 0 && processed >= records)
+                || (intervalNanos > 0 && elapsedNanos >= intervalNanos);
+    }
+}
@@ -0,0 +1,69 @@
+package io.codemonastery.dropwizard.kinesis.consumer;
+
+import com.amazonaws.services.kinesis.clientlibrary.exceptions.ShutdownException;
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
+import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownReason;
+import com.amazonaws.services.kinesis.model.Record;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+final class Checkpoints {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Checkpoints.class);
+
+    /**
+     * Checkpoints at record, or at the last record handed to the processor if record is null.
+     * Failures are logged and metered, never thrown.
+     */
+    static void write(IRecordProcessorCheckpointer checkpointer, Record record, CheckpointMetrics metrics) {
+        try (AutoCloseable ignore = metrics.checkpointTime()) {
+            if (record == null) {
+                checkpointer.checkpoint();
+            } else {
+                checkpointer.checkpoint(record);
+            }
+            metrics.checkpointWritten();
+        } catch (ShutdownException e) {
+            metrics.checkpointFailed();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Abandoning checkpoint because processor was shutdown");
+            }
+        } catch (Exception e) {
+            metrics.checkpointFailed();
+            LOG.error("Could not checkpoint because of unexpected exception", e);
+        }
+    }
+
+    /**
+     * Checkpoints a processor being shut down. Only once its shard ended and every record handed to the processor
+     * was processed is the end of the shard checkpointed, which lets processing move on to child shards. Otherwise
+     * the checkpoint is at lastProcessed, so records after it, failed or never processed, are handed out again.
+     * Nothing is checkpointed once the lease was lost, another worker owns the shard.
+     * @param lastProcessed last record processed, null if none
+     * @param caughtUp true if no record handed to the processor is left unprocessed
+     */
+    static void shutdown(ShutdownInput shutdownInput,
+                         Record lastProcessed,
+                         boolean caughtUp,
+                         String shardId,
+                         CheckpointMetrics metrics) {
+        ShutdownReason reason = shutdownInput.getShutdownReason();
+        if (reason == ShutdownReason.ZOMBIE) {
+            return;
+        }
+        if (reason == ShutdownReason.TERMINATE && caughtUp) {
+            write(shutdownInput.getCheckpointer(), null, metrics);
+            return;
+        }
+        if (reason == ShutdownReason.TERMINATE) {
+            LOG.warn(String.format("Shard %s ended with records not processed, not checkpointing its end so they are retried", shardId));
+        }
+        if (lastProcessed != null) {
+            write(shutdownInput.getCheckpointer(), lastProcessed, metrics);
+        }
+    }
+
+    private Checkpoints() {
+    }
+}
@@ -0,0 +1,47 @@
+package io.codemonastery.dropwizard.kinesis.consumer;
+
+import com.google.common.base.Preconditions;
+import io.codemonastery.dropwizard.kinesis.RecordId;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Remembers the ids of the last records of a shard, forgetting the oldest once full, so repeats put by a
+ * retrying producer, or delivered again to this worker, can be dropped, see {@link DuplicateFilters}.
+ * Thread safe so that processing lanes, and a shard's old and new processor, can share it.
+ */
+public final class DuplicateFilter {
+
+    private final RecordId[] ring;
+    private final Set<RecordId> ids;
+    private int next = 0;
+
+    /**
+     * @param size how many ids are remembered
+     */
+    public DuplicateFilter(int size) {
+        Preconditions.checkArgument(size > 0, "size must be positive");
+        this.ring = new RecordId[size];
+        this.ids = new HashSet<>(size * 2);
+    }
+
+    public synchronized boolean contains(RecordId id) {
+        return ids.contains(id);
+    }
+
+    public synchronized void add(RecordId id) {
+        if (ids.add(id)) {
+            RecordId oldest = ring[next];
+            if (oldest != null) {
+                ids.remove(oldest);
+            }
+            ring[next] = id;
+            next = (next + 1) % ring.length;
+        }
+    }
+
+    public synchronized int size() {
+        return ids.size();
+    }
+}
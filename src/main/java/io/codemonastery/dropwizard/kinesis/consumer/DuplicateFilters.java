@@ -0,0 +1,49 @@
+package io.codemonastery.dropwizard.kinesis.consumer;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@link DuplicateFilter} of each shard a worker processes, kept across the shard's processors, so the next
+ * processor of a shard on this worker, after its lease was lost and taken back or its processor restarted, drops
+ * records the one before it already processed. Records processed by another worker which owned the shard before
+ * cannot be dropped, their ids were only ever in that worker's memory.
+ */
+public final class DuplicateFilters {
+
+    private final int size;
+    private final ConcurrentMap<String, DuplicateFilter> filters = new ConcurrentHashMap<>();
+
+    /**
+     * @param size how many ids are remembered for each shard
+     */
+    public DuplicateFilters(int size) {
+        Preconditions.checkArgument(size > 0, "size must be positive");
+        this.size = size;
+    }
+
+    /**
+     * @param shardId shard a processor was initialized with, if null the filter is not kept for a later processor
+     */
+    public DuplicateFilter forShard(@Nullable String shardId) {
+        return shardId == null
+                ? new DuplicateFilter(size)
+                : filters.computeIfAbsent(shardId, id -> new DuplicateFilter(size));
+    }
+
+    /**
+     * Forgets the filter of a shard which ended, its records are never delivered again.
+     */
+    public void shardEnded(@Nullable String shardId) {
+        if (shardId != null) {
+            filters.remove(shardId);
+        }
+    }
+
+    public int shardCount() {
+        return filters.size();
+    }
+}
@@ -0,0 +1,62 @@
+package io.codemonastery.dropwizard.kinesis.consumer;
+
+import com.amazonaws.services.kinesis.model.Record;
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Decodes batches in chunks on an executor shared by all shards, see {@link TaskGroup} for how the processing
+ * thread helps. Decoded chunks keep the order of the records.
+ */
+public final class ParallelDecoder {
+
+    private final Executor executor;
+    private final int chunkSize;
+
+    /**
+     * @param executor executor chunks are decoded on, bounding decode threads of all shards
+     * @param chunkSize most records decoded by one task, smaller batches are decoded on the processing thread
+     */
+    public ParallelDecoder(Executor executor, int chunkSize) {
+        Preconditions.checkNotNull(executor, "executor cannot be null");
+        Preconditions.checkArgument(chunkSize > 0, "chunkSize must be positive");
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param records records to decode, in order
+     * @param decodeChunk decodes some of the records, returning null if they could not be decoded, called from
+     *                    several threads at once
+     * @return the decoded chunks in order, or null if any could not be decoded
+     */
+    public <E> List<E> decode(List<Record> records, Function<List<Record>, List<E>> decodeChunk) {
+        if (records.size() <= chunkSize) {
+            return decodeChunk.apply(records);
+        }
+
+        int chunkCount = (records.size() + chunkSize - 1) / chunkSize;
+        List<List<E>> decoded = new ArrayList<>(chunkCount);
+        List<Runnable> chunks = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            int chunk = i;
+            List<Record> chunkRecords = records.subList(i * chunkSize, Math.min(records.size(), (i + 1) * chunkSize));
+            decoded.add(null);
+            chunks.add(() -> decoded.set(chunk, decodeChunk.apply(chunkRecords)));
+        }
+        TaskGroup.run(executor, chunks);
+
+        List<E> batch = new ArrayList<>(records.size());
+        for (List<E> chunk : decoded) {
+            if (chunk == null) {
+                return null;
+            }
+            batch.addAll(chunk);
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,74 @@
+package io.codemonastery.dropwizard.kinesis.consumer;
+
+import com.amazonaws.services.kinesis.model.Record;
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
+
+/**
+ * Processes a shard's records in lanes by partition key hash, so records of one key are processed in order while
+ * records of different keys may be processed at once. Lanes run on an executor shared by all shards, see
+ * {@link TaskGroup} for how the processing thread helps.
+ */
+public final class ProcessingLanes {
+
+    private final Executor executor;
+    private final int lanes;
+
+    /**
+     * @param executor executor lanes run on
+     * @param lanes most lanes the records of a batch are spread over
+     */
+    public ProcessingLanes(Executor executor, int lanes) {
+        Preconditions.checkNotNull(executor, "executor cannot be null");
+        Preconditions.checkArgument(lanes > 0, "lanes must be positive");
+        this.executor = executor;
+        this.lanes = lanes;
+    }
+
+    /**
+     * @param records records of a batch, in shard order
+     * @param process processes one record, returning false to stop its lane for the rest of the batch, called from
+     *                several threads at once
+     * @return how many records, from the first, were all processed, so the last of them can be checkpointed
+     */
+    public int process(List<Record> records, Predicate<Record> process) {
+        List<List<Integer>> laneRecords = new ArrayList<>(lanes);
+        for (int i = 0; i < lanes; i++) {
+            laneRecords.add(new ArrayList<>());
+        }
+        for (int i = 0; i < records.size(); i++) {
+            laneRecords.get(lane(records.get(i))).add(i);
+        }
+
+        boolean[] processed = new boolean[records.size()];
+        List<Runnable> tasks = new ArrayList<>(lanes);
+        for (List<Integer> lane : laneRecords) {
+            if (!lane.isEmpty()) {
+                tasks.add(() -> {
+                    for (int i : lane) {
+                        if (!process.test(records.get(i))) {
+                            break;
+                        }
+                        processed[i] = true;
+                    }
+                });
+            }
+        }
+        TaskGroup.run(executor, tasks);
+
+        int count = 0;
+        while (count < processed.length && processed[count]) {
+            count++;
+        }
+        return count;
+    }
+
+    private int lane(Record record) {
+        String partitionKey = record.getPartitionKey();
+        return partitionKey == null ? 0 : Math.floorMod(partitionKey.hashCode(), lanes);
+    }
+}
@@ -1,16 +1,21 @@
 package io.codemonastery.dropwizard.kinesis.consumer;
 
-import com.amazonaws.services.kinesis.clientlibrary.exceptions.ShutdownException;
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
 import com.amazonaws.services.kinesis.clientlibrary.interfaces.v2.IRecordProcessor;
 import com.amazonaws.services.kinesis.clientlibrary.types.InitializationInput;
 import com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput;
 import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownReason;
 import com.amazonaws.services.kinesis.model.Record;
 import com.google.common.base.Preconditions;
 import io.codemonastery.dropwizard.kinesis.EventDecoder;
+import io.codemonastery.dropwizard.kinesis.RecordId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
 public final class RecordProcessor<E> implements IRecordProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(RecordProcessor.class);
@@ -18,18 +23,88 @@ public final class RecordProcessor<E> implements IRecordProcessor {
     private final EventDecoder<E> decoder;
     private final EventConsumer<E> processor;
     private final RecordProcessorMetrics metrics;
+    private final DuplicateFilters shardDuplicates;
+    private final CheckpointPolicy checkpointPolicy;
+    private final AsyncCheckpointer asyncCheckpointer;
+    private final ProcessingLanes lanes;
 
     private String shardId = null;
+    //filter of this processor's shard, set once initialized
+    private DuplicateFilter duplicates = null;
+    //last record processed but not yet checkpointed, held back by the checkpoint policy
+    private Record pendingCheckpoint = null;
+    //last record processed, checkpointed on shutdown unless the shard ended with every record processed
+    private Record lastProcessed = null;
+    //false while records handed to this processor are left unprocessed, failed or held by a lane
+    private boolean caughtUp = true;
+    private long processedSinceCheckpoint = 0;
+    private long lastCheckpointNanos = System.nanoTime();
 
     public RecordProcessor(EventDecoder<E> decoder,
                            EventConsumer<E> eventConsumer,
                            RecordProcessorMetrics metrics) {
+        this(decoder, eventConsumer, metrics, null);
+    }
+
+    /**
+     * @param duplicates if not null, records stamped with a {@link RecordId} which this processor, or an earlier
+     *                   one of its shard, already processed are dropped before decoding. The decoder must remove
+     *                   stamps, see {@link io.codemonastery.dropwizard.kinesis.UnstampingEventDecoder}.
+     */
+    public RecordProcessor(EventDecoder<E> decoder,
+                           EventConsumer<E> eventConsumer,
+                           RecordProcessorMetrics metrics,
+                           DuplicateFilters duplicates) {
+        this(decoder, eventConsumer, metrics, duplicates, new CheckpointPolicy());
+    }
+
+    /**
+     * @param checkpointPolicy when to checkpoint records processed, see {@link CheckpointPolicy}
+     */
+    public RecordProcessor(EventDecoder<E> decoder,
+                           EventConsumer<E> eventConsumer,
+                           RecordProcessorMetrics metrics,
+                           DuplicateFilters duplicates,
+                           CheckpointPolicy checkpointPolicy) {
+        this(decoder, eventConsumer, metrics, duplicates, checkpointPolicy, null);
+    }
+
+    /**
+     * @param asyncCheckpointer if not null, checkpoints are written by it rather than on the processing thread,
+     *                          shutdown still checkpoints synchronously once it wrote any checkpoint in progress
+     */
+    public RecordProcessor(EventDecoder<E> decoder,
+                           EventConsumer<E> eventConsumer,
+                           RecordProcessorMetrics metrics,
+                           DuplicateFilters duplicates,
+                           CheckpointPolicy checkpointPolicy,
+                           AsyncCheckpointer asyncCheckpointer) {
+        this(decoder, eventConsumer, metrics, duplicates, checkpointPolicy, asyncCheckpointer, null);
+    }
+
+    /**
+     * @param lanes if not null, records are processed in lanes by partition key, see {@link ProcessingLanes},
+     *              eventConsumer must then be thread safe, and checkpoints only advance past records every lane
+     *              processed
+     */
+    public RecordProcessor(EventDecoder<E> decoder,
+                           EventConsumer<E> eventConsumer,
+                           RecordProcessorMetrics metrics,
+                           DuplicateFilters duplicates,
+                           CheckpointPolicy checkpointPolicy,
+                           AsyncCheckpointer asyncCheckpointer,
+                           ProcessingLanes lanes) {
         Preconditions.checkNotNull(decoder, "decoder cannot be null");
         Preconditions.checkNotNull(eventConsumer, "eventConsumer cannot be null");
         Preconditions.checkNotNull(metrics, "metrics cannot be null");
+        Preconditions.checkNotNull(checkpointPolicy, "checkpointPolicy cannot be null");
         this.decoder = decoder;
         this.processor = eventConsumer;
         this.metrics = metrics;
+        this.shardDuplicates = duplicates;
+        this.checkpointPolicy = checkpointPolicy;
+        this.asyncCheckpointer = asyncCheckpointer;
+        this.lanes = lanes;
     }
 
     @Override
@@ -37,6 +112,9 @@ public final class RecordProcessor<E> implements IRecordProcessor {
         if(initializationInput != null){
             shardId = initializationInput.getShardId();
         }
+        if(shardDuplicates != null){
+            duplicates = shardDuplicates.forShard(shardId);
+        }
         metrics.processorStarted();
     }
 
@@ -45,65 +123,120 @@ public final class RecordProcessor<E> implements IRecordProcessor {
         if(processRecordsInput.getMillisBehindLatest() != null){
             metrics.millisBehindLatest(shardId, processRecordsInput.getMillisBehindLatest());
         }
-        Record lastRecordProcessed = null;
-        for (Record record : processRecordsInput.getRecords()) {
-            E event;
-
-            try{
-                event = decoder.decode(record.getData());
-                metrics.decoded();
-            }catch (Exception e){
-                //unhandled exception, this record does not count as processed
-                metrics.decodeFailure();
-                LOG.error("Unexpected exception decoding event", e);
-                break;
-            }
-
-            if(event == null){
-                //since decoder returned null without exception we should treat this record as processed
-                lastRecordProcessed = record;
-            }else {
-                boolean processed = false;
-                try(AutoCloseable ignored = metrics.processTime()) {
-                    processed = processor.consume(event);
-                } catch (Exception e) {
-                    metrics.unhandledException();
-                    //processor did not catch exception, we have to stop here
-                    LOG.error("Unhandled exception processing event" + event, e);
-                }
-                if(processed){
-                    metrics.processSuccess();
-                    lastRecordProcessed = record;
-                }else{
-                    metrics.processFailure();
-                    break;
-                }
+        List<Record> records = UserRecords.deaggregate(processRecordsInput.getRecords());
+        //records processed from the first, a failed record stops processing, or its lane, for the rest of the batch
+        int processed = 0;
+        if(lanes == null){
+            while(processed < records.size() && process(records.get(processed))){
+                processed++;
             }
+        }else{
+            processed = lanes.process(records, this::process);
         }
 
-        if(lastRecordProcessed != null){
-            try(AutoCloseable ignore = metrics.checkpointTime()) {
-                processRecordsInput.getCheckpointer().checkpoint(lastRecordProcessed);
-            } catch (ShutdownException e) {
-                metrics.checkpointFailed();
-                if(LOG.isDebugEnabled()){
-                    LOG.debug("Abandoning checkpoint because processor was shutdown");
-                }
-            } catch (Exception e){
-                metrics.checkpointFailed();
-                LOG.error("Could not checkpoint because of unexpected exception", e);
+        if(processed > 0){
+            pendingCheckpoint = records.get(processed - 1);
+            lastProcessed = pendingCheckpoint;
+            processedSinceCheckpoint += processed;
+        }
+        caughtUp = processed == records.size();
+        //empty batches, with callIfEmpty, still write a held back checkpoint once the interval is due
+        if(pendingCheckpoint != null){
+            long now = System.nanoTime();
+            if(checkpointPolicy.isDue(processedSinceCheckpoint, now - lastCheckpointNanos)){
+                checkpoint(processRecordsInput.getCheckpointer(), pendingCheckpoint, now);
+            }else{
+                metrics.checkpointSkipped();
             }
         }
     }
 
     @Override
     public void shutdown(ShutdownInput shutdownInput) {
+        ShutdownReason reason = shutdownInput == null ? null : shutdownInput.getShutdownReason();
+        if(shardDuplicates != null && reason == ShutdownReason.TERMINATE){
+            shardDuplicates.shardEnded(shardId);
+        }
+        String endedShardId = shardId;
         shardId = "UNKNOWN";
         metrics.processorShutdown(shardId);
-        try {
-            shutdownInput.getCheckpointer().checkpoint();
+        awaitAsyncCheckpoint();
+        if(shutdownInput != null){
+            Checkpoints.shutdown(shutdownInput, lastProcessed, caughtUp, endedShardId, metrics);
+        }
+    }
+
+    /*
+     * @returns true if record counts as processed
+     */
+    private boolean process(Record record) {
+        ByteBuffer data = record.getData();
+        RecordId id = duplicates == null ? null : RecordId.read(data);
+        if(id != null && duplicates.contains(id)){
+            //already processed, so counts as processed again
+            metrics.duplicate();
+            return true;
+        }
+        E event;
+        try{
+            event = decoder.decode(data);
+            metrics.decoded();
+        }catch (Exception e){
+            //unhandled exception, this record does not count as processed
+            metrics.decodeFailure();
+            LOG.error("Unexpected exception decoding event", e);
+            return false;
+        }
+
+        if(event == null){
+            //since decoder returned null without exception we should treat this record as processed
+            remember(id);
+            return true;
+        }
+
+        boolean processed = false;
+        try(AutoCloseable ignored = metrics.processTime()) {
+            processed = processor.consume(event);
         } catch (Exception e) {
-            LOG.error("Error check-pointing for shutdown:", e);
+            metrics.unhandledException();
+            //processor did not catch exception, we have to stop here
+            LOG.error("Unhandled exception processing event" + event, e);
+        }
+        if(processed){
+            metrics.processSuccess();
+            remember(id);
+        }else{
+            metrics.processFailure();
+        }
+        return processed;
+    }
+
+    private void checkpoint(IRecordProcessorCheckpointer checkpointer, Record record, long nowNanos) {
+        if(asyncCheckpointer == null){
+            Checkpoints.write(checkpointer, record, metrics);
+        }else{
+            asyncCheckpointer.checkpoint(checkpointer, record);
+        }
+        //failed checkpoints are not retried until due again, the next checkpoint covers them
+        pendingCheckpoint = null;
+        processedSinceCheckpoint = 0;
+        lastCheckpointNanos = nowNanos;
+    }
+
+    private void awaitAsyncCheckpoint() {
+        if(asyncCheckpointer != null){
+            try {
+                asyncCheckpointer.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn("Interrupted waiting for checkpoint in progress before shutdown");
+            }
+        }
+    }
+
+    private void remember(RecordId id) {
+        if(id != null){
+            duplicates.add(id);
         }
     }
 }
@@ -5,6 +5,7 @@ import com.amazonaws.services.kinesis.clientlibrary.interfaces.v2.IRecordProcess
 import com.google.common.base.Preconditions;
 import io.codemonastery.dropwizard.kinesis.EventDecoder;
 
+import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 
 public class RecordProcessorFactory<E> implements IRecordProcessorFactory {
@@ -12,20 +13,80 @@ public class RecordProcessorFactory<E> implements IRecordProcessorFactory {
     private final EventDecoder<E> decoder;
     private final Supplier<EventConsumer<E>> eventConsumerFactory;
     private final RecordProcessorMetrics metrics;
+    private final DuplicateFilters duplicates;
+    private final CheckpointPolicy checkpointPolicy;
+    private final Executor checkpointExecutor;
+    private final ProcessingLanes lanes;
 
     public RecordProcessorFactory(EventDecoder<E> decoder,
                                   Supplier<EventConsumer<E>> eventConsumerFactory,
                                   RecordProcessorMetrics metrics) {
+        this(decoder, eventConsumerFactory, metrics, 0);
+    }
+
+    /**
+     * @param dedupWindow if positive, processors drop records stamped with the id of one of the last dedupWindow
+     *                    records of their shard processed on this worker, see {@link DuplicateFilters}
+     */
+    public RecordProcessorFactory(EventDecoder<E> decoder,
+                                  Supplier<EventConsumer<E>> eventConsumerFactory,
+                                  RecordProcessorMetrics metrics,
+                                  int dedupWindow) {
+        this(decoder, eventConsumerFactory, metrics, dedupWindow, new CheckpointPolicy());
+    }
+
+    /**
+     * @param checkpointPolicy when processors checkpoint, see {@link CheckpointPolicy}
+     */
+    public RecordProcessorFactory(EventDecoder<E> decoder,
+                                  Supplier<EventConsumer<E>> eventConsumerFactory,
+                                  RecordProcessorMetrics metrics,
+                                  int dedupWindow,
+                                  CheckpointPolicy checkpointPolicy) {
+        this(decoder, eventConsumerFactory, metrics, dedupWindow, checkpointPolicy, null);
+    }
+
+    /**
+     * @param checkpointExecutor if not null, processors write checkpoints on it, see {@link AsyncCheckpointer}
+     */
+    public RecordProcessorFactory(EventDecoder<E> decoder,
+                                  Supplier<EventConsumer<E>> eventConsumerFactory,
+                                  RecordProcessorMetrics metrics,
+                                  int dedupWindow,
+                                  CheckpointPolicy checkpointPolicy,
+                                  Executor checkpointExecutor) {
+        this(decoder, eventConsumerFactory, metrics, dedupWindow, checkpointPolicy, checkpointExecutor, null);
+    }
+
+    /**
+     * @param lanes if not null, shared by processors to process records in lanes by partition key
+     */
+    public RecordProcessorFactory(EventDecoder<E> decoder,
+                                  Supplier<EventConsumer<E>> eventConsumerFactory,
+                                  RecordProcessorMetrics metrics,
+                                  int dedupWindow,
+                                  CheckpointPolicy checkpointPolicy,
+                                  Executor checkpointExecutor,
+                                  ProcessingLanes lanes) {
         Preconditions.checkNotNull(decoder, "decoder cannot be null");
         Preconditions.checkNotNull(eventConsumerFactory, "eventConsumerFactory cannot be null");
         Preconditions.checkNotNull(metrics, "metrics cannot be null");
+        Preconditions.checkNotNull(checkpointPolicy, "checkpointPolicy cannot be null");
         this.decoder = decoder;
         this.eventConsumerFactory = eventConsumerFactory;
         this.metrics = metrics;
+        this.duplicates = dedupWindow > 0 ? new DuplicateFilters(dedupWindow) : null;
+        this.checkpointPolicy = checkpointPolicy;
+        this.checkpointExecutor = checkpointExecutor;
+        this.lanes = lanes;
     }
 
     @Override
     public IRecordProcessor createProcessor() {
-        return new RecordProcessor<>(decoder, eventConsumerFactory.get(), metrics);
+        return new RecordProcessor<>(decoder, eventConsumerFactory.get(), metrics,
+                duplicates,
+                checkpointPolicy,
+                checkpointExecutor == null ? null : new AsyncCheckpointer(checkpointExecutor, metrics),
+                lanes);
     }
 }
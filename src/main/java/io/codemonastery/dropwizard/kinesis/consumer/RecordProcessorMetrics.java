@@ -9,7 +9,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-public class RecordProcessorMetrics implements HasFailureThresholds {
+public class RecordProcessorMetrics implements HasFailureThresholds, CheckpointMetrics {
 
     public static RecordProcessorMetrics noOp() {
         return new RecordProcessorMetrics(null, "");
@@ -25,7 +25,10 @@ public class RecordProcessorMetrics implements HasFailureThresholds {
     private Timer processTimer;
     private Timer checkpointTimer;
     private Meter checkpointFailure;
+    private Meter checkpointWrittenMeter;
+    private Meter checkpointSkippedMeter;
     private Meter unhandledExceptionMeter;
+    private Meter duplicateMeter;
     private final Map<String, LongGauge> millisBehindLatest = new HashMap<>();
 
     public RecordProcessorMetrics(MetricRegistry metrics, String name) {
@@ -40,7 +43,10 @@ public class RecordProcessorMetrics implements HasFailureThresholds {
             processTimer = metrics.timer(name + "-process");
             checkpointTimer = metrics.timer(name + "-checkpoint");
             checkpointFailure = metrics.meter(name + "-checkpoint-failure");
+            checkpointWrittenMeter = metrics.meter(name + "-checkpoint-written");
+            checkpointSkippedMeter = metrics.meter(name + "-checkpoint-skipped");
             unhandledExceptionMeter = metrics.meter(name + "-unhandled-exception");
+            duplicateMeter = metrics.meter(name + "-duplicate");
         }
     }
 
@@ -92,6 +98,12 @@ public class RecordProcessorMetrics implements HasFailureThresholds {
         }
     }
 
+    public void duplicate(){
+        if(duplicateMeter != null){
+            duplicateMeter.mark();
+        }
+    }
+
     public void millisBehindLatest(String shardId, long millis) {
         if(metrics != null  && shardId != null){
             millisBehindLatest(shardId).setValue(millis);
@@ -102,13 +114,34 @@ public class RecordProcessorMetrics implements HasFailureThresholds {
         return processTimer == null ? NoOpClose.INSTANCE : processTimer.time();
     }
 
+    @Override
     public AutoCloseable checkpointTime(){
         return checkpointTimer == null ? NoOpClose.INSTANCE : checkpointTimer.time();
     }
 
 
+    @Override
     public void checkpointFailed(){
-        checkpointFailure.mark();
+        if(checkpointFailure != null){
+            checkpointFailure.mark();
+        }
+    }
+
+    @Override
+    public void checkpointWritten(){
+        if(checkpointWrittenMeter != null){
+            checkpointWrittenMeter.mark();
+        }
+    }
+
+    /**
+     * Marks a checkpoint the checkpoint policy held back.
+     */
+    @Override
+    public void checkpointSkipped(){
+        if(checkpointSkippedMeter != null){
+            checkpointSkippedMeter.mark();
+        }
     }
 
     private synchronized LongGauge millisBehindLatest(String shardId) {
@@ -0,0 +1,71 @@
+package io.codemonastery.dropwizard.kinesis.consumer;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Runs tasks of a processing thread on an executor shared by all shards. The processing thread runs whichever
+ * tasks the executor has not started, so tasks run in parallel when the executor has threads to spare and at
+ * worst on the processing thread alone when other shards keep them busy, no shard waits on another's tasks.
+ */
+final class TaskGroup {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TaskGroup.class);
+
+    /**
+     * Returns once every task ran, tasks should not throw.
+     */
+    static void run(Executor executor, List<? extends Runnable> tasks) {
+        CountDownLatch done = new CountDownLatch(tasks.size());
+        List<Claimable> claimables = tasks.stream()
+                .map(task -> new Claimable(task, done))
+                .collect(Collectors.toList());
+        //first task is left to the processing thread
+        for (int i = 1; i < claimables.size(); i++) {
+            try {
+                executor.execute(claimables.get(i));
+            } catch (RejectedExecutionException e) {
+                //processing thread runs it below
+                break;
+            }
+        }
+        claimables.forEach(Claimable::run);
+        Uninterruptibles.awaitUninterruptibly(done);
+    }
+
+    private static final class Claimable implements Runnable {
+
+        private final Runnable task;
+        private final CountDownLatch done;
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+        private Claimable(Runnable task, CountDownLatch done) {
+            this.task = task;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            if (claimed.compareAndSet(false, true)) {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    LOG.error("Unexpected exception running task", e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        }
+    }
+
+    private TaskGroup() {
+    }
+}
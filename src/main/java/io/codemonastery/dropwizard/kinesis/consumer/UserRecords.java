@@ -0,0 +1,49 @@
+package io.codemonastery.dropwizard.kinesis.consumer;
+
+import com.amazonaws.services.kinesis.clientlibrary.types.UserRecord;
+import com.amazonaws.services.kinesis.model.Record;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * KCL already deaggregates records before handing them to a processor, this only deaggregates records which
+ * did not come through KCL, so user records keep their sub sequence numbers for checkpointing.
+ */
+final class UserRecords {
+
+    private static final byte[] AGGREGATED_RECORD_MAGIC = new byte[]{(byte) 0xF3, (byte) 0x89, (byte) 0x9A, (byte) 0xC2};
+
+    static List<Record> deaggregate(List<Record> records) {
+        List<Record> deaggregated = records;
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+            if (isAggregated(record)) {
+                if (deaggregated == records) {
+                    deaggregated = new ArrayList<>(records.subList(0, i));
+                }
+                deaggregated.addAll(UserRecord.deaggregate(Collections.singletonList(record)));
+            } else if (deaggregated != records) {
+                deaggregated.add(record);
+            }
+        }
+        return deaggregated;
+    }
+
+    private static boolean isAggregated(Record record) {
+        boolean aggregated = false;
+        ByteBuffer data = record.getData();
+        if (!(record instanceof UserRecord) && data != null && data.remaining() > AGGREGATED_RECORD_MAGIC.length) {
+            aggregated = true;
+            for (int i = 0; i < AGGREGATED_RECORD_MAGIC.length && aggregated; i++) {
+                aggregated = data.get(data.position() + i) == AGGREGATED_RECORD_MAGIC[i];
+            }
+        }
+        return aggregated;
+    }
+
+    private UserRecords() {
+    }
+}
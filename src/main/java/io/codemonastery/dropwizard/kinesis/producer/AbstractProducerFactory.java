@@ -1,17 +1,27 @@
 package io.codemonastery.dropwizard.kinesis.producer;
 
 import com.amazonaws.services.kinesis.AmazonKinesis;
+import com.amazonaws.services.kinesis.clientlibrary.lib.worker.SimpleKinesisProxy;
+import com.amazonaws.services.kinesis.model.Shard;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.codemonastery.dropwizard.kinesis.CompressingEventEncoder;
+import io.codemonastery.dropwizard.kinesis.Compression;
 import io.codemonastery.dropwizard.kinesis.EventEncoder;
 import io.codemonastery.dropwizard.kinesis.EventObjectMapper;
+import io.codemonastery.dropwizard.kinesis.IdempotentEventEncoder;
 import io.codemonastery.dropwizard.kinesis.StreamConfiguration;
 import io.codemonastery.dropwizard.kinesis.producer.ratelimit.AcquireLimiterFactory;
 import io.codemonastery.dropwizard.kinesis.producer.ratelimit.DynamicAcquireLimiterFactory;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
 import io.dropwizard.setup.Environment;
 
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import java.util.List;
 import java.util.Objects;
 import java.util.function.Function;
+import java.util.function.IntSupplier;
 
 public abstract class AbstractProducerFactory<E> extends StreamConfiguration implements ProducerFactory<E> {
 
@@ -21,6 +31,26 @@ public abstract class AbstractProducerFactory<E> extends StreamConfiguration imp
 
     protected AcquireLimiterFactory rateLimit = new DynamicAcquireLimiterFactory();
 
+    @NotNull
+    protected Compression compression = Compression.NONE;
+
+    @Valid
+    @NotNull
+    protected RetryPolicy retry = new RetryPolicy();
+
+    protected RecordFailureHandler failureHandler;
+
+    @Valid
+    protected ByteBufferPoolFactory bufferPool;
+
+    @Valid
+    protected EncodeStageFactory encodeStage;
+
+    @Valid
+    protected KeyBalancerFactory keyBalancing;
+
+    protected boolean idempotent = false;
+
     @JsonIgnore
     @Override
     public ProducerFactory<E> streamName(String streamName) {
@@ -83,6 +113,153 @@ public abstract class AbstractProducerFactory<E> extends StreamConfiguration imp
         return this;
     }
 
+    @JsonProperty
+    @Override
+    public Compression getCompression() {
+        return compression;
+    }
+
+    @JsonProperty
+    @Override
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    @JsonIgnore
+    @Override
+    public ProducerFactory<E> compression(Compression compression) {
+        this.setCompression(compression);
+        return this;
+    }
+
+    @JsonProperty
+    @Override
+    public RetryPolicy getRetry() {
+        return retry;
+    }
+
+    @JsonProperty
+    @Override
+    public void setRetry(RetryPolicy retry) {
+        this.retry = retry;
+    }
+
+    @JsonIgnore
+    @Override
+    public ProducerFactory<E> retry(RetryPolicy retry) {
+        this.setRetry(retry);
+        return this;
+    }
+
+    @JsonIgnore
+    @Override
+    public RecordFailureHandler getFailureHandler() {
+        return failureHandler;
+    }
+
+    @JsonIgnore
+    @Override
+    public void setFailureHandler(RecordFailureHandler failureHandler) {
+        this.failureHandler = failureHandler;
+    }
+
+    @JsonIgnore
+    @Override
+    public ProducerFactory<E> failureHandler(RecordFailureHandler failureHandler) {
+        this.setFailureHandler(failureHandler);
+        return this;
+    }
+
+    @JsonProperty
+    @Override
+    public ByteBufferPoolFactory getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * @param bufferPool if set, and the encoder can encode into a buffer, events are encoded into pooled buffers
+     *                   reused once put, none by default
+     */
+    @JsonProperty
+    @Override
+    public void setBufferPool(ByteBufferPoolFactory bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    @JsonIgnore
+    @Override
+    public ProducerFactory<E> bufferPool(ByteBufferPoolFactory bufferPool) {
+        this.setBufferPool(bufferPool);
+        return this;
+    }
+
+    @JsonProperty
+    @Override
+    public EncodeStageFactory getEncodeStage() {
+        return encodeStage;
+    }
+
+    /**
+     * @param encodeStage if set, events are encoded on threads of their own rather than the sender's, none by default
+     */
+    @JsonProperty
+    @Override
+    public void setEncodeStage(EncodeStageFactory encodeStage) {
+        this.encodeStage = encodeStage;
+    }
+
+    @JsonIgnore
+    @Override
+    public ProducerFactory<E> encodeStage(EncodeStageFactory encodeStage) {
+        this.setEncodeStage(encodeStage);
+        return this;
+    }
+
+    @JsonProperty
+    @Override
+    public KeyBalancerFactory getKeyBalancing() {
+        return keyBalancing;
+    }
+
+    /**
+     * @param keyBalancing if set, hot partition keys are spread over several shards, none by default
+     */
+    @JsonProperty
+    @Override
+    public void setKeyBalancing(KeyBalancerFactory keyBalancing) {
+        this.keyBalancing = keyBalancing;
+    }
+
+    @JsonIgnore
+    @Override
+    public ProducerFactory<E> keyBalancing(KeyBalancerFactory keyBalancing) {
+        this.setKeyBalancing(keyBalancing);
+        return this;
+    }
+
+    @JsonProperty
+    @Override
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+
+    /**
+     * @param idempotent if true, records are stamped with a producer id and sequence, so consumers with
+     *                   deduplication configured drop records put more than once, false by default
+     */
+    @JsonProperty
+    @Override
+    public void setIdempotent(boolean idempotent) {
+        this.idempotent = idempotent;
+    }
+
+    @JsonIgnore
+    @Override
+    public ProducerFactory<E> idempotent(boolean idempotent) {
+        this.setIdempotent(idempotent);
+        return this;
+    }
+
     @JsonIgnore
     @Override
     public Producer<E> build(Environment environment, AmazonKinesis kinesis, String name){
@@ -96,4 +273,77 @@ public abstract class AbstractProducerFactory<E> extends StreamConfiguration imp
                 name);
     }
 
+    /**
+     * @return counts open shards of the stream by listing them, zero if they could not be listed
+     */
+    protected IntSupplier openShardCount(AmazonKinesis kinesis) {
+        return openShardCount(kinesis, getStreamName());
+    }
+
+    /**
+     * @return counts open shards of streamName by listing them, zero if they could not be listed
+     */
+    protected IntSupplier openShardCount(AmazonKinesis kinesis, String streamName) {
+        SimpleKinesisProxy proxy = new SimpleKinesisProxy(kinesis, streamName);
+        return () -> {
+            List<Shard> shards = proxy.getShardList();
+            return shards == null ? 0 : (int) shards.stream()
+                    .filter(shard -> shard.getSequenceNumberRange() == null
+                            || shard.getSequenceNumberRange().getEndingSequenceNumber() == null)
+                    .count();
+        };
+    }
+
+    /**
+     * @return pool to encode events into, null if not configured
+     */
+    protected ByteBufferPool buildBufferPool(ProducerMetrics producerMetrics) {
+        ByteBufferPool pool = null;
+        if (bufferPool != null) {
+            pool = bufferPool.build();
+            producerMetrics.bufferPool(pool);
+        }
+        return pool;
+    }
+
+    /**
+     * @return stage to encode events on, null if not configured
+     */
+    protected EncodeStage buildEncodeStage(LifecycleEnvironment lifecycle, String name, ProducerMetrics producerMetrics) {
+        EncodeStage stage = null;
+        if (encodeStage != null) {
+            stage = encodeStage.build(lifecycle, name);
+            producerMetrics.encodeStage(stage);
+        }
+        return stage;
+    }
+
+    /**
+     * @return balancer of hot partition keys, null if not configured
+     */
+    protected KeyBalancer buildKeyBalancer(ProducerMetrics producerMetrics) {
+        KeyBalancer balancer = null;
+        if (keyBalancing != null) {
+            balancer = keyBalancing.build();
+            producerMetrics.keyBalancer(balancer);
+        }
+        return balancer;
+    }
+
+    /**
+     * @return encoder wrapped to compress records if compression was configured, then stamp them if idempotent
+     */
+    protected EventEncoder<E> recordEncoder() {
+        EventEncoder<E> compressed = compressedEncoder();
+        return idempotent ? new IdempotentEventEncoder<>(compressed) : compressed;
+    }
+
+    /**
+     * @return encoder wrapped to compress records if compression was configured
+     */
+    protected EventEncoder<E> compressedEncoder() {
+        return compression == null || compression == Compression.NONE
+                ? encoder
+                : new CompressingEventEncoder<>(encoder, compression);
+    }
 }
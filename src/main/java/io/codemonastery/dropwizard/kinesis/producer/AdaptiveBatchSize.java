@@ -0,0 +1,80 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Target size of the batches a buffered producer puts, which follows how kinesis copes with them, additive
+ * increase and multiplicative decrease like TCP. A put with more than maxThrottleFraction of its records throttled
+ * halves the target, a put slower than targetLatency shrinks it by a quarter, any other put grows it by increase
+ * records, always between minRecords and maxRecords. The byte target is the same share of a whole request as the
+ * record target is of maxRecords, but never less than a single record may be.
+ */
+public class AdaptiveBatchSize {
+
+    private static final double THROTTLED_DECREASE = 0.5;
+
+    private static final double SLOW_DECREASE = 0.75;
+
+    private final int minRecords;
+    private final int maxRecords;
+    private final int increase;
+    private final long targetLatencyNanos;
+    private final double maxThrottleFraction;
+
+    //written under this, read without
+    private volatile int records;
+
+    /**
+     * @param minRecords smallest target, at least one
+     * @param maxRecords largest target, also the first
+     * @param increase records added to the target after a good put
+     * @param targetLatencyNanos puts slower than this shrink the target, each PutRecords call on its own
+     * @param maxThrottleFraction puts with a larger fraction of their records throttled shrink the target
+     */
+    public AdaptiveBatchSize(int minRecords, int maxRecords, int increase, long targetLatencyNanos, double maxThrottleFraction) {
+        Preconditions.checkArgument(minRecords > 0, "minRecords must be positive");
+        Preconditions.checkArgument(maxRecords >= minRecords, "maxRecords cannot be less than minRecords");
+        Preconditions.checkArgument(increase > 0, "increase must be positive");
+        Preconditions.checkArgument(targetLatencyNanos > 0, "targetLatency must be positive");
+        Preconditions.checkArgument(maxThrottleFraction >= 0 && maxThrottleFraction < 1, "maxThrottleFraction must be at least zero and less than one");
+        this.minRecords = minRecords;
+        this.maxRecords = maxRecords;
+        this.increase = increase;
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.maxThrottleFraction = maxThrottleFraction;
+        this.records = maxRecords;
+    }
+
+    /**
+     * @param attempted records in one PutRecords call
+     * @param throttled of those, records kinesis throttled
+     * @param latencyNanos how long the call took, without limiter waits or retry backoff
+     */
+    public synchronized void update(int attempted, int throttled, long latencyNanos) {
+        if (attempted > 0) {
+            double next;
+            if (throttled > maxThrottleFraction * attempted) {
+                next = records * THROTTLED_DECREASE;
+            } else if (latencyNanos > targetLatencyNanos) {
+                next = records * SLOW_DECREASE;
+            } else {
+                next = records + increase;
+            }
+            records = (int) Math.max(minRecords, Math.min(maxRecords, next));
+        }
+    }
+
+    /**
+     * @return records the next batch should hold at most
+     */
+    public int getRecords() {
+        return records;
+    }
+
+    /**
+     * @return bytes the next batch should hold at most
+     */
+    public int getBytes() {
+        return (int) Math.max(Producer.MAX_RECORD_SIZE, (long) Producer.MAX_REQUEST_SIZE * records / maxRecords);
+    }
+}
@@ -0,0 +1,126 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import io.dropwizard.util.Duration;
+
+import javax.validation.Valid;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Batch size of a buffered producer which adapts to put latency and throttling, see {@link AdaptiveBatchSize}. Each
+ * shard putter, and the stream wide putter, adapts its own batch size, so a throttled shard only shrinks its own.
+ * The producer's maxBufferSize is the largest batch.
+ */
+public class AdaptiveBatchSizeFactory {
+
+    @Min(1)
+    @Max(500)
+    private int minBufferSize = 10;
+
+    @Min(1)
+    @Max(500)
+    private int increase = 10;
+
+    @Valid
+    @NotNull
+    private Duration targetLatency = Duration.milliseconds(500);
+
+    @DecimalMin("0.0")
+    @DecimalMax(value = "1.0", inclusive = false)
+    private double maxThrottleFraction = 0.01;
+
+    @JsonProperty
+    public int getMinBufferSize() {
+        return minBufferSize;
+    }
+
+    /**
+     * @param minBufferSize fewest records a batch is sized for, batches may still be flushed with fewer
+     */
+    @JsonProperty
+    public void setMinBufferSize(int minBufferSize) {
+        this.minBufferSize = minBufferSize;
+    }
+
+    @JsonIgnore
+    public AdaptiveBatchSizeFactory minBufferSize(int minBufferSize) {
+        this.setMinBufferSize(minBufferSize);
+        return this;
+    }
+
+    @JsonProperty
+    public int getIncrease() {
+        return increase;
+    }
+
+    /**
+     * @param increase records the batch size grows by after each put which was fast and not throttled
+     */
+    @JsonProperty
+    public void setIncrease(int increase) {
+        this.increase = increase;
+    }
+
+    @JsonIgnore
+    public AdaptiveBatchSizeFactory increase(int increase) {
+        this.setIncrease(increase);
+        return this;
+    }
+
+    @JsonProperty
+    public Duration getTargetLatency() {
+        return targetLatency;
+    }
+
+    /**
+     * @param targetLatency PutRecords calls which take longer shrink the batch size, retry backoff not included
+     */
+    @JsonProperty
+    public void setTargetLatency(Duration targetLatency) {
+        this.targetLatency = targetLatency;
+    }
+
+    @JsonIgnore
+    public AdaptiveBatchSizeFactory targetLatency(Duration targetLatency) {
+        this.setTargetLatency(targetLatency);
+        return this;
+    }
+
+    @JsonProperty
+    public double getMaxThrottleFraction() {
+        return maxThrottleFraction;
+    }
+
+    /**
+     * @param maxThrottleFraction puts with a larger fraction of records throttled halve the batch size
+     */
+    @JsonProperty
+    public void setMaxThrottleFraction(double maxThrottleFraction) {
+        this.maxThrottleFraction = maxThrottleFraction;
+    }
+
+    @JsonIgnore
+    public AdaptiveBatchSizeFactory maxThrottleFraction(double maxThrottleFraction) {
+        this.setMaxThrottleFraction(maxThrottleFraction);
+        return this;
+    }
+
+    /**
+     * @param maxBufferSize largest batch, smaller minBufferSize is lowered to it
+     */
+    @JsonIgnore
+    public AdaptiveBatchSize build(int maxBufferSize) {
+        Preconditions.checkNotNull(targetLatency, "targetLatency cannot be null");
+        return new AdaptiveBatchSize(Math.min(minBufferSize, maxBufferSize),
+                maxBufferSize,
+                increase,
+                targetLatency.toNanoseconds(),
+                maxThrottleFraction);
+    }
+}
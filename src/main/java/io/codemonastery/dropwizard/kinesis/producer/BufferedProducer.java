@@ -8,8 +8,26 @@ import io.codemonastery.dropwizard.kinesis.EventEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 
 public final class BufferedProducer<E> extends Producer<E> {
@@ -18,69 +36,482 @@ public final class BufferedProducer<E> extends Producer<E> {
 
     private final String streamName;
 
-    private final ExecutorService deliveryExecutor;
     private final BufferedProducerMetrics bufferedMetrics;
 
-    private final PutRecordsBuffer buffer;
+    private final int maxBufferSize;
+    private final List<ExecutorService> deliveryExecutors;
     private final RecordPutter putter;
 
-    public BufferedProducer(String streamName,
-                            Function<E, String> partitionKeyFn,
-                            EventEncoder<E> encoder,
-                            int maxBufferSize,
-                            ExecutorService deliveryExecutor,
-                            BufferedProducerMetrics metrics,
-                            RecordPutter putter) {
-        super(partitionKeyFn, encoder, metrics);
+    private final ShardMap shardMap;
+    private final Function<String, RecordPutter> shardPutterFactory;
+    private final int maxAggregatedRecordSize;
+    private final SpillQueue spillQueue;
+    //slot of each lane's single slot queue, see SubBuffer.submit
+    private final List<Semaphore> laneSlots;
+    private final InFlightLimit inFlightLimit;
+    //deliveries waiting for their lane, oldest first, only tracked when dropping oldest
+    private final Queue<Delivery> waitingDeliveries = new ConcurrentLinkedQueue<>();
 
-        Preconditions.checkArgument(!Strings.isNullOrEmpty(streamName), "must have a stream name");
-        Preconditions.checkArgument(maxBufferSize > 0, "maxBufferSize must be positive");
-        Preconditions.checkNotNull(deliveryExecutor, "must have a delivery executor");
-        Preconditions.checkNotNull(putter, "putter cannot be null");
+    private volatile boolean stopped = false;
 
-        this.streamName = streamName;
-        this.deliveryExecutor = deliveryExecutor;
-        this.bufferedMetrics = metrics;
+    private final ConcurrentMap<Object, SubBuffer> buffers = new ConcurrentHashMap<>();
+    //open or retired shards whose batches may still be put, children of a shard wait for it
+    private final ConcurrentMap<String, CompletableFuture<Void>> undeliveredShards = new ConcurrentHashMap<>();
 
-        this.buffer = new PutRecordsBuffer(maxBufferSize);
-        this.putter = putter;
+    /*
+     * Built by BufferedProducerFactory, see Builder for what each option does.
+     */
+    BufferedProducer(Builder<E> builder) {
+        super(builder.partitionKeyFn, builder.encoder, builder.metrics, builder.bufferPool, builder.encodeStage, builder.keyBalancer);
+
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(builder.streamName), "must have a stream name");
+        Preconditions.checkArgument(builder.maxBufferSize > 0, "maxBufferSize must be positive");
+        Preconditions.checkArgument(builder.deliveryExecutors != null && !builder.deliveryExecutors.isEmpty(), "must have a delivery executor");
+        for (ExecutorService deliveryExecutor : builder.deliveryExecutors) {
+            Preconditions.checkNotNull(deliveryExecutor, "must have a delivery executor");
+        }
+        Preconditions.checkNotNull(builder.putter, "putter cannot be null");
+        Preconditions.checkArgument((builder.shardMap == null) == (builder.shardPutterFactory == null),
+                "shardMap and shardPutterFactory must be both null or both not null");
+        Preconditions.checkArgument(builder.maxAggregatedRecordSize <= 0 || builder.shardMap != null, "aggregation requires a shard map");
+
+        this.streamName = builder.streamName;
+        this.bufferedMetrics = builder.metrics;
+        this.maxBufferSize = builder.maxBufferSize;
+        this.deliveryExecutors = new ArrayList<>(builder.deliveryExecutors);
+        this.putter = builder.putter;
+        this.shardMap = builder.shardMap;
+        this.shardPutterFactory = builder.shardPutterFactory;
+        this.maxAggregatedRecordSize = builder.maxAggregatedRecordSize;
+        this.spillQueue = builder.spillQueue;
+        this.inFlightLimit = builder.inFlightLimit;
+        this.laneSlots = new ArrayList<>(deliveryExecutors.size());
+        for (int i = 0; i < deliveryExecutors.size(); i++) {
+            laneSlots.add(new Semaphore(1));
+        }
     }
 
     public void flush() {
+        for (SubBuffer subBuffer : buffers.values()) {
+            flush(subBuffer);
+        }
+    }
+
+    /**
+     * Flushes only sub buffers whose oldest record has waited at least maxLingerNanos, full batches are
+     * sent as soon as they fill up regardless. Intended to be called again after the returned delay, so no
+     * record waits much longer than maxLingerNanos and batches still fill up under load.
+     * @return nanos until the oldest record still buffered will have waited maxLingerNanos, maxLingerNanos if empty
+     */
+    public long flushLingering(long maxLingerNanos) {
+        long nextNanos = maxLingerNanos;
+        long now = System.nanoTime();
+        for (SubBuffer subBuffer : buffers.values()) {
+            long age = subBuffer.ageNanos(now);
+            if (age >= maxLingerNanos) {
+                flush(subBuffer);
+            } else if (age > 0) {
+                nextNanos = Math.min(nextNanos, maxLingerNanos - age);
+            }
+        }
+        return nextNanos;
+    }
+
+    private void flush(SubBuffer subBuffer) {
+        //a bulk send is delivering batches ahead of what is buffered, flushing now would overtake them
+        if (!subBuffer.deliveryLock.tryLock()) {
+            return;
+        }
         try {
-            List<PutRecordsRequestEntry> submitMe = buffer.drain();
-            bufferedMetrics.bufferRemove(submitMe.size());
-            if (!submitMe.isEmpty()) {
-                final List<PutRecordsRequestEntry> temp = submitMe;
-                deliveryExecutor.submit(() -> putRecords(temp));
+            for (List<PutRecordsRequestEntry> submitMe : subBuffer.drain()) {
+                bufferedMetrics.bufferRemove(RecordAggregator.userRecordCount(submitMe));
+                deliver(subBuffer, submitMe);
             }
         } catch (Exception e) {
             LOG.error("unexpected error while flushing", e);
+        } finally {
+            subBuffer.deliveryLock.unlock();
+        }
+    }
+
+    /**
+     * Refreshes the shard map if shard aware, sub buffers of shards which are no longer open are
+     * flushed and removed. Intended to be called periodically, so splits and merges are picked up.
+     */
+    public void refreshShards() {
+        if (shardMap != null) {
+            try {
+                if (shardMap.refresh()) {
+                    Set<String> open = shardMap.shardIds();
+                    for (Map.Entry<Object, SubBuffer> entry : buffers.entrySet()) {
+                        if (entry.getKey() instanceof String && !open.contains(entry.getKey())) {
+                            retire(entry.getKey(), entry.getValue());
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                LOG.error("unexpected error while refreshing shards", e);
+            }
+        }
+    }
+
+    /**
+     * Delivers spilled batches in order, waiting for their lanes to take them, until stopped.
+     * Does nothing without a spill queue. Batches still spilled when stopped are delivered by the next producer
+     * using the same spill directory.
+     */
+    public void drainSpill() {
+        if (spillQueue == null) {
+            return;
+        }
+        try {
+            while (!stopped) {
+                List<PutRecordsRequestEntry> submitMe = spillQueue.peek(1, TimeUnit.SECONDS);
+                if (submitMe != null && !submitMe.isEmpty()) {
+                    SubBuffer subBuffer = buffers.computeIfAbsent(route(submitMe.get(0)), this::newSubBuffer);
+                    subBuffer.slot.acquire();
+                    //spilled batches no longer count against the in flight limit
+                    submit(new Delivery(subBuffer, submitMe, false), true);
+                    spillQueue.remove();
+                    bufferedMetrics.unspilled(RecordAggregator.userRecordCount(submitMe));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RejectedExecutionException e) {
+            //lanes were shutdown, what is left stays spilled
+        } catch (Exception e) {
+            LOG.error("unexpected error while draining spilled batches", e);
         }
     }
 
     @Override
     public void stop() throws Exception {
-        synchronized (buffer){
-            super.stop();
-            putRecords(buffer.drain());
+        if (stopped) {
+            return;
+        }
+        super.stop();
+        stopped = true;
+        //deliver remaining records behind anything already in flight on the same lane, keeps ordering
+        List<Future<?>> delivered = new ArrayList<>(buffers.size());
+        for (SubBuffer subBuffer : buffers.values()) {
+            subBuffer.deliveryLock.lock();
+            try {
+                for (List<PutRecordsRequestEntry> submitMe : subBuffer.drain()) {
+                    bufferedMetrics.bufferRemove(RecordAggregator.userRecordCount(submitMe));
+                    try {
+                        Future<?> future = deliver(subBuffer, submitMe);
+                        if (future != null) {
+                            delivered.add(future);
+                        }
+                    } catch (RejectedExecutionException e) {
+                        putRecords(subBuffer.putter, submitMe);
+                        recycle(submitMe);
+                    }
+                }
+                //releases children of shards which were never retired
+                subBuffer.completeWhenDelivered();
+            } finally {
+                subBuffer.deliveryLock.unlock();
+            }
+        }
+        for (Future<?> future : delivered) {
+            future.get();
+        }
+        if (spillQueue != null) {
+            spillQueue.close();
         }
     }
 
     @Override
-    protected void send(PutRecordsRequestEntry record) {
-        List<PutRecordsRequestEntry> submitMe = buffer.add(record);
+    protected void send(PutRecordsRequestEntry record) throws Exception {
+        if (inFlightLimit != null && !admit(record, true)) {
+            return;
+        }
+        buffer(record, true);
+    }
+
+    /**
+     * Like send, but rejects the record with {@link InFlightLimitExceededException} where send would wait: at the
+     * in flight limit with the BLOCK policy, or when the record would fill a batch its lane has no room for.
+     */
+    @Override
+    protected void sendWithoutBlocking(PutRecordsRequestEntry record, E event) throws Exception {
+        if (inFlightLimit != null && !admit(record, false)) {
+            return;
+        }
+        try {
+            buffer(record, false);
+        } catch (Exception e) {
+            if (inFlightLimit != null) {
+                inFlightLimit.release(1, InFlightLimit.weight(record));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Routes all records first, then adds each sub buffer's records at once, marking metrics once per sub buffer.
+     * Order is kept per sub buffer, so per partition key. With an in flight limit records are sent one by one, so
+     * admitting a long list cannot wait on records of the same list which are not yet buffered.
+     */
+    @Override
+    protected void sendRecords(List<PutRecordsRequestEntry> records) throws Exception {
+        if (inFlightLimit != null) {
+            super.sendRecords(records);
+            return;
+        }
+        Map<Object, List<PutRecordsRequestEntry>> routed = new LinkedHashMap<>();
+        for (PutRecordsRequestEntry record : records) {
+            routed.computeIfAbsent(route(record), key -> new ArrayList<>()).add(record);
+        }
+        List<PutRecordsRequestEntry> retired = new ArrayList<>(0);
+        for (Map.Entry<Object, List<PutRecordsRequestEntry>> entry : routed.entrySet()) {
+            SubBuffer subBuffer = buffers.computeIfAbsent(entry.getKey(), this::newSubBuffer);
+            //held until every batch filled here was handed to the lane, so a flush cannot overtake them
+            subBuffer.deliveryLock.lock();
+            try {
+                int before = retired.size();
+                List<List<PutRecordsRequestEntry>> submitMes = subBuffer.addAll(entry.getValue(), retired);
+                bufferedMetrics.bufferPut(entry.getValue().size() - (retired.size() - before));
+                for (List<PutRecordsRequestEntry> submitMe : submitMes) {
+                    bufferedMetrics.bufferRemove(RecordAggregator.userRecordCount(submitMe));
+                    deliver(subBuffer, submitMe);
+                }
+            } finally {
+                subBuffer.deliveryLock.unlock();
+            }
+        }
+        //shard closed while routing, route again one by one
+        for (PutRecordsRequestEntry record : retired) {
+            buffer(record, true);
+        }
+    }
+
+    /*
+     * @param mayBlock false to throw InFlightLimitExceededException rather than wait for the lane, the lane's slot
+     * is then taken before adding so a batch the record fills is submitted right away, without the slot the
+     * record is only added if it does not fill a batch
+     */
+    private void buffer(PutRecordsRequestEntry record, boolean mayBlock) throws InFlightLimitExceededException {
+        List<PutRecordsRequestEntry> submitMe;
+        SubBuffer subBuffer;
+        boolean reserved;
+        do {
+            Object key = route(record);
+            subBuffer = buffers.computeIfAbsent(key, this::newSubBuffer);
+            reserved = !mayBlock && reserve(subBuffer);
+            submitMe = subBuffer.add(record, mayBlock || reserved);
+            if (reserved && (submitMe == null || submitMe == SubBuffer.RETIRED)) {
+                subBuffer.slot.release();
+            }
+        } while (submitMe == SubBuffer.RETIRED);
+        if (submitMe == SubBuffer.FULL) {
+            throw new InFlightLimitExceededException("buffer is full and its lane busy, cannot take record without waiting");
+        }
+
         if(submitMe != null){
-            bufferedMetrics.bufferRemove(submitMe.size());
+            bufferedMetrics.bufferRemove(RecordAggregator.userRecordCount(submitMe));
         }
         bufferedMetrics.bufferPut(1);
         if (submitMe != null) {
-            final List<PutRecordsRequestEntry> temp = submitMe;
-            deliveryExecutor.submit(() -> putRecords(temp));
+            deliver(subBuffer, submitMe, reserved);
+        }
+    }
+
+    /*
+     * @returns true if the lane's slot was taken, never while anything is spilled, which would be overtaken
+     */
+    private boolean reserve(SubBuffer subBuffer) {
+        return (spillQueue == null || spillQueue.isEmpty()) && subBuffer.slot.tryAcquire();
+    }
+
+    private Future<?> deliver(SubBuffer subBuffer, List<PutRecordsRequestEntry> submitMe) {
+        return deliver(subBuffer, submitMe, false);
+    }
+
+    /*
+     * Submits batch to the lane of subBuffer, or spills it if the lane is busy or anything is spilled already.
+     * Without a spill queue, waits for the lane to have room.
+     * @param reserved true if the caller already took the lane's slot for batch
+     * @returns future of the put if submitted, null if spilled
+     */
+    private Future<?> deliver(SubBuffer subBuffer, List<PutRecordsRequestEntry> submitMe, boolean reserved) {
+        Delivery delivery = new Delivery(subBuffer, submitMe, inFlightLimit != null);
+        if (reserved || (spillQueue != null && reserve(subBuffer))) {
+            return submit(delivery, true);
+        }
+        if (spillQueue != null) {
+            try {
+                if (spillQueue.put(submitMe)) {
+                    bufferedMetrics.spilled(RecordAggregator.userRecordCount(submitMe));
+                    delivery.release();
+                    return null;
+                }
+            } catch (IOException e) {
+                LOG.error("Could not spill batch, waiting for lane instead", e);
+            }
+        }
+        //no spill queue, or it is closed or broken
+        return submit(delivery, false);
+    }
+
+    private Future<?> submit(Delivery delivery, boolean slotTaken) {
+        boolean droppable = delivery.counted && inFlightLimit.getOverflowPolicy() == InFlightLimit.OverflowPolicy.DROP_OLDEST;
+        if (droppable) {
+            waitingDeliveries.add(delivery);
+        }
+        try {
+            return delivery.subBuffer.submit(delivery, slotTaken);
+        } catch (RuntimeException e) {
+            if (droppable) {
+                waitingDeliveries.remove(delivery);
+            }
+            delivery.release();
+            throw e;
+        }
+    }
+
+    /*
+     * @param mayBlock false to fail rather than wait with the BLOCK policy
+     * @returns false if record was dropped
+     */
+    private boolean admit(PutRecordsRequestEntry record, boolean mayBlock) throws Exception {
+        long weight = InFlightLimit.weight(record);
+        boolean admitted = inFlightLimit.tryAcquire(1, weight);
+        if (!admitted) {
+            switch (inFlightLimit.getOverflowPolicy()) {
+                case BLOCK:
+                    if (!mayBlock) {
+                        throw new InFlightLimitExceededException("too many records in flight to take record without waiting");
+                    }
+                    if (!inFlightLimit.acquire(1, weight)) {
+                        throw new InFlightLimitExceededException("timed out waiting for in flight records to be put");
+                    }
+                    admitted = true;
+                    break;
+                case DROP_OLDEST:
+                    while (!admitted && dropOldest()) {
+                        admitted = inFlightLimit.tryAcquire(1, weight);
+                    }
+                    if (!admitted) {
+                        drop(Collections.singletonList(record));
+                    }
+                    break;
+                case DROP_NEWEST:
+                    drop(Collections.singletonList(record));
+                    break;
+                default:
+                    throw new InFlightLimitExceededException("too many records in flight");
+            }
+        }
+        return admitted;
+    }
+
+    /*
+     * @returns false if no batch was waiting for a lane
+     */
+    private boolean dropOldest() {
+        Delivery oldest;
+        while ((oldest = waitingDeliveries.poll()) != null) {
+            if (oldest.claim()) {
+                oldest.release();
+                drop(oldest.batch);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void drop(List<PutRecordsRequestEntry> records) {
+        bufferedMetrics.dropped(RecordAggregator.userRecordCount(records));
+        PendingEntry.failIncomplete(records, new InFlightLimitExceededException("dropped, too many records in flight"));
+        recycle(records);
+    }
+
+    /*
+     * @returns shard id (String) if shard aware and shard could be predicted, lane index (Integer) otherwise.
+     */
+    private Object route(PutRecordsRequestEntry record) {
+        Object key = null;
+        if (shardMap != null) {
+            key = shardMap.shardId(record);
+        }
+        if (key == null) {
+            key = deliveryExecutors.size() == 1 ? 0 : lane(record.getExplicitHashKey() != null
+                    ? record.getExplicitHashKey()
+                    : record.getPartitionKey());
+        }
+        return key;
+    }
+
+    private int lane(String key) {
+        return Math.floorMod(key == null ? 0 : key.hashCode(), deliveryExecutors.size());
+    }
+
+    private SubBuffer newSubBuffer(Object key) {
+        SubBuffer subBuffer;
+        if (key instanceof Integer) {
+            int lane = (Integer) key;
+            subBuffer = new SubBuffer(new PutRecordsBuffer(maxBufferSize, MAX_REQUEST_SIZE, putter.batchSize()),
+                    null,
+                    lane,
+                    deliveryExecutors.get(lane),
+                    laneSlots.get(lane),
+                    putter);
+        } else {
+            //every record in a shard sub buffer is predicted to land on that shard, so safe to aggregate
+            String shardId = (String) key;
+            int lane = lane(shardId);
+            //batches of a shard follow how that shard copes, not the whole stream
+            RecordPutter shardPutter = shardPutterFactory.apply(shardId);
+            subBuffer = new SubBuffer(new PutRecordsBuffer(maxBufferSize, MAX_REQUEST_SIZE, shardPutter.batchSize()),
+                    maxAggregatedRecordSize > 0 ? new RecordAggregator(maxAggregatedRecordSize) : null,
+                    lane,
+                    deliveryExecutors.get(lane),
+                    laneSlots.get(lane),
+                    shardPutter);
+            //parents are on other lanes, their last batches must be put before any of this shard
+            List<CompletableFuture<Void>> parents = new ArrayList<>(2);
+            for (String parentShardId : shardMap.parentShardIds(shardId)) {
+                CompletableFuture<Void> parent = undeliveredShards.get(parentShardId);
+                if (parent != null && !parent.isDone()) {
+                    parents.add(parent);
+                }
+            }
+            if (!parents.isEmpty()) {
+                subBuffer.hold(CompletableFuture.allOf(parents.toArray(new CompletableFuture<?>[parents.size()])));
+            }
+            //a closed shard is never retired again, children must not wait for it
+            if (shardMap.shardIds().contains(shardId)) {
+                CompletableFuture<Void> delivered = subBuffer.delivered;
+                undeliveredShards.put(shardId, delivered);
+                delivered.whenComplete((ignored, e) -> undeliveredShards.remove(shardId, delivered));
+            }
+        }
+        return subBuffer;
+    }
+
+    private void retire(Object key, SubBuffer subBuffer) {
+        subBuffer.deliveryLock.lock();
+        try {
+            List<List<PutRecordsRequestEntry>> submitMes = subBuffer.retire();
+            if (buffers.remove(key, subBuffer) && key instanceof String) {
+                //shard putter registered its limiter and batch size under the shard id
+                bufferedMetrics.removeRateLimiter((String) key);
+                bufferedMetrics.removeBatchSize((String) key);
+            }
+            for (List<PutRecordsRequestEntry> submitMe : submitMes) {
+                bufferedMetrics.bufferRemove(RecordAggregator.userRecordCount(submitMe));
+                deliver(subBuffer, submitMe);
+            }
+            subBuffer.completeWhenDelivered();
+        } finally {
+            subBuffer.deliveryLock.unlock();
         }
     }
 
-    private void putRecords(List<PutRecordsRequestEntry> records) {
+    private void putRecords(RecordPutter putter, List<PutRecordsRequestEntry> records) {
         try {
             if(records != null && !records.isEmpty()){
                 PutRecordsRequest request = new PutRecordsRequest()
@@ -94,9 +525,401 @@ public final class BufferedProducer<E> extends Producer<E> {
                             failedCount);
                     LOG.debug(message);
                 }
+                PendingEntry.failIncomplete(records, new IllegalStateException("putter did not report a result for record"));
             }
         } catch (Exception e) {
             LOG.error("Unexpected exception putting records", e);
+            PendingEntry.failIncomplete(records, e);
+        }
+    }
+
+    /*
+     * Must come after anything else reading records, such as releasing them from the in flight limit.
+     */
+    private void recycle(List<PutRecordsRequestEntry> records) {
+        for (PutRecordsRequestEntry record : RecordAggregator.userRecords(records)) {
+            recycle(record);
+        }
+    }
+
+    /*
+     * A batch handed to a lane, runs at most once, and not at all if it was dropped while waiting.
+     */
+    private final class Delivery implements Runnable {
+
+        private final SubBuffer subBuffer;
+        private final List<PutRecordsRequestEntry> batch;
+        private final boolean counted;
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+        /*
+         * @param counted true if batch counts against in flight limit, and must be released
+         */
+        private Delivery(SubBuffer subBuffer, List<PutRecordsRequestEntry> batch, boolean counted) {
+            this.subBuffer = subBuffer;
+            this.batch = batch;
+            this.counted = counted;
+        }
+
+        @Override
+        public void run() {
+            if (claim()) {
+                waitingDeliveries.remove(this);
+                putRecords(subBuffer.putter, batch);
+                release();
+                recycle(batch);
+            }
+        }
+
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        private void release() {
+            if (counted) {
+                inFlightLimit.release(RecordAggregator.userRecordCount(batch), InFlightLimit.weight(batch));
+            }
+        }
+    }
+
+    private static final class SubBuffer {
+
+        private static final List<PutRecordsRequestEntry> RETIRED = PutRecordsBuffer.CLOSED;
+
+        private static final List<PutRecordsRequestEntry> FULL = PutRecordsBuffer.FULL;
+
+        private final PutRecordsBuffer buffer;
+        private final RecordAggregator aggregator;
+        private final int lane;
+        private final ExecutorService deliveryExecutor;
+        //slot of the lane's single slot queue, shared by the lane's sub buffers, taken to submit to
+        //deliveryExecutor and given back once the task starts, so submitting with it never waits
+        private final Semaphore slot;
+        private final RecordPutter putter;
+        //held by bulk sends, flushes and retiring while draining and delivering, never by single sends
+        private final ReentrantLock deliveryLock = new ReentrantLock();
+
+        //guarded by aggregator, buffer itself is lock free
+        private boolean retired = false;
+
+        //completes once retired and everything submitted before was run
+        private final CompletableFuture<Void> delivered = new CompletableFuture<>();
+        //deliveries waiting for parent shards to be delivered, null if not waiting, guarded by this
+        private List<Runnable> held = null;
+
+        private SubBuffer(PutRecordsBuffer buffer,
+                          RecordAggregator aggregator,
+                          int lane,
+                          ExecutorService deliveryExecutor,
+                          Semaphore slot,
+                          RecordPutter putter) {
+            this.buffer = buffer;
+            this.aggregator = aggregator;
+            this.lane = lane;
+            this.deliveryExecutor = deliveryExecutor;
+            this.slot = slot;
+            this.putter = putter;
+        }
+
+        /*
+         * Holds deliveries until parents completes, they are then run in order by whoever completed parents.
+         * Must be called before the sub buffer is used.
+         */
+        private void hold(CompletableFuture<Void> parents) {
+            held = new ArrayList<>();
+            parents.whenComplete((ignored, e) -> runHeld());
+        }
+
+        private void runHeld() {
+            while (true) {
+                List<Runnable> run;
+                synchronized (this) {
+                    if (held.isEmpty()) {
+                        held = null;
+                        return;
+                    }
+                    run = held;
+                    held = new ArrayList<>();
+                }
+                for (Runnable runnable : run) {
+                    runnable.run();
+                }
+            }
+        }
+
+        /*
+         * Submits runnable to the lane, or holds it while parents are undelivered, which does not need the slot.
+         * @param slotTaken true if the caller already took the slot, otherwise waits for it
+         */
+        private Future<?> submit(Runnable runnable, boolean slotTaken) {
+            synchronized (this) {
+                if (held != null) {
+                    if (slotTaken) {
+                        slot.release();
+                    }
+                    FutureTask<?> future = new FutureTask<>(runnable, null);
+                    held.add(future);
+                    return future;
+                }
+            }
+            if (!slotTaken) {
+                slot.acquireUninterruptibly();
+            }
+            try {
+                return deliveryExecutor.submit(() -> {
+                    slot.release();
+                    runnable.run();
+                });
+            } catch (RuntimeException e) {
+                slot.release();
+                throw e;
+            }
+        }
+
+        /*
+         * Completes delivered once everything submitted so far was run.
+         */
+        private void completeWhenDelivered() {
+            try {
+                submit(() -> delivered.complete(null), false);
+            } catch (RejectedExecutionException e) {
+                delivered.complete(null);
+            }
+        }
+
+        /*
+         * @param retired records not added because this sub buffer was retired are added to this
+         * @returns batches to send, possibly empty
+         */
+        private List<List<PutRecordsRequestEntry>> addAll(List<PutRecordsRequestEntry> records,
+                                                          List<PutRecordsRequestEntry> retired) {
+            if (aggregator == null) {
+                return buffer.addAll(records, retired);
+            }
+            List<List<PutRecordsRequestEntry>> submitMes = new ArrayList<>();
+            synchronized (aggregator) {
+                for (PutRecordsRequestEntry record : records) {
+                    List<PutRecordsRequestEntry> submitMe = add(record, true);
+                    if (submitMe == RETIRED) {
+                        retired.add(record);
+                    } else if (submitMe != null) {
+                        submitMes.add(submitMe);
+                    }
+                }
+            }
+            return submitMes;
+        }
+
+        /*
+         * @param mayFill false to return FULL rather than add a record which may fill a batch
+         * @returns RETIRED if record was not added because this sub buffer was retired, otherwise same as PutRecordsBuffer.add
+         */
+        private List<PutRecordsRequestEntry> add(PutRecordsRequestEntry record, boolean mayFill) {
+            if (aggregator == null) {
+                return buffer.add(record, mayFill);
+            }
+            synchronized (aggregator) {
+                List<PutRecordsRequestEntry> submitMe;
+                if (retired) {
+                    submitMe = RETIRED;
+                } else if (!mayFill && aggregator.isFull(record)) {
+                    //the aggregated record handed on may fill a batch
+                    submitMe = FULL;
+                } else {
+                    //an aggregated record is as old as the first record in it
+                    long firstNanos = aggregator.firstNanos();
+                    PutRecordsRequestEntry aggregated = aggregator.add(record);
+                    submitMe = aggregated == null ? null : buffer.add(aggregated, firstNanos);
+                }
+                return submitMe;
+            }
+        }
+
+        /*
+         * @returns how long the oldest record has been waiting, in the buffer or being aggregated, zero if empty
+         */
+        private long ageNanos(long nowNanos) {
+            long age = buffer.ageNanos(nowNanos);
+            if (aggregator != null) {
+                synchronized (aggregator) {
+                    if (!aggregator.isEmpty()) {
+                        age = Math.max(age, nowNanos - aggregator.firstNanos());
+                    }
+                }
+            }
+            return age;
+        }
+
+        /*
+         * @returns batches to send, including anything partially aggregated, possibly empty but never null
+         */
+        private List<List<PutRecordsRequestEntry>> drain() {
+            return drain(false);
+        }
+
+        private List<List<PutRecordsRequestEntry>> retire() {
+            return drain(true);
+        }
+
+        private List<List<PutRecordsRequestEntry>> drain(boolean retire) {
+            List<List<PutRecordsRequestEntry>> submitMes = new ArrayList<>(2);
+            if (aggregator != null) {
+                synchronized (aggregator) {
+                    retired |= retire;
+                    long firstNanos = aggregator.firstNanos();
+                    PutRecordsRequestEntry aggregated = aggregator.drain();
+                    if (aggregated != null) {
+                        List<PutRecordsRequestEntry> submitMe = buffer.add(aggregated, firstNanos);
+                        if (submitMe != null && submitMe != RETIRED) {
+                            submitMes.add(submitMe);
+                        }
+                    }
+                }
+            }
+            List<PutRecordsRequestEntry> submitMe = retire ? buffer.close() : buffer.drain();
+            if (!submitMe.isEmpty()) {
+                submitMes.add(submitMe);
+            }
+            return submitMes;
+        }
+    }
+
+    /**
+     * Options of a buffered producer, everything not set is off.
+     */
+    /*
+     * Options of a producer, unset ones keep their defaults. New options get a method here rather than another
+     * constructor.
+     */
+    static final class Builder<E> {
+
+        private String streamName;
+        private Function<E, String> partitionKeyFn;
+        private EventEncoder<E> encoder;
+        private int maxBufferSize;
+        private List<ExecutorService> deliveryExecutors;
+        private BufferedProducerMetrics metrics;
+        private RecordPutter putter;
+        private ShardMap shardMap;
+        private Function<String, RecordPutter> shardPutterFactory;
+        private int maxAggregatedRecordSize;
+        private SpillQueue spillQueue;
+        private InFlightLimit inFlightLimit;
+        private ByteBufferPool bufferPool;
+        private EncodeStage encodeStage;
+        private KeyBalancer keyBalancer;
+
+        Builder<E> streamName(String streamName) {
+            this.streamName = streamName;
+            return this;
+        }
+
+        Builder<E> partitionKeyFn(Function<E, String> partitionKeyFn) {
+            this.partitionKeyFn = partitionKeyFn;
+            return this;
+        }
+
+        Builder<E> encoder(EventEncoder<E> encoder) {
+            this.encoder = encoder;
+            return this;
+        }
+
+        Builder<E> maxBufferSize(int maxBufferSize) {
+            this.maxBufferSize = maxBufferSize;
+            return this;
+        }
+
+        /**
+         * Each delivery executor is a lane with its own buffer, one batch may be in flight per lane.
+         * Records are assigned a lane by partition key (or explicit hash key when set), so ordering
+         * is preserved for records which would land on the same shard.
+         */
+        Builder<E> deliveryExecutors(List<ExecutorService> deliveryExecutors) {
+            this.deliveryExecutors = deliveryExecutors;
+            return this;
+        }
+
+        Builder<E> metrics(BufferedProducerMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        Builder<E> putter(RecordPutter putter) {
+            this.putter = putter;
+            return this;
+        }
+
+        /**
+         * Shard aware, records are buffered per predicted shard and each shard is put with its own
+         * putter (and so its own rate limit), a throttled shard only backs off itself. Records which cannot
+         * be mapped to a shard fall back to lanes by partition key using the default putter.
+         * After a split or merge, records of a new shard are put only once the last batches of its parents were.
+         */
+        Builder<E> shards(ShardMap shardMap, Function<String, RecordPutter> shardPutterFactory) {
+            this.shardMap = shardMap;
+            this.shardPutterFactory = shardPutterFactory;
+            return this;
+        }
+
+        /**
+         * If positive, records of the same shard are packed into KPL aggregated records of up to that many bytes,
+         * records which fall back to lanes are never aggregated. Requires being shard aware.
+         */
+        Builder<E> maxAggregatedRecordSize(int maxAggregatedRecordSize) {
+            this.maxAggregatedRecordSize = maxAggregatedRecordSize;
+            return this;
+        }
+
+        /**
+         * If not null, batches whose lane is busy are spilled to it rather than blocking the sender,
+         * and so is every batch while anything is spilled, which keeps batches in order. Spilled batches are
+         * delivered again by {@link BufferedProducer#drainSpill()}, which must be run on a thread of its own.
+         * The sender only blocks once spillQueue is full.
+         */
+        Builder<E> spillQueue(SpillQueue spillQueue) {
+            this.spillQueue = spillQueue;
+            return this;
+        }
+
+        /**
+         * If not null, records held from send until their batch was put, spilled or dropped are
+         * bounded by it, sending beyond the limit applies its overflow policy.
+         */
+        Builder<E> inFlightLimit(InFlightLimit inFlightLimit) {
+            this.inFlightLimit = inFlightLimit;
+            return this;
+        }
+
+        /**
+         * If not null, events are encoded into pooled buffers, which are reused once their batch was put
+         * or dropped, see {@link Producer}.
+         */
+        Builder<E> bufferPool(ByteBufferPool bufferPool) {
+            this.bufferPool = bufferPool;
+            return this;
+        }
+
+        /**
+         * If not null, events are encoded and buffered on its threads rather than the sender's,
+         * see {@link Producer}. The in flight limit then applies on the stage's thread, so overflow policies
+         * block the stage or fail the record's future rather than the sender.
+         */
+        Builder<E> encodeStage(EncodeStage encodeStage) {
+            this.encodeStage = encodeStage;
+            return this;
+        }
+
+        /**
+         * If not null, records of hot partition keys get explicit hash keys, see {@link Producer}.
+         * Being shard aware then keeps batches of a hot key's records per shard, like any other records.
+         */
+        Builder<E> keyBalancer(KeyBalancer keyBalancer) {
+            this.keyBalancer = keyBalancer;
+            return this;
+        }
+
+        BufferedProducer<E> build() {
+            return new BufferedProducer<>(this);
         }
     }
 }
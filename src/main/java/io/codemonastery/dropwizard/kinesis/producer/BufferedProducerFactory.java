@@ -1,18 +1,22 @@
 package io.codemonastery.dropwizard.kinesis.producer;
 
 import com.amazonaws.services.kinesis.AmazonKinesis;
+import com.amazonaws.services.kinesis.clientlibrary.lib.worker.SimpleKinesisProxy;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.health.HealthCheckRegistry;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import io.codemonastery.dropwizard.kinesis.Compression;
 import io.codemonastery.dropwizard.kinesis.EventEncoder;
 import io.codemonastery.dropwizard.kinesis.StreamCreateConfiguration;
 import io.codemonastery.dropwizard.kinesis.healthcheck.StreamHealthCheck;
+import io.codemonastery.dropwizard.kinesis.producer.ratelimit.AcquireLimiter;
 import io.codemonastery.dropwizard.kinesis.producer.ratelimit.AcquireLimiterFactory;
 import io.codemonastery.dropwizard.kinesis.producer.ratelimit.NoLimitAcquireLimiter;
 import io.codemonastery.dropwizard.kinesis.producer.ratelimit.RateLimitedRecordPutter;
+import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
 import io.dropwizard.util.Duration;
 
@@ -20,8 +24,13 @@ import javax.validation.Valid;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
@@ -36,6 +45,36 @@ public class BufferedProducerFactory<E> extends AbstractProducerFactory<E> {
     @NotNull
     private Duration flushPeriod = Duration.seconds(10);
 
+    @Valid
+    private Duration maxLinger;
+
+    @Min(1)
+    @Max(64)
+    private int maxInFlightBatches = 1;
+
+    private boolean shardAware = false;
+
+    @Valid
+    @NotNull
+    private Duration shardRefreshPeriod = Duration.minutes(1);
+
+    private boolean aggregate = false;
+
+    @Min(1)
+    @Max(Producer.MAX_RECORD_SIZE)
+    private int maxAggregatedRecordSize = 50 * 1024;
+
+    @Valid
+    private SpillQueueFactory spill;
+
+    @Valid
+    private InFlightLimitFactory inFlightLimit;
+
+    @Valid
+    private AdaptiveBatchSizeFactory adaptiveBatchSize;
+
+    private ProducerRuntime runtime;
+
     @JsonProperty
     public int getMaxBufferSize() {
         return maxBufferSize;
@@ -68,6 +107,189 @@ public class BufferedProducerFactory<E> extends AbstractProducerFactory<E> {
         return this;
     }
 
+    @JsonProperty
+    public Duration getMaxLinger() {
+        return maxLinger;
+    }
+
+    /**
+     * @param maxLinger if set, a batch is sent once full or once its oldest record waited this long,
+     *                  instead of flushing everything every flushPeriod
+     */
+    @JsonProperty
+    public void setMaxLinger(Duration maxLinger) {
+        this.maxLinger = maxLinger;
+    }
+
+    @JsonIgnore
+    public BufferedProducerFactory<E> maxLinger(Duration maxLinger) {
+        this.setMaxLinger(maxLinger);
+        return this;
+    }
+
+    @JsonProperty
+    public int getMaxInFlightBatches() {
+        return maxInFlightBatches;
+    }
+
+    @JsonProperty
+    public void setMaxInFlightBatches(int maxInFlightBatches) {
+        this.maxInFlightBatches = maxInFlightBatches;
+    }
+
+    @JsonIgnore
+    public BufferedProducerFactory<E> maxInFlightBatches(int maxInFlightBatches) {
+        this.setMaxInFlightBatches(maxInFlightBatches);
+        return this;
+    }
+
+    @JsonProperty
+    public boolean isShardAware() {
+        return shardAware;
+    }
+
+    /**
+     * @param shardAware if true records are buffered per predicted shard, and rate limit is applied per shard
+     */
+    @JsonProperty
+    public void setShardAware(boolean shardAware) {
+        this.shardAware = shardAware;
+    }
+
+    @JsonIgnore
+    public BufferedProducerFactory<E> shardAware(boolean shardAware) {
+        this.setShardAware(shardAware);
+        return this;
+    }
+
+    @JsonProperty
+    public Duration getShardRefreshPeriod() {
+        return shardRefreshPeriod;
+    }
+
+    @JsonProperty
+    public void setShardRefreshPeriod(Duration shardRefreshPeriod) {
+        this.shardRefreshPeriod = shardRefreshPeriod;
+    }
+
+    @JsonIgnore
+    public BufferedProducerFactory<E> shardRefreshPeriod(Duration shardRefreshPeriod) {
+        this.setShardRefreshPeriod(shardRefreshPeriod);
+        return this;
+    }
+
+    @JsonProperty
+    public boolean isAggregate() {
+        return aggregate;
+    }
+
+    /**
+     * @param aggregate if true records of the same shard are packed into KPL aggregated records, requires shardAware
+     */
+    @JsonProperty
+    public void setAggregate(boolean aggregate) {
+        this.aggregate = aggregate;
+    }
+
+    @JsonIgnore
+    public BufferedProducerFactory<E> aggregate(boolean aggregate) {
+        this.setAggregate(aggregate);
+        return this;
+    }
+
+    @JsonProperty
+    public int getMaxAggregatedRecordSize() {
+        return maxAggregatedRecordSize;
+    }
+
+    @JsonProperty
+    public void setMaxAggregatedRecordSize(int maxAggregatedRecordSize) {
+        this.maxAggregatedRecordSize = maxAggregatedRecordSize;
+    }
+
+    @JsonIgnore
+    public BufferedProducerFactory<E> maxAggregatedRecordSize(int maxAggregatedRecordSize) {
+        this.setMaxAggregatedRecordSize(maxAggregatedRecordSize);
+        return this;
+    }
+
+    @JsonProperty
+    public SpillQueueFactory getSpill() {
+        return spill;
+    }
+
+    /**
+     * @param spill if not null, batches are spilled to local disk rather than blocking while kinesis cannot keep up
+     */
+    @JsonProperty
+    public void setSpill(SpillQueueFactory spill) {
+        this.spill = spill;
+    }
+
+    @JsonIgnore
+    public BufferedProducerFactory<E> spill(SpillQueueFactory spill) {
+        this.setSpill(spill);
+        return this;
+    }
+
+    @JsonProperty
+    public InFlightLimitFactory getInFlightLimit() {
+        return inFlightLimit;
+    }
+
+    /**
+     * @param inFlightLimit if not null, bounds records and bytes held by the producer
+     */
+    @JsonProperty
+    public void setInFlightLimit(InFlightLimitFactory inFlightLimit) {
+        this.inFlightLimit = inFlightLimit;
+    }
+
+    @JsonIgnore
+    public BufferedProducerFactory<E> inFlightLimit(InFlightLimitFactory inFlightLimit) {
+        this.setInFlightLimit(inFlightLimit);
+        return this;
+    }
+
+    @JsonProperty
+    public AdaptiveBatchSizeFactory getAdaptiveBatchSize() {
+        return adaptiveBatchSize;
+    }
+
+    /**
+     * @param adaptiveBatchSize if not null, batches shrink when puts are slow or throttled and grow back up to
+     *                          maxBufferSize records otherwise, none by default
+     */
+    @JsonProperty
+    public void setAdaptiveBatchSize(AdaptiveBatchSizeFactory adaptiveBatchSize) {
+        this.adaptiveBatchSize = adaptiveBatchSize;
+    }
+
+    @JsonIgnore
+    public BufferedProducerFactory<E> adaptiveBatchSize(AdaptiveBatchSizeFactory adaptiveBatchSize) {
+        this.setAdaptiveBatchSize(adaptiveBatchSize);
+        return this;
+    }
+
+    @JsonIgnore
+    public ProducerRuntime getRuntime() {
+        return runtime;
+    }
+
+    /**
+     * @param runtime if set, flushes and deliveries run on its shared threads rather than threads of this producer's own
+     */
+    @JsonIgnore
+    public void setRuntime(ProducerRuntime runtime) {
+        this.runtime = runtime;
+    }
+
+    @JsonIgnore
+    public BufferedProducerFactory<E> runtime(ProducerRuntime runtime) {
+        this.setRuntime(runtime);
+        return this;
+    }
+
     @Override
     public BufferedProducerFactory<E> streamName(String streamName) {
         super.streamName(streamName);
@@ -98,61 +320,299 @@ public class BufferedProducerFactory<E> extends AbstractProducerFactory<E> {
         return this;
     }
 
+    @Override
+    public BufferedProducerFactory<E> compression(Compression compression) {
+        super.compression(compression);
+        return this;
+    }
+
+    @Override
+    public BufferedProducerFactory<E> retry(RetryPolicy retry) {
+        super.retry(retry);
+        return this;
+    }
+
+    @Override
+    public BufferedProducerFactory<E> failureHandler(RecordFailureHandler failureHandler) {
+        super.failureHandler(failureHandler);
+        return this;
+    }
+
+    @Override
+    public BufferedProducerFactory<E> bufferPool(ByteBufferPoolFactory bufferPool) {
+        super.bufferPool(bufferPool);
+        return this;
+    }
+
+    @Override
+    public BufferedProducerFactory<E> encodeStage(EncodeStageFactory encodeStage) {
+        super.encodeStage(encodeStage);
+        return this;
+    }
+
+    @Override
+    public BufferedProducerFactory<E> keyBalancing(KeyBalancerFactory keyBalancing) {
+        super.keyBalancing(keyBalancing);
+        return this;
+    }
+
+    @Override
+    public BufferedProducerFactory<E> idempotent(boolean idempotent) {
+        super.idempotent(idempotent);
+        return this;
+    }
+
     @JsonIgnore
     public BufferedProducer<E> build(MetricRegistry metrics,
                                      HealthCheckRegistry healthChecks,
                                      LifecycleEnvironment lifecycle,
                                      AmazonKinesis kinesis,
                                      String name) {
+        checkConfiguration();
+        BufferedProducerMetrics producerMetrics = new BufferedProducerMetrics(metrics, name);
+        return build(producerMetrics,
+                healthChecks,
+                lifecycle,
+                true,
+                kinesis,
+                name,
+                getStreamName(),
+                runtime,
+                buildBufferPool(producerMetrics),
+                buildEncodeStage(lifecycle, name, producerMetrics),
+                buildKeyBalancer(producerMetrics));
+    }
+
+    /**
+     * Checks what build cannot do without, before anything is built.
+     */
+    protected void checkConfiguration() {
         Preconditions.checkNotNull(encoder, "encoder cannot be null, was not inferred");
         Preconditions.checkNotNull(partitionKeyFn, "partitionKeyFn cannot be null, is allowed to return null");
+        Preconditions.checkNotNull(retry, "retry cannot be null");
         Preconditions.checkNotNull(flushPeriod, "flushPeriod cannot be null");
         Preconditions.checkArgument(flushPeriod.getQuantity() > 0, "flush period must be positive");
-        Preconditions.checkState(super.setupStream(kinesis), String.format("stream %s was not setup successfully", getStreamName()));
+        Preconditions.checkArgument(maxLinger == null || maxLinger.getQuantity() > 0, "max linger must be positive");
+        Preconditions.checkArgument(maxInFlightBatches > 0, "maxInFlightBatches must be positive");
+        Preconditions.checkArgument(!shardAware || (shardRefreshPeriod != null && shardRefreshPeriod.getQuantity() > 0),
+                "shard refresh period must be positive");
+        Preconditions.checkArgument(!aggregate || shardAware, "aggregate requires shardAware, aggregated records must only contain records of one shard");
+        Preconditions.checkArgument(!aggregate || (maxAggregatedRecordSize > 0 && maxAggregatedRecordSize <= Producer.MAX_RECORD_SIZE),
+                "maxAggregatedRecordSize must be positive and no larger than max record size");
+    }
+
+    /*
+     * Builds a producer of streamName, which need not be the configured stream.
+     * @param manage false if the caller owns the producer and stops it, rather than lifecycle
+     * @param runtime threads to share, null for threads of the producer's own
+     */
+    BufferedProducer<E> build(BufferedProducerMetrics producerMetrics,
+                              HealthCheckRegistry healthChecks,
+                              LifecycleEnvironment lifecycle,
+                              boolean manage,
+                              AmazonKinesis kinesis,
+                              String name,
+                              String streamName,
+                              ProducerRuntime runtime,
+                              ByteBufferPool bufferPool,
+                              EncodeStage encodeStage,
+                              KeyBalancer keyBalancer) {
+        Preconditions.checkState(setupStream(kinesis, streamName), String.format("stream %s was not setup successfully", streamName));
 
-        final ExecutorService deliveryExecutor;
+        //one single threaded executor per lane, so only one batch per lane is in flight
+        final List<ExecutorService> deliveryExecutors = new ArrayList<>(maxInFlightBatches);
         final ScheduledExecutorService flushExecutor;
-        if (lifecycle != null) {
-            deliveryExecutor = lifecycle.executorService(name + "-delivery-executor-%d")
-                    .workQueue(new SingletonBlockOnSubmitQueue())
-                    .minThreads(1)
-                    .maxThreads(1)
-                    .build();
+        if (runtime != null) {
+            for (int i = 0; i < maxInFlightBatches; i++) {
+                deliveryExecutors.add(runtime.lane());
+            }
+            flushExecutor = runtime.getScheduler();
+        } else if (lifecycle != null) {
+            for (int i = 0; i < maxInFlightBatches; i++) {
+                String nameFormat = maxInFlightBatches == 1
+                        ? name + "-delivery-executor-%d"
+                        : name + "-delivery-executor-" + i + "-%d";
+                deliveryExecutors.add(lifecycle.executorService(nameFormat)
+                        .workQueue(new SingletonBlockOnSubmitQueue())
+                        .minThreads(1)
+                        .maxThreads(1)
+                        .build());
+            }
             flushExecutor = lifecycle
                     .scheduledExecutorService(name + "-flush-executor-%d")
                     .threads(1)
                     .build();
         } else {
-            deliveryExecutor = Executors.newSingleThreadExecutor();
+            for (int i = 0; i < maxInFlightBatches; i++) {
+                deliveryExecutors.add(Executors.newSingleThreadExecutor());
+            }
             flushExecutor = Executors.newScheduledThreadPool(1);
         }
 
-        BufferedProducerMetrics producerMetrics = new BufferedProducerMetrics(metrics, name);
         if (healthChecks != null) {
-            healthChecks.register(name, new StreamFailureCheck(producerMetrics, new StreamHealthCheck(kinesis, getStreamName())));
+            healthChecks.register(name, new StreamFailureCheck(producerMetrics, new StreamHealthCheck(kinesis, streamName)));
         }
-        BufferedProducer<E> producer = new BufferedProducer<>(
-                getStreamName(),
-                partitionKeyFn,
-                encoder,
-                maxBufferSize,
-                deliveryExecutor,
-                producerMetrics,
-                new RateLimitedRecordPutter(
+        final AcquireLimiterFactory limiterFactory = Optional.fromNullable(rateLimit).or(NoLimitAcquireLimiter::new);
+        final ShardMap shardMap = shardAware ? new ShardMap(new SimpleKinesisProxy(kinesis, streamName)::getShardList) : null;
+        final AcquireLimiter limiter = limiterFactory.build(shardMap == null ? openShardCount(kinesis, streamName) : () -> shardMap.shardIds().size());
+        producerMetrics.rateLimiter("", limiter);
+        SpillQueue spillQueue = null;
+        ExecutorService spillExecutor = null;
+        if (spill != null) {
+            try {
+                spillQueue = spill.build();
+            } catch (IOException e) {
+                throw new IllegalStateException(String.format("could not open spill directory %s", spill.getDirectory()), e);
+            }
+            producerMetrics.spillQueue(spillQueue);
+            spillExecutor = lifecycle != null
+                    ? lifecycle.executorService(name + "-spill-executor-%d").minThreads(1).maxThreads(1).build()
+                    : Executors.newSingleThreadExecutor();
+        }
+        final InFlightLimit limit = inFlightLimit == null ? null : inFlightLimit.build();
+        if (limit != null) {
+            producerMetrics.inFlightLimit(limit);
+        }
+        final AdaptiveBatchSize batchSize = batchSize(producerMetrics, "");
+        BufferedProducer<E> producer = new BufferedProducer.Builder<E>()
+                .streamName(streamName)
+                .partitionKeyFn(partitionKeyFn)
+                .encoder(recordEncoder())
+                .maxBufferSize(maxBufferSize)
+                .deliveryExecutors(deliveryExecutors)
+                .metrics(producerMetrics)
+                .putter(new RateLimitedRecordPutter(
                         kinesis,
                         producerMetrics,
-                        Optional.fromNullable(rateLimit).or(NoLimitAcquireLimiter::new).build()
-                )
-        );
-        if (lifecycle != null) {
+                        limiter,
+                        retry,
+                        failureHandler,
+                        batchSize
+                ))
+                .shards(shardMap, shardMap == null ? null : shardId -> {
+                    AcquireLimiter shardLimiter = limiterFactory.build(() -> 1);
+                    producerMetrics.rateLimiter(shardId, shardLimiter);
+                    return new RateLimitedRecordPutter(
+                            kinesis,
+                            producerMetrics,
+                            shardLimiter,
+                            retry,
+                            failureHandler,
+                            batchSize(producerMetrics, shardId)
+                    );
+                })
+                .maxAggregatedRecordSize(aggregate ? maxAggregatedRecordSize : 0)
+                .spillQueue(spillQueue)
+                .inFlightLimit(limit)
+                .bufferPool(bufferPool)
+                .encodeStage(encodeStage)
+                .keyBalancer(keyBalancer)
+                .build();
+        if (lifecycle != null && manage) {
             lifecycle.manage(producer);
         }
+        if (spillExecutor != null) {
+            spillExecutor.submit(producer::drainSpill);
+        }
 
-        flushExecutor.scheduleAtFixedRate(producer::flush,
-                flushPeriod.toMilliseconds(),
-                flushPeriod.toMilliseconds(),
-                TimeUnit.MILLISECONDS);
+        final List<Future<?>> scheduled = new ArrayList<>();
+        final LingerFlush lingerFlush = maxLinger == null ? null : new LingerFlush(flushExecutor, producer, maxLinger.toNanoseconds());
+        if (lingerFlush != null) {
+            lingerFlush.schedule(maxLinger.toNanoseconds());
+        } else {
+            scheduled.add(flushExecutor.scheduleAtFixedRate(producer::flush,
+                    flushPeriod.toMilliseconds(),
+                    flushPeriod.toMilliseconds(),
+                    TimeUnit.MILLISECONDS));
+        }
+
+        if (shardMap != null) {
+            producer.refreshShards();
+            scheduled.add(flushExecutor.scheduleAtFixedRate(producer::refreshShards,
+                    shardRefreshPeriod.toMilliseconds(),
+                    shardRefreshPeriod.toMilliseconds(),
+                    TimeUnit.MILLISECONDS));
+        }
+
+        if (runtime != null && lifecycle != null) {
+            //shared scheduler outlives this producer, managed after the producer so this stops first
+            lifecycle.manage(new Managed() {
+                @Override
+                public void start() throws Exception {
+                }
+
+                @Override
+                public void stop() throws Exception {
+                    if (lingerFlush != null) {
+                        lingerFlush.cancel();
+                    }
+                    for (Future<?> future : scheduled) {
+                        future.cancel(false);
+                    }
+                }
+            });
+        }
 
         return producer;
     }
+
+    /*
+     * @returns batch size of one putter with its gauges registered under scope, null if not configured
+     */
+    private AdaptiveBatchSize batchSize(BufferedProducerMetrics producerMetrics, String scope) {
+        AdaptiveBatchSize batchSize = null;
+        if (adaptiveBatchSize != null) {
+            batchSize = adaptiveBatchSize.build(maxBufferSize);
+            producerMetrics.batchSize(scope, batchSize);
+        }
+        return batchSize;
+    }
+
+    /*
+     * Flushes lingering batches, then reschedules itself for when the next batch will have lingered long enough.
+     */
+    private static final class LingerFlush implements Runnable {
+
+        private final ScheduledExecutorService executor;
+        private final BufferedProducer<?> producer;
+        private final long maxLingerNanos;
+
+        private volatile boolean cancelled = false;
+        private volatile Future<?> next;
+
+        private LingerFlush(ScheduledExecutorService executor, BufferedProducer<?> producer, long maxLingerNanos) {
+            this.executor = executor;
+            this.producer = producer;
+            this.maxLingerNanos = maxLingerNanos;
+        }
+
+        @Override
+        public void run() {
+            long delayNanos = maxLingerNanos;
+            try {
+                delayNanos = producer.flushLingering(maxLingerNanos);
+            } finally {
+                schedule(delayNanos);
+            }
+        }
+
+        private void schedule(long delayNanos) {
+            if (cancelled) {
+                return;
+            }
+            try {
+                next = executor.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                //executor was shutdown, producer is stopping
+            }
+        }
+
+        private void cancel() {
+            cancelled = true;
+            Future<?> next = this.next;
+            if (next != null) {
+                next.cancel(false);
+            }
+        }
+    }
 }
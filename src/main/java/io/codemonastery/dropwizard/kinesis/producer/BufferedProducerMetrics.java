@@ -1,6 +1,7 @@
 package io.codemonastery.dropwizard.kinesis.producer;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Preconditions;
@@ -9,14 +10,25 @@ public class BufferedProducerMetrics extends ProducerMetrics {
 
     private Meter bufferPutMeter;
     private Counter bufferSizeCounter;
+    private Meter spilledMeter;
+    private Meter unspilledMeter;
+    private Meter droppedMeter;
+
+    private final MetricRegistry metrics;
+    private final String name;
 
     public BufferedProducerMetrics(MetricRegistry metrics, String name) {
         super(metrics, name);
         Preconditions.checkNotNull(name, "name cannot be null");
+        this.metrics = metrics;
+        this.name = name;
 
        if(metrics != null){
            bufferPutMeter = metrics.meter(name + "-buffer-put");
            bufferSizeCounter = metrics.counter(name + "-buffer-size");
+           spilledMeter = metrics.meter(name + "-spilled");
+           unspilledMeter = metrics.meter(name + "-unspilled");
+           droppedMeter = metrics.meter(name + "-dropped");
        }
     }
 
@@ -32,4 +44,67 @@ public class BufferedProducerMetrics extends ProducerMetrics {
             bufferSizeCounter.dec(n);
         }
     }
+
+    public final void spilled(int n){
+        if(spilledMeter != null){
+            spilledMeter.mark(n);
+        }
+    }
+
+    public final void unspilled(int n){
+        if(unspilledMeter != null){
+            unspilledMeter.mark(n);
+        }
+    }
+
+    public final void dropped(int n){
+        if(droppedMeter != null){
+            droppedMeter.mark(n);
+        }
+    }
+
+    /**
+     * Registers gauges of the current targets of a putter's batch size.
+     * @param scope shard id of the putter, empty for the stream wide putter
+     */
+    public final void batchSize(String scope, AdaptiveBatchSize batchSize){
+        if(metrics != null){
+            String prefix = name + (scope.isEmpty() ? "" : "-" + scope) + "-batch-size-";
+            metrics.remove(prefix + "records");
+            metrics.remove(prefix + "bytes");
+            metrics.register(prefix + "records", (Gauge<Integer>) batchSize::getRecords);
+            metrics.register(prefix + "bytes", (Gauge<Integer>) batchSize::getBytes);
+        }
+    }
+
+    /**
+     * Removes gauges of the batch size with that scope, for example when its shard is retired.
+     * @param scope scope the batch size was registered with
+     */
+    public final void removeBatchSize(String scope){
+        if(metrics != null){
+            String prefix = name + (scope.isEmpty() ? "" : "-" + scope) + "-batch-size-";
+            metrics.removeMatching((metricName, metric) -> metricName.startsWith(prefix));
+        }
+    }
+
+    /**
+     * Registers gauges of how many records and bytes are in flight.
+     */
+    public final void inFlightLimit(InFlightLimit inFlightLimit){
+        if(metrics != null){
+            metrics.register(name + "-in-flight-records", (Gauge<Long>) inFlightLimit::getRecords);
+            metrics.register(name + "-in-flight-bytes", (Gauge<Long>) inFlightLimit::getBytes);
+        }
+    }
+
+    /**
+     * Registers gauges of how many batches and bytes are spilled.
+     */
+    public final void spillQueue(SpillQueue spillQueue){
+        if(metrics != null){
+            metrics.register(name + "-spill-batches", (Gauge<Long>) spillQueue::batches);
+            metrics.register(name + "-spill-bytes", (Gauge<Long>) spillQueue::sizeBytes);
+        }
+    }
 }
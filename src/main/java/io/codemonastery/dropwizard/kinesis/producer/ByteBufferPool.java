@@ -0,0 +1,59 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of equally sized heap buffers records are encoded into, so encoding need not allocate.
+ * Buffers of any other capacity are not taken back, they are left to the garbage collector, as are
+ * buffers released while the pool is full.
+ */
+public class ByteBufferPool {
+
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> buffers;
+
+    /**
+     * @param bufferSize capacity of each buffer
+     * @param maxBuffers most buffers kept for reuse
+     */
+    public ByteBufferPool(int bufferSize, int maxBuffers) {
+        Preconditions.checkArgument(bufferSize > 0, "bufferSize must be positive");
+        Preconditions.checkArgument(maxBuffers > 0, "maxBuffers must be positive");
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(maxBuffers);
+    }
+
+    /**
+     * @return an empty buffer, pooled if one is available
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        return buffer == null ? ByteBuffer.allocate(bufferSize) : buffer;
+    }
+
+    /**
+     * Takes buffer back for reuse, nothing may read or write it afterwards.
+     * @param buffer buffer from acquire, others are ignored, may be null
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.capacity() == bufferSize && buffer.hasArray() && !buffer.isReadOnly()) {
+            buffer.clear();
+            buffers.offer(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return number of buffers waiting to be reused
+     */
+    public int getPooled() {
+        return buffers.size();
+    }
+}
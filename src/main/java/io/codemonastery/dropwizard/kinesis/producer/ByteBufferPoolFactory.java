@@ -0,0 +1,68 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import io.dropwizard.util.Size;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Pool of buffers events are encoded into, only used with a {@link io.codemonastery.dropwizard.kinesis.ByteBufferEventEncoder}
+ * and without compression. Buffers are reused once their record was put, so a failure handler which keeps records
+ * beyond its call must copy their data.
+ */
+public class ByteBufferPoolFactory {
+
+    @Valid
+    @NotNull
+    private Size bufferSize = Size.kilobytes(16);
+
+    @Min(1)
+    private int maxBuffers = 1024;
+
+    @JsonProperty
+    public Size getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @param bufferSize size of each buffer, events encoding larger are put in a buffer of their own which is not reused
+     */
+    @JsonProperty
+    public void setBufferSize(Size bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    @JsonIgnore
+    public ByteBufferPoolFactory bufferSize(Size bufferSize) {
+        this.setBufferSize(bufferSize);
+        return this;
+    }
+
+    @JsonProperty
+    public int getMaxBuffers() {
+        return maxBuffers;
+    }
+
+    @JsonProperty
+    public void setMaxBuffers(int maxBuffers) {
+        this.maxBuffers = maxBuffers;
+    }
+
+    @JsonIgnore
+    public ByteBufferPoolFactory maxBuffers(int maxBuffers) {
+        this.setMaxBuffers(maxBuffers);
+        return this;
+    }
+
+    @JsonIgnore
+    public ByteBufferPool build() {
+        Preconditions.checkNotNull(bufferSize, "bufferSize cannot be null");
+        Preconditions.checkArgument(bufferSize.toBytes() > 0 && bufferSize.toBytes() <= Producer.MAX_RECORD_SIZE,
+                "bufferSize must be positive and no larger than max record size");
+        return new ByteBufferPool((int) bufferSize.toBytes(), maxBuffers);
+    }
+}
@@ -0,0 +1,144 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Encodes events on threads of its own, so sending only enqueues the event. Events are encoded in parallel,
+ * then handed on one at a time, in the order they were submitted, by a single sequencing thread.
+ * Submitting blocks once queueSize events wait to be handed on, offering does not.
+ */
+public class EncodeStage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EncodeStage.class);
+
+    private final ExecutorService encodeExecutor;
+    private final ExecutorService sequenceExecutor;
+    private final BlockingQueue<Step<?>> steps;
+    private final CountDownLatch sequenced = new CountDownLatch(1);
+
+    private volatile boolean started = false;
+    private volatile boolean closed = false;
+
+    /**
+     * @param encodeExecutor runs encoding, its queue should not be bounded, steps already are
+     * @param sequenceExecutor runs the sequencing loop, needs one thread of its own
+     * @param queueSize most events submitted but not yet handed on
+     */
+    public EncodeStage(ExecutorService encodeExecutor, ExecutorService sequenceExecutor, int queueSize) {
+        Preconditions.checkNotNull(encodeExecutor, "encodeExecutor cannot be null");
+        Preconditions.checkNotNull(sequenceExecutor, "sequenceExecutor cannot be null");
+        Preconditions.checkArgument(queueSize > 0, "queueSize must be positive");
+        this.encodeExecutor = encodeExecutor;
+        this.sequenceExecutor = sequenceExecutor;
+        this.steps = new ArrayBlockingQueue<>(queueSize);
+    }
+
+    /**
+     * Starts handing on encoded events, only the first call does anything.
+     */
+    public synchronized void start() {
+        if (!started) {
+            started = true;
+            sequenceExecutor.submit(this::sequence);
+        }
+    }
+
+    /**
+     * Encodes on an encode thread, then calls handOn with the result on the sequencing thread, after handOn
+     * of anything submitted earlier. Exceptions thrown by encode or handOn are logged, so encode and handOn
+     * should deal with their own.
+     */
+    public <T> void submit(Supplier<T> encode, Consumer<T> handOn) throws InterruptedException {
+        Preconditions.checkState(!closed, "encode stage was closed");
+        steps.put(new Step<>(CompletableFuture.supplyAsync(encode, encodeExecutor), handOn));
+    }
+
+    /**
+     * Like submit, but never waits for room.
+     * @return false if queueSize events already wait to be handed on, encode is then not called
+     */
+    public <T> boolean offer(Supplier<T> encode, Consumer<T> handOn) {
+        Preconditions.checkState(!closed, "encode stage was closed");
+        CompletableFuture<T> encoded = new CompletableFuture<>();
+        if (!steps.offer(new Step<>(encoded, handOn))) {
+            return false;
+        }
+        try {
+            CompletableFuture.supplyAsync(encode, encodeExecutor).whenComplete((value, e) -> {
+                if (e == null) {
+                    encoded.complete(value);
+                } else {
+                    encoded.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            //step is already queued, must not hold up the steps behind it
+            encoded.completeExceptionally(e);
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * @return events submitted but not yet handed on
+     */
+    public int getQueued() {
+        return steps.size();
+    }
+
+    /**
+     * Stops taking events, and waits for everything already submitted to be handed on.
+     */
+    public void close() throws InterruptedException {
+        closed = true;
+        if (started) {
+            sequenced.await();
+        }
+    }
+
+    private void sequence() {
+        try {
+            while (!closed || !steps.isEmpty()) {
+                Step<?> step = steps.poll(100, TimeUnit.MILLISECONDS);
+                if (step != null) {
+                    step.handOn();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn(String.format("Interrupted while handing on encoded events, %d not handed on", steps.size()));
+        } finally {
+            sequenced.countDown();
+        }
+    }
+
+    private static final class Step<T> {
+
+        private final CompletableFuture<T> encoded;
+        private final Consumer<T> handOn;
+
+        private Step(CompletableFuture<T> encoded, Consumer<T> handOn) {
+            this.encoded = encoded;
+            this.handOn = handOn;
+        }
+
+        private void handOn() {
+            try {
+                handOn.accept(encoded.join());
+            } catch (Exception e) {
+                LOG.error("Unexpected exception handing on encoded event", e);
+            }
+        }
+    }
+}
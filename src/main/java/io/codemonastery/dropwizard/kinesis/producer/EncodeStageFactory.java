@@ -0,0 +1,84 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Moves encoding and partition keying off the threads sending events, see {@link EncodeStage}.
+ */
+public class EncodeStageFactory {
+
+    @Min(1)
+    @Max(64)
+    private int threads = 2;
+
+    @Min(1)
+    private int queueSize = 10000;
+
+    @JsonProperty
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads number of threads encoding events
+     */
+    @JsonProperty
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    @JsonIgnore
+    public EncodeStageFactory threads(int threads) {
+        this.setThreads(threads);
+        return this;
+    }
+
+    @JsonProperty
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * @param queueSize most events waiting to be encoded or buffered, sending blocks beyond it
+     */
+    @JsonProperty
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    @JsonIgnore
+    public EncodeStageFactory queueSize(int queueSize) {
+        this.setQueueSize(queueSize);
+        return this;
+    }
+
+    /**
+     * @param lifecycle manages threads if not null
+     */
+    @JsonIgnore
+    public EncodeStage build(LifecycleEnvironment lifecycle, String name) {
+        ExecutorService encodeExecutor;
+        ExecutorService sequenceExecutor;
+        if (lifecycle != null) {
+            encodeExecutor = lifecycle.executorService(name + "-encode-executor-%d")
+                    .minThreads(threads)
+                    .maxThreads(threads)
+                    .build();
+            sequenceExecutor = lifecycle.executorService(name + "-sequence-executor-%d")
+                    .minThreads(1)
+                    .maxThreads(1)
+                    .build();
+        } else {
+            encodeExecutor = Executors.newFixedThreadPool(threads);
+            sequenceExecutor = Executors.newSingleThreadExecutor();
+        }
+        return new EncodeStage(encodeExecutor, sequenceExecutor, queueSize);
+    }
+}
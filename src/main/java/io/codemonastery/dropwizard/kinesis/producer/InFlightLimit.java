@@ -0,0 +1,135 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import com.google.common.base.Preconditions;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds records and bytes a buffered producer holds, from when a record is sent until its batch was put,
+ * spilled or dropped. A record is let in whenever nothing is held, so a single record larger than the limit
+ * cannot get stuck.
+ */
+public class InFlightLimit {
+
+    /**
+     * What a buffered producer does with a record sent while at the limit.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for room, up to the timeout, then fail like FAIL.
+         */
+        BLOCK,
+        /**
+         * Drop the record being sent.
+         */
+        DROP_NEWEST,
+        /**
+         * Drop the oldest batch still waiting for a lane, the record being sent if no batch is waiting.
+         */
+        DROP_OLDEST,
+        /**
+         * Throw {@link InFlightLimitExceededException}.
+         */
+        FAIL
+    }
+
+    private final long maxBytes;
+    private final long maxRecords;
+    private final OverflowPolicy overflowPolicy;
+    private final long timeoutNanos;
+
+    //guarded by this
+    private long bytes = 0;
+    private long records = 0;
+
+    /**
+     * @param maxBytes zero for no limit
+     * @param maxRecords zero for no limit
+     * @param timeoutNanos how long BLOCK waits, zero to wait forever
+     */
+    public InFlightLimit(long maxBytes, long maxRecords, OverflowPolicy overflowPolicy, long timeoutNanos) {
+        Preconditions.checkArgument(maxBytes >= 0, "maxBytes cannot be negative");
+        Preconditions.checkArgument(maxRecords >= 0, "maxRecords cannot be negative");
+        Preconditions.checkNotNull(overflowPolicy, "overflowPolicy cannot be null");
+        Preconditions.checkArgument(timeoutNanos >= 0, "timeout cannot be negative");
+        this.maxBytes = maxBytes;
+        this.maxRecords = maxRecords;
+        this.overflowPolicy = overflowPolicy;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * @return bytes counted against the limit for record, data and partition key
+     */
+    public static long weight(PutRecordsRequestEntry record) {
+        return record.getData().remaining() + record.getPartitionKey().length();
+    }
+
+    /**
+     * @return bytes counted against the limit for user records of a batch, aggregated records are counted by their parts
+     */
+    public static long weight(List<PutRecordsRequestEntry> batch) {
+        long weight = 0;
+        for (PutRecordsRequestEntry record : RecordAggregator.userRecords(batch)) {
+            weight += weight(record);
+        }
+        return weight;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public synchronized boolean tryAcquire(long records, long bytes) {
+        boolean fits = fits(records, bytes);
+        if (fits) {
+            this.records += records;
+            this.bytes += bytes;
+        }
+        return fits;
+    }
+
+    /**
+     * Waits for room, up to the timeout.
+     * @return false if timed out
+     */
+    public synchronized boolean acquire(long records, long bytes) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (!fits(records, bytes)) {
+            if (timeoutNanos == 0) {
+                wait();
+            } else {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+        this.records += records;
+        this.bytes += bytes;
+        return true;
+    }
+
+    public synchronized void release(long records, long bytes) {
+        this.records -= records;
+        this.bytes -= bytes;
+        notifyAll();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    private boolean fits(long records, long bytes) {
+        return (this.records == 0 && this.bytes == 0)
+                || ((maxRecords == 0 || this.records + records <= maxRecords)
+                && (maxBytes == 0 || this.bytes + bytes <= maxBytes));
+    }
+}
@@ -0,0 +1,13 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+/**
+ * Record was rejected or dropped because a buffered producer was at its in flight limit.
+ */
+public class InFlightLimitExceededException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public InFlightLimitExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,105 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * How many records and bytes a buffered producer may hold before its overflow policy applies, zero meaning no limit.
+ */
+public class InFlightLimitFactory {
+
+    @Valid
+    @NotNull
+    private Size maxBytes = Size.bytes(0);
+
+    @Min(0)
+    private long maxRecords = 0;
+
+    @NotNull
+    private InFlightLimit.OverflowPolicy overflowPolicy = InFlightLimit.OverflowPolicy.BLOCK;
+
+    @Valid
+    @NotNull
+    private Duration timeout = Duration.milliseconds(0);
+
+    @JsonProperty
+    public Size getMaxBytes() {
+        return maxBytes;
+    }
+
+    @JsonProperty
+    public void setMaxBytes(Size maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @JsonIgnore
+    public InFlightLimitFactory maxBytes(Size maxBytes) {
+        this.setMaxBytes(maxBytes);
+        return this;
+    }
+
+    @JsonProperty
+    public long getMaxRecords() {
+        return maxRecords;
+    }
+
+    @JsonProperty
+    public void setMaxRecords(long maxRecords) {
+        this.maxRecords = maxRecords;
+    }
+
+    @JsonIgnore
+    public InFlightLimitFactory maxRecords(long maxRecords) {
+        this.setMaxRecords(maxRecords);
+        return this;
+    }
+
+    @JsonProperty
+    public InFlightLimit.OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    @JsonProperty
+    public void setOverflowPolicy(InFlightLimit.OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    @JsonIgnore
+    public InFlightLimitFactory overflowPolicy(InFlightLimit.OverflowPolicy overflowPolicy) {
+        this.setOverflowPolicy(overflowPolicy);
+        return this;
+    }
+
+    @JsonProperty
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout how long BLOCK waits for room before failing, zero to wait forever
+     */
+    @JsonProperty
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    @JsonIgnore
+    public InFlightLimitFactory timeout(Duration timeout) {
+        this.setTimeout(timeout);
+        return this;
+    }
+
+    @JsonIgnore
+    public InFlightLimit build() {
+        Preconditions.checkNotNull(maxBytes, "maxBytes cannot be null");
+        Preconditions.checkNotNull(timeout, "timeout cannot be null");
+        return new InFlightLimit(maxBytes.toBytes(), maxRecords, overflowPolicy, timeout.toNanoseconds());
+    }
+}
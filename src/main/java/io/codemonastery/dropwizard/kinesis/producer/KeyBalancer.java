@@ -0,0 +1,227 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Spreads records of hot partition keys over several shards. Key frequency is tracked with a Space-Saving sketch of
+ * a fixed number of counters, keys seen in at least hotShare of recent records are hot. A hot key's records get an
+ * explicit hash key in one of several slots, evenly spaced across the hash key range starting from where kinesis
+ * would put the key, so they land on different shards. Records of one hot key are no longer ordered.
+ * Counts are halved every window records, so keys which cool down stop being spread.
+ */
+public class KeyBalancer {
+
+    private static final BigInteger HASH_KEY_RANGE = BigInteger.ONE.shiftLeft(128);
+
+    private final int counters;
+    private final double hotShare;
+    private final int slots;
+    private final long window;
+    private final BigInteger slotWidth;
+
+    //all guarded by this
+    private final Map<String, Counter> counts;
+    //Stream-Summary buckets in increasing count, so counting and finding a least counted key are constant time
+    private Bucket lowest;
+    private long total;
+    private long observed;
+
+    /**
+     * @param counters keys tracked at once, should be well above 1 / hotShare
+     * @param hotShare share of recent records from which a key is hot, between zero and one
+     * @param slots number of hash keys each hot key is spread over
+     * @param window records between halving counts
+     */
+    public KeyBalancer(int counters, double hotShare, int slots, long window) {
+        Preconditions.checkArgument(counters > 0, "counters must be positive");
+        Preconditions.checkArgument(hotShare > 0 && hotShare < 1, "hotShare must be between zero and one");
+        Preconditions.checkArgument(slots > 1, "slots must be more than one");
+        Preconditions.checkArgument(window >= counters, "window must be at least counters");
+        this.counters = counters;
+        this.hotShare = hotShare;
+        this.slots = slots;
+        this.window = window;
+        this.slotWidth = HASH_KEY_RANGE.divide(BigInteger.valueOf(slots));
+        this.counts = new HashMap<>(counters * 2);
+    }
+
+    /**
+     * Counts a record of partitionKey.
+     * @return explicit hash key to spread the record with, null if partitionKey is not hot
+     */
+    public String explicitHashKey(String partitionKey) {
+        if (!observe(partitionKey)) {
+            return null;
+        }
+        int slot = ThreadLocalRandom.current().nextInt(slots);
+        BigInteger hashKey = new BigInteger(1, Hashing.md5().hashString(partitionKey, StandardCharsets.UTF_8).asBytes())
+                .add(slotWidth.multiply(BigInteger.valueOf(slot)))
+                .mod(HASH_KEY_RANGE);
+        return hashKey.toString();
+    }
+
+    /**
+     * @return number of keys hot right now
+     */
+    public synchronized int getHotKeys() {
+        int hot = 0;
+        for (Counter counter : counts.values()) {
+            if (isHot(counter)) {
+                hot++;
+            }
+        }
+        return hot;
+    }
+
+    /*
+     * @returns true if key is hot, after counting it
+     */
+    private synchronized boolean observe(String key) {
+        Counter counter = counts.get(key);
+        if (counter == null) {
+            if (counts.size() < counters) {
+                counter = new Counter();
+            } else {
+                //replace a least counted key, the new key inherits its count as possible overestimate
+                counter = lowest.first;
+                counts.remove(counter.key);
+            }
+            counter.key = key;
+            counts.put(key, counter);
+        }
+        increment(counter);
+        total++;
+        if (++observed >= window) {
+            decay();
+        }
+        return isHot(counter);
+    }
+
+    private boolean isHot(Counter counter) {
+        //too few records to tell anything hot
+        return total >= counters && counter.bucket.count >= hotShare * total;
+    }
+
+    /*
+     * moves counter to the bucket one above its own, creating that bucket next to its own if missing
+     */
+    private void increment(Counter counter) {
+        Bucket from = counter.bucket;
+        long count = from == null ? 1 : from.count + 1;
+        Bucket next = from == null ? lowest : from.next;
+        Bucket to = next;
+        if (next == null || next.count != count) {
+            to = new Bucket(count);
+            to.previous = from;
+            to.next = next;
+            if (next != null) {
+                next.previous = to;
+            }
+            if (from == null) {
+                lowest = to;
+            } else {
+                from.next = to;
+            }
+        }
+        if (from != null) {
+            from.remove(counter);
+            if (from.first == null) {
+                unlink(from);
+            }
+        }
+        to.add(counter);
+    }
+
+    /*
+     * halving keeps buckets in order, buckets halving to the same count are merged and those halving to zero dropped
+     */
+    private void decay() {
+        observed = 0;
+        total = 0;
+        Bucket bucket = lowest;
+        while (bucket != null) {
+            Bucket next = bucket.next;
+            Bucket previous = bucket.previous;
+            long count = bucket.count / 2;
+            Counter counter = bucket.first;
+            while (counter != null) {
+                Counter following = counter.next;
+                if (count == 0) {
+                    counts.remove(counter.key);
+                } else {
+                    total += count;
+                    if (previous != null && previous.count == count) {
+                        previous.add(counter);
+                    }
+                }
+                counter = following;
+            }
+            if (count == 0 || (previous != null && previous.count == count)) {
+                unlink(bucket);
+            } else {
+                bucket.count = count;
+            }
+            bucket = next;
+        }
+    }
+
+    private void unlink(Bucket bucket) {
+        if (bucket.previous == null) {
+            lowest = bucket.next;
+        } else {
+            bucket.previous.next = bucket.next;
+        }
+        if (bucket.next != null) {
+            bucket.next.previous = bucket.previous;
+        }
+    }
+
+    /*
+     * counters sharing a count, linked to the buckets of the next lower and higher counts
+     */
+    private static final class Bucket {
+        private long count;
+        private Bucket previous;
+        private Bucket next;
+        private Counter first;
+
+        private Bucket(long count) {
+            this.count = count;
+        }
+
+        private void add(Counter counter) {
+            counter.bucket = this;
+            counter.previous = null;
+            counter.next = first;
+            if (first != null) {
+                first.previous = counter;
+            }
+            first = counter;
+        }
+
+        private void remove(Counter counter) {
+            if (counter.previous == null) {
+                first = counter.next;
+            } else {
+                counter.previous.next = counter.next;
+            }
+            if (counter.next != null) {
+                counter.next.previous = counter.previous;
+            }
+        }
+    }
+
+    private static final class Counter {
+        private String key;
+        private Bucket bucket;
+        private Counter previous;
+        private Counter next;
+    }
+}
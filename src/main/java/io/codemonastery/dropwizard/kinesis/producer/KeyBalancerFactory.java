@@ -0,0 +1,136 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+/**
+ * Spreads hot partition keys over several shards, see {@link KeyBalancer}. Records of a hot key are then put in
+ * no particular order, so this must be opted into by setting orderingNotRequired.
+ */
+public class KeyBalancerFactory {
+
+    private boolean orderingNotRequired = false;
+
+    @Min(1)
+    @Max(10000)
+    private int counters = 100;
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double hotShare = 0.05;
+
+    @Min(2)
+    @Max(1024)
+    private int slots = 8;
+
+    @Min(1)
+    private long window = 100000;
+
+    @JsonProperty
+    public boolean isOrderingNotRequired() {
+        return orderingNotRequired;
+    }
+
+    /**
+     * @param orderingNotRequired must be true, acknowledges records of hot keys may be put out of order
+     */
+    @JsonProperty
+    public void setOrderingNotRequired(boolean orderingNotRequired) {
+        this.orderingNotRequired = orderingNotRequired;
+    }
+
+    @JsonIgnore
+    public KeyBalancerFactory orderingNotRequired(boolean orderingNotRequired) {
+        this.setOrderingNotRequired(orderingNotRequired);
+        return this;
+    }
+
+    @JsonProperty
+    public int getCounters() {
+        return counters;
+    }
+
+    /**
+     * @param counters number of keys tracked at once, should be well above 1 / hotShare
+     */
+    @JsonProperty
+    public void setCounters(int counters) {
+        this.counters = counters;
+    }
+
+    @JsonIgnore
+    public KeyBalancerFactory counters(int counters) {
+        this.setCounters(counters);
+        return this;
+    }
+
+    @JsonProperty
+    public double getHotShare() {
+        return hotShare;
+    }
+
+    /**
+     * @param hotShare share of recent records from which a key is spread
+     */
+    @JsonProperty
+    public void setHotShare(double hotShare) {
+        this.hotShare = hotShare;
+    }
+
+    @JsonIgnore
+    public KeyBalancerFactory hotShare(double hotShare) {
+        this.setHotShare(hotShare);
+        return this;
+    }
+
+    @JsonProperty
+    public int getSlots() {
+        return slots;
+    }
+
+    /**
+     * @param slots number of hash keys a hot key is spread over, more than the number of shards gains nothing
+     */
+    @JsonProperty
+    public void setSlots(int slots) {
+        this.slots = slots;
+    }
+
+    @JsonIgnore
+    public KeyBalancerFactory slots(int slots) {
+        this.setSlots(slots);
+        return this;
+    }
+
+    @JsonProperty
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * @param window records between halving counts, smaller forgets keys which cooled down sooner
+     */
+    @JsonProperty
+    public void setWindow(long window) {
+        this.window = window;
+    }
+
+    @JsonIgnore
+    public KeyBalancerFactory window(long window) {
+        this.setWindow(window);
+        return this;
+    }
+
+    @JsonIgnore
+    public KeyBalancer build() {
+        Preconditions.checkArgument(orderingNotRequired,
+                "key balancing puts records of hot keys out of order, set orderingNotRequired to opt in");
+        return new KeyBalancer(counters, hotShare, slots, window);
+    }
+}
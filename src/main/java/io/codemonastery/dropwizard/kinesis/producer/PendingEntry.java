@@ -0,0 +1,64 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import com.amazonaws.services.kinesis.model.PutRecordsResultEntry;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Entry of a record sent with {@link Producer#sendAsync(Object)}, carries the future to complete once
+ * the record was put or permanently failed. Putters complete entries through the static methods,
+ * which ignore plain entries, so putters need not care how a record was sent.
+ */
+public class PendingEntry extends PutRecordsRequestEntry {
+
+    private static final long serialVersionUID = 1L;
+
+    private final CompletableFuture<PutRecordsResultEntry> future;
+
+    PendingEntry(CompletableFuture<PutRecordsResultEntry> future) {
+        this.future = future;
+    }
+
+    /**
+     * @param entry entry which was put
+     * @param result result of putting entry, a result with an error code fails the entry
+     */
+    public static void complete(PutRecordsRequestEntry entry, PutRecordsResultEntry result) {
+        if (entry instanceof PendingEntry && result != null) {
+            ((PendingEntry) entry).complete(result);
+        }
+    }
+
+    public static void fail(PutRecordsRequestEntry entry, Throwable cause) {
+        if (entry instanceof PendingEntry) {
+            ((PendingEntry) entry).fail(cause);
+        }
+    }
+
+    /**
+     * Fails any entries not yet completed, for example because the putter did not report results.
+     */
+    public static void failIncomplete(List<PutRecordsRequestEntry> entries, Throwable cause) {
+        for (PutRecordsRequestEntry entry : entries) {
+            fail(entry, cause);
+        }
+    }
+
+    protected void complete(PutRecordsResultEntry result) {
+        if (result.getErrorCode() == null) {
+            future.complete(result);
+        } else {
+            future.completeExceptionally(new PutRecordFailedException(result));
+        }
+    }
+
+    protected void fail(Throwable cause) {
+        future.completeExceptionally(cause);
+    }
+
+    CompletableFuture<PutRecordsResultEntry> future() {
+        return future;
+    }
+}
@@ -1,7 +1,9 @@
 package io.codemonastery.dropwizard.kinesis.producer;
 
 import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import com.amazonaws.services.kinesis.model.PutRecordsResultEntry;
 import com.google.common.base.Preconditions;
+import io.codemonastery.dropwizard.kinesis.ByteBufferEventEncoder;
 import io.codemonastery.dropwizard.kinesis.EventEncoder;
 import io.dropwizard.lifecycle.Managed;
 import org.slf4j.Logger;
@@ -9,7 +11,11 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public abstract class Producer<E> implements Managed {
 
@@ -19,43 +25,219 @@ public abstract class Producer<E> implements Managed {
 
     private static final Logger LOG = LoggerFactory.getLogger(Producer.class);
 
+    //lists at least this long are encoded on the common fork join pool
+    static final int PARALLEL_ENCODE_THRESHOLD = 1000;
+
     private volatile boolean shutdown = false;
 
     private final EventEncoder<E> encoder;
     private final Function<E, String> partitionKeyFn;
+    private final ByteBufferPool bufferPool;
+    private final EncodeStage encodeStage;
+    private final KeyBalancer keyBalancer;
     protected final ProducerMetrics metrics;
 
     public Producer(Function<E, String> partitionKeyFn, EventEncoder<E> encoder, ProducerMetrics metrics) {
+        this(partitionKeyFn, encoder, metrics, null);
+    }
+
+    /**
+     * If bufferPool is not null and encoder is a {@link ByteBufferEventEncoder}, events are encoded into pooled
+     * buffers, which subclasses hand back with {@link #recycle(PutRecordsRequestEntry)} once their record was put.
+     */
+    public Producer(Function<E, String> partitionKeyFn, EventEncoder<E> encoder, ProducerMetrics metrics, ByteBufferPool bufferPool) {
+        this(partitionKeyFn, encoder, metrics, bufferPool, null);
+    }
+
+    /**
+     * If encodeStage is not null, sending only enqueues events, encoding and handing records to {@link #send(PutRecordsRequestEntry)}
+     * happen on the stage's threads, in the order events were sent. Stopping waits for the stage to empty.
+     */
+    public Producer(Function<E, String> partitionKeyFn,
+                    EventEncoder<E> encoder,
+                    ProducerMetrics metrics,
+                    ByteBufferPool bufferPool,
+                    EncodeStage encodeStage) {
+        this(partitionKeyFn, encoder, metrics, bufferPool, encodeStage, null);
+    }
+
+    /**
+     * If keyBalancer is not null, records of hot partition keys without an explicit hash key, after
+     * {@link #extra(PutRecordsRequestEntry, Object)}, are given one so they spread over several shards.
+     */
+    public Producer(Function<E, String> partitionKeyFn,
+                    EventEncoder<E> encoder,
+                    ProducerMetrics metrics,
+                    ByteBufferPool bufferPool,
+                    EncodeStage encodeStage,
+                    KeyBalancer keyBalancer) {
         Preconditions.checkNotNull(encoder, "encoder cannot be null");
         Preconditions.checkNotNull(partitionKeyFn, "partitionKeyFn cannot be null");
         Preconditions.checkNotNull(metrics, "metrics cannot be null");
         this.encoder = encoder;
         this.partitionKeyFn = partitionKeyFn;
         this.metrics = metrics;
+        this.bufferPool = encoder instanceof ByteBufferEventEncoder ? bufferPool : null;
+        this.encodeStage = encodeStage;
+        this.keyBalancer = keyBalancer;
+        if (encodeStage != null) {
+            encodeStage.start();
+        }
     }
 
+    /**
+     * Encodes and partition keys all events in one pass, in parallel for long lists, then hands the records to
+     * the producer together. Events which cannot be encoded or partitioned are skipped, like with send.
+     * {@link #extra(PutRecordsRequestEntry, Object)} may be called from several threads at once.
+     */
     public void sendAll(List<E> events) throws Exception {
-        for (E event : events) {
-            send(event);
+        assertNotShutdownForSend();
+        sendAll(events, this);
+    }
+
+    /**
+     * Encodes events like {@link #sendAll(List)}, on this producer's encode stage if any, but hands the records
+     * to producer, for producers which pick another producer to send through.
+     */
+    protected final void sendAll(List<E> events, Producer<E> producer) throws Exception {
+        if (encodeStage != null) {
+            //whole list is one step, so it is still encoded in one pass and buffered together
+            encodeStage.submit(() -> records(events), producer::sendAllEncoded);
+        } else {
+            List<PutRecordsRequestEntry> records = records(events);
+            if (!records.isEmpty()) {
+                producer.sendRecords(records);
+            }
         }
     }
 
     public final void send(E event) throws Exception {
         assertNotShutdownForSend();
-        byte[] bytes = null;
+        if (encodeStage != null) {
+            encodeStage.submit(() -> timedRecord(event, new PutRecordsRequestEntry()), record -> sendEncoded(record, event));
+        } else {
+            PutRecordsRequestEntry record = record(event, new PutRecordsRequestEntry(), true);
+            if (record != null) {
+                send(record, event);
+            }
+        }
+    }
+
+    /**
+     * Sends event without blocking the calling thread. The future completes with the result of putting the record,
+     * carrying its shard id and sequence number, or exceptionally if the event could not be encoded or the record
+     * permanently failed, see {@link PutRecordFailedException}. Records aggregated together share one result.
+     * With an encode stage the event is handed to the stage, everything else happens on its threads. Without one
+     * the record is handed to {@link #sendWithoutBlocking(PutRecordsRequestEntry, Object)}. Where either would
+     * have to wait, the future fails with {@link InFlightLimitExceededException} instead.
+     * @param event event to send
+     * @return future result of putting event, never null
+     */
+    public final CompletableFuture<PutRecordsResultEntry> sendAsync(E event) {
+        CompletableFuture<PutRecordsResultEntry> future = new CompletableFuture<>();
+        try {
+            assertNotShutdownForSend();
+            if (encodeStage != null) {
+                boolean offered = encodeStage.offer(() -> timedRecord(event, new PendingEntry(future)), record -> {
+                    if (record == null) {
+                        future.completeExceptionally(new IllegalArgumentException("event could not be encoded or partitioned, see log"));
+                    } else {
+                        sendEncoded(record, event);
+                    }
+                });
+                if (!offered) {
+                    future.completeExceptionally(new InFlightLimitExceededException("encode stage is full"));
+                }
+            } else {
+                PutRecordsRequestEntry record = record(event, new PendingEntry(future), true);
+                if (record == null) {
+                    future.completeExceptionally(new IllegalArgumentException("event could not be encoded or partitioned, see log"));
+                } else {
+                    try {
+                        sendWithoutBlocking(record, event);
+                    } catch (Exception e) {
+                        future.completeExceptionally(e);
+                        recycle(record);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /*
+     * @returns records of events which could be encoded and partitioned, in order
+     */
+    private List<PutRecordsRequestEntry> records(List<E> events) {
+        long startNanos = System.nanoTime();
+        Stream<E> stream = events.size() >= PARALLEL_ENCODE_THRESHOLD ? events.parallelStream() : events.stream();
+        List<PutRecordsRequestEntry> records = stream
+                .map(event -> record(event, new PutRecordsRequestEntry(), false))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        metrics.encoded(records.size());
+        metrics.encodeTime(System.nanoTime() - startNanos);
+        return records;
+    }
+
+    private PutRecordsRequestEntry timedRecord(E event, PutRecordsRequestEntry record) {
+        long startNanos = System.nanoTime();
+        try {
+            return record(event, record, true);
+        } finally {
+            metrics.encodeTime(System.nanoTime() - startNanos);
+        }
+    }
+
+    /*
+     * Sends records encoded by the encode stage, where send failures have nobody to throw to.
+     */
+    private void sendEncoded(PutRecordsRequestEntry record, E event) {
+        if (record != null) {
+            try {
+                send(record, event);
+            } catch (Exception e) {
+                LOG.error("Could not send encoded record", e);
+                PendingEntry.fail(record, e);
+            }
+        }
+    }
+
+    private void sendAllEncoded(List<PutRecordsRequestEntry> records) {
+        if (!records.isEmpty()) {
+            try {
+                sendRecords(records);
+            } catch (Exception e) {
+                LOG.error("Could not send encoded records", e);
+                PendingEntry.failIncomplete(records, e);
+            }
+        }
+    }
+
+    /*
+     * @param markEncoded false if caller marks encoded events itself, all at once
+     * @returns record with encoded event and partition key, null if event should be skipped
+     */
+    private PutRecordsRequestEntry record(E event, PutRecordsRequestEntry record, boolean markEncoded) {
+        ByteBuffer data = null;
         try {
-            bytes = encoder.encode(event);
-            metrics.encoded();
+            data = encode(event);
+            if (markEncoded) {
+                metrics.encoded();
+            }
         } catch (Exception e) {
             metrics.encodeFailed();
             LOG.error("could not encode event " + event.toString());
         }
 
-        if(bytes == null){
+        PutRecordsRequestEntry encoded = null;
+        if(data == null){
             LOG.warn("skipping event " + event + " because could not be encoded or was null");
-        } else if (bytes.length > MAX_RECORD_SIZE) {
+        } else if (data.remaining() > MAX_RECORD_SIZE) {
             metrics.encodeFailed();
-            LOG.error(String.format("skipping event because encoded size was %.2f MB, larger than max record size", bytes.length / (1024.0 * 1024)));
+            LOG.error(String.format("skipping event because encoded size was %.2f MB, larger than max record size", data.remaining() / (1024.0 * 1024)));
         } else {
             String partitionKey = null;
             try {
@@ -67,13 +249,61 @@ public abstract class Producer<E> implements Managed {
             if (partitionKey == null) {
                 LOG.warn("skipping event " + event + " because partition key could not be calculated or was null");
             } else {
-                PutRecordsRequestEntry record = new PutRecordsRequestEntry()
-                        .withData(ByteBuffer.wrap(bytes))
+                record.withData(data)
                         .withPartitionKey(partitionKey);
-                record = extra(record, event);
-                send(record);
+                encoded = extra(record, event);
+                if (encoded != null && encoded != record && record instanceof PendingEntry) {
+                    //keep the future with the record actually sent
+                    encoded = record.withData(encoded.getData())
+                            .withPartitionKey(encoded.getPartitionKey())
+                            .withExplicitHashKey(encoded.getExplicitHashKey());
+                }
+                if (encoded != null && keyBalancer != null && encoded.getExplicitHashKey() == null) {
+                    String explicitHashKey = keyBalancer.explicitHashKey(encoded.getPartitionKey());
+                    if (explicitHashKey != null) {
+                        encoded.setExplicitHashKey(explicitHashKey);
+                        metrics.balanced();
+                    }
+                }
             }
         }
+        if (encoded == null && bufferPool != null) {
+            bufferPool.release(data);
+        }
+        return encoded;
+    }
+
+    /*
+     * @returns encoded event, in a pooled buffer if pooling, null if event should be skipped
+     */
+    private ByteBuffer encode(E event) throws Exception {
+        ByteBuffer encoded;
+        if (bufferPool != null) {
+            ByteBuffer buffer = bufferPool.acquire();
+            encoded = null;
+            try {
+                encoded = ((ByteBufferEventEncoder<E>) encoder).encode(event, buffer);
+            } finally {
+                if (encoded != buffer) {
+                    //event did not fit or was not encoded
+                    bufferPool.release(buffer);
+                }
+            }
+        } else {
+            byte[] bytes = encoder.encode(event);
+            encoded = bytes == null ? null : ByteBuffer.wrap(bytes);
+        }
+        return encoded;
+    }
+
+    /**
+     * Hands the data of a record back to the buffer pool once the record was put or given up on,
+     * nothing may read the record afterwards. Does nothing if not pooling.
+     */
+    protected final void recycle(PutRecordsRequestEntry record) {
+        if (bufferPool != null) {
+            bufferPool.release(record.getData());
+        }
     }
 
     @Override
@@ -84,6 +314,9 @@ public abstract class Producer<E> implements Managed {
     @Override
     public void stop() throws Exception {
         shutdown = true;
+        if (encodeStage != null) {
+            encodeStage.close();
+        }
     }
 
     protected PutRecordsRequestEntry extra(PutRecordsRequestEntry record, @SuppressWarnings("UnusedParameters") E event) {
@@ -92,7 +325,33 @@ public abstract class Producer<E> implements Managed {
 
     protected abstract void send(PutRecordsRequestEntry record) throws Exception;
 
-    private void assertNotShutdownForSend() {
+    /**
+     * Sends the record encoded from event, to {@link #send(PutRecordsRequestEntry)} unless overridden.
+     */
+    protected void send(PutRecordsRequestEntry record, @SuppressWarnings("UnusedParameters") E event) throws Exception {
+        send(record);
+    }
+
+    /**
+     * Sends a record of {@link #sendAsync(Object)} made without an encode stage, must not block. Throws if the
+     * record was not taken, for example {@link InFlightLimitExceededException} if taking it would mean waiting.
+     * Not supported unless overridden, a producer putting on the calling thread needs an encode stage to send
+     * asynchronously.
+     */
+    protected void sendWithoutBlocking(PutRecordsRequestEntry record, @SuppressWarnings("UnusedParameters") E event) throws Exception {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " needs an encode stage to send asynchronously");
+    }
+
+    /**
+     * Sends records of {@link #sendAll(List)}, one by one unless overridden.
+     */
+    protected void sendRecords(List<PutRecordsRequestEntry> records) throws Exception {
+        for (PutRecordsRequestEntry record : records) {
+            send(record);
+        }
+    }
+
+    protected final void assertNotShutdownForSend() {
         if (shutdown) {
             throw new IllegalStateException("cannot send more events because producer has been shutdown");
         }
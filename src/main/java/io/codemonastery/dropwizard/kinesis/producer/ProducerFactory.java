@@ -5,6 +5,7 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.health.HealthCheckRegistry;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import io.codemonastery.dropwizard.kinesis.Compression;
 import io.codemonastery.dropwizard.kinesis.EventEncoder;
 import io.codemonastery.dropwizard.kinesis.producer.ratelimit.AcquireLimiterFactory;
 import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
@@ -44,6 +45,48 @@ public interface ProducerFactory<E> {
 
     ProducerFactory<E> rateLimit(AcquireLimiterFactory rateLimit);
 
+    Compression getCompression();
+
+    void setCompression(Compression compression);
+
+    ProducerFactory<E> compression(Compression compression);
+
+    RetryPolicy getRetry();
+
+    void setRetry(RetryPolicy retry);
+
+    ProducerFactory<E> retry(RetryPolicy retry);
+
+    RecordFailureHandler getFailureHandler();
+
+    void setFailureHandler(RecordFailureHandler failureHandler);
+
+    ProducerFactory<E> failureHandler(RecordFailureHandler failureHandler);
+
+    ByteBufferPoolFactory getBufferPool();
+
+    void setBufferPool(ByteBufferPoolFactory bufferPool);
+
+    ProducerFactory<E> bufferPool(ByteBufferPoolFactory bufferPool);
+
+    EncodeStageFactory getEncodeStage();
+
+    void setEncodeStage(EncodeStageFactory encodeStage);
+
+    ProducerFactory<E> encodeStage(EncodeStageFactory encodeStage);
+
+    KeyBalancerFactory getKeyBalancing();
+
+    void setKeyBalancing(KeyBalancerFactory keyBalancing);
+
+    ProducerFactory<E> keyBalancing(KeyBalancerFactory keyBalancing);
+
+    boolean isIdempotent();
+
+    void setIdempotent(boolean idempotent);
+
+    ProducerFactory<E> idempotent(boolean idempotent);
+
     Producer<E> build(Environment environment, AmazonKinesis kinesis, String name);
 
     Producer<E> build(MetricRegistry metrics,
@@ -1,14 +1,18 @@
 package io.codemonastery.dropwizard.kinesis.producer;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.base.Preconditions;
 import io.codemonastery.dropwizard.kinesis.metric.HasFailureThresholds;
+import io.codemonastery.dropwizard.kinesis.producer.ratelimit.AcquireLimiter;
 
 import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 public class ProducerMetrics implements PutterMetrics, HasFailureThresholds {
@@ -24,10 +28,18 @@ public class ProducerMetrics implements PutterMetrics, HasFailureThresholds {
 
     private Meter sentMeter;
     private Meter failedMeter;
+    private Meter retriedMeter;
     private Timer putRecordsTimer;
+    private Timer encodeTimer;
+    private Meter balancedMeter;
+
+    private final MetricRegistry metrics;
+    private final String name;
 
     public ProducerMetrics(MetricRegistry metrics, String name) {
         Preconditions.checkNotNull(name, "name cannot be null");
+        this.metrics = metrics;
+        this.name = name;
 
         if(metrics != null){
             partitionKeySuccessMeter = metrics.meter(name + "-partition-key-success");
@@ -36,10 +48,74 @@ public class ProducerMetrics implements PutterMetrics, HasFailureThresholds {
             encodeSuccessMeter = metrics.meter(name + "-encode-success");
             sentMeter = metrics.meter(name + "-sent");
             failedMeter = metrics.meter(name + "-failed");
+            retriedMeter = metrics.meter(name + "-retried");
             putRecordsTimer = metrics.timer(name + "-put-records-time");
         }
     }
 
+    /**
+     * Registers gauges of the limiter, if it has any, replacing those of a previous limiter with the same scope.
+     * @param scope distinguishes limiters of one producer, for example a shard id, may be empty
+     */
+    public final void rateLimiter(String scope, AcquireLimiter limiter){
+        if(metrics != null){
+            String prefix = name + (scope.isEmpty() ? "" : "-" + scope) + "-rate-limit-";
+            for (Map.Entry<String, Gauge<?>> gauge : limiter.gauges().entrySet()) {
+                metrics.remove(prefix + gauge.getKey());
+                metrics.register(prefix + gauge.getKey(), gauge.getValue());
+            }
+        }
+    }
+
+    /**
+     * Removes gauges of the limiter with that scope, for example when its shard is retired.
+     * @param scope scope the limiter was registered with
+     */
+    public final void removeRateLimiter(String scope){
+        if(metrics != null){
+            String prefix = name + (scope.isEmpty() ? "" : "-" + scope) + "-rate-limit-";
+            metrics.removeMatching((metricName, metric) -> metricName.startsWith(prefix));
+        }
+    }
+
+    /**
+     * Registers a gauge of events waiting in the encode stage, and starts timing encoding.
+     */
+    public final void encodeStage(EncodeStage stage){
+        if(metrics != null){
+            metrics.register(name + "-encode-queue-size", (Gauge<Integer>) stage::getQueued);
+            encodeTimer = metrics.timer(name + "-encode-time");
+        }
+    }
+
+    public final void encodeTime(long nanos) {
+        if(encodeTimer != null){
+            encodeTimer.update(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Registers a gauge of hot keys, and starts metering records spread by the balancer.
+     */
+    public final void keyBalancer(KeyBalancer keyBalancer){
+        if(metrics != null){
+            metrics.register(name + "-hot-keys", (Gauge<Integer>) keyBalancer::getHotKeys);
+            balancedMeter = metrics.meter(name + "-balanced");
+        }
+    }
+
+    public final void balanced(){
+        if(balancedMeter != null){
+            balancedMeter.mark();
+        }
+    }
+
+    public final void bufferPool(ByteBufferPool pool){
+        if(metrics != null){
+            metrics.register(name + "-pooled-buffers", (Gauge<Integer>) pool::getPooled);
+        }
+    }
+
     public final void partitionKeyed(){
         if(partitionKeySuccessMeter != null){
             partitionKeySuccessMeter.mark();
@@ -64,6 +140,12 @@ public class ProducerMetrics implements PutterMetrics, HasFailureThresholds {
         }
     }
 
+    public void encoded(int n) {
+        if(encodeSuccessMeter != null){
+            encodeSuccessMeter.mark(n);
+        }
+    }
+
     @Override
     public final void sent(long successCount, long numFailedRecords) {
         if(sentMeter != null){
@@ -72,6 +154,13 @@ public class ProducerMetrics implements PutterMetrics, HasFailureThresholds {
         }
     }
 
+    @Override
+    public final void retried(long count) {
+        if(retriedMeter != null){
+            retriedMeter.mark(count);
+        }
+    }
+
     @Override
     public final Closeable time() {
         return putRecordsTimer == null ? NoOpClose.INSTANCE : putRecordsTimer.time();
@@ -0,0 +1,199 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads shared by many buffered producers, a scheduler for flushing and a bounded pool for delivering.
+ * Each producer lane gets an executor running one delivery at a time on the pool, in submit order. A lane gives
+ * its thread back after every delivery and queues behind other lanes for the next, so busy producers take turns
+ * rather than starving quiet ones. Like a lane's own thread, submitting blocks while a delivery already waits.
+ */
+public class ProducerRuntime {
+
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService deliveryPool;
+
+    private final AtomicInteger waitingLanes = new AtomicInteger();
+    private final AtomicInteger activeLanes = new AtomicInteger();
+
+    /**
+     * @param scheduler runs flushes, should be shared by all producers
+     * @param deliveryPool runs deliveries, its queue should not be bounded, each lane queues at most once
+     */
+    public ProducerRuntime(ScheduledExecutorService scheduler, ExecutorService deliveryPool) {
+        Preconditions.checkNotNull(scheduler, "scheduler cannot be null");
+        Preconditions.checkNotNull(deliveryPool, "deliveryPool cannot be null");
+        this.scheduler = scheduler;
+        this.deliveryPool = deliveryPool;
+    }
+
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return a new executor running tasks one at a time on the delivery pool
+     */
+    public ExecutorService lane() {
+        return new Lane();
+    }
+
+    /**
+     * @return lanes waiting for a delivery thread
+     */
+    public int getWaitingLanes() {
+        return waitingLanes.get();
+    }
+
+    /**
+     * @return lanes delivering right now
+     */
+    public int getActiveLanes() {
+        return activeLanes.get();
+    }
+
+    private final class Lane extends AbstractExecutorService implements Runnable {
+
+        //all guarded by this
+        private final Queue<Runnable> tasks = new ArrayDeque<>(1);
+        private boolean scheduled = false;
+        private boolean running = false;
+        private boolean shutdown = false;
+
+        @Override
+        public void execute(Runnable command) {
+            Preconditions.checkNotNull(command, "command cannot be null");
+            boolean schedule;
+            synchronized (this) {
+                while (!tasks.isEmpty() && !shutdown) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("interrupted while waiting for lane", e);
+                    }
+                }
+                if (shutdown) {
+                    throw new RejectedExecutionException("lane was shutdown");
+                }
+                tasks.add(command);
+                schedule = !scheduled;
+                scheduled = true;
+            }
+            if (schedule && !schedule()) {
+                synchronized (this) {
+                    tasks.clear();
+                    scheduled = false;
+                    notifyAll();
+                }
+                throw new RejectedExecutionException("delivery pool was shutdown");
+            }
+        }
+
+        @Override
+        public void run() {
+            waitingLanes.decrementAndGet();
+            runNext();
+            if (hasNext() && !schedule()) {
+                //pool is shutting down, finish what this lane already accepted
+                while (hasNext()) {
+                    runNext();
+                }
+            }
+        }
+
+        private void runNext() {
+            activeLanes.incrementAndGet();
+            Runnable task;
+            synchronized (this) {
+                task = tasks.poll();
+                running = true;
+                notifyAll();
+            }
+            try {
+                if (task != null) {
+                    task.run();
+                }
+            } finally {
+                activeLanes.decrementAndGet();
+                synchronized (this) {
+                    running = false;
+                    notifyAll();
+                }
+            }
+        }
+
+        /*
+         * @returns true if another task waits, otherwise the lane is unscheduled so the next execute schedules it
+         */
+        private synchronized boolean hasNext() {
+            scheduled = !tasks.isEmpty();
+            return scheduled;
+        }
+
+        /*
+         * Queues this lane behind the others waiting for a delivery thread.
+         * @returns false if the pool was shutdown
+         */
+        private boolean schedule() {
+            waitingLanes.incrementAndGet();
+            try {
+                deliveryPool.execute(this);
+                return true;
+            } catch (RejectedExecutionException e) {
+                waitingLanes.decrementAndGet();
+                return false;
+            }
+        }
+
+        @Override
+        public synchronized void shutdown() {
+            shutdown = true;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized List<Runnable> shutdownNow() {
+            shutdown = true;
+            List<Runnable> unrun = new ArrayList<>(tasks);
+            tasks.clear();
+            notifyAll();
+            return unrun;
+        }
+
+        @Override
+        public synchronized boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public synchronized boolean isTerminated() {
+            return shutdown && tasks.isEmpty() && !running;
+        }
+
+        @Override
+        public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long remainingNanos = unit.toNanos(timeout);
+            long deadline = System.nanoTime() + remainingNanos;
+            while (!isTerminated()) {
+                if (remainingNanos <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+                remainingNanos = deadline - System.nanoTime();
+            }
+            return true;
+        }
+    }
+}
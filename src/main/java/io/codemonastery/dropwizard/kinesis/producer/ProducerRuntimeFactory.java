@@ -0,0 +1,95 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Builds a {@link ProducerRuntime}, build it once and give it to every buffered producer factory which should share it.
+ */
+public class ProducerRuntimeFactory {
+
+    @Min(1)
+    @Max(256)
+    private int deliveryThreads = 8;
+
+    @Min(1)
+    @Max(16)
+    private int schedulerThreads = 1;
+
+    @JsonProperty
+    public int getDeliveryThreads() {
+        return deliveryThreads;
+    }
+
+    /**
+     * @param deliveryThreads most batches put at once, across all producers
+     */
+    @JsonProperty
+    public void setDeliveryThreads(int deliveryThreads) {
+        this.deliveryThreads = deliveryThreads;
+    }
+
+    @JsonIgnore
+    public ProducerRuntimeFactory deliveryThreads(int deliveryThreads) {
+        this.setDeliveryThreads(deliveryThreads);
+        return this;
+    }
+
+    @JsonProperty
+    public int getSchedulerThreads() {
+        return schedulerThreads;
+    }
+
+    /**
+     * @param schedulerThreads threads running flushes and shard refreshes, flushes only hand batches on so one is plenty
+     */
+    @JsonProperty
+    public void setSchedulerThreads(int schedulerThreads) {
+        this.schedulerThreads = schedulerThreads;
+    }
+
+    @JsonIgnore
+    public ProducerRuntimeFactory schedulerThreads(int schedulerThreads) {
+        this.setSchedulerThreads(schedulerThreads);
+        return this;
+    }
+
+    /**
+     * @param metrics registers gauges of waiting and active lanes if not null
+     * @param lifecycle manages threads if not null, build before the producers so threads stop after them
+     */
+    @JsonIgnore
+    public ProducerRuntime build(MetricRegistry metrics, LifecycleEnvironment lifecycle, String name) {
+        Preconditions.checkNotNull(name, "name cannot be null");
+        ScheduledExecutorService scheduler;
+        ExecutorService deliveryPool;
+        if (lifecycle != null) {
+            scheduler = lifecycle.scheduledExecutorService(name + "-scheduler-%d")
+                    .threads(schedulerThreads)
+                    .build();
+            deliveryPool = lifecycle.executorService(name + "-delivery-%d")
+                    .minThreads(deliveryThreads)
+                    .maxThreads(deliveryThreads)
+                    .build();
+        } else {
+            scheduler = Executors.newScheduledThreadPool(schedulerThreads);
+            deliveryPool = Executors.newFixedThreadPool(deliveryThreads);
+        }
+        ProducerRuntime runtime = new ProducerRuntime(scheduler, deliveryPool);
+        if (metrics != null) {
+            metrics.register(name + "-waiting-lanes", (Gauge<Integer>) runtime::getWaitingLanes);
+            metrics.register(name + "-active-lanes", (Gauge<Integer>) runtime::getActiveLanes);
+        }
+        return runtime;
+    }
+}
@@ -0,0 +1,22 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.amazonaws.services.kinesis.model.PutRecordsResultEntry;
+
+/**
+ * Kinesis rejected a record for a reason other than throttling, retrying will not help.
+ */
+public class PutRecordFailedException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final PutRecordsResultEntry result;
+
+    public PutRecordFailedException(PutRecordsResultEntry result) {
+        super(String.format("%s: %s", result.getErrorCode(), result.getErrorMessage()));
+        this.result = result;
+    }
+
+    public PutRecordsResultEntry getResult() {
+        return result;
+    }
+}
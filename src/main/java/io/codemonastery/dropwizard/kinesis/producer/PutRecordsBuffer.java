@@ -4,35 +4,78 @@ import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Lock free buffer, any number of threads may add while another drains.
+ * Each batch is an array preallocated for its record limit. Adding a record claims the next index and its bytes
+ * with a single compare and set, then writes the record into its slot. Handing off a full batch or draining swaps
+ * in a new batch with one compare and set, seals the old one against further claims and hands its array over as
+ * is, without copying. Only the thread sealing a batch may wait, for records claimed but not yet written, which
+ * are written right after being claimed. Returned batches are fixed size lists, they support set but not add or
+ * remove. Each batch remembers when its first record was added, so it can be sent once it lingered long enough.
+ * With an adaptive batch size, each batch takes the targets current when it was started, never more than the maximums.
+ */
 class PutRecordsBuffer {
 
+    /**
+     * Returned by add once the buffer was closed, the record was not added.
+     */
+    static final List<PutRecordsRequestEntry> CLOSED = Collections.unmodifiableList(new ArrayList<>());
+
+    /**
+     * Returned by add when told not to fill a batch and the record would have, the record was not added.
+     */
+    static final List<PutRecordsRequestEntry> FULL = Collections.unmodifiableList(new ArrayList<>());
+
     private static final Logger LOG = LoggerFactory.getLogger(PutRecordsBuffer.class);
 
-    private final ArrayDeque<PutRecordsRequestEntry> queue;
     private final int maxBufferByteSize;
+    private final int maxBufferRecordSize;
+    private final AdaptiveBatchSize batchSize;
 
-    private int bufferByteSize;
-    private int maxBufferRecordSize;
+    private final AtomicReference<Batch> current;
 
     public PutRecordsBuffer(int maxBufferRecordSize){
         this(maxBufferRecordSize, Producer.MAX_REQUEST_SIZE);
     }
 
     public PutRecordsBuffer(int maxBufferRecordSize, int maxBufferByteSize) {
+        this(maxBufferRecordSize, maxBufferByteSize, null);
+    }
+
+    /**
+     * @param batchSize if not null, batches are sealed at its targets rather than the maximums
+     */
+    public PutRecordsBuffer(int maxBufferRecordSize, int maxBufferByteSize, AdaptiveBatchSize batchSize) {
         this.maxBufferByteSize = maxBufferByteSize;
         this.maxBufferRecordSize = maxBufferRecordSize;
-        queue = new ArrayDeque<>(this.maxBufferRecordSize);
+        this.batchSize = batchSize;
+        this.current = new AtomicReference<>(newBatch());
+    }
+
+    public List<List<PutRecordsRequestEntry>> addAll(List<PutRecordsRequestEntry> es){
+        return addAll(es, new ArrayList<>());
     }
 
-    public synchronized List<List<PutRecordsRequestEntry>> addAll(List<PutRecordsRequestEntry> es){
+    /**
+     * Adds all entries, in order.
+     * @param closed entries not added because the buffer was closed are added to this
+     * @return batches which need to be sent, possibly empty
+     */
+    public List<List<PutRecordsRequestEntry>> addAll(List<PutRecordsRequestEntry> es, List<PutRecordsRequestEntry> closed){
         List<List<PutRecordsRequestEntry>> submitMes = new ArrayList<>();
         for (PutRecordsRequestEntry e : es) {
             List<PutRecordsRequestEntry> submitMe = add(e);
-            if(submitMe != null){
+            if(submitMe == CLOSED){
+                closed.add(e);
+            } else if(submitMe != null){
                 submitMes.add(submitMe);
             }
         }
@@ -42,37 +85,185 @@ class PutRecordsBuffer {
     /**
      * Adds the entry to this buffer, and returns list entries which need to be sent, null if buffer is not null
      * @param e entry to add
-     * @return null if not ready to send entries, a list otherwize
+     * @return null if not ready to send entries, CLOSED if buffer was closed, a list otherwize
+     */
+    public List<PutRecordsRequestEntry> add(PutRecordsRequestEntry e){
+        return add(e, Batch.UNSET, true);
+    }
+
+    /**
+     * @param mayFill false to return FULL rather than add e if it would hand back a batch
      */
-    public synchronized List<PutRecordsRequestEntry> add(PutRecordsRequestEntry e){
-        List<PutRecordsRequestEntry> submitMe = null;
+    List<PutRecordsRequestEntry> add(PutRecordsRequestEntry e, boolean mayFill){
+        return add(e, Batch.UNSET, mayFill);
+    }
 
-        if(e.getData().limit() > maxBufferByteSize){
+    /**
+     * Like add, but if e is the first record of a batch the batch is aged from firstNanos rather than now,
+     * for records which waited elsewhere before being added (e.g. in an aggregator).
+     * @param firstNanos System.nanoTime() e started waiting
+     */
+    List<PutRecordsRequestEntry> add(PutRecordsRequestEntry e, long firstNanos){
+        return add(e, firstNanos, true);
+    }
+
+    private List<PutRecordsRequestEntry> add(PutRecordsRequestEntry e, long firstNanos, boolean mayFill){
+        int size = e.getData().remaining();
+        if(size > maxBufferByteSize){
             LOG.error("Encountered extreme degenerate case, record was too large to fit in buffer, should have never encountered this!");
-        }else{
-            //if adding e is too many bytes or too many records
-            if(bufferByteSize + e.getData().limit() > maxBufferByteSize ||
-                    queue.size() == maxBufferRecordSize){
-                submitMe = new ArrayList<>(queue);
-                queue.clear();
-                bufferByteSize = 0;
-            }
+            PendingEntry.fail(e, new IllegalArgumentException("record too large to fit in buffer"));
+            return null;
+        }
 
-            queue.add(e);
-            bufferByteSize += e.getData().limit();
+        //started by e if the current batch turns out full, kept across retries
+        Batch next = null;
+        while (true) {
+            Batch batch = current.get();
+            if (batch == Batch.CLOSED) {
+                return CLOSED;
+            }
+            long state = batch.state.get();
+            if (Batch.isSealed(state)) {
+                //already swapped out, the next read sees the new batch
+                continue;
+            }
+            int count = Batch.count(state);
+            int bytes = Batch.bytes(state);
+            //an empty batch takes any record, even one larger than the batch's byte target
+            boolean fits = count == 0 || (count < batch.recordLimit && bytes + size <= batch.byteLimit);
+            if (!fits && !mayFill) {
+                return FULL;
+            }
+            if (fits) {
+                if (batch.state.compareAndSet(state, Batch.state(count + 1, bytes + size))) {
+                    batch.write(count, e, firstNanos);
+                    return null;
+                }
+            } else {
+                //adding e is too many bytes or too many records, e starts the next batch
+                if (next == null) {
+                    next = newBatch();
+                    next.state.set(Batch.state(1, size));
+                    next.write(0, e, firstNanos);
+                }
+                if (current.compareAndSet(batch, next)) {
+                    return batch.seal();
+                }
+            }
         }
+    }
 
-        return submitMe;
+    /**
+     * @param nowNanos System.nanoTime()
+     * @return how long the first record of the current batch has been waiting, zero if empty
+     */
+    public long ageNanos(long nowNanos) {
+        Batch batch = current.get();
+        long firstNanos = batch.firstNanos;
+        //first record may be claimed but not yet written
+        return firstNanos == Batch.UNSET ? 0 : Math.max(0, nowNanos - firstNanos);
     }
 
     /**
      * Returns list of entries to send, removes them from buffer
      * @return a possibly empty list, never null
      */
-    public synchronized List<PutRecordsRequestEntry> drain(){
-        List<PutRecordsRequestEntry> submitMe = new ArrayList<>(queue);
-        queue.clear();
-        bufferByteSize = 0;
-        return submitMe;
+    public List<PutRecordsRequestEntry> drain(){
+        return swap(false);
+    }
+
+    /**
+     * Like drain, but any later add returns CLOSED instead of adding.
+     * @return a possibly empty list, never null
+     */
+    public List<PutRecordsRequestEntry> close(){
+        return swap(true);
+    }
+
+    private List<PutRecordsRequestEntry> swap(boolean close) {
+        while (true) {
+            Batch batch = current.get();
+            if (batch == Batch.CLOSED || (Batch.count(batch.state.get()) == 0 && !close)) {
+                return new ArrayList<>();
+            }
+            if (current.compareAndSet(batch, close ? Batch.CLOSED : newBatch())) {
+                return batch.seal();
+            }
+        }
+    }
+
+    private Batch newBatch() {
+        return batchSize == null
+                ? new Batch(maxBufferRecordSize, maxBufferByteSize)
+                : new Batch(Math.min(maxBufferRecordSize, batchSize.getRecords()),
+                        Math.min(maxBufferByteSize, batchSize.getBytes()));
+    }
+
+    /*
+     * Records claim their index and bytes by compare and set of state, which packs the record count and byte count.
+     * Whoever swaps a batch out of current seals it, after which nothing more is claimed, and owns its records
+     * once every claimed slot was written.
+     */
+    private static final class Batch {
+
+        private static final long UNSET = Long.MIN_VALUE;
+
+        private static final long SEALED = Long.MIN_VALUE;
+
+        private static final Batch CLOSED = new Batch(0, 0);
+
+        private final PutRecordsRequestEntry[] entries;
+        private final int recordLimit;
+        private final int byteLimit;
+        private final AtomicLong state = new AtomicLong();
+        private final AtomicInteger written = new AtomicInteger();
+        private volatile long firstNanos = UNSET;
+
+        private Batch(int recordLimit, int byteLimit) {
+            this.entries = new PutRecordsRequestEntry[recordLimit];
+            this.recordLimit = recordLimit;
+            this.byteLimit = byteLimit;
+        }
+
+        private static long state(int count, int bytes) {
+            return ((long) count << 32) | bytes;
+        }
+
+        private static int count(long state) {
+            return (int) ((state & ~SEALED) >>> 32);
+        }
+
+        private static int bytes(long state) {
+            return (int) state;
+        }
+
+        private static boolean isSealed(long state) {
+            return (state & SEALED) != 0;
+        }
+
+        /*
+         * @param nanos System.nanoTime() e started waiting, UNSET for now, only used if e is the first record
+         */
+        private void write(int index, PutRecordsRequestEntry e, long nanos) {
+            if (index == 0) {
+                firstNanos = nanos == UNSET ? System.nanoTime() : nanos;
+            }
+            entries[index] = e;
+            written.incrementAndGet();
+        }
+
+        private List<PutRecordsRequestEntry> seal() {
+            long sealed = state.getAndUpdate(s -> s | SEALED);
+            int count = count(sealed);
+            //claimed slots are written right after being claimed, so this only waits for adds in progress
+            while (written.get() < count) {
+                Thread.yield();
+            }
+            if (count == 0) {
+                return new ArrayList<>();
+            }
+            List<PutRecordsRequestEntry> batch = Arrays.asList(entries);
+            return count == entries.length ? batch : batch.subList(0, count);
+        }
     }
 }
@@ -7,4 +7,6 @@ public interface PutterMetrics {
     Closeable time();
 
     void sent(long successCount, long failedCount);
+
+    void retried(long count);
 }
@@ -0,0 +1,211 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.amazonaws.services.kinesis.clientlibrary.types.Messages;
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import com.amazonaws.services.kinesis.model.PutRecordsResultEntry;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs many records into one kinesis record using the KPL aggregated record format:
+ * magic bytes, protobuf AggregatedRecord, md5 of the protobuf bytes.
+ * All records aggregated together land on the shard of the first, so only records predicted to land
+ * on the same shard should be given to the same aggregator. Not thread safe.
+ */
+class RecordAggregator {
+
+    static final byte[] MAGIC = new byte[]{(byte) 0xF3, (byte) 0x89, (byte) 0x9A, (byte) 0xC2};
+
+    private static final int DIGEST_SIZE = 16;
+
+    private final int maxAggregatedSize;
+
+    private final List<PutRecordsRequestEntry> entries = new ArrayList<>();
+    private final Map<String, Integer> partitionKeys = new HashMap<>();
+    private final Map<String, Integer> explicitHashKeys = new HashMap<>();
+    private final Messages.AggregatedRecord.Builder builder = Messages.AggregatedRecord.newBuilder();
+    private int size;
+    private long firstNanos;
+
+    RecordAggregator(int maxAggregatedSize) {
+        Preconditions.checkArgument(maxAggregatedSize > 0, "maxAggregatedSize must be positive");
+        Preconditions.checkArgument(maxAggregatedSize <= Producer.MAX_RECORD_SIZE, "maxAggregatedSize cannot be larger than max record size");
+        this.maxAggregatedSize = maxAggregatedSize;
+        reset();
+    }
+
+    /**
+     * @param entry entry to aggregate
+     * @return the previously aggregated record if adding entry would have made it too large, null otherwise
+     */
+    PutRecordsRequestEntry add(PutRecordsRequestEntry entry) {
+        PutRecordsRequestEntry ready = null;
+        if (isFull(entry)) {
+            ready = drain();
+        }
+        if (entries.isEmpty()) {
+            firstNanos = System.nanoTime();
+        }
+        //before keys are indexed, so new keys count toward the key tables
+        size += sizeOf(entry);
+
+        Messages.Record.Builder record = Messages.Record.newBuilder()
+                .setPartitionKeyIndex(index(partitionKeys, entry.getPartitionKey(), true))
+                .setData(ByteString.copyFrom(entry.getData().duplicate()));
+        if (entry.getExplicitHashKey() != null) {
+            record.setExplicitHashKeyIndex(index(explicitHashKeys, entry.getExplicitHashKey(), false));
+        }
+        builder.addRecords(record);
+        entries.add(entry);
+        return ready;
+    }
+
+    /**
+     * @return aggregated record of everything added since last drain, the original entry if only one was added,
+     * null if nothing was added
+     */
+    PutRecordsRequestEntry drain() {
+        PutRecordsRequestEntry drained = null;
+        if (entries.size() == 1) {
+            drained = entries.get(0);
+        } else if (entries.size() > 1) {
+            byte[] message = builder.build().toByteArray();
+            byte[] digest = Hashing.md5().hashBytes(message).asBytes();
+            ByteBuffer data = ByteBuffer.allocate(MAGIC.length + message.length + digest.length);
+            data.put(MAGIC).put(message).put(digest);
+            data.flip();
+            PutRecordsRequestEntry first = entries.get(0);
+            drained = new AggregatedEntry(new ArrayList<>(entries))
+                    .withPartitionKey(first.getPartitionKey())
+                    .withExplicitHashKey(first.getExplicitHashKey())
+                    .withData(data);
+        }
+        reset();
+        return drained;
+    }
+
+    /**
+     * @return true if adding entry would hand back the aggregated record
+     */
+    boolean isFull(PutRecordsRequestEntry entry) {
+        return !entries.isEmpty() && size + sizeOf(entry) > maxAggregatedSize;
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * @return System.nanoTime() the first record since last drain was added, meaningless if empty
+     */
+    long firstNanos() {
+        return firstNanos;
+    }
+
+    /**
+     * @param entries entries, some of which might be aggregated
+     * @return number of records before aggregation
+     */
+    static int userRecordCount(List<PutRecordsRequestEntry> entries) {
+        int count = 0;
+        for (PutRecordsRequestEntry entry : entries) {
+            count += entry instanceof AggregatedEntry ? ((AggregatedEntry) entry).entries.size() : 1;
+        }
+        return count;
+    }
+
+    /**
+     * @param entries entries, some of which might be aggregated
+     * @return records before aggregation
+     */
+    static List<PutRecordsRequestEntry> userRecords(List<PutRecordsRequestEntry> entries) {
+        List<PutRecordsRequestEntry> userRecords = new ArrayList<>(entries.size());
+        for (PutRecordsRequestEntry entry : entries) {
+            if (entry instanceof AggregatedEntry) {
+                userRecords.addAll(((AggregatedEntry) entry).entries);
+            } else {
+                userRecords.add(entry);
+            }
+        }
+        return userRecords;
+    }
+
+    private void reset() {
+        entries.clear();
+        partitionKeys.clear();
+        explicitHashKeys.clear();
+        builder.clear();
+        size = MAGIC.length + DIGEST_SIZE;
+    }
+
+    private int index(Map<String, Integer> table, String key, boolean isPartitionKey) {
+        Integer index = table.get(key);
+        if (index == null) {
+            index = table.size();
+            table.put(key, index);
+            if (isPartitionKey) {
+                builder.addPartitionKeyTable(key);
+            } else {
+                builder.addExplicitHashKeyTable(key);
+            }
+        }
+        return index;
+    }
+
+    /*
+     * Bytes entry adds to the aggregated record, upper bound if its keys are already in the key tables.
+     */
+    private int sizeOf(PutRecordsRequestEntry entry) {
+        int dataSize = entry.getData().remaining();
+        int recordSize = CodedOutputStream.computeUInt64Size(1, partitionKeys.size())
+                + 1 + CodedOutputStream.computeRawVarint32Size(dataSize) + dataSize;
+        int tablesSize = 0;
+        if (!partitionKeys.containsKey(entry.getPartitionKey())) {
+            tablesSize += CodedOutputStream.computeStringSize(1, entry.getPartitionKey());
+        }
+        if (entry.getExplicitHashKey() != null) {
+            recordSize += CodedOutputStream.computeUInt64Size(2, explicitHashKeys.size());
+            if (!explicitHashKeys.containsKey(entry.getExplicitHashKey())) {
+                tablesSize += CodedOutputStream.computeStringSize(2, entry.getExplicitHashKey());
+            }
+        }
+        return tablesSize + 1 + CodedOutputStream.computeRawVarint32Size(recordSize) + recordSize;
+    }
+
+    /**
+     * Every record in an aggregated record shares its result, so completing it completes all of them.
+     */
+    static final class AggregatedEntry extends PendingEntry {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<PutRecordsRequestEntry> entries;
+
+        private AggregatedEntry(List<PutRecordsRequestEntry> entries) {
+            super(null);
+            this.entries = entries;
+        }
+
+        @Override
+        protected void complete(PutRecordsResultEntry result) {
+            for (PutRecordsRequestEntry entry : entries) {
+                PendingEntry.complete(entry, result);
+            }
+        }
+
+        @Override
+        protected void fail(Throwable cause) {
+            for (PutRecordsRequestEntry entry : entries) {
+                PendingEntry.fail(entry, cause);
+            }
+        }
+    }
+}
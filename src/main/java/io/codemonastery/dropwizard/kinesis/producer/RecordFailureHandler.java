@@ -0,0 +1,17 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+
+/**
+ * Called for each record which was not put and will not be retried any more, for example to log or spill it.
+ */
+public interface RecordFailureHandler {
+
+    /**
+     * @param record record which failed
+     * @param cause {@link PutRecordFailedException} if kinesis rejected the record, otherwise exception putting it
+     * @param attempts number of attempts made
+     */
+    void failed(PutRecordsRequestEntry record, Throwable cause, int attempts);
+
+}
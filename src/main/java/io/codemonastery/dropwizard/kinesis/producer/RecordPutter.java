@@ -6,4 +6,11 @@ public interface RecordPutter {
 
     int send(PutRecordsRequest request) throws Exception;
 
+    /**
+     * @return batch size target this putter adapts to how kinesis copes with its puts, null if batches are not adapted
+     */
+    default AdaptiveBatchSize batchSize() {
+        return null;
+    }
+
 }
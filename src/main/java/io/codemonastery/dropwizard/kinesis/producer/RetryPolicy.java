@@ -0,0 +1,254 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import io.dropwizard.util.Duration;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How records which fail to be put are retried. Each error code is classified, throttled records also slow down
+ * the rate limiter, retryable records are retried after an exponential backoff with full jitter, permanent failures
+ * are never retried. Retries of retryable records stop after maxAttempts attempts or once the deadline passed,
+ * whichever comes first, zero meaning no limit. By default there is no attempt limit but a deadline of a few seconds.
+ * Time spent waiting on the rate limiter does not count towards the deadline. Throttled records are retried for as
+ * long as kinesis throttles them unless limitThrottled is set, in which case the same limits apply to them.
+ */
+public class RetryPolicy {
+
+    public enum Classification {
+        THROTTLED,
+        RETRYABLE,
+        PERMANENT
+    }
+
+    public static final String THROTTLED_ERROR_CODE = "ProvisionedThroughputExceededException";
+
+    public static final String INTERNAL_FAILURE_ERROR_CODE = "InternalFailure";
+
+    @NotNull
+    private Map<String, Classification> errorCodes = defaultErrorCodes();
+
+    @NotNull
+    private Classification unknownErrorCode = Classification.PERMANENT;
+
+    @Min(0)
+    private int maxAttempts = 0;
+
+    @Valid
+    @NotNull
+    private Duration deadline = Duration.seconds(5);
+
+    private boolean limitThrottled = false;
+
+    @Valid
+    @NotNull
+    private Duration initialBackoff = Duration.milliseconds(100);
+
+    @Valid
+    @NotNull
+    private Duration maxBackoff = Duration.seconds(10);
+
+    /**
+     * @return classification of error codes, includes defaults unless overridden
+     */
+    @JsonProperty
+    public Map<String, Classification> getErrorCodes() {
+        return errorCodes;
+    }
+
+    /**
+     * @param errorCodes classification of error codes, merged with defaults
+     */
+    @JsonProperty
+    public void setErrorCodes(Map<String, Classification> errorCodes) {
+        Map<String, Classification> merged = defaultErrorCodes();
+        if (errorCodes != null) {
+            merged.putAll(errorCodes);
+        }
+        this.errorCodes = merged;
+    }
+
+    @JsonIgnore
+    public RetryPolicy errorCode(String errorCode, Classification classification) {
+        this.errorCodes.put(errorCode, classification);
+        return this;
+    }
+
+    @JsonProperty
+    public Classification getUnknownErrorCode() {
+        return unknownErrorCode;
+    }
+
+    @JsonProperty
+    public void setUnknownErrorCode(Classification unknownErrorCode) {
+        this.unknownErrorCode = unknownErrorCode;
+    }
+
+    @JsonIgnore
+    public RetryPolicy unknownErrorCode(Classification unknownErrorCode) {
+        this.setUnknownErrorCode(unknownErrorCode);
+        return this;
+    }
+
+    @JsonProperty
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    @JsonProperty
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    @JsonIgnore
+    public RetryPolicy maxAttempts(int maxAttempts) {
+        this.setMaxAttempts(maxAttempts);
+        return this;
+    }
+
+    @JsonProperty
+    public Duration getDeadline() {
+        return deadline;
+    }
+
+    @JsonProperty
+    public void setDeadline(Duration deadline) {
+        this.deadline = deadline;
+    }
+
+    @JsonIgnore
+    public RetryPolicy deadline(Duration deadline) {
+        this.setDeadline(deadline);
+        return this;
+    }
+
+    @JsonProperty
+    public boolean isLimitThrottled() {
+        return limitThrottled;
+    }
+
+    @JsonProperty
+    public void setLimitThrottled(boolean limitThrottled) {
+        this.limitThrottled = limitThrottled;
+    }
+
+    @JsonIgnore
+    public RetryPolicy limitThrottled(boolean limitThrottled) {
+        this.setLimitThrottled(limitThrottled);
+        return this;
+    }
+
+    @JsonProperty
+    public Duration getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    @JsonProperty
+    public void setInitialBackoff(Duration initialBackoff) {
+        this.initialBackoff = initialBackoff;
+    }
+
+    @JsonIgnore
+    public RetryPolicy initialBackoff(Duration initialBackoff) {
+        this.setInitialBackoff(initialBackoff);
+        return this;
+    }
+
+    @JsonProperty
+    public Duration getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    @JsonProperty
+    public void setMaxBackoff(Duration maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+
+    @JsonIgnore
+    public RetryPolicy maxBackoff(Duration maxBackoff) {
+        this.setMaxBackoff(maxBackoff);
+        return this;
+    }
+
+    @JsonIgnore
+    public Classification classify(String errorCode) {
+        Classification classification = errorCodes.get(errorCode);
+        return classification == null ? unknownErrorCode : classification;
+    }
+
+    /**
+     * @return true if maxAttempts and deadline apply to records of this classification
+     */
+    @JsonIgnore
+    public boolean isLimited(Classification classification) {
+        return classification != Classification.THROTTLED || limitThrottled;
+    }
+
+    /**
+     * @param attempts attempts made so far
+     * @param startNanos System.nanoTime() when first attempt started
+     * @return true if another attempt may be made for a record of this classification
+     */
+    @JsonIgnore
+    public boolean canRetry(Classification classification, int attempts, long startNanos) {
+        return !isLimited(classification) || canRetry(attempts, startNanos);
+    }
+
+    /**
+     * @param attempts attempts made so far
+     * @param startNanos System.nanoTime() when first attempt started
+     * @return true if another attempt may be made for a limited record
+     */
+    @JsonIgnore
+    public boolean canRetry(int attempts, long startNanos) {
+        boolean canRetry = maxAttempts <= 0 || attempts < maxAttempts;
+        if (canRetry && deadline.getQuantity() > 0) {
+            canRetry = System.nanoTime() - startNanos < deadline.toNanoseconds();
+        }
+        return canRetry;
+    }
+
+    /**
+     * @param attempts attempts made so far, at least one
+     * @return millis to wait before next attempt, random between zero and the exponential backoff
+     */
+    @JsonIgnore
+    public long backoffMillis(int attempts) {
+        Preconditions.checkArgument(attempts > 0, "attempts must be positive");
+        long initial = initialBackoff.toMilliseconds();
+        long max = Math.max(initial, maxBackoff.toMilliseconds());
+        long exponential = initial << Math.min(attempts - 1, 30);
+        long cap = exponential <= 0 || exponential > max ? max : exponential;
+        return cap <= 0 ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    /**
+     * Sleeps for a backoff, unless limited and the deadline would pass first in which case sleeps until deadline.
+     */
+    @JsonIgnore
+    public void backoff(int attempts, long startNanos, boolean limited) throws InterruptedException {
+        long sleepMillis = backoffMillis(attempts);
+        if (limited && deadline.getQuantity() > 0) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline.toNanoseconds() - (System.nanoTime() - startNanos));
+            sleepMillis = Math.max(0, Math.min(sleepMillis, remainingMillis));
+        }
+        if (sleepMillis > 0) {
+            Thread.sleep(sleepMillis);
+        }
+    }
+
+    private static Map<String, Classification> defaultErrorCodes() {
+        Map<String, Classification> errorCodes = new HashMap<>();
+        errorCodes.put(THROTTLED_ERROR_CODE, Classification.THROTTLED);
+        errorCodes.put(INTERNAL_FAILURE_ERROR_CODE, Classification.RETRYABLE);
+        return errorCodes;
+    }
+}
@@ -0,0 +1,125 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import com.google.common.base.Preconditions;
+import io.codemonastery.dropwizard.kinesis.EventEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Sends each event to the stream picked by a stream selector, through one producer per stream, so batches never
+ * mix streams. Events are encoded once, here and on this producer's encode stage if any, into records the stream's
+ * producer buffers as they are, so producers of streams need no encode stage of their own.
+ * Events the selector picks no stream for go to the default stream, events of streams without a producer are skipped.
+ * This producer owns the producers of streams, it stops them, nothing else should.
+ */
+public class RoutingProducer<E> extends Producer<E> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoutingProducer.class);
+
+    private final Function<E, String> streamSelector;
+    private final String defaultStream;
+    private final Map<String, Producer<E>> producers;
+
+    /**
+     * @param producers producer of each stream, by stream name, must include defaultStream, stopped with this producer
+     */
+    public RoutingProducer(Function<E, String> partitionKeyFn,
+                           EventEncoder<E> encoder,
+                           ProducerMetrics metrics,
+                           ByteBufferPool bufferPool,
+                           EncodeStage encodeStage,
+                           KeyBalancer keyBalancer,
+                           Function<E, String> streamSelector,
+                           String defaultStream,
+                           Map<String, ? extends Producer<E>> producers) {
+        super(partitionKeyFn, encoder, metrics, bufferPool, encodeStage, keyBalancer);
+        Preconditions.checkNotNull(streamSelector, "streamSelector cannot be null");
+        Preconditions.checkNotNull(producers, "producers cannot be null");
+        Preconditions.checkArgument(producers.containsKey(defaultStream), "must have a producer for the default stream");
+        this.streamSelector = streamSelector;
+        this.defaultStream = defaultStream;
+        this.producers = new LinkedHashMap<>(producers);
+    }
+
+    /**
+     * Groups events by stream, then sends each group with its stream's producer, keeping order within a stream.
+     */
+    @Override
+    public void sendAll(List<E> events) throws Exception {
+        assertNotShutdownForSend();
+        Map<Producer<E>, List<E>> routed = new LinkedHashMap<>();
+        for (E event : events) {
+            Producer<E> producer = producer(event);
+            if (producer != null) {
+                routed.computeIfAbsent(producer, p -> new ArrayList<>()).add(event);
+            }
+        }
+        for (Map.Entry<Producer<E>, List<E>> entry : routed.entrySet()) {
+            sendAll(entry.getValue(), entry.getKey());
+        }
+    }
+
+    public Map<String, Producer<E>> getProducers() {
+        return producers;
+    }
+
+    @Override
+    protected void send(PutRecordsRequestEntry record) throws Exception {
+        producers.get(defaultStream).send(record);
+    }
+
+    @Override
+    protected void send(PutRecordsRequestEntry record, E event) throws Exception {
+        Producer<E> producer = producer(event);
+        if (producer == null) {
+            PendingEntry.fail(record, new IllegalArgumentException("no producer of the stream picked for event, see log"));
+            recycle(record);
+        } else {
+            producer.send(record);
+        }
+    }
+
+    @Override
+    protected void sendWithoutBlocking(PutRecordsRequestEntry record, E event) throws Exception {
+        Producer<E> producer = producer(event);
+        if (producer == null) {
+            PendingEntry.fail(record, new IllegalArgumentException("no producer of the stream picked for event, see log"));
+            recycle(record);
+        } else {
+            producer.sendWithoutBlocking(record, event);
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        super.stop();
+        for (Producer<E> producer : producers.values()) {
+            producer.stop();
+        }
+    }
+
+    /*
+     * @returns producer of the stream picked for event, null if event should be skipped
+     */
+    private Producer<E> producer(E event) {
+        String stream;
+        try {
+            stream = streamSelector.apply(event);
+        } catch (Exception e) {
+            LOG.error("Unexpected exception while selecting stream for event " + event, e);
+            return null;
+        }
+        Producer<E> producer = producers.get(stream == null ? defaultStream : stream);
+        if (producer == null) {
+            LOG.error(String.format("skipping event %s because there is no producer of stream %s", event, stream));
+        }
+        return producer;
+    }
+}
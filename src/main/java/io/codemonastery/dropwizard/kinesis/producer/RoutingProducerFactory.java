@@ -0,0 +1,187 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.amazonaws.services.kinesis.AmazonKinesis;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.health.HealthCheckRegistry;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+import io.dropwizard.setup.Environment;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Builds a {@link RoutingProducer}, with a buffered producer per stream, each configured like producer but for its
+ * stream. The stream name of producer is the default stream. All streams share one runtime, buffer pool, encode stage and key balancer.
+ */
+public class RoutingProducerFactory<E> {
+
+    @Valid
+    @NotNull
+    private BufferedProducerFactory<E> producer = new BufferedProducerFactory<>();
+
+    @NotNull
+    private List<String> streams = new ArrayList<>();
+
+    @Valid
+    @NotNull
+    private ProducerRuntimeFactory runtime = new ProducerRuntimeFactory();
+
+    private Function<E, String> streamSelector = event -> null;
+
+    @JsonProperty
+    public BufferedProducerFactory<E> getProducer() {
+        return producer;
+    }
+
+    /**
+     * @param producer configures the producer of every stream, its stream is the default stream
+     */
+    @JsonProperty
+    public void setProducer(BufferedProducerFactory<E> producer) {
+        this.producer = producer;
+    }
+
+    @JsonIgnore
+    public RoutingProducerFactory<E> producer(BufferedProducerFactory<E> producer) {
+        this.setProducer(producer);
+        return this;
+    }
+
+    @JsonProperty
+    public List<String> getStreams() {
+        return streams;
+    }
+
+    /**
+     * @param streams streams besides the default stream events may be routed to
+     */
+    @JsonProperty
+    public void setStreams(List<String> streams) {
+        this.streams = streams;
+    }
+
+    @JsonIgnore
+    public RoutingProducerFactory<E> streams(List<String> streams) {
+        this.setStreams(streams);
+        return this;
+    }
+
+    @JsonProperty
+    public ProducerRuntimeFactory getRuntime() {
+        return runtime;
+    }
+
+    /**
+     * @param runtime threads shared by all streams, unless producer was given a runtime already
+     */
+    @JsonProperty
+    public void setRuntime(ProducerRuntimeFactory runtime) {
+        this.runtime = runtime;
+    }
+
+    @JsonIgnore
+    public RoutingProducerFactory<E> runtime(ProducerRuntimeFactory runtime) {
+        this.setRuntime(runtime);
+        return this;
+    }
+
+    @JsonIgnore
+    public Function<E, String> getStreamSelector() {
+        return streamSelector;
+    }
+
+    /**
+     * @param streamSelector picks the stream of an event, null for the default stream
+     */
+    @JsonIgnore
+    public void setStreamSelector(Function<E, String> streamSelector) {
+        this.streamSelector = streamSelector;
+    }
+
+    @JsonIgnore
+    public RoutingProducerFactory<E> streamSelector(Function<E, String> streamSelector) {
+        this.setStreamSelector(streamSelector);
+        return this;
+    }
+
+    @JsonIgnore
+    public RoutingProducer<E> build(Environment environment, AmazonKinesis kinesis, String name) {
+        return build(environment == null ? null : environment.metrics(),
+                environment == null ? null : environment.healthChecks(),
+                environment == null ? null : environment.lifecycle(),
+                kinesis,
+                name);
+    }
+
+    /**
+     * Producer of each stream is named name-stream.
+     */
+    @JsonIgnore
+    public RoutingProducer<E> build(MetricRegistry metrics,
+                                    HealthCheckRegistry healthChecks,
+                                    LifecycleEnvironment lifecycle,
+                                    AmazonKinesis kinesis,
+                                    String name) {
+        Preconditions.checkNotNull(producer, "producer cannot be null");
+        Preconditions.checkNotNull(streams, "streams cannot be null");
+        Preconditions.checkNotNull(streamSelector, "streamSelector cannot be null");
+        Preconditions.checkNotNull(producer.getStreamName(), "producer must have a stream name, the default stream");
+        producer.checkConfiguration();
+
+        ProducerMetrics producerMetrics = new ProducerMetrics(metrics, name);
+        ProducerRuntime sharedRuntime = producer.getRuntime() != null
+                ? producer.getRuntime()
+                : runtime.build(metrics, lifecycle, name + "-runtime");
+        ByteBufferPool bufferPool = producer.buildBufferPool(producerMetrics);
+        EncodeStage encodeStage = producer.buildEncodeStage(lifecycle, name, producerMetrics);
+        //one sketch of all streams, a key hot in one stream is usually hot overall
+        KeyBalancer keyBalancer = producer.buildKeyBalancer(producerMetrics);
+
+        Set<String> streamNames = new LinkedHashSet<>();
+        streamNames.add(producer.getStreamName());
+        streamNames.addAll(streams);
+        Map<String, BufferedProducer<E>> producers = new LinkedHashMap<>();
+        for (String streamName : streamNames) {
+            String streamProducerName = name + "-" + streamName;
+            //records reach them encoded, the routing producer alone owns the encode stage and stops them
+            producers.put(streamName, producer.build(new BufferedProducerMetrics(metrics, streamProducerName),
+                    healthChecks,
+                    lifecycle,
+                    false,
+                    kinesis,
+                    streamProducerName,
+                    streamName,
+                    sharedRuntime,
+                    bufferPool,
+                    null,
+                    keyBalancer));
+        }
+
+        RoutingProducer<E> routingProducer = new RoutingProducer<>(
+                producer.getPartitionKeyFn(),
+                producer.recordEncoder(),
+                producerMetrics,
+                bufferPool,
+                encodeStage,
+                keyBalancer,
+                streamSelector,
+                producer.getStreamName(),
+                producers
+        );
+        if (lifecycle != null) {
+            //managed after the runtime and executors of each stream, so stops, and stops its producers, first
+            lifecycle.manage(routingProducer);
+        }
+        return routingProducer;
+    }
+}
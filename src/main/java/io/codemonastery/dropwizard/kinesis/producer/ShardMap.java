@@ -0,0 +1,175 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import com.amazonaws.services.kinesis.model.Shard;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Predicts which open shard a record will land on the same way kinesis does, by md5 of the
+ * partition key (or the explicit hash key if set) into the shard hash key ranges.
+ */
+public class ShardMap {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardMap.class);
+
+    private final Supplier<List<Shard>> shardLister;
+
+    private volatile Ranges ranges = Ranges.EMPTY;
+
+    /**
+     * @param shardLister lists shards of the stream, for example SimpleKinesisProxy::getShardList, may return null
+     */
+    public ShardMap(Supplier<List<Shard>> shardLister) {
+        Preconditions.checkNotNull(shardLister, "shardLister cannot be null");
+        this.shardLister = shardLister;
+    }
+
+    /**
+     * Lists shards again, keeping only the open ones.
+     * @return true if set of open shards changed
+     */
+    public boolean refresh() {
+        List<Shard> shards = null;
+        try {
+            shards = shardLister.get();
+        } catch (Exception e) {
+            LOG.warn("Could not list shards, keeping previous shard map", e);
+        }
+        boolean changed = false;
+        if (shards != null) {
+            Ranges newRanges = Ranges.of(shards);
+            changed = !newRanges.shardIds().equals(ranges.shardIds());
+            ranges = newRanges;
+            if (changed) {
+                LOG.info("Shard map now has open shards " + newRanges.shardIds());
+            }
+        }
+        return changed;
+    }
+
+    public Set<String> shardIds() {
+        return ranges.shardIds();
+    }
+
+    /**
+     * @param shardId an open shard
+     * @return shards the given one was split or merged from, empty if none or if shard is not open
+     */
+    public List<String> parentShardIds(String shardId) {
+        return ranges.parentShardIds(shardId);
+    }
+
+    /**
+     * @param record record to be put
+     * @return shard id the record is predicted to land on, null if shard map is empty or no shard matches
+     */
+    @Nullable
+    public String shardId(PutRecordsRequestEntry record) {
+        return ranges.shardId(hashKey(record));
+    }
+
+    static BigInteger hashKey(PutRecordsRequestEntry record) {
+        BigInteger hashKey;
+        if (record.getExplicitHashKey() != null) {
+            hashKey = new BigInteger(record.getExplicitHashKey());
+        } else {
+            byte[] md5 = Hashing.md5()
+                    .hashString(record.getPartitionKey(), StandardCharsets.UTF_8)
+                    .asBytes();
+            hashKey = new BigInteger(1, md5);
+        }
+        return hashKey;
+    }
+
+    private static final class Ranges {
+
+        private static final Ranges EMPTY = new Ranges(new BigInteger[0], new BigInteger[0], new String[0], Collections.emptyMap());
+
+        private final BigInteger[] startingHashKeys;
+        private final BigInteger[] endingHashKeys;
+        private final String[] shardIds;
+        private final Set<String> shardIdSet;
+        private final Map<String, List<String>> parentShardIds;
+
+        private static Ranges of(List<Shard> shards) {
+            List<Shard> open = new ArrayList<>(shards.size());
+            for (Shard shard : shards) {
+                if (shard.getSequenceNumberRange() == null || shard.getSequenceNumberRange().getEndingSequenceNumber() == null) {
+                    open.add(shard);
+                }
+            }
+            open.sort(Comparator.comparing(shard -> new BigInteger(shard.getHashKeyRange().getStartingHashKey())));
+
+            BigInteger[] startingHashKeys = new BigInteger[open.size()];
+            BigInteger[] endingHashKeys = new BigInteger[open.size()];
+            String[] shardIds = new String[open.size()];
+            Map<String, List<String>> parentShardIds = new HashMap<>();
+            for (int i = 0; i < open.size(); i++) {
+                Shard shard = open.get(i);
+                startingHashKeys[i] = new BigInteger(shard.getHashKeyRange().getStartingHashKey());
+                endingHashKeys[i] = new BigInteger(shard.getHashKeyRange().getEndingHashKey());
+                shardIds[i] = shard.getShardId();
+                List<String> parents = new ArrayList<>(2);
+                if (shard.getParentShardId() != null) {
+                    parents.add(shard.getParentShardId());
+                }
+                if (shard.getAdjacentParentShardId() != null) {
+                    parents.add(shard.getAdjacentParentShardId());
+                }
+                if (!parents.isEmpty()) {
+                    parentShardIds.put(shard.getShardId(), Collections.unmodifiableList(parents));
+                }
+            }
+            return new Ranges(startingHashKeys, endingHashKeys, shardIds, parentShardIds);
+        }
+
+        private Ranges(BigInteger[] startingHashKeys,
+                       BigInteger[] endingHashKeys,
+                       String[] shardIds,
+                       Map<String, List<String>> parentShardIds) {
+            this.startingHashKeys = startingHashKeys;
+            this.endingHashKeys = endingHashKeys;
+            this.shardIds = shardIds;
+            this.shardIdSet = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(shardIds)));
+            this.parentShardIds = parentShardIds;
+        }
+
+        private Set<String> shardIds() {
+            return shardIdSet;
+        }
+
+        private List<String> parentShardIds(String shardId) {
+            return parentShardIds.getOrDefault(shardId, Collections.emptyList());
+        }
+
+        private String shardId(BigInteger hashKey) {
+            int index = Arrays.binarySearch(startingHashKeys, hashKey);
+            if (index < 0) {
+                //insertion point - 1 is the last range starting before hash key
+                index = -index - 2;
+            }
+            String shardId = null;
+            if (index >= 0 && hashKey.compareTo(endingHashKeys[index]) <= 0) {
+                shardId = shardIds[index];
+            }
+            return shardId;
+        }
+    }
+}
@@ -22,7 +22,46 @@ public final class SimpleProducer<E> extends Producer<E> {
                           EventEncoder<E> encoder,
                           ProducerMetrics metrics,
                           RecordPutter putter) {
-        super(partitionKeyFn, encoder, metrics);
+        this(streamName, partitionKeyFn, encoder, metrics, putter, null);
+    }
+
+    /**
+     * @param bufferPool pool events are encoded into, may be null, see {@link Producer}
+     */
+    public SimpleProducer(String streamName,
+                          Function<E, String> partitionKeyFn,
+                          EventEncoder<E> encoder,
+                          ProducerMetrics metrics,
+                          RecordPutter putter,
+                          ByteBufferPool bufferPool) {
+        this(streamName, partitionKeyFn, encoder, metrics, putter, bufferPool, null);
+    }
+
+    /**
+     * @param encodeStage stage to encode and put on, may be null, see {@link Producer}
+     */
+    public SimpleProducer(String streamName,
+                          Function<E, String> partitionKeyFn,
+                          EventEncoder<E> encoder,
+                          ProducerMetrics metrics,
+                          RecordPutter putter,
+                          ByteBufferPool bufferPool,
+                          EncodeStage encodeStage) {
+        this(streamName, partitionKeyFn, encoder, metrics, putter, bufferPool, encodeStage, null);
+    }
+
+    /**
+     * @param keyBalancer spreads hot partition keys, may be null, see {@link Producer}
+     */
+    public SimpleProducer(String streamName,
+                          Function<E, String> partitionKeyFn,
+                          EventEncoder<E> encoder,
+                          ProducerMetrics metrics,
+                          RecordPutter putter,
+                          ByteBufferPool bufferPool,
+                          EncodeStage encodeStage,
+                          KeyBalancer keyBalancer) {
+        super(partitionKeyFn, encoder, metrics, bufferPool, encodeStage, keyBalancer);
         Preconditions.checkNotNull(streamName, "streamName cannot be null");
         Preconditions.checkNotNull(putter, "putter cannot be null");
         this.streamName = streamName;
@@ -34,7 +73,15 @@ public final class SimpleProducer<E> extends Producer<E> {
         PutRecordsRequest request = new PutRecordsRequest()
                 .withRecords(record)
                 .withStreamName(streamName);
-        int failedCount = putter.send(request);
+        int failedCount;
+        try {
+            failedCount = putter.send(request);
+        } catch (Exception e) {
+            PendingEntry.fail(record, e);
+            throw e;
+        } finally {
+            recycle(record);
+        }
         if (LOG.isDebugEnabled()) {
             String message = String.format("Put %d records to stream %s, %d failed",
                     request.getRecords().size(),
@@ -42,5 +89,6 @@ public final class SimpleProducer<E> extends Producer<E> {
                     failedCount);
             LOG.debug(message);
         }
+        PendingEntry.fail(record, new IllegalStateException("putter did not report a result for record"));
     }
 }
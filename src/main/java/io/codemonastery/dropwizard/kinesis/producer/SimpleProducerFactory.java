@@ -6,9 +6,11 @@ import com.codahale.metrics.health.HealthCheckRegistry;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import io.codemonastery.dropwizard.kinesis.Compression;
 import io.codemonastery.dropwizard.kinesis.EventEncoder;
 import io.codemonastery.dropwizard.kinesis.StreamCreateConfiguration;
 import io.codemonastery.dropwizard.kinesis.healthcheck.StreamHealthCheck;
+import io.codemonastery.dropwizard.kinesis.producer.ratelimit.AcquireLimiter;
 import io.codemonastery.dropwizard.kinesis.producer.ratelimit.AcquireLimiterFactory;
 import io.codemonastery.dropwizard.kinesis.producer.ratelimit.NoLimitAcquireLimiter;
 import io.codemonastery.dropwizard.kinesis.producer.ratelimit.RateLimitedRecordPutter;
@@ -48,6 +50,48 @@ public class SimpleProducerFactory<E> extends AbstractProducerFactory<E> {
         return this;
     }
 
+    @Override
+    public SimpleProducerFactory<E> compression(Compression compression) {
+        super.compression(compression);
+        return this;
+    }
+
+    @Override
+    public SimpleProducerFactory<E> retry(RetryPolicy retry) {
+        super.retry(retry);
+        return this;
+    }
+
+    @Override
+    public SimpleProducerFactory<E> failureHandler(RecordFailureHandler failureHandler) {
+        super.failureHandler(failureHandler);
+        return this;
+    }
+
+    @Override
+    public SimpleProducerFactory<E> bufferPool(ByteBufferPoolFactory bufferPool) {
+        super.bufferPool(bufferPool);
+        return this;
+    }
+
+    @Override
+    public SimpleProducerFactory<E> encodeStage(EncodeStageFactory encodeStage) {
+        super.encodeStage(encodeStage);
+        return this;
+    }
+
+    @Override
+    public SimpleProducerFactory<E> keyBalancing(KeyBalancerFactory keyBalancing) {
+        super.keyBalancing(keyBalancing);
+        return this;
+    }
+
+    @Override
+    public SimpleProducerFactory<E> idempotent(boolean idempotent) {
+        super.idempotent(idempotent);
+        return this;
+    }
+
     @Override
     public SimpleProducer<E> build(MetricRegistry metrics,
                                    HealthCheckRegistry healthChecks,
@@ -56,22 +100,30 @@ public class SimpleProducerFactory<E> extends AbstractProducerFactory<E> {
                                    String name) {
         Preconditions.checkNotNull(encoder, "encoder cannot be null, was not inferred");
         Preconditions.checkNotNull(partitionKeyFn, "partitionKeyFn cannot be null, is allowed to return null");
+        Preconditions.checkNotNull(retry, "retry cannot be null");
         Preconditions.checkState(super.setupStream(kinesis), String.format("stream %s was not setup successfully", getStreamName()));
 
         ProducerMetrics producerMetrics = new ProducerMetrics(metrics, name);
         if (healthChecks != null) {
             healthChecks.register(name, new StreamFailureCheck(producerMetrics, new StreamHealthCheck(kinesis, getStreamName())));
         }
+        AcquireLimiter limiter = Optional.fromNullable(rateLimit).or(NoLimitAcquireLimiter::new).build(openShardCount(kinesis));
+        producerMetrics.rateLimiter("", limiter);
         SimpleProducer<E> producer = new SimpleProducer<>(
                 getStreamName(),
                 partitionKeyFn,
-                encoder,
+                recordEncoder(),
                 producerMetrics,
                 new RateLimitedRecordPutter(
                         kinesis,
                         producerMetrics,
-                        Optional.fromNullable(rateLimit).or(NoLimitAcquireLimiter::new).build()
-                )
+                        limiter,
+                        retry,
+                        failureHandler
+                ),
+                buildBufferPool(producerMetrics),
+                buildEncodeStage(lifecycle, name, producerMetrics),
+                buildKeyBalancer(producerMetrics)
         );
         if (lifecycle != null) {
             lifecycle.manage(producer);
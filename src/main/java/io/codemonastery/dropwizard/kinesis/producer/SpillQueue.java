@@ -0,0 +1,400 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * FIFO queue of batches on local disk, in append only memory mapped segment files, so batches survive a restart.
+ * Each segment starts with the position of its next unread frame, followed by frames of
+ * [length, crc32, record count, records...], length and crc32 covering the rest of the frame. A zero length ends a segment, a frame with a bad crc
+ * (torn write during a crash) ends it too. Fully read segments are deleted.
+ * Delivery is at least once, a batch peeked and sent but not yet removed when the process died is sent again.
+ * One consumer may peek and remove while any number of producers put.
+ */
+public class SpillQueue implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillQueue.class);
+
+    /**
+     * Segments must fit the largest batch, a full put records request.
+     */
+    public static final int MIN_SEGMENT_SIZE = 2 * Producer.MAX_REQUEST_SIZE;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int FRAME_HEADER_SIZE = 8;
+    private static final String SEGMENT_PREFIX = "spill-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    //batches written during this run which carry futures, by frame index, so their futures still complete
+    private final Map<Long, List<PutRecordsRequestEntry>> originals = new HashMap<>();
+
+    private long nextSegmentId;
+    private long writtenFrames;
+    private long readFrames;
+    private long sizeBytes;
+    private List<PutRecordsRequestEntry> head;
+    private boolean closed = false;
+
+    /**
+     * Opens the queue, recovering any batches left in directory by a previous run.
+     * @param directory directory for segment files, created if missing
+     * @param segmentSize bytes per segment file, at least {@link #MIN_SEGMENT_SIZE}
+     * @param maxSize bytes all segments together may use, at least one segment
+     */
+    public SpillQueue(Path directory, int segmentSize, long maxSize) throws IOException {
+        Preconditions.checkNotNull(directory, "directory cannot be null");
+        Preconditions.checkArgument(segmentSize >= MIN_SEGMENT_SIZE, "segmentSize must be at least " + MIN_SEGMENT_SIZE);
+        Preconditions.checkArgument(maxSize >= segmentSize, "maxSize must fit at least one segment");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.min(Integer.MAX_VALUE, maxSize / segmentSize);
+
+        Files.createDirectories(directory);
+        List<Path> existing = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(existing::add);
+        }
+        existing.sort(null);
+        for (Path path : existing) {
+            nextSegmentId = Math.max(nextSegmentId, segmentId(path) + 1);
+            Segment segment = Segment.open(path, segmentSize);
+            if (segment.frames == 0) {
+                segment.delete();
+            } else {
+                segments.addLast(segment);
+                writtenFrames += segment.frames;
+                sizeBytes += segment.writePosition - segment.readPosition;
+                //never append to a recovered segment, its tail might be torn
+                segment.full = true;
+            }
+        }
+        if (writtenFrames > 0) {
+            LOG.info(String.format("Recovered %d spilled batches from %s", writtenFrames, directory));
+        }
+    }
+
+    /**
+     * Appends batch, waiting for space if the queue is at its max size.
+     * @return false if queue was closed, or interrupted while waiting
+     */
+    public synchronized boolean put(List<PutRecordsRequestEntry> batch) throws IOException {
+        byte[] frame = encode(batch);
+        Preconditions.checkArgument(HEADER_SIZE + FRAME_HEADER_SIZE + frame.length <= segmentSize, "batch too large for segment");
+        while (!closed) {
+            Segment tail = segments.peekLast();
+            if (tail == null || tail.full || !tail.fits(frame.length)) {
+                if (tail != null) {
+                    tail.full = true;
+                }
+                if (segments.size() >= maxSegments) {
+                    try {
+                        wait(TimeUnit.SECONDS.toMillis(1));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                    continue;
+                }
+                tail = Segment.create(directory.resolve(segmentName(nextSegmentId)), segmentSize);
+                nextSegmentId++;
+                segments.addLast(tail);
+            }
+            tail.append(frame);
+            if (hasFuture(batch)) {
+                originals.put(writtenFrames, batch);
+            }
+            writtenFrames++;
+            sizeBytes += FRAME_HEADER_SIZE + frame.length;
+            notifyAll();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param timeout how long to wait for a batch
+     * @return oldest batch without removing it, null if none arrived in time or queue was closed
+     */
+    public synchronized List<PutRecordsRequestEntry> peek(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!closed && readFrames == writtenFrames) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        if (closed) {
+            return null;
+        }
+        if (head == null) {
+            Segment segment = segments.peekFirst();
+            List<PutRecordsRequestEntry> original = originals.get(readFrames);
+            ByteBuffer frame = segment.readFrame();
+            head = original != null ? original : decode(frame);
+        }
+        return head;
+    }
+
+    /**
+     * Removes the batch last returned by peek, once it was delivered.
+     */
+    public synchronized void remove() throws IOException {
+        if (closed || head == null) {
+            return;
+        }
+        Segment segment = segments.peekFirst();
+        int frameSize = segment.advance();
+        originals.remove(readFrames);
+        readFrames++;
+        sizeBytes -= frameSize;
+        head = null;
+        if (segment.isDrained()) {
+            segments.removeFirst();
+            segment.delete();
+        }
+        notifyAll();
+    }
+
+    public synchronized boolean isEmpty() {
+        return readFrames == writtenFrames;
+    }
+
+    /**
+     * @return number of batches not yet removed
+     */
+    public synchronized long batches() {
+        return writtenFrames - readFrames;
+    }
+
+    /**
+     * @return bytes of batches not yet removed
+     */
+    public synchronized long sizeBytes() {
+        return sizeBytes;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            for (Segment segment : segments) {
+                segment.close();
+            }
+            notifyAll();
+        }
+    }
+
+    private static boolean hasFuture(List<PutRecordsRequestEntry> batch) {
+        for (PutRecordsRequestEntry entry : batch) {
+            if (entry instanceof PendingEntry) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static byte[] encode(List<PutRecordsRequestEntry> batch) {
+        int size = 4;
+        List<byte[]> keys = new ArrayList<>(batch.size() * 2);
+        for (PutRecordsRequestEntry entry : batch) {
+            byte[] partitionKey = entry.getPartitionKey().getBytes(StandardCharsets.UTF_8);
+            byte[] explicitHashKey = entry.getExplicitHashKey() == null ? null : entry.getExplicitHashKey().getBytes(StandardCharsets.UTF_8);
+            keys.add(partitionKey);
+            keys.add(explicitHashKey);
+            size += 4 + partitionKey.length + 4 + (explicitHashKey == null ? 0 : explicitHashKey.length) + 4 + entry.getData().remaining();
+        }
+        ByteBuffer frame = ByteBuffer.allocate(size);
+        frame.putInt(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            byte[] partitionKey = keys.get(2 * i);
+            byte[] explicitHashKey = keys.get(2 * i + 1);
+            frame.putInt(partitionKey.length).put(partitionKey);
+            if (explicitHashKey == null) {
+                frame.putInt(-1);
+            } else {
+                frame.putInt(explicitHashKey.length).put(explicitHashKey);
+            }
+            ByteBuffer data = batch.get(i).getData().duplicate();
+            frame.putInt(data.remaining()).put(data);
+        }
+        return frame.array();
+    }
+
+    static List<PutRecordsRequestEntry> decode(ByteBuffer frame) {
+        int count = frame.getInt();
+        List<PutRecordsRequestEntry> batch = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            PutRecordsRequestEntry entry = new PutRecordsRequestEntry()
+                    .withPartitionKey(readString(frame));
+            int explicitHashKeyLength = frame.getInt();
+            if (explicitHashKeyLength >= 0) {
+                byte[] explicitHashKey = new byte[explicitHashKeyLength];
+                frame.get(explicitHashKey);
+                entry.setExplicitHashKey(new String(explicitHashKey, StandardCharsets.UTF_8));
+            }
+            byte[] data = new byte[frame.getInt()];
+            frame.get(data);
+            batch.add(entry.withData(ByteBuffer.wrap(data)));
+        }
+        return batch;
+    }
+
+    private static String readString(ByteBuffer frame) {
+        byte[] bytes = new byte[frame.getInt()];
+        frame.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String segmentName(long id) {
+        return String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX);
+    }
+
+    private static long segmentId(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static final class Segment {
+
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private int readPosition;
+        private int writePosition;
+        private long frames;
+        private boolean full = false;
+
+        private static Segment create(Path path, int size) throws IOException {
+            Segment segment = new Segment(path, size);
+            segment.writeReadPosition(HEADER_SIZE);
+            segment.readPosition = HEADER_SIZE;
+            segment.writePosition = HEADER_SIZE;
+            return segment;
+        }
+
+        private static Segment open(Path path, int size) throws IOException {
+            Segment segment = new Segment(path, size);
+            int readPosition = segment.buffer.getInt(0);
+            segment.readPosition = readPosition < HEADER_SIZE ? HEADER_SIZE : readPosition;
+            //scan for the end of valid frames, counting those not yet read
+            int position = segment.readPosition;
+            while (segment.isValidFrame(position)) {
+                position += FRAME_HEADER_SIZE + segment.buffer.getInt(position);
+                segment.frames++;
+            }
+            segment.writePosition = position;
+            return segment;
+        }
+
+        private Segment(Path path, int size) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        private boolean fits(int frameLength) {
+            return writePosition + FRAME_HEADER_SIZE + frameLength <= buffer.capacity();
+        }
+
+        private void append(byte[] frame) {
+            CRC32 crc = new CRC32();
+            crc.update(frame);
+            ByteBuffer target = buffer.duplicate();
+            target.position(writePosition + 4);
+            target.putInt((int) crc.getValue());
+            target.put(frame);
+            //length last, so a torn frame is never mistaken for a whole one
+            buffer.putInt(writePosition, frame.length);
+            writePosition += FRAME_HEADER_SIZE + frame.length;
+            frames++;
+        }
+
+        private boolean isValidFrame(int position) {
+            if (position + FRAME_HEADER_SIZE > buffer.capacity()) {
+                return false;
+            }
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + FRAME_HEADER_SIZE + length > buffer.capacity()) {
+                return false;
+            }
+            ByteBuffer frame = frame(position);
+            CRC32 crc = new CRC32();
+            byte[] bytes = new byte[frame.remaining()];
+            frame.get(bytes);
+            crc.update(bytes);
+            return buffer.getInt(position + 4) == (int) crc.getValue();
+        }
+
+        private ByteBuffer frame(int position) {
+            int length = buffer.getInt(position);
+            ByteBuffer frame = buffer.duplicate();
+            frame.limit(position + FRAME_HEADER_SIZE + length);
+            frame.position(position + FRAME_HEADER_SIZE);
+            return frame.slice();
+        }
+
+        private ByteBuffer readFrame() {
+            return frame(readPosition);
+        }
+
+        /*
+         * @return bytes of the frame read
+         */
+        private int advance() {
+            int frameSize = FRAME_HEADER_SIZE + buffer.getInt(readPosition);
+            readPosition += frameSize;
+            frames--;
+            writeReadPosition(readPosition);
+            return frameSize;
+        }
+
+        private boolean isDrained() {
+            return full && readPosition == writePosition;
+        }
+
+        private void writeReadPosition(int readPosition) {
+            buffer.putInt(0, readPosition);
+        }
+
+        private void close() throws IOException {
+            buffer.force();
+            channel.close();
+        }
+
+        private void delete() throws IOException {
+            channel.close();
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import io.dropwizard.util.Size;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Where and how much a buffered producer may spill to local disk while kinesis cannot keep up.
+ * Each producer needs a directory of its own, batches left in it are delivered on the next start.
+ */
+public class SpillQueueFactory {
+
+    @NotEmpty
+    private String directory;
+
+    @Valid
+    @NotNull
+    private Size segmentSize = Size.megabytes(64);
+
+    @Valid
+    @NotNull
+    private Size maxSize = Size.gigabytes(1);
+
+    @JsonProperty
+    public String getDirectory() {
+        return directory;
+    }
+
+    @JsonProperty
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    @JsonIgnore
+    public SpillQueueFactory directory(String directory) {
+        this.setDirectory(directory);
+        return this;
+    }
+
+    @JsonProperty
+    public Size getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * @param segmentSize size of each memory mapped segment file, at least 10 megabytes
+     */
+    @JsonProperty
+    public void setSegmentSize(Size segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    @JsonIgnore
+    public SpillQueueFactory segmentSize(Size segmentSize) {
+        this.setSegmentSize(segmentSize);
+        return this;
+    }
+
+    @JsonProperty
+    public Size getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize disk space all segments may use, once reached senders block until spilled batches are delivered
+     */
+    @JsonProperty
+    public void setMaxSize(Size maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    @JsonIgnore
+    public SpillQueueFactory maxSize(Size maxSize) {
+        this.setMaxSize(maxSize);
+        return this;
+    }
+
+    @JsonIgnore
+    public SpillQueue build() throws IOException {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(directory), "directory cannot be empty");
+        Preconditions.checkNotNull(segmentSize, "segmentSize cannot be null");
+        Preconditions.checkNotNull(maxSize, "maxSize cannot be null");
+        Preconditions.checkArgument(segmentSize.toBytes() <= Integer.MAX_VALUE, "segmentSize must be less than 2 gigabytes");
+        return new SpillQueue(Paths.get(directory), (int) segmentSize.toBytes(), maxSize.toBytes());
+    }
+}
@@ -1,9 +1,39 @@
 package io.codemonastery.dropwizard.kinesis.producer.ratelimit;
 
+import com.codahale.metrics.Gauge;
+
+import java.util.Collections;
+import java.util.Map;
+
 public interface AcquireLimiter {
 
     double acquire(int numPermits);
 
+    /**
+     * Like acquire(numPermits), for limiters which also limit bytes, by default bytes are ignored.
+     * @param numPermits records to be put
+     * @param numBytes bytes of those records, partition keys included
+     * @return seconds spent waiting
+     */
+    default double acquire(int numPermits, int numBytes) {
+        return acquire(numPermits);
+    }
+
     void update(int size, int rateExceededCount);
 
+    /**
+     * Like update(size, rateExceededCount), for limiters which also react to latency, by default latency is ignored.
+     * @param latencyNanos how long the put took
+     */
+    default void update(int size, int rateExceededCount, long latencyNanos) {
+        update(size, rateExceededCount);
+    }
+
+    /**
+     * @return gauges of limiter state by short name, empty by default
+     */
+    default Map<String, Gauge<?>> gauges() {
+        return Collections.emptyMap();
+    }
+
 }
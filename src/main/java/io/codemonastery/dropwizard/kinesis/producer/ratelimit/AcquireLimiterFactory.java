@@ -3,18 +3,29 @@ package io.codemonastery.dropwizard.kinesis.producer.ratelimit;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 
+import java.util.function.IntSupplier;
+
 @JsonTypeInfo(
         use = JsonTypeInfo.Id.NAME,
         property = "type",
         defaultImpl = DynamicAcquireLimiterFactory.class
 )
 @JsonSubTypes({
+        @JsonSubTypes.Type(value = AdaptiveAcquireLimiterFactory.class, name = "adaptive"),
         @JsonSubTypes.Type(value = DynamicAcquireLimiterFactory.class, name = "dynamic"),
         @JsonSubTypes.Type(value = FixedAcquireLimiterFactory.class, name = "fixed"),
-        @JsonSubTypes.Type(value = NoLimitAcquireLimiterFactory.class, name = "nolimit")
+        @JsonSubTypes.Type(value = NoLimitAcquireLimiterFactory.class, name = "nolimit"),
+        @JsonSubTypes.Type(value = ShardAwareAcquireLimiterFactory.class, name = "shardAware")
 })
 public interface AcquireLimiterFactory {
 
     AcquireLimiter build();
 
+    /**
+     * @param openShardCount number of open shards the limiter is putting to, for limiters which scale with shard count
+     */
+    default AcquireLimiter build(IntSupplier openShardCount) {
+        return build();
+    }
+
 }
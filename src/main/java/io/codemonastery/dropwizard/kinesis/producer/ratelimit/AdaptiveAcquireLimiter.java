@@ -0,0 +1,169 @@
+package io.codemonastery.dropwizard.kinesis.producer.ratelimit;
+
+import com.codahale.metrics.Gauge;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the rate kinesis accepts the way TCP CUBIC finds a congestion window. On throttling the rate drops to beta
+ * times the rate at which it happened, which becomes the estimated capacity, the rate then grows back along a cubic
+ * curve, quickly at first, flat near capacity, then quickly again to probe beyond it.
+ * Put latency above latencyTolerance times the lowest seen latency scales the rate down in proportion, so the rate
+ * eases off before kinesis starts throttling. The rate only grows beyond capacity while demand keeps up with it.
+ */
+public class AdaptiveAcquireLimiter implements AcquireLimiter {
+
+    private static final long MIN_DECREASE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long DEMAND_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final double minPerSecond;
+    private final double maxPerSecond;
+    private final double beta;
+    private final double cubic;
+    private final double latencyTolerance;
+    private final RateLimiter rateLimiter;
+
+    //all guarded by this
+    private double capacity;
+    private double secondsToCapacity;
+    private long epochNanos;
+    private long lastDecreaseNanos;
+    private double baselineLatencyNanos;
+    private double smoothedLatencyNanos;
+    private long demandWindowStartNanos;
+    private long demandWindowCount;
+    private double demandPerSecond;
+
+    /**
+     * @param initialPerSecond starting rate and starting capacity estimate
+     * @param minPerSecond rate never drops below this
+     * @param maxPerSecond rate never grows beyond this, zero for no limit
+     * @param beta fraction of the rate kept on throttling, between zero and one
+     * @param cubic how fast the rate grows, larger is faster, rate returns to capacity cbrt((1 - beta) / cubic) seconds after throttling
+     * @param latencyTolerance latency may grow to this multiple of the lowest latency before rate is scaled down
+     */
+    public AdaptiveAcquireLimiter(double initialPerSecond,
+                                  double minPerSecond,
+                                  double maxPerSecond,
+                                  double beta,
+                                  double cubic,
+                                  double latencyTolerance) {
+        Preconditions.checkArgument(minPerSecond > 0, "minPerSecond must be positive");
+        Preconditions.checkArgument(initialPerSecond >= minPerSecond, "initialPerSecond must be at least minPerSecond");
+        Preconditions.checkArgument(maxPerSecond <= 0 || maxPerSecond >= initialPerSecond, "maxPerSecond must be at least initialPerSecond");
+        Preconditions.checkArgument(beta > 0 && beta < 1, "beta must be between zero and one");
+        Preconditions.checkArgument(cubic > 0, "cubic must be positive");
+        Preconditions.checkArgument(latencyTolerance >= 1, "latencyTolerance must be at least one");
+        this.minPerSecond = minPerSecond;
+        this.maxPerSecond = maxPerSecond;
+        this.beta = beta;
+        this.cubic = cubic;
+        this.latencyTolerance = latencyTolerance;
+        this.rateLimiter = RateLimiter.create(initialPerSecond);
+
+        long now = System.nanoTime();
+        this.capacity = initialPerSecond;
+        //start on the flat part of the curve, at capacity
+        this.secondsToCapacity = 0;
+        this.epochNanos = now;
+        this.lastDecreaseNanos = now - MIN_DECREASE_INTERVAL_NANOS;
+        this.demandWindowStartNanos = now;
+    }
+
+    @Override
+    public double acquire(int numPermits) {
+        return rateLimiter.acquire(numPermits);
+    }
+
+    @Override
+    public void update(int size, int rateExceededCount) {
+        update(size, rateExceededCount, 0);
+    }
+
+    @Override
+    public synchronized void update(int size, int rateExceededCount, long latencyNanos) {
+        long now = System.nanoTime();
+        observeDemand(size, now);
+        if (latencyNanos > 0) {
+            observeLatency(latencyNanos);
+        }
+        double rate = rateLimiter.getRate();
+        if (rateExceededCount > 0) {
+            //one decrease per round trip, records of one request are throttled together
+            long interval = Math.max(MIN_DECREASE_INTERVAL_NANOS, (long) smoothedLatencyNanos);
+            if (now - lastDecreaseNanos >= interval) {
+                capacity = rate;
+                secondsToCapacity = Math.cbrt((1 - beta) / cubic);
+                epochNanos = now;
+                lastDecreaseNanos = now;
+                rate = rate * beta;
+            }
+        } else {
+            double t = (now - epochNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+            rate = capacity * (1 + cubic * Math.pow(t - secondsToCapacity, 3)) * gradient();
+            //app limited, do not probe far beyond what is actually being sent
+            rate = Math.min(rate, Math.max(capacity, 2 * demandPerSecond));
+        }
+        if (maxPerSecond > 0) {
+            rate = Math.min(rate, maxPerSecond);
+        }
+        rate = Math.max(rate, minPerSecond);
+        if (rate != rateLimiter.getRate()) {
+            rateLimiter.setRate(rate);
+        }
+    }
+
+    public double getRate() {
+        return rateLimiter.getRate();
+    }
+
+    public synchronized double getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public Map<String, Gauge<?>> gauges() {
+        Map<String, Gauge<?>> gauges = new HashMap<>();
+        gauges.put("rate", (Gauge<Double>) this::getRate);
+        gauges.put("capacity", (Gauge<Double>) this::getCapacity);
+        return gauges;
+    }
+
+    /*
+     * @returns one while latency is within tolerance, otherwise how far within tolerance it is, no less than MIN_GRADIENT
+     */
+    private double gradient() {
+        double gradient = 1.0;
+        if (baselineLatencyNanos > 0 && smoothedLatencyNanos > latencyTolerance * baselineLatencyNanos) {
+            gradient = Math.max(MIN_GRADIENT, latencyTolerance * baselineLatencyNanos / smoothedLatencyNanos);
+        }
+        return gradient;
+    }
+
+    private void observeLatency(long latencyNanos) {
+        if (baselineLatencyNanos == 0 || latencyNanos < baselineLatencyNanos) {
+            baselineLatencyNanos = latencyNanos;
+        } else {
+            //drift up slowly, so a baseline from a lucky request does not stick forever
+            baselineLatencyNanos += (latencyNanos - baselineLatencyNanos) * 0.01;
+        }
+        smoothedLatencyNanos = smoothedLatencyNanos == 0
+                ? latencyNanos
+                : smoothedLatencyNanos * 0.8 + latencyNanos * 0.2;
+    }
+
+    private void observeDemand(int size, long now) {
+        demandWindowCount += size;
+        long elapsed = now - demandWindowStartNanos;
+        if (elapsed >= DEMAND_WINDOW_NANOS) {
+            demandPerSecond = demandWindowCount * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+            demandWindowCount = 0;
+            demandWindowStartNanos = now;
+        }
+    }
+}
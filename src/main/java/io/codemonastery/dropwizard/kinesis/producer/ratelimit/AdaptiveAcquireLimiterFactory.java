@@ -0,0 +1,143 @@
+package io.codemonastery.dropwizard.kinesis.producer.ratelimit;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+public class AdaptiveAcquireLimiterFactory implements AcquireLimiterFactory {
+
+    @Min(1)
+    private double initialPerSecond = 1000.0;
+
+    @Min(1)
+    private double minPerSecond = 1.0;
+
+    @Min(0)
+    private double maxPerSecond = 0.0;
+
+    @DecimalMin(value = "0.0", inclusive = false)
+    @DecimalMax(value = "1.0", inclusive = false)
+    private double beta = 0.7;
+
+    @DecimalMin(value = "0.0", inclusive = false)
+    private double cubic = 0.1;
+
+    @DecimalMin("1.0")
+    private double latencyTolerance = 2.0;
+
+    @JsonProperty
+    public double getInitialPerSecond() {
+        return initialPerSecond;
+    }
+
+    @JsonProperty
+    public void setInitialPerSecond(double initialPerSecond) {
+        this.initialPerSecond = initialPerSecond;
+    }
+
+    @JsonIgnore
+    public AdaptiveAcquireLimiterFactory initialPerSecond(double initialPerSecond) {
+        this.setInitialPerSecond(initialPerSecond);
+        return this;
+    }
+
+    @JsonProperty
+    public double getMinPerSecond() {
+        return minPerSecond;
+    }
+
+    @JsonProperty
+    public void setMinPerSecond(double minPerSecond) {
+        this.minPerSecond = minPerSecond;
+    }
+
+    @JsonIgnore
+    public AdaptiveAcquireLimiterFactory minPerSecond(double minPerSecond) {
+        this.setMinPerSecond(minPerSecond);
+        return this;
+    }
+
+    @JsonProperty
+    public double getMaxPerSecond() {
+        return maxPerSecond;
+    }
+
+    /**
+     * @param maxPerSecond rate never grows beyond this, zero for no limit
+     */
+    @JsonProperty
+    public void setMaxPerSecond(double maxPerSecond) {
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    @JsonIgnore
+    public AdaptiveAcquireLimiterFactory maxPerSecond(double maxPerSecond) {
+        this.setMaxPerSecond(maxPerSecond);
+        return this;
+    }
+
+    @JsonProperty
+    public double getBeta() {
+        return beta;
+    }
+
+    /**
+     * @param beta fraction of the rate kept when throttled
+     */
+    @JsonProperty
+    public void setBeta(double beta) {
+        this.beta = beta;
+    }
+
+    @JsonIgnore
+    public AdaptiveAcquireLimiterFactory beta(double beta) {
+        this.setBeta(beta);
+        return this;
+    }
+
+    @JsonProperty
+    public double getCubic() {
+        return cubic;
+    }
+
+    /**
+     * @param cubic how fast the rate grows back and probes beyond capacity, larger is faster
+     */
+    @JsonProperty
+    public void setCubic(double cubic) {
+        this.cubic = cubic;
+    }
+
+    @JsonIgnore
+    public AdaptiveAcquireLimiterFactory cubic(double cubic) {
+        this.setCubic(cubic);
+        return this;
+    }
+
+    @JsonProperty
+    public double getLatencyTolerance() {
+        return latencyTolerance;
+    }
+
+    /**
+     * @param latencyTolerance multiple of the lowest put latency tolerated before the rate is scaled down
+     */
+    @JsonProperty
+    public void setLatencyTolerance(double latencyTolerance) {
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    @JsonIgnore
+    public AdaptiveAcquireLimiterFactory latencyTolerance(double latencyTolerance) {
+        this.setLatencyTolerance(latencyTolerance);
+        return this;
+    }
+
+    @Override
+    public AdaptiveAcquireLimiter build() {
+        return new AdaptiveAcquireLimiter(initialPerSecond, minPerSecond, maxPerSecond, beta, cubic, latencyTolerance);
+    }
+}
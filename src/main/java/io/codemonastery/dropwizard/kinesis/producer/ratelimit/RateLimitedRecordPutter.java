@@ -1,14 +1,24 @@
 package io.codemonastery.dropwizard.kinesis.producer.ratelimit;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.kinesis.AmazonKinesis;
 import com.amazonaws.services.kinesis.model.*;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Utf8;
+import io.codemonastery.dropwizard.kinesis.producer.AdaptiveBatchSize;
+import io.codemonastery.dropwizard.kinesis.producer.PendingEntry;
+import io.codemonastery.dropwizard.kinesis.producer.PutRecordFailedException;
 import io.codemonastery.dropwizard.kinesis.producer.PutterMetrics;
+import io.codemonastery.dropwizard.kinesis.producer.RecordFailureHandler;
 import io.codemonastery.dropwizard.kinesis.producer.RecordPutter;
+import io.codemonastery.dropwizard.kinesis.producer.RetryPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -19,59 +29,186 @@ public class RateLimitedRecordPutter implements RecordPutter {
     private final AmazonKinesis kinesis;
     private final PutterMetrics metrics;
     private final AcquireLimiter limiter;
+    private final RetryPolicy retryPolicy;
+    private final RecordFailureHandler failureHandler;
+    private final AdaptiveBatchSize batchSize;
 
     public RateLimitedRecordPutter(AmazonKinesis kinesis, PutterMetrics metrics, AcquireLimiter limiter) {
+        this(kinesis, metrics, limiter, new RetryPolicy(), null);
+    }
+
+    /**
+     * @param failureHandler called for records which failed for good, may be null in which case they are only logged
+     */
+    public RateLimitedRecordPutter(AmazonKinesis kinesis,
+                                   PutterMetrics metrics,
+                                   AcquireLimiter limiter,
+                                   RetryPolicy retryPolicy,
+                                   RecordFailureHandler failureHandler) {
+        this(kinesis, metrics, limiter, retryPolicy, failureHandler, null);
+    }
+
+    /**
+     * @param batchSize fed the outcome of each PutRecords call, may be null
+     */
+    public RateLimitedRecordPutter(AmazonKinesis kinesis,
+                                   PutterMetrics metrics,
+                                   AcquireLimiter limiter,
+                                   RetryPolicy retryPolicy,
+                                   RecordFailureHandler failureHandler,
+                                   AdaptiveBatchSize batchSize) {
+        Preconditions.checkNotNull(retryPolicy, "retryPolicy cannot be null");
         this.kinesis = kinesis;
         this.metrics = metrics;
         this.limiter = limiter;
+        this.retryPolicy = retryPolicy;
+        this.failureHandler = failureHandler;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public AdaptiveBatchSize batchSize() {
+        return batchSize;
     }
 
     @Override
     public int send(PutRecordsRequest request) throws Exception {
+        int recordCount = request.getRecords().size();
         int failedCount = 0;
+        long startNanos = System.nanoTime();
+        //time spent waiting on the limiter, does not count towards the retry deadline
+        long acquireNanos = 0;
         try (Closeable ignored = metrics.time()) {
-            boolean success = false;
-            //ok to retry indefinitely, only catching rate limit exceptions
-            while (!success) {
-                int numRecordsSent = request.getRecords().size();
-                int numRecordsRateExceeded = 0;
+            int attempts = 0;
+            boolean done = false;
+            while (!done) {
+                attempts++;
+                List<PutRecordsRequestEntry> records = request.getRecords();
+                List<PutRecordsRequestEntry> retryRecords = new ArrayList<>();
+                //why each retry record failed, a result entry or an exception
+                List<Object> retryCauses = new ArrayList<>();
+                List<RetryPolicy.Classification> retryClassifications = new ArrayList<>();
+                long putStartNanos = 0;
                 try {
-                    limiter.acquire(request.getRecords().size());
+                    long acquireStartNanos = System.nanoTime();
+                    limiter.acquire(records.size(), byteSize(records));
+                    acquireNanos += System.nanoTime() - acquireStartNanos;
+                    putStartNanos = System.nanoTime();
                     PutRecordsResult result = kinesis.putRecords(request);
+                    long latencyNanos = System.nanoTime() - putStartNanos;
                     int requestFailedCount = Optional.ofNullable(result.getFailedRecordCount()).orElse(0);
-                    if (requestFailedCount == 0) {
-                        success = true;
-                    } else {
-                        List<PutRecordsRequestEntry> newRecordsFromBackoff = new ArrayList<>(result.getRecords().size());
-                        List<PutRecordsRequestEntry> oldRecords = request.getRecords();
-                        for (int i = 0; i < result.getRecords().size(); i++) {
-                            PutRecordsResultEntry recordResult = result.getRecords().get(i);
-                            if ("ProvisionedThroughputExceededException".equals(recordResult.getErrorCode())) {
-                                newRecordsFromBackoff.add(oldRecords.get(i));
-                            }
-                        }
-
-                        if (newRecordsFromBackoff.isEmpty()) {
-                            success = true;
+                    List<PutRecordsResultEntry> results = result.getRecords() == null
+                            ? Collections.emptyList()
+                            : result.getRecords();
+                    int numRecordsRateExceeded = 0;
+                    for (int i = 0; i < results.size(); i++) {
+                        PutRecordsResultEntry recordResult = results.get(i);
+                        String errorCode = requestFailedCount == 0 || recordResult == null ? null : recordResult.getErrorCode();
+                        if (errorCode == null) {
+                            PendingEntry.complete(records.get(i), recordResult);
                         } else {
-                            numRecordsRateExceeded = newRecordsFromBackoff.size();
-                            request.setRecords(newRecordsFromBackoff);
+                            RetryPolicy.Classification classification = retryPolicy.classify(errorCode);
+                            if (classification == RetryPolicy.Classification.PERMANENT) {
+                                failedCount++;
+                                failed(records.get(i), new PutRecordFailedException(recordResult), attempts);
+                            } else {
+                                if (classification == RetryPolicy.Classification.THROTTLED) {
+                                    numRecordsRateExceeded++;
+                                }
+                                retryRecords.add(records.get(i));
+                                retryCauses.add(recordResult);
+                                retryClassifications.add(classification);
+                            }
                         }
-                        failedCount += requestFailedCount - numRecordsRateExceeded;
                     }
-                    limiter.update(numRecordsSent, numRecordsRateExceeded);
+                    limiter.update(records.size(), numRecordsRateExceeded, latencyNanos);
+                    if (batchSize != null) {
+                        batchSize.update(records.size(), numRecordsRateExceeded, latencyNanos);
+                    }
                 } catch (ProvisionedThroughputExceededException e) {
                     if (LOG.isDebugEnabled()) {
                         String message = String.format("Exceeded rate limit for stream \"%s\", backing off",
                                 request.getStreamName());
                         LOG.debug(message, e);
                     }
-                    limiter.update(request.getRecords().size(), request.getRecords().size());
+                    limiter.update(records.size(), records.size());
+                    if (batchSize != null) {
+                        batchSize.update(records.size(), records.size(), System.nanoTime() - putStartNanos);
+                    }
+                    retryRecords.addAll(records);
+                    retryCauses.addAll(Collections.nCopies(records.size(), e));
+                    retryClassifications.addAll(Collections.nCopies(records.size(), RetryPolicy.Classification.THROTTLED));
+                } catch (AmazonServiceException e) {
+                    if (e.getErrorType() == AmazonServiceException.ErrorType.Client) {
+                        //bad request, stream does not exist, etc, retrying will not help
+                        throw e;
+                    }
+                    LOG.warn(String.format("Kinesis failed to put records to stream \"%s\"", request.getStreamName()), e);
+                    retryRecords.addAll(records);
+                    retryCauses.addAll(Collections.nCopies(records.size(), e));
+                    retryClassifications.addAll(Collections.nCopies(records.size(), RetryPolicy.Classification.RETRYABLE));
+                } catch (AmazonClientException e) {
+                    LOG.warn(String.format("Could not reach kinesis to put records to stream \"%s\"", request.getStreamName()), e);
+                    retryRecords.addAll(records);
+                    retryCauses.addAll(Collections.nCopies(records.size(), e));
+                    retryClassifications.addAll(Collections.nCopies(records.size(), RetryPolicy.Classification.RETRYABLE));
+                }
+
+                long retryStartNanos = startNanos + acquireNanos;
+                List<PutRecordsRequestEntry> keptRecords = new ArrayList<>(retryRecords.size());
+                boolean limited = false;
+                for (int i = 0; i < retryRecords.size(); i++) {
+                    RetryPolicy.Classification classification = retryClassifications.get(i);
+                    if (retryPolicy.canRetry(classification, attempts, retryStartNanos)) {
+                        keptRecords.add(retryRecords.get(i));
+                        limited |= retryPolicy.isLimited(classification);
+                    } else {
+                        Object cause = retryCauses.get(i);
+                        failedCount++;
+                        failed(retryRecords.get(i),
+                                cause instanceof PutRecordsResultEntry
+                                        ? new PutRecordFailedException((PutRecordsResultEntry) cause)
+                                        : (Throwable) cause,
+                                attempts);
+                    }
+                }
+                if (keptRecords.isEmpty()) {
+                    done = true;
+                } else {
+                    metrics.retried(keptRecords.size());
+                    retryPolicy.backoff(attempts, retryStartNanos, limited);
+                    request.setRecords(keptRecords);
                 }
             }
         } finally {
-            metrics.sent(request.getRecords().size() - failedCount, failedCount);
+            metrics.sent(recordCount - failedCount, failedCount);
         }
         return failedCount;
     }
+
+    /*
+     * @returns bytes kinesis counts against the shard limit, data and partition key
+     */
+    private static int byteSize(List<PutRecordsRequestEntry> records) {
+        int bytes = 0;
+        for (PutRecordsRequestEntry record : records) {
+            bytes += record.getData() == null ? 0 : record.getData().remaining();
+            bytes += record.getPartitionKey() == null ? 0 : Utf8.encodedLength(record.getPartitionKey());
+        }
+        return bytes;
+    }
+
+    private void failed(PutRecordsRequestEntry record, Throwable cause, int attempts) {
+        PendingEntry.fail(record, cause);
+        if (failureHandler == null) {
+            LOG.error(String.format("Giving up on record with partition key %s after %d attempts",
+                    record.getPartitionKey(), attempts), cause);
+        } else {
+            try {
+                failureHandler.failed(record, cause, attempts);
+            } catch (Exception e) {
+                LOG.error("Unexpected exception from record failure handler", e);
+            }
+        }
+    }
 }
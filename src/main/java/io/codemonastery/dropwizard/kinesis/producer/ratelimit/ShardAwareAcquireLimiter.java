@@ -0,0 +1,109 @@
+package io.codemonastery.dropwizard.kinesis.producer.ratelimit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.IntSupplier;
+
+/**
+ * Limits records and bytes together, the way kinesis limits each shard, with a budget of
+ * recordsPerShard and bytesPerShard per second times the number of open shards.
+ * Shard count is asked for again at most once per refresh period, and both rates rescale when it changes.
+ */
+public class ShardAwareAcquireLimiter implements AcquireLimiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardAwareAcquireLimiter.class);
+
+    private final double recordsPerShard;
+    private final double bytesPerShard;
+    private final IntSupplier openShardCount;
+    private final long refreshPeriodNanos;
+
+    private final RateLimiter recordLimiter;
+    private final RateLimiter byteLimiter;
+
+    private volatile int shardCount;
+    private volatile long nextRefreshNanos;
+
+    /**
+     * @param openShardCount number of open shards, results less than one are ignored
+     * @param refreshPeriodNanos how often to ask openShardCount again
+     */
+    public ShardAwareAcquireLimiter(double recordsPerShard,
+                                    double bytesPerShard,
+                                    IntSupplier openShardCount,
+                                    long refreshPeriodNanos) {
+        Preconditions.checkArgument(recordsPerShard > 0, "recordsPerShard must be positive");
+        Preconditions.checkArgument(bytesPerShard > 0, "bytesPerShard must be positive");
+        Preconditions.checkNotNull(openShardCount, "openShardCount cannot be null");
+        this.recordsPerShard = recordsPerShard;
+        this.bytesPerShard = bytesPerShard;
+        this.openShardCount = openShardCount;
+        this.refreshPeriodNanos = refreshPeriodNanos;
+        this.shardCount = 1;
+        this.recordLimiter = RateLimiter.create(recordsPerShard);
+        this.byteLimiter = RateLimiter.create(bytesPerShard);
+        long now = System.nanoTime();
+        this.nextRefreshNanos = now;
+        refresh(now);
+    }
+
+    @Override
+    public double acquire(int numPermits) {
+        return acquire(numPermits, 0);
+    }
+
+    @Override
+    public double acquire(int numPermits, int numBytes) {
+        long now = System.nanoTime();
+        if (now - nextRefreshNanos >= 0) {
+            refresh(now);
+        }
+        double waited = numPermits > 0 ? recordLimiter.acquire(numPermits) : 0.0;
+        if (numBytes > 0) {
+            waited += byteLimiter.acquire(numBytes);
+        }
+        return waited;
+    }
+
+    @Override
+    public void update(int size, int rateExceededCount) {
+        //nothing to do, budget follows shard count rather than throttling
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public double getRecordRate() {
+        return recordLimiter.getRate();
+    }
+
+    public double getByteRate() {
+        return byteLimiter.getRate();
+    }
+
+    private synchronized void refresh(long now) {
+        if (now - nextRefreshNanos < 0) {
+            //another thread refreshed already
+            return;
+        }
+        nextRefreshNanos = now + refreshPeriodNanos;
+        int newShardCount = 0;
+        try {
+            newShardCount = openShardCount.getAsInt();
+        } catch (Exception e) {
+            LOG.warn("Could not count open shards, keeping rate limit of " + shardCount + " shards", e);
+        }
+        if (newShardCount > 0 && newShardCount != shardCount) {
+            LOG.info(String.format("Open shard count changed from %d to %d, rescaling rate limit", shardCount, newShardCount));
+            shardCount = newShardCount;
+        }
+        if (recordLimiter.getRate() != recordsPerShard * shardCount) {
+            recordLimiter.setRate(recordsPerShard * shardCount);
+            byteLimiter.setRate(bytesPerShard * shardCount);
+        }
+    }
+}
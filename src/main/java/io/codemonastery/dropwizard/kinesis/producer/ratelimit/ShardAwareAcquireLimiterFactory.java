@@ -0,0 +1,93 @@
+package io.codemonastery.dropwizard.kinesis.producer.ratelimit;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.function.IntSupplier;
+
+/**
+ * Limits records and bytes per second per open shard, defaults are the kinesis limits of 1000 records and
+ * 1 megabyte per second per shard.
+ */
+public class ShardAwareAcquireLimiterFactory implements AcquireLimiterFactory {
+
+    @Min(1)
+    private double recordsPerShardPerSecond = 1000.0;
+
+    @Valid
+    @NotNull
+    private Size bytesPerShardPerSecond = Size.megabytes(1);
+
+    @Valid
+    @NotNull
+    private Duration shardCountRefreshPeriod = Duration.minutes(1);
+
+    @JsonProperty
+    public double getRecordsPerShardPerSecond() {
+        return recordsPerShardPerSecond;
+    }
+
+    @JsonProperty
+    public void setRecordsPerShardPerSecond(double recordsPerShardPerSecond) {
+        this.recordsPerShardPerSecond = recordsPerShardPerSecond;
+    }
+
+    @JsonIgnore
+    public ShardAwareAcquireLimiterFactory recordsPerShardPerSecond(double recordsPerShardPerSecond) {
+        this.setRecordsPerShardPerSecond(recordsPerShardPerSecond);
+        return this;
+    }
+
+    @JsonProperty
+    public Size getBytesPerShardPerSecond() {
+        return bytesPerShardPerSecond;
+    }
+
+    @JsonProperty
+    public void setBytesPerShardPerSecond(Size bytesPerShardPerSecond) {
+        this.bytesPerShardPerSecond = bytesPerShardPerSecond;
+    }
+
+    @JsonIgnore
+    public ShardAwareAcquireLimiterFactory bytesPerShardPerSecond(Size bytesPerShardPerSecond) {
+        this.setBytesPerShardPerSecond(bytesPerShardPerSecond);
+        return this;
+    }
+
+    @JsonProperty
+    public Duration getShardCountRefreshPeriod() {
+        return shardCountRefreshPeriod;
+    }
+
+    @JsonProperty
+    public void setShardCountRefreshPeriod(Duration shardCountRefreshPeriod) {
+        this.shardCountRefreshPeriod = shardCountRefreshPeriod;
+    }
+
+    @JsonIgnore
+    public ShardAwareAcquireLimiterFactory shardCountRefreshPeriod(Duration shardCountRefreshPeriod) {
+        this.setShardCountRefreshPeriod(shardCountRefreshPeriod);
+        return this;
+    }
+
+    /**
+     * @return limiter with the budget of a single shard
+     */
+    @Override
+    public ShardAwareAcquireLimiter build() {
+        return build(() -> 1);
+    }
+
+    @Override
+    public ShardAwareAcquireLimiter build(IntSupplier openShardCount) {
+        return new ShardAwareAcquireLimiter(recordsPerShardPerSecond,
+                bytesPerShardPerSecond.toBytes(),
+                openShardCount,
+                shardCountRefreshPeriod.toNanoseconds());
+    }
+}
@@ -0,0 +1,56 @@
+package io.codemonastery.dropwizard.kinesis;
+
+import com.google.common.base.Strings;
+import io.dropwizard.jackson.Jackson;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompressionTest {
+
+    private static final byte[] COMPRESSIBLE = Strings.repeat("{\"a\":\"b\"}", 100).getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void roundTripsEveryCodec() throws Exception {
+        for (Compression compression : Compression.values()) {
+            byte[] compressed = compression.compress(COMPRESSIBLE);
+            if (compression == Compression.NONE) {
+                assertThat(compressed).isSameAs(COMPRESSIBLE);
+            } else {
+                assertThat(Compression.isFramed(compressed)).isTrue();
+                assertThat(compressed.length).isLessThan(COMPRESSIBLE.length);
+            }
+            assertThat(Compression.decompress(compressed)).isEqualTo(COMPRESSIBLE);
+        }
+    }
+
+    @Test
+    public void doesNotGrowSmallRecords() throws Exception {
+        byte[] small = "{}".getBytes(StandardCharsets.UTF_8);
+        assertThat(Compression.GZIP.compress(small)).isSameAs(small);
+    }
+
+    @Test
+    public void uncompressedPassesThrough() throws Exception {
+        assertThat(Compression.decompress(COMPRESSIBLE)).isSameAs(COMPRESSIBLE);
+    }
+
+    @Test
+    public void decoderReadsMixedRecords() throws Exception {
+        EventObjectMapper<Event> mapper = new EventObjectMapper<>(Jackson.newObjectMapper(), Event.class);
+        Event expected = new Event(Strings.repeat("a", 100), Strings.repeat("b", 100), Strings.repeat("c", 100));
+        EventEncoder<Event> encoder = new CompressingEventEncoder<>(mapper, Compression.FAST);
+        EventDecoder<Event> decoder = new DecompressingEventDecoder<>(mapper);
+
+        byte[] compressed = encoder.encode(expected);
+        byte[] uncompressed = mapper.encode(expected);
+        //noinspection ConstantConditions
+        assertThat(compressed.length).isLessThan(uncompressed.length);
+        assertThat(decoder.decode(ByteBuffer.wrap(compressed))).isEqualTo(expected);
+        //noinspection ConstantConditions
+        assertThat(decoder.decode(ByteBuffer.wrap(uncompressed))).isEqualTo(expected);
+    }
+}
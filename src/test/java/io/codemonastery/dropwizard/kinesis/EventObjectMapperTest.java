@@ -4,6 +4,7 @@ import io.dropwizard.jackson.Jackson;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -20,6 +21,51 @@ public class EventObjectMapperTest {
         assertThat(actual).isEqualTo(expected);
     }
 
+    @Test
+    public void encodesIntoBuffer() throws Exception {
+        EventObjectMapper<Event> objectMapper = new EventObjectMapper<>(Jackson.newObjectMapper(), Event.class);
+        Event expected = new Event("a", "b", "c");
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        ByteBuffer encoded = objectMapper.encode(expected, buffer);
+        assertThat(encoded).isSameAs(buffer);
+        assertThat(encoded.position()).isEqualTo(0);
+        //noinspection ConstantConditions
+        assertThat(encoded).isEqualTo(ByteBuffer.wrap(objectMapper.encode(expected)));
+    }
+
+    @Test
+    public void encodeOutgrowsSmallBuffer() throws Exception {
+        EventObjectMapper<Event> objectMapper = new EventObjectMapper<>(Jackson.newObjectMapper(), Event.class);
+        Event expected = new Event("a", "b", "c");
+        ByteBuffer buffer = ByteBuffer.allocate(2);
+        ByteBuffer encoded = objectMapper.encode(expected, buffer);
+        assertThat(encoded).isNotSameAs(buffer);
+        //noinspection ConstantConditions
+        assertThat(objectMapper.decode(ByteBuffer.wrap(Arrays.copyOf(encoded.array(), encoded.limit())))).isEqualTo(expected);
+    }
+
+    @Test
+    public void decodesBufferWindow() throws Exception {
+        EventObjectMapper<Event> objectMapper = new EventObjectMapper<>(Jackson.newObjectMapper(), Event.class);
+        Event expected = new Event("a", "b", "c");
+        byte[] encoded = objectMapper.encode(expected);
+        //noinspection ConstantConditions
+        byte[] padded = new byte[encoded.length + 6];
+        System.arraycopy(encoded, 0, padded, 3, encoded.length);
+
+        ByteBuffer heap = ByteBuffer.wrap(padded, 3, encoded.length).slice();
+        ByteBuffer readOnly = ByteBuffer.wrap(padded, 3, encoded.length).asReadOnlyBuffer();
+        ByteBuffer direct = ByteBuffer.allocateDirect(padded.length);
+        direct.put(padded).position(3);
+        direct.limit(3 + encoded.length);
+
+        for (ByteBuffer buffer : Arrays.asList(heap, readOnly, direct)) {
+            int position = buffer.position();
+            assertThat(objectMapper.decode(buffer)).isEqualTo(expected);
+            assertThat(buffer.position()).isEqualTo(position);
+        }
+    }
+
     @Test(expected = UnsupportedOperationException.class)
     public void decodeFailsBecauseMissingClass() throws Exception {
         EventObjectMapper<Event> objectMapper = new EventObjectMapper<>(Jackson.newObjectMapper(), null);
@@ -0,0 +1,51 @@
+package io.codemonastery.dropwizard.kinesis;
+
+import io.dropwizard.jackson.Jackson;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RecordIdTest {
+
+    private static final byte[] DATA = "{\"a\":\"b\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void readsStamp() throws Exception {
+        byte[] stamped = RecordId.stamp(DATA, 42L, 7L);
+        assertThat(stamped.length).isEqualTo(DATA.length + RecordId.HEADER_SIZE);
+
+        ByteBuffer buffer = ByteBuffer.wrap(stamped);
+        assertThat(RecordId.read(buffer)).isEqualTo(new RecordId(42L, 7L));
+        ByteBuffer unstamped = RecordId.unstamped(buffer);
+        byte[] data = new byte[unstamped.remaining()];
+        unstamped.get(data);
+        assertThat(data).isEqualTo(DATA);
+        assertThat(buffer.position()).isEqualTo(0);
+    }
+
+    @Test
+    public void unstampedPassesThrough() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(DATA);
+        assertThat(RecordId.read(buffer)).isNull();
+        assertThat(RecordId.unstamped(buffer)).isSameAs(buffer);
+    }
+
+    @Test
+    public void encoderStampsNextSequence() throws Exception {
+        EventObjectMapper<Event> mapper = new EventObjectMapper<>(Jackson.newObjectMapper(), Event.class);
+        Event expected = new Event("a", "b", "c");
+        IdempotentEventEncoder<Event> encoder = new IdempotentEventEncoder<>(new CompressingEventEncoder<>(mapper, Compression.FAST));
+        EventDecoder<Event> decoder = new DecompressingEventDecoder<>(mapper);
+
+        //noinspection ConstantConditions
+        ByteBuffer first = ByteBuffer.wrap(encoder.encode(expected));
+        //noinspection ConstantConditions
+        ByteBuffer second = ByteBuffer.wrap(encoder.encode(expected));
+        assertThat(RecordId.read(first)).isEqualTo(new RecordId(encoder.getProducerId(), 0));
+        assertThat(RecordId.read(second)).isEqualTo(new RecordId(encoder.getProducerId(), 1));
+        assertThat(decoder.decode(RecordId.unstamped(first))).isEqualTo(expected);
+    }
+}
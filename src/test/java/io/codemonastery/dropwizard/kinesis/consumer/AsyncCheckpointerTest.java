@@ -0,0 +1,82 @@
+package io.codemonastery.dropwizard.kinesis.consumer;
+
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
+import com.amazonaws.services.kinesis.model.Record;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class AsyncCheckpointerTest {
+
+    @Mock
+    private IRecordProcessorCheckpointer checkpointer;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        initMocks(this);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void closeWaitsForWriteInProgress() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean written = new AtomicBoolean(false);
+        doAnswer(invocation -> {
+            writing.countDown();
+            release.await();
+            written.set(true);
+            return null;
+        }).when(checkpointer).checkpoint(any(Record.class));
+
+        AsyncCheckpointer asyncCheckpointer = new AsyncCheckpointer(executor, RecordProcessorMetrics.noOp());
+        asyncCheckpointer.checkpoint(checkpointer, new Record());
+        assertThat(writing.await(1, TimeUnit.SECONDS)).isTrue();
+
+        Thread closing = new Thread(() -> {
+            try {
+                asyncCheckpointer.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        closing.start();
+        closing.join(100);
+        assertThat(closing.isAlive()).isTrue();
+
+        release.countDown();
+        closing.join(1000);
+        assertThat(closing.isAlive()).isFalse();
+        assertThat(written.get()).isTrue();
+    }
+
+    @Test
+    public void rejectedWrittenOnCallingThread() throws Exception {
+        AsyncCheckpointer asyncCheckpointer = new AsyncCheckpointer(command -> {
+            throw new RejectedExecutionException();
+        }, RecordProcessorMetrics.noOp());
+        Record record = new Record();
+        asyncCheckpointer.checkpoint(checkpointer, record);
+        verify(checkpointer).checkpoint(record);
+    }
+}
@@ -79,6 +79,14 @@ public class BatchConsumerFactoryTest {
         assertThat(configuration.consumer.getInitialPositionInStream()).isEqualTo(InitialPositionInStream.TRIM_HORIZON);
     }
 
+    @Test
+    public void canConfigureParallelDecode() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("consumer:\n  streamName: xyz\n  decodeThreads: 4\n  decodeChunkSize: 250"), "");
+        assertThat(configuration.consumer.getDecodeThreads()).isEqualTo(4);
+        assertThat(configuration.consumer.getDecodeChunkSize()).isEqualTo(250);
+    }
+
     @Test
     public void allTheThings() throws Exception {
         String streamName = "xyz";
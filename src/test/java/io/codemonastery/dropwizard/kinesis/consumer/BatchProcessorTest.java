@@ -4,11 +4,16 @@ import com.amazonaws.services.kinesis.clientlibrary.exceptions.ShutdownException
 import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
 import com.amazonaws.services.kinesis.clientlibrary.types.InitializationInput;
 import com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownReason;
 import com.amazonaws.services.kinesis.model.Record;
 import com.codahale.metrics.MetricRegistry;
 import io.codemonastery.dropwizard.kinesis.EventDecoder;
 import io.codemonastery.dropwizard.kinesis.EventObjectMapper;
+import io.codemonastery.dropwizard.kinesis.RecordId;
+import io.codemonastery.dropwizard.kinesis.UnstampingEventDecoder;
 import io.dropwizard.jackson.Jackson;
+import io.dropwizard.util.Duration;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -17,7 +22,11 @@ import javax.annotation.Nullable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -27,6 +36,7 @@ import static org.mockito.MockitoAnnotations.initMocks;
 public class BatchProcessorTest {
 
     private static final EventObjectMapper<String> MAPPER = new EventObjectMapper<>(Jackson.newObjectMapper(), String.class);
+    private static final EventDecoder<String> UNSTAMPING = new UnstampingEventDecoder<>(MAPPER);
 
     @Mock
     private IRecordProcessorCheckpointer checkpointer;
@@ -220,6 +230,177 @@ public class BatchProcessorTest {
         assertThat(metricRegistry.meter("foo-checkpoint-failure").getCount()).isEqualTo(1);
     }
 
+    @Test
+    public void aggregatedRecordsDeaggregated() throws Exception {
+        List<String> actual = new ArrayList<>();
+        BatchConsumer<String> eventConsumer = batch -> {
+            actual.addAll(batch);
+            return true;
+        };
+
+        List<Record> records = records(Collections.singletonList("aaa"));
+        records.add(UserRecordsTest.aggregated(encodeSilently("bbb"), encodeSilently("ccc")));
+        ProcessRecordsInput input = new ProcessRecordsInput()
+                .withRecords(records)
+                .withCheckpointer(checkpointer);
+
+        BatchProcessor<String> processor = new BatchProcessor<>(MAPPER, eventConsumer, metrics);
+        processor.processRecords(input);
+
+        assertThat(actual).containsExactly("aaa", "bbb", "ccc");
+        verify(checkpointer).checkpoint();
+        assertThat(metricRegistry.meter("foo-success").getCount()).isEqualTo(3);
+        assertThat(metricRegistry.meter("foo-decode-success").getCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void duplicatesDropped() throws Exception {
+        List<String> actual = new ArrayList<>();
+        BatchConsumer<String> eventConsumer = batch -> {
+            actual.addAll(batch);
+            return true;
+        };
+
+        List<Record> records = Arrays.asList(stamped("aaa", 0), stamped("bbb", 1), stamped("aaa", 0));
+        List<Record> redelivered = Arrays.asList(stamped("bbb", 1), stamped("ccc", 2), records(Collections.singletonList("ddd")).get(0));
+
+        BatchProcessor<String> processor = new BatchProcessor<>(UNSTAMPING, eventConsumer, metrics, new DuplicateFilters(10));
+        processor.initialize(new InitializationInput().withShardId("123"));
+        processor.processRecords(new ProcessRecordsInput().withRecords(records).withCheckpointer(checkpointer));
+        processor.processRecords(new ProcessRecordsInput().withRecords(redelivered).withCheckpointer(checkpointer));
+
+        assertThat(actual).containsExactly("aaa", "bbb", "ccc", "ddd");
+        verify(checkpointer, times(2)).checkpoint();
+        assertThat(metricRegistry.meter("foo-duplicate").getCount()).isEqualTo(2);
+        assertThat(metricRegistry.meter("foo-decode-success").getCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void failedBatchNotRemembered() throws Exception {
+        List<String> actual = new ArrayList<>();
+        List<Record> records = Arrays.asList(stamped("aaa", 0), stamped("bbb", 1));
+
+        AtomicBoolean fail = new AtomicBoolean(true);
+        BatchConsumer<String> eventConsumer = batch -> !fail.get() && actual.addAll(batch);
+
+        BatchProcessor<String> processor = new BatchProcessor<>(UNSTAMPING, eventConsumer, metrics, new DuplicateFilters(10));
+        processor.initialize(new InitializationInput().withShardId("123"));
+        processor.processRecords(new ProcessRecordsInput().withRecords(records).withCheckpointer(checkpointer));
+        fail.set(false);
+        processor.processRecords(new ProcessRecordsInput().withRecords(records).withCheckpointer(checkpointer));
+
+        assertThat(actual).containsExactly("aaa", "bbb");
+        assertThat(metricRegistry.meter("foo-duplicate").getCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void stampsRemovedWithoutDedup() throws Exception {
+        List<String> actual = new ArrayList<>();
+        List<Record> records = Arrays.asList(stamped("aaa", 0), stamped("aaa", 0));
+
+        BatchProcessor<String> processor = new BatchProcessor<>(UNSTAMPING, actual::addAll, metrics);
+        processor.processRecords(new ProcessRecordsInput().withRecords(records).withCheckpointer(checkpointer));
+
+        assertThat(actual).containsExactly("aaa", "aaa");
+        assertThat(metricRegistry.meter("foo-decode-failure").getCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void binaryRecordsLookingStampedKeptWhole() throws Exception {
+        byte[] data = new byte[RecordId.HEADER_SIZE + 4];
+        data[0] = (byte) 0xF5;
+        data[1] = (byte) 0x1D;
+        List<Integer> actual = new ArrayList<>();
+        EventDecoder<Integer> decoder = ByteBuffer::remaining;
+
+        BatchProcessor<Integer> processor = new BatchProcessor<>(decoder, actual::addAll, metrics);
+        processor.processRecords(new ProcessRecordsInput()
+                .withRecords(Collections.singletonList(new Record().withData(ByteBuffer.wrap(data))))
+                .withCheckpointer(checkpointer));
+
+        assertThat(actual).containsExactly(data.length);
+    }
+
+    @Test
+    public void checkpointsEveryRecordsCount() throws Exception {
+        BatchProcessor<String> processor = new BatchProcessor<>(MAPPER, batch -> true, metrics, null,
+                new CheckpointPolicy().records(5));
+        processor.processRecords(new ProcessRecordsInput().withRecords(records(Arrays.asList("aaa", "bbb", "ccc"))).withCheckpointer(checkpointer));
+        verify(checkpointer, never()).checkpoint();
+        processor.processRecords(new ProcessRecordsInput().withRecords(records(Arrays.asList("ddd", "eee"))).withCheckpointer(checkpointer));
+        verify(checkpointer).checkpoint();
+        assertThat(metricRegistry.meter("foo-checkpoint-skipped").getCount()).isEqualTo(1);
+        assertThat(metricRegistry.meter("foo-checkpoint-written").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void asyncCheckpointAtLastRecordOfBatch() throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        BatchProcessor<String> processor = new BatchProcessor<>(MAPPER, batch -> true, metrics, null,
+                new CheckpointPolicy(), new AsyncCheckpointer(tasks::add, metrics));
+        List<Record> records = records(Arrays.asList("aaa", "bbb", "ccc"));
+        processor.processRecords(new ProcessRecordsInput().withRecords(records).withCheckpointer(checkpointer));
+        verify(checkpointer, never()).checkpoint(any(Record.class));
+
+        tasks.forEach(Runnable::run);
+        verify(checkpointer).checkpoint(records.get(2));
+        verify(checkpointer, never()).checkpoint();
+        assertThat(metricRegistry.meter("foo-checkpoint-written").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void parallelDecodeKeepsOrder() throws Exception {
+        List<String> actual = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            BatchProcessor<String> processor = new BatchProcessor<>(MAPPER, batch -> actual.addAll(batch), metrics, null,
+                    new CheckpointPolicy(), null, new ParallelDecoder(executor, 3));
+            List<String> expected = Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h", "i", "j");
+            processor.processRecords(new ProcessRecordsInput().withRecords(records(expected)).withCheckpointer(checkpointer));
+            assertThat(actual).isEqualTo(expected);
+            assertThat(metricRegistry.meter("foo-decode-success").getCount()).isEqualTo(10);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void emptyBatchWritesDueCheckpoint() throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        BatchProcessor<String> processor = new BatchProcessor<>(MAPPER, batch -> true, metrics, null,
+                new CheckpointPolicy().interval(Duration.milliseconds(50)), new AsyncCheckpointer(tasks::add, metrics));
+        List<Record> records = records(Arrays.asList("aaa", "bbb"));
+        processor.processRecords(new ProcessRecordsInput().withRecords(records).withCheckpointer(checkpointer));
+        assertThat(tasks).isEmpty();
+        Thread.sleep(100);
+        processor.processRecords(new ProcessRecordsInput().withRecords(Collections.emptyList()).withCheckpointer(checkpointer));
+
+        tasks.forEach(Runnable::run);
+        verify(checkpointer).checkpoint(records.get(1));
+        assertThat(metricRegistry.meter("foo-checkpoint-written").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shardEndNotCheckpointedPastFailedBatch() throws Exception {
+        AtomicBoolean fail = new AtomicBoolean(false);
+        BatchProcessor<String> processor = new BatchProcessor<>(MAPPER, batch -> !fail.get(), metrics, null,
+                new CheckpointPolicy().records(5));
+        List<Record> first = records(Collections.singletonList("aaa"));
+        processor.processRecords(new ProcessRecordsInput().withRecords(first).withCheckpointer(checkpointer));
+        fail.set(true);
+        processor.processRecords(new ProcessRecordsInput().withRecords(records(Collections.singletonList("bbb"))).withCheckpointer(checkpointer));
+        processor.shutdown(new ShutdownInput().withShutdownReason(ShutdownReason.TERMINATE).withCheckpointer(checkpointer));
+        verify(checkpointer, never()).checkpoint();
+        verify(checkpointer).checkpoint(first.get(0));
+
+        //once caught up the end of the shard is checkpointed
+        fail.set(false);
+        processor = new BatchProcessor<>(MAPPER, batch -> !fail.get(), metrics, null, new CheckpointPolicy().records(5));
+        processor.processRecords(new ProcessRecordsInput().withRecords(first).withCheckpointer(checkpointer));
+        processor.shutdown(new ShutdownInput().withShutdownReason(ShutdownReason.TERMINATE).withCheckpointer(checkpointer));
+        verify(checkpointer).checkpoint();
+    }
+
     @Test
     public void startupShutdownMetrics() throws Exception {
         BatchProcessor<String> processor = new BatchProcessor<>(MAPPER, event -> true, metrics);
@@ -236,6 +417,10 @@ public class BatchProcessorTest {
                 .collect(Collectors.toList());
     }
 
+    private Record stamped(String s, long sequence) {
+        return new Record().withData(ByteBuffer.wrap(RecordId.stamp(encodeSilently(s), 1L, sequence)));
+    }
+
     private byte[] encodeSilently(String s) {
         try {
             return MAPPER.encode(s);
@@ -9,6 +9,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import io.codemonastery.dropwizard.kinesis.*;
 import io.dropwizard.Configuration;
 import io.dropwizard.configuration.ConfigurationFactory;
+import io.dropwizard.util.Duration;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -74,6 +75,58 @@ public class ConsumerFactoryTest {
         assertThat(configuration.consumer.getInitialPositionInStream()).isEqualTo(InitialPositionInStream.TRIM_HORIZON);
     }
 
+    @Test
+    public void canConfigureDecompress() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("consumer:\n  streamName: xyz\n  decompress: true"), "");
+        assertThat(configuration.consumer.isDecompress()).isTrue();
+    }
+
+    @Test
+    public void canConfigureStamped() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("consumer:\n  streamName: xyz\n  stamped: true"), "");
+        assertThat(configuration.consumer.isStamped()).isTrue();
+        assertThat(new ConsumerFactory<String>().isStamped()).isFalse();
+    }
+
+    @Test
+    public void canConfigureDedupWindow() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("consumer:\n  streamName: xyz\n  dedupWindow: 1000"), "");
+        assertThat(configuration.consumer.getDedupWindow()).isEqualTo(1000);
+        assertThat(new ConsumerFactory<String>().getDedupWindow()).isEqualTo(0);
+    }
+
+    @Test
+    public void canConfigureCheckpoint() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("consumer:\n  streamName: xyz\n  checkpoint:\n    records: 1000\n    interval: 30s"), "");
+        CheckpointPolicy checkpoint = configuration.consumer.getCheckpoint();
+        assertThat(checkpoint.getRecords()).isEqualTo(1000);
+        assertThat(checkpoint.getInterval()).isEqualTo(Duration.seconds(30));
+        assertThat(checkpoint.isDue(999, 0)).isFalse();
+        assertThat(checkpoint.isDue(1000, 0)).isTrue();
+        assertThat(checkpoint.isDue(1, Duration.seconds(30).toNanoseconds())).isTrue();
+        assertThat(new CheckpointPolicy().isDue(0, 0)).isTrue();
+    }
+
+    @Test
+    public void canConfigureCheckpointThreads() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("consumer:\n  streamName: xyz\n  checkpointThreads: 2"), "");
+        assertThat(configuration.consumer.getCheckpointThreads()).isEqualTo(2);
+        assertThat(new ConsumerFactory<String>().getCheckpointThreads()).isEqualTo(0);
+    }
+
+    @Test
+    public void canConfigureLanes() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("consumer:\n  streamName: xyz\n  lanes: 8"), "");
+        assertThat(configuration.consumer.getLanes()).isEqualTo(8);
+        assertThat(new ConsumerFactory<String>().getLanes()).isEqualTo(1);
+    }
+
     @Test
     public void allTheThings() throws Exception {
         String streamName = "xyz";
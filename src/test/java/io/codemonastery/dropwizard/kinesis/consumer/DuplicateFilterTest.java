@@ -0,0 +1,29 @@
+package io.codemonastery.dropwizard.kinesis.consumer;
+
+import io.codemonastery.dropwizard.kinesis.RecordId;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DuplicateFilterTest {
+
+    @Test
+    public void forgetsOldestWhenFull() throws Exception {
+        DuplicateFilter filter = new DuplicateFilter(3);
+        for (int i = 0; i < 4; i++) {
+            filter.add(new RecordId(1, i));
+        }
+        filter.add(new RecordId(1, 3));
+
+        assertThat(filter.size()).isEqualTo(3);
+        assertThat(filter.contains(new RecordId(1, 0))).isFalse();
+        assertThat(filter.contains(new RecordId(1, 1))).isTrue();
+        assertThat(filter.contains(new RecordId(1, 3))).isTrue();
+        assertThat(filter.contains(new RecordId(2, 3))).isFalse();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sizeMustBePositive() throws Exception {
+        new DuplicateFilter(0);
+    }
+}
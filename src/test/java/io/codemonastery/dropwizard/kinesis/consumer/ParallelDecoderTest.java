@@ -0,0 +1,57 @@
+package io.codemonastery.dropwizard.kinesis.consumer;
+
+import com.amazonaws.services.kinesis.model.Record;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ParallelDecoderTest {
+
+    @Test
+    public void chunksKeepOrder() throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        List<Record> records = records(10);
+
+        //tasks are never run by the executor, so processing thread decodes every chunk
+        List<String> decoded = new ParallelDecoder(tasks::add, 3).decode(records, ParallelDecoderTest::decode);
+
+        assertThat(tasks).hasSize(3);
+        assertThat(decoded).isEqualTo(IntStream.range(0, 10).mapToObj(String::valueOf).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void failedChunkFailsBatch() throws Exception {
+        List<Record> records = records(10);
+        List<String> decoded = new ParallelDecoder(Runnable::run, 3).decode(records, chunk ->
+                chunk.contains(records.get(7)) ? null : decode(chunk));
+        assertThat(decoded).isNull();
+    }
+
+    @Test
+    public void rejectedChunksDecodedOnCallingThread() throws Exception {
+        List<String> decoded = new ParallelDecoder(command -> {
+            throw new RejectedExecutionException();
+        }, 4).decode(records(10), ParallelDecoderTest::decode);
+        assertThat(decoded).hasSize(10);
+    }
+
+    private static List<Record> records(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> new Record().withData(ByteBuffer.wrap(String.valueOf(i).getBytes(StandardCharsets.UTF_8))))
+                .collect(Collectors.toList());
+    }
+
+    private static List<String> decode(List<Record> chunk) {
+        return chunk.stream()
+                .map(record -> new String(record.getData().array(), StandardCharsets.UTF_8))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,78 @@
+package io.codemonastery.dropwizard.kinesis.consumer;
+
+import com.amazonaws.services.kinesis.model.Record;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProcessingLanesTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void keyOrderKept() throws Exception {
+        List<Record> records = IntStream.range(0, 100)
+                .mapToObj(i -> new Record().withPartitionKey("key" + i % 7).withSequenceNumber(String.valueOf(i)))
+                .collect(Collectors.toList());
+        Map<String, List<Integer>> processed = new ConcurrentHashMap<>();
+
+        int count = new ProcessingLanes(executor, 4).process(records, record -> {
+            processed.computeIfAbsent(record.getPartitionKey(), key -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(Integer.valueOf(record.getSequenceNumber()));
+            return true;
+        });
+
+        assertThat(count).isEqualTo(100);
+        assertThat(processed).hasSize(7);
+        processed.values().forEach(sequences -> assertThat(sequences).isSorted());
+    }
+
+    @Test
+    public void countStopsAtFirstRecordNotProcessed() throws Exception {
+        List<Record> records = Arrays.asList(
+                new Record().withPartitionKey("a").withSequenceNumber("0"),
+                new Record().withPartitionKey("b").withSequenceNumber("1"),
+                new Record().withPartitionKey("a").withSequenceNumber("2"),
+                new Record().withPartitionKey("b").withSequenceNumber("3"),
+                new Record().withPartitionKey("a").withSequenceNumber("4"));
+        List<String> processed = Collections.synchronizedList(new ArrayList<>());
+
+        int count = new ProcessingLanes(executor, 2).process(records, record -> {
+            if ("2".equals(record.getSequenceNumber())) {
+                return false;
+            }
+            processed.add(record.getSequenceNumber());
+            return true;
+        });
+
+        assertThat(count).isEqualTo(2);
+        //lane of failed record stops, other lanes go on
+        assertThat(processed).doesNotContain("4");
+        if (Math.floorMod("a".hashCode(), 2) != Math.floorMod("b".hashCode(), 2)) {
+            assertThat(processed).contains("3");
+        }
+    }
+}
@@ -1,17 +1,68 @@
 package io.codemonastery.dropwizard.kinesis.consumer;
 
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.v2.IRecordProcessor;
+import com.amazonaws.services.kinesis.clientlibrary.types.InitializationInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownReason;
+import com.amazonaws.services.kinesis.model.Record;
 import io.codemonastery.dropwizard.kinesis.EventObjectMapper;
+import io.codemonastery.dropwizard.kinesis.RecordId;
+import io.codemonastery.dropwizard.kinesis.UnstampingEventDecoder;
 import io.dropwizard.jackson.Jackson;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
 
 public class RecordProcessorFactoryTest {
 
+    private static final EventObjectMapper<String> MAPPER = new EventObjectMapper<>(Jackson.newObjectMapper(), String.class);
+
     @Test
     public void newConsumerEachTime() throws Exception {
-        EventObjectMapper<String> mapper = new EventObjectMapper<>(Jackson.newObjectMapper(), String.class);
-        RecordProcessorFactory<String> factory = new RecordProcessorFactory<>(mapper, () -> event -> true, RecordProcessorMetrics.noOp());
+        RecordProcessorFactory<String> factory = new RecordProcessorFactory<>(MAPPER, () -> event -> true, RecordProcessorMetrics.noOp());
         assertThat(factory.createProcessor()).isNotSameAs(factory.createProcessor());
     }
+
+    @Test
+    public void duplicatesDroppedAcrossProcessorsOfShard() throws Exception {
+        List<String> actual = new ArrayList<>();
+        RecordProcessorFactory<String> factory = new RecordProcessorFactory<>(new UnstampingEventDecoder<>(MAPPER), () -> actual::add, RecordProcessorMetrics.noOp(), 10);
+        IRecordProcessorCheckpointer checkpointer = mock(IRecordProcessorCheckpointer.class);
+        Record record = new Record().withData(ByteBuffer.wrap(RecordId.stamp(MAPPER.encode("aaa"), 1L, 0L)));
+
+        //lease lost and taken back, the shard's next processor drops what the last processed
+        IRecordProcessor first = factory.createProcessor();
+        first.initialize(new InitializationInput().withShardId("shard-1"));
+        first.processRecords(new ProcessRecordsInput().withRecords(Collections.singletonList(record)).withCheckpointer(checkpointer));
+        first.shutdown(new ShutdownInput().withShutdownReason(ShutdownReason.ZOMBIE).withCheckpointer(checkpointer));
+
+        IRecordProcessor second = factory.createProcessor();
+        second.initialize(new InitializationInput().withShardId("shard-1"));
+        second.processRecords(new ProcessRecordsInput().withRecords(Collections.singletonList(record)).withCheckpointer(checkpointer));
+
+        //other shards have their own
+        IRecordProcessor other = factory.createProcessor();
+        other.initialize(new InitializationInput().withShardId("shard-2"));
+        other.processRecords(new ProcessRecordsInput().withRecords(Collections.singletonList(record)).withCheckpointer(checkpointer));
+
+        assertThat(actual).containsExactly("aaa", "aaa");
+    }
+
+    @Test
+    public void endedShardForgotten() throws Exception {
+        DuplicateFilters duplicates = new DuplicateFilters(10);
+        RecordProcessor<String> processor = new RecordProcessor<>(MAPPER, event -> true, RecordProcessorMetrics.noOp(), duplicates);
+        processor.initialize(new InitializationInput().withShardId("shard-1"));
+        assertThat(duplicates.shardCount()).isEqualTo(1);
+        processor.shutdown(new ShutdownInput().withShutdownReason(ShutdownReason.TERMINATE).withCheckpointer(mock(IRecordProcessorCheckpointer.class)));
+        assertThat(duplicates.shardCount()).isEqualTo(0);
+    }
 }
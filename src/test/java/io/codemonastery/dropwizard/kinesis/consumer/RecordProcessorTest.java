@@ -4,11 +4,16 @@ import com.amazonaws.services.kinesis.clientlibrary.exceptions.ShutdownException
 import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
 import com.amazonaws.services.kinesis.clientlibrary.types.InitializationInput;
 import com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownReason;
 import com.amazonaws.services.kinesis.model.Record;
 import com.codahale.metrics.MetricRegistry;
 import io.codemonastery.dropwizard.kinesis.EventDecoder;
 import io.codemonastery.dropwizard.kinesis.EventObjectMapper;
+import io.codemonastery.dropwizard.kinesis.RecordId;
+import io.codemonastery.dropwizard.kinesis.UnstampingEventDecoder;
 import io.dropwizard.jackson.Jackson;
+import io.dropwizard.util.Duration;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -17,18 +22,24 @@ import javax.annotation.Nullable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 public class RecordProcessorTest {
 
     public static final EventObjectMapper<String> MAPPER = new EventObjectMapper<>(Jackson.newObjectMapper(), String.class);
+    private static final EventDecoder<String> UNSTAMPING = new UnstampingEventDecoder<>(MAPPER);
 
     @Mock
     private IRecordProcessorCheckpointer checkpointer;
@@ -256,6 +267,212 @@ public class RecordProcessorTest {
         assertThat(metricRegistry.meter("foo-checkpoint-failure").getCount()).isEqualTo(1);
     }
 
+    @Test
+    public void aggregatedRecordsDeaggregated() throws Exception {
+        List<String> actual = new ArrayList<>();
+        EventConsumer<String> eventConsumer = event -> {
+            actual.add(event);
+            return true;
+        };
+
+        List<Record> records = records(Collections.singletonList("aaa"));
+        records.add(UserRecordsTest.aggregated(encodeSilently("bbb"), encodeSilently("ccc")));
+        ProcessRecordsInput input = new ProcessRecordsInput()
+                .withRecords(records)
+                .withCheckpointer(checkpointer);
+
+        RecordProcessor<String> processor = new RecordProcessor<>(MAPPER, eventConsumer, metrics);
+        processor.processRecords(input);
+
+        assertThat(actual).containsExactly("aaa", "bbb", "ccc");
+        verify(checkpointer).checkpoint(any(Record.class));
+        assertThat(metricRegistry.meter("foo-success").getCount()).isEqualTo(3);
+        assertThat(metricRegistry.meter("foo-decode-success").getCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void duplicatesDropped() throws Exception {
+        List<String> actual = new ArrayList<>();
+        EventConsumer<String> eventConsumer = event -> {
+            actual.add(event);
+            return true;
+        };
+
+        List<Record> records = Arrays.asList(stamped("aaa", 0), stamped("bbb", 1), stamped("aaa", 0), stamped("ccc", 2));
+        List<Record> redelivered = Arrays.asList(stamped("bbb", 1), stamped("ddd", 3), records(Collections.singletonList("eee")).get(0));
+
+        RecordProcessor<String> processor = new RecordProcessor<>(UNSTAMPING, eventConsumer, metrics, new DuplicateFilters(10));
+        processor.initialize(new InitializationInput().withShardId("123"));
+        processor.processRecords(new ProcessRecordsInput().withRecords(records).withCheckpointer(checkpointer));
+        processor.processRecords(new ProcessRecordsInput().withRecords(redelivered).withCheckpointer(checkpointer));
+
+        assertThat(actual).containsExactly("aaa", "bbb", "ccc", "ddd", "eee");
+        verify(checkpointer).checkpoint(records.get(3));
+        verify(checkpointer).checkpoint(redelivered.get(2));
+        assertThat(metricRegistry.meter("foo-duplicate").getCount()).isEqualTo(2);
+        assertThat(metricRegistry.meter("foo-decode-success").getCount()).isEqualTo(5);
+    }
+
+    @Test
+    public void stampsRemovedWithoutDedup() throws Exception {
+        List<String> actual = new ArrayList<>();
+        EventConsumer<String> eventConsumer = event -> actual.add(event);
+
+        List<Record> records = Arrays.asList(stamped("aaa", 0), stamped("aaa", 0));
+        RecordProcessor<String> processor = new RecordProcessor<>(UNSTAMPING, eventConsumer, metrics);
+        processor.processRecords(new ProcessRecordsInput().withRecords(records).withCheckpointer(checkpointer));
+
+        assertThat(actual).containsExactly("aaa", "aaa");
+        assertThat(metricRegistry.meter("foo-decode-failure").getCount()).isEqualTo(0);
+        assertThat(metricRegistry.meter("foo-duplicate").getCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void binaryRecordsLookingStampedKeptWhole() throws Exception {
+        byte[] data = new byte[RecordId.HEADER_SIZE + 4];
+        data[0] = (byte) 0xF5;
+        data[1] = (byte) 0x1D;
+        List<Integer> actual = new ArrayList<>();
+        EventDecoder<Integer> decoder = ByteBuffer::remaining;
+
+        RecordProcessor<Integer> processor = new RecordProcessor<>(decoder, actual::add, metrics);
+        processor.processRecords(new ProcessRecordsInput()
+                .withRecords(Collections.singletonList(new Record().withData(ByteBuffer.wrap(data))))
+                .withCheckpointer(checkpointer));
+
+        assertThat(actual).containsExactly(data.length);
+    }
+
+    @Test
+    public void checkpointsEveryRecordsCount() throws Exception {
+        RecordProcessor<String> processor = new RecordProcessor<>(MAPPER, event -> true, metrics, null,
+                new CheckpointPolicy().records(5));
+        List<Record> first = records(Arrays.asList("aaa", "bbb", "ccc"));
+        List<Record> second = records(Arrays.asList("ddd", "eee", "fff"));
+        processor.processRecords(new ProcessRecordsInput().withRecords(first).withCheckpointer(checkpointer));
+        verify(checkpointer, never()).checkpoint(any(Record.class));
+        processor.processRecords(new ProcessRecordsInput().withRecords(second).withCheckpointer(checkpointer));
+        verify(checkpointer).checkpoint(second.get(2));
+        assertThat(metricRegistry.meter("foo-checkpoint-skipped").getCount()).isEqualTo(1);
+        assertThat(metricRegistry.meter("foo-checkpoint-written").getCount()).isEqualTo(1);
+
+        //held back checkpoints are written on shutdown
+        List<Record> third = records(Collections.singletonList("ggg"));
+        processor.processRecords(new ProcessRecordsInput().withRecords(third).withCheckpointer(checkpointer));
+        processor.shutdown(new ShutdownInput().withCheckpointer(checkpointer));
+        verify(checkpointer).checkpoint(third.get(0));
+        verify(checkpointer, never()).checkpoint();
+    }
+
+    @Test
+    public void checkpointsEveryInterval() throws Exception {
+        RecordProcessor<String> processor = new RecordProcessor<>(MAPPER, event -> true, metrics, null,
+                new CheckpointPolicy().interval(Duration.milliseconds(50)));
+        List<Record> first = records(Collections.singletonList("aaa"));
+        List<Record> second = records(Collections.singletonList("bbb"));
+        processor.processRecords(new ProcessRecordsInput().withRecords(first).withCheckpointer(checkpointer));
+        Thread.sleep(100);
+        processor.processRecords(new ProcessRecordsInput().withRecords(second).withCheckpointer(checkpointer));
+        verify(checkpointer, never()).checkpoint(first.get(0));
+        verify(checkpointer).checkpoint(second.get(0));
+    }
+
+    @Test
+    public void emptyBatchWritesDueCheckpoint() throws Exception {
+        RecordProcessor<String> processor = new RecordProcessor<>(MAPPER, event -> true, metrics, null,
+                new CheckpointPolicy().interval(Duration.milliseconds(50)));
+        List<Record> records = records(Collections.singletonList("aaa"));
+        processor.processRecords(new ProcessRecordsInput().withRecords(records).withCheckpointer(checkpointer));
+        verify(checkpointer, never()).checkpoint(any(Record.class));
+        Thread.sleep(100);
+        processor.processRecords(new ProcessRecordsInput().withRecords(Collections.emptyList()).withCheckpointer(checkpointer));
+        verify(checkpointer).checkpoint(records.get(0));
+
+        //nothing new to checkpoint
+        Thread.sleep(100);
+        processor.processRecords(new ProcessRecordsInput().withRecords(Collections.emptyList()).withCheckpointer(checkpointer));
+        assertThat(metricRegistry.meter("foo-checkpoint-written").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void asyncCheckpointWritesLatest() throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        RecordProcessor<String> processor = new RecordProcessor<>(MAPPER, event -> true, metrics, null,
+                new CheckpointPolicy(), new AsyncCheckpointer(tasks::add, metrics));
+        List<Record> first = records(Collections.singletonList("aaa"));
+        List<Record> second = records(Collections.singletonList("bbb"));
+        List<Record> third = records(Collections.singletonList("ccc"));
+        processor.processRecords(new ProcessRecordsInput().withRecords(first).withCheckpointer(checkpointer));
+        processor.processRecords(new ProcessRecordsInput().withRecords(second).withCheckpointer(checkpointer));
+        verify(checkpointer, never()).checkpoint(any(Record.class));
+        assertThat(tasks).hasSize(1);
+
+        tasks.remove(0).run();
+        verify(checkpointer, never()).checkpoint(first.get(0));
+        verify(checkpointer).checkpoint(second.get(0));
+        assertThat(metricRegistry.meter("foo-checkpoint-written").getCount()).isEqualTo(1);
+
+        //shutdown checkpoints synchronously, dropping checkpoints not yet written
+        processor.processRecords(new ProcessRecordsInput().withRecords(third).withCheckpointer(checkpointer));
+        processor.shutdown(new ShutdownInput().withCheckpointer(checkpointer));
+        verify(checkpointer).checkpoint(third.get(0));
+        tasks.remove(0).run();
+        verify(checkpointer, times(1)).checkpoint(third.get(0));
+    }
+
+    @Test
+    public void lanesCheckpointRecordsAllLanesProcessed() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<String> actual = Collections.synchronizedList(new ArrayList<>());
+            EventConsumer<String> eventConsumer = event -> !event.equals("ccc") && actual.add(event);
+            RecordProcessor<String> processor = new RecordProcessor<>(MAPPER, eventConsumer, metrics, null,
+                    new CheckpointPolicy(), null, new ProcessingLanes(executor, 2));
+
+            List<Record> records = records(Arrays.asList("aaa", "bbb", "ccc", "ddd"));
+            for (Record record : records) {
+                record.setPartitionKey(record == records.get(2) ? "failing" : "ok");
+            }
+            processor.processRecords(new ProcessRecordsInput().withRecords(records).withCheckpointer(checkpointer));
+
+            assertThat(actual).contains("aaa", "bbb");
+            verify(checkpointer).checkpoint(records.get(1));
+            assertThat(metricRegistry.meter("foo-failure").getCount()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shardEndCheckpointedOnceCaughtUp() throws Exception {
+        RecordProcessor<String> processor = new RecordProcessor<>(MAPPER, event -> true, metrics, null,
+                new CheckpointPolicy().records(5));
+        processor.processRecords(new ProcessRecordsInput().withRecords(records(Arrays.asList("aaa", "bbb"))).withCheckpointer(checkpointer));
+        processor.shutdown(new ShutdownInput().withShutdownReason(ShutdownReason.TERMINATE).withCheckpointer(checkpointer));
+        verify(checkpointer).checkpoint();
+    }
+
+    @Test
+    public void shardEndNotCheckpointedPastFailedRecord() throws Exception {
+        RecordProcessor<String> processor = new RecordProcessor<>(MAPPER, event -> !event.equals("bbb"), metrics, null,
+                new CheckpointPolicy().records(5));
+        List<Record> records = records(Arrays.asList("aaa", "bbb", "ccc"));
+        processor.processRecords(new ProcessRecordsInput().withRecords(records).withCheckpointer(checkpointer));
+        processor.shutdown(new ShutdownInput().withShutdownReason(ShutdownReason.TERMINATE).withCheckpointer(checkpointer));
+        verify(checkpointer, never()).checkpoint();
+        verify(checkpointer).checkpoint(records.get(0));
+    }
+
+    @Test
+    public void lostLeaseNotCheckpointed() throws Exception {
+        RecordProcessor<String> processor = new RecordProcessor<>(MAPPER, event -> true, metrics, null,
+                new CheckpointPolicy().records(5));
+        processor.processRecords(new ProcessRecordsInput().withRecords(records(Collections.singletonList("aaa"))).withCheckpointer(checkpointer));
+        processor.shutdown(new ShutdownInput().withShutdownReason(ShutdownReason.ZOMBIE).withCheckpointer(checkpointer));
+        verify(checkpointer, never()).checkpoint();
+        verify(checkpointer, never()).checkpoint(any(Record.class));
+    }
+
     @Test
     public void startupShutdownMetrics() throws Exception {
         RecordProcessor<String> processor = new RecordProcessor<>(MAPPER, event -> true, metrics);
@@ -272,6 +489,10 @@ public class RecordProcessorTest {
                 .collect(Collectors.toList());
     }
 
+    private Record stamped(String s, long sequence) {
+        return new Record().withData(ByteBuffer.wrap(RecordId.stamp(encodeSilently(s), 1L, sequence)));
+    }
+
     private byte[] encodeSilently(String s) {
         try {
             return MAPPER.encode(s);
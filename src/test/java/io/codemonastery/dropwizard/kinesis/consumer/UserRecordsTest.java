@@ -0,0 +1,81 @@
+package io.codemonastery.dropwizard.kinesis.consumer;
+
+import com.amazonaws.services.kinesis.clientlibrary.types.Messages;
+import com.amazonaws.services.kinesis.clientlibrary.types.UserRecord;
+import com.amazonaws.services.kinesis.model.Record;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UserRecordsTest {
+
+    private static final byte[] MAGIC = new byte[]{(byte) 0xF3, (byte) 0x89, (byte) 0x9A, (byte) 0xC2};
+
+    @Test
+    public void plainRecordsUntouched() throws Exception {
+        List<Record> records = Arrays.asList(record("aaa"), record("bbb"));
+        assertThat(UserRecords.deaggregate(records)).isSameAs(records);
+    }
+
+    @Test
+    public void aggregatedRecordsExpandedInPlace() throws Exception {
+        Record first = record("aaa");
+        Record last = record("ddd");
+        List<Record> records = Arrays.asList(first, aggregated(bytes("bbb"), bytes("ccc")), last);
+
+        List<Record> deaggregated = UserRecords.deaggregate(records);
+        assertThat(deaggregated).hasSize(4);
+        assertThat(deaggregated.get(0)).isSameAs(first);
+        assertThat(deaggregated.get(1)).isInstanceOf(UserRecord.class);
+        assertThat(((UserRecord) deaggregated.get(2)).getSubSequenceNumber()).isEqualTo(1);
+        assertThat(deaggregated.get(3)).isSameAs(last);
+    }
+
+    @Test
+    public void alreadyDeaggregatedUntouched() throws Exception {
+        List<Record> records = Collections.singletonList(aggregated(bytes("aaa"), bytes("bbb")));
+        List<Record> deaggregated = UserRecords.deaggregate(records);
+        assertThat(UserRecords.deaggregate(deaggregated)).isSameAs(deaggregated);
+    }
+
+    /**
+     * @return single record holding data in the KPL aggregated record format
+     */
+    static Record aggregated(byte[]... data) {
+        Messages.AggregatedRecord.Builder builder = Messages.AggregatedRecord.newBuilder()
+                .addPartitionKeyTable("abc");
+        for (byte[] bytes : data) {
+            builder.addRecords(Messages.Record.newBuilder()
+                    .setPartitionKeyIndex(0)
+                    .setData(ByteString.copyFrom(bytes)));
+        }
+        byte[] message = builder.build().toByteArray();
+        byte[] digest = Hashing.md5().hashBytes(message).asBytes();
+        ByteBuffer buffer = ByteBuffer.allocate(MAGIC.length + message.length + digest.length);
+        buffer.put(MAGIC).put(message).put(digest);
+        buffer.flip();
+        return new Record()
+                .withPartitionKey("abc")
+                .withSequenceNumber("1")
+                .withData(buffer);
+    }
+
+    private static Record record(String data) {
+        return new Record()
+                .withPartitionKey("abc")
+                .withSequenceNumber("1")
+                .withData(ByteBuffer.wrap(bytes(data)));
+    }
+
+    private static byte[] bytes(String data) {
+        return data.getBytes(StandardCharsets.UTF_8);
+    }
+}
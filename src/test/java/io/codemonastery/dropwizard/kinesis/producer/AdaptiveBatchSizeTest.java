@@ -0,0 +1,57 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdaptiveBatchSizeTest {
+
+    private static final long TARGET_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final AdaptiveBatchSize batchSize = new AdaptiveBatchSize(10, 100, 5, TARGET_NANOS, 0.1);
+
+    @Test
+    public void startsAtMax() throws Exception {
+        assertThat(batchSize.getRecords()).isEqualTo(100);
+        assertThat(batchSize.getBytes()).isEqualTo(Producer.MAX_REQUEST_SIZE);
+    }
+
+    @Test
+    public void throttledHalves() throws Exception {
+        batchSize.update(100, 20, TARGET_NANOS / 2);
+        assertThat(batchSize.getRecords()).isEqualTo(50);
+        assertThat(batchSize.getBytes()).isEqualTo(Producer.MAX_REQUEST_SIZE / 2);
+
+        //a few throttled records is not enough
+        batchSize.update(100, 5, TARGET_NANOS / 2);
+        assertThat(batchSize.getRecords()).isEqualTo(55);
+    }
+
+    @Test
+    public void slowShrinksByQuarter() throws Exception {
+        batchSize.update(100, 0, TARGET_NANOS * 2);
+        assertThat(batchSize.getRecords()).isEqualTo(75);
+    }
+
+    @Test
+    public void staysBetweenMinAndMax() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            batchSize.update(10, 10, TARGET_NANOS);
+        }
+        assertThat(batchSize.getRecords()).isEqualTo(10);
+        assertThat(batchSize.getBytes()).isEqualTo(Producer.MAX_RECORD_SIZE);
+
+        for (int i = 0; i < 50; i++) {
+            batchSize.update(10, 0, TARGET_NANOS);
+        }
+        assertThat(batchSize.getRecords()).isEqualTo(100);
+    }
+
+    @Test
+    public void ignoresEmptyPuts() throws Exception {
+        batchSize.update(0, 0, TARGET_NANOS * 10);
+        assertThat(batchSize.getRecords()).isEqualTo(100);
+    }
+}
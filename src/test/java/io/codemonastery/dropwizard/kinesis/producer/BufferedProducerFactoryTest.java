@@ -13,6 +13,7 @@ import io.codemonastery.dropwizard.kinesis.producer.ratelimit.FixedAcquireLimite
 import io.dropwizard.Configuration;
 import io.dropwizard.configuration.ConfigurationFactory;
 import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -67,6 +68,129 @@ public class BufferedProducerFactoryTest {
         assertThat(configuration.producer).isInstanceOf(BufferedProducerFactory.class);
     }
 
+    @Test
+    public void canConfigureMaxLinger() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("producer:\n  streamName: xyz\n  maxLinger: 50ms"), "");
+        assertThat(((BufferedProducerFactory<String>) configuration.producer).getMaxLinger()).isEqualTo(Duration.milliseconds(50));
+        assertThat(new BufferedProducerFactory<String>().getMaxLinger()).isNull();
+    }
+
+    @Test
+    public void canConfigureInFlightBatches() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("producer:\n  streamName: xyz\n  maxInFlightBatches: 8\n  shardAware: true"), "");
+        assertThat(configuration.producer).isInstanceOf(BufferedProducerFactory.class);
+        assertThat(((BufferedProducerFactory<String>) configuration.producer).getMaxInFlightBatches()).isEqualTo(8);
+        assertThat(((BufferedProducerFactory<String>) configuration.producer).isShardAware()).isTrue();
+    }
+
+    @Test
+    public void canConfigureAggregation() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("producer:\n  streamName: xyz\n  shardAware: true\n  aggregate: true\n  maxAggregatedRecordSize: 4096"), "");
+        assertThat(((BufferedProducerFactory<String>) configuration.producer).isAggregate()).isTrue();
+        assertThat(((BufferedProducerFactory<String>) configuration.producer).getMaxAggregatedRecordSize()).isEqualTo(4096);
+    }
+
+    @Test
+    public void canConfigureIdempotent() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("producer:\n  streamName: xyz\n  idempotent: true"), "");
+        assertThat(configuration.producer.isIdempotent()).isTrue();
+        assertThat(new BufferedProducerFactory<String>().isIdempotent()).isFalse();
+    }
+
+    @Test
+    public void canConfigureAdaptiveBatchSize() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("producer:\n  streamName: xyz\n  maxBufferSize: 500\n  adaptiveBatchSize:\n    minBufferSize: 50\n    targetLatency: 200ms\n    maxThrottleFraction: 0.05"), "");
+        AdaptiveBatchSizeFactory adaptiveBatchSize = ((BufferedProducerFactory<String>) configuration.producer).getAdaptiveBatchSize();
+        assertThat(adaptiveBatchSize.getMinBufferSize()).isEqualTo(50);
+        assertThat(adaptiveBatchSize.getTargetLatency()).isEqualTo(Duration.milliseconds(200));
+        assertThat(adaptiveBatchSize.getMaxThrottleFraction()).isEqualTo(0.05);
+        assertThat(adaptiveBatchSize.build(500).getRecords()).isEqualTo(500);
+    }
+
+    @Test
+    public void canConfigureRetry() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("producer:\n  streamName: xyz\n  retry:\n    maxAttempts: 5\n    deadline: 30s\n    errorCodes:\n      InternalFailure: permanent"), "");
+        RetryPolicy retry = configuration.producer.getRetry();
+        assertThat(retry.getMaxAttempts()).isEqualTo(5);
+        assertThat(retry.getDeadline()).isEqualTo(Duration.seconds(30));
+        assertThat(retry.classify("InternalFailure")).isEqualTo(RetryPolicy.Classification.PERMANENT);
+        assertThat(retry.classify("ProvisionedThroughputExceededException")).isEqualTo(RetryPolicy.Classification.THROTTLED);
+    }
+
+    @Test
+    public void canConfigureSpill() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("producer:\n  streamName: xyz\n  spill:\n    directory: /tmp/spill\n    segmentSize: 16MB\n    maxSize: 256MB"), "");
+        SpillQueueFactory spill = ((BufferedProducerFactory<String>) configuration.producer).getSpill();
+        assertThat(spill.getDirectory()).isEqualTo("/tmp/spill");
+        assertThat(spill.getSegmentSize()).isEqualTo(Size.megabytes(16));
+        assertThat(spill.getMaxSize()).isEqualTo(Size.megabytes(256));
+    }
+
+    @Test
+    public void canConfigureInFlightLimit() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("producer:\n  streamName: xyz\n  inFlightLimit:\n    maxBytes: 64MB\n    maxRecords: 10000\n    overflowPolicy: drop_oldest\n    timeout: 5s"), "");
+        InFlightLimitFactory inFlightLimit = ((BufferedProducerFactory<String>) configuration.producer).getInFlightLimit();
+        assertThat(inFlightLimit.getMaxBytes()).isEqualTo(Size.megabytes(64));
+        assertThat(inFlightLimit.getMaxRecords()).isEqualTo(10000);
+        assertThat(inFlightLimit.getOverflowPolicy()).isEqualTo(InFlightLimit.OverflowPolicy.DROP_OLDEST);
+        assertThat(inFlightLimit.getTimeout()).isEqualTo(Duration.seconds(5));
+    }
+
+    @Test
+    public void canConfigureBufferPool() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("producer:\n  streamName: xyz\n  bufferPool:\n    bufferSize: 4KB\n    maxBuffers: 10"), "");
+        ByteBufferPoolFactory bufferPool = configuration.producer.getBufferPool();
+        assertThat(bufferPool.getBufferSize()).isEqualTo(Size.kilobytes(4));
+        assertThat(bufferPool.getMaxBuffers()).isEqualTo(10);
+        assertThat(new BufferedProducerFactory<String>().getBufferPool()).isNull();
+    }
+
+    @Test
+    public void canConfigureEncodeStage() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("producer:\n  streamName: xyz\n  encodeStage:\n    threads: 4\n    queueSize: 100"), "");
+        EncodeStageFactory encodeStage = configuration.producer.getEncodeStage();
+        assertThat(encodeStage.getThreads()).isEqualTo(4);
+        assertThat(encodeStage.getQueueSize()).isEqualTo(100);
+        assertThat(new BufferedProducerFactory<String>().getEncodeStage()).isNull();
+    }
+
+    @Test
+    public void canConfigureKeyBalancing() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("producer:\n  streamName: xyz\n  keyBalancing:\n    orderingNotRequired: true\n    counters: 50\n    hotShare: 0.1\n    slots: 4\n    window: 1000"), "");
+        KeyBalancerFactory keyBalancing = configuration.producer.getKeyBalancing();
+        assertThat(keyBalancing.isOrderingNotRequired()).isTrue();
+        assertThat(keyBalancing.getCounters()).isEqualTo(50);
+        assertThat(keyBalancing.getHotShare()).isEqualTo(0.1);
+        assertThat(keyBalancing.getSlots()).isEqualTo(4);
+        assertThat(keyBalancing.getWindow()).isEqualTo(1000);
+        assertThat(new BufferedProducerFactory<String>().getKeyBalancing()).isNull();
+    }
+
+    @Test
+    public void spillDisabledByDefault() throws Exception {
+        assertThat(new BufferedProducerFactory<String>().getSpill()).isNull();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aggregationRequiresShardAware() throws Exception {
+        new BufferedProducerFactory<String>()
+                .streamName("xyz")
+                .encoder(String::getBytes)
+                .aggregate(true)
+                .build(null, null, null, kinesis, "foo");
+    }
+
     @Test
     public void allTheThings() throws Exception {
         String streamName = "xyz";
@@ -74,6 +198,8 @@ public class BufferedProducerFactoryTest {
         EventEncoder<String> encoder = String::getBytes;
         Duration flushPeriod = Duration.hours(1);
         int maxBufferSize = 111;
+        int maxInFlightBatches = 3;
+        Duration shardRefreshPeriod = Duration.minutes(5);
         AcquireLimiterFactory rateLimit = new FixedAcquireLimiterFactory();
 
         BufferedProducerFactory<String> factory = new BufferedProducerFactory<String>()
@@ -82,12 +208,18 @@ public class BufferedProducerFactoryTest {
                 .encoder(encoder)
                 .flushPeriod(flushPeriod)
                 .maxBufferSize(maxBufferSize)
+                .maxInFlightBatches(maxInFlightBatches)
+                .shardAware(false)
+                .shardRefreshPeriod(shardRefreshPeriod)
                 .rateLimit(rateLimit);
         assertThat(factory.getStreamName()).isEqualTo(streamName);
         assertThat(factory.getEncoder()).isSameAs(encoder);
         assertThat(factory.getPartitionKeyFn()).isSameAs(partitionkeyFunction);
         assertThat(factory.getFlushPeriod()).isEqualTo(flushPeriod);
         assertThat(factory.getMaxBufferSize()).isEqualTo(maxBufferSize);
+        assertThat(factory.getMaxInFlightBatches()).isEqualTo(maxInFlightBatches);
+        assertThat(factory.isShardAware()).isFalse();
+        assertThat(factory.getShardRefreshPeriod()).isEqualTo(shardRefreshPeriod);
         assertThat(factory.getRateLimit()).isEqualTo(rateLimit);
 
         Environments.run("app", env->{
@@ -95,7 +227,7 @@ public class BufferedProducerFactoryTest {
             Producer<String> producer = factory.build(env, kinesis, "foo");
             assertThat(producer).isInstanceOf(BufferedProducer.class);
 
-            assertThat(env.lifecycle().getManagedObjects().size()).isEqualTo(4);
+            assertThat(env.lifecycle().getManagedObjects().size()).isEqualTo(3 + maxInFlightBatches);
             assertThat(env.metrics().getNames()).contains("foo-sent");
             assertThat(env.healthChecks().getNames()).contains("foo");
         });
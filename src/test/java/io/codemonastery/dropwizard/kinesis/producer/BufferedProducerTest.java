@@ -1,13 +1,19 @@
 package io.codemonastery.dropwizard.kinesis.producer;
 
 import com.amazonaws.services.kinesis.AmazonKinesis;
+import com.amazonaws.services.kinesis.model.DescribeStreamRequest;
+import com.amazonaws.services.kinesis.model.DescribeStreamResult;
 import com.amazonaws.services.kinesis.model.PutRecordsRequest;
 import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
 import com.amazonaws.services.kinesis.model.PutRecordsResult;
 import com.amazonaws.services.kinesis.model.PutRecordsResultEntry;
+import com.amazonaws.services.kinesis.model.StreamDescription;
+import com.amazonaws.services.kinesis.model.StreamStatus;
+import com.codahale.metrics.MetricRegistry;
 import io.codemonastery.dropwizard.kinesis.Assertions;
 import io.codemonastery.dropwizard.kinesis.EventObjectMapper;
 import io.codemonastery.dropwizard.kinesis.KinesisResults;
+import io.codemonastery.dropwizard.kinesis.producer.ratelimit.AdaptiveAcquireLimiterFactory;
 import io.dropwizard.jackson.Jackson;
 import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
 import io.dropwizard.util.Duration;
@@ -16,15 +22,27 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.rules.TestRule;
 import org.junit.runners.model.Statement;
 import org.mockito.Mock;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -45,9 +63,16 @@ public class BufferedProducerTest {
     public static final int MAX_BUFFER_SIZE = 10;
     public static final Duration FLUSH_PERIOD = Duration.milliseconds(100);
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     @Mock
     private AmazonKinesis kinesis;
 
+    //puts wait on this, so tests can hold a lane busy
+    private volatile CountDownLatch putsReleased = new CountDownLatch(0);
+    private final AtomicInteger putsStarted = new AtomicInteger();
+
     private List<PutRecordsRequest> putRecordRequests;
 
     private Producer<String> producer;
@@ -56,16 +81,18 @@ public class BufferedProducerTest {
     @Before
     public void setUp() throws Exception {
         lifecycle = new LifecycleEnvironment();
-        putRecordRequests = new ArrayList<>();
+        putRecordRequests = Collections.synchronizedList(new ArrayList<>());
 
         initMocks(this);
         when(kinesis.describeStream(STREAM_NAME)).thenReturn(KinesisResults.activeStream(STREAM_NAME));
         when(kinesis.putRecords(any())).then(invocationOnMock -> {
+            putsStarted.incrementAndGet();
+            putsReleased.await();
             PutRecordsRequest request = (PutRecordsRequest) invocationOnMock.getArguments()[0];
             putRecordRequests.add(request);
             List<PutRecordsResultEntry> resultRecords = request.getRecords()
                     .stream()
-                    .map(r -> (PutRecordsResultEntry) null)
+                    .map(r -> new PutRecordsResultEntry().withShardId("shard-0").withSequenceNumber("123"))
                     .collect(Collectors.toList());
             return new PutRecordsResult()
                     .withRecords(resultRecords)
@@ -157,6 +184,192 @@ public class BufferedProducerTest {
         });
     }
 
+    @Test
+    public void sendAllBuffersListAtOnce() throws Throwable {
+        MetricRegistry metrics = new MetricRegistry();
+        Producer<String> bulk = new BufferedProducerFactory<String>()
+                .flushPeriod(Duration.hours(1))
+                .maxBufferSize(MAX_BUFFER_SIZE)
+                .encoder(ENCODER)
+                .streamName(STREAM_NAME)
+                .build(metrics, null, lifecycle, kinesis, "bulk-producer");
+        List<String> events = new ArrayList<>();
+        for (int i = 0; i < MAX_BUFFER_SIZE * 2 + 5; i++) {
+            events.add(Integer.toString(i));
+        }
+        bulk.sendAll(events);
+        assertThat(metrics.meter("bulk-producer-encode-success").getCount()).isEqualTo(events.size());
+        assertThat(metrics.meter("bulk-producer-buffer-put").getCount()).isEqualTo(events.size());
+        Assertions.retry(10, Duration.milliseconds(50), () -> {
+            assertThat(putRecordRequests).hasSize(2);
+            assertThat(metrics.counter("bulk-producer-buffer-size").getCount()).isEqualTo(5);
+        });
+    }
+
+    @Test
+    public void sendAllEncodesLongListInParallelKeepingOrder() throws Throwable {
+        int count = Producer.PARALLEL_ENCODE_THRESHOLD * 2;
+        List<String> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            events.add(Integer.toString(i));
+        }
+        producer.sendAll(events);
+
+        Assertions.retry(10, FLUSH_PERIOD, () -> {
+            List<String> sent = new ArrayList<>();
+            synchronized (putRecordRequests) {
+                for (PutRecordsRequest request : putRecordRequests) {
+                    for (PutRecordsRequestEntry record : request.getRecords()) {
+                        sent.add(ENCODER.decode(record.getData()));
+                    }
+                }
+            }
+            assertThat(sent).isEqualTo(events);
+        });
+    }
+
+    @Test
+    public void lingerSendsBatchOnceOldestRecordWaitedLongEnough() throws Throwable {
+        Producer<String> lingering = new BufferedProducerFactory<String>()
+                .flushPeriod(Duration.hours(1))
+                .maxLinger(Duration.milliseconds(200))
+                .maxBufferSize(MAX_BUFFER_SIZE)
+                .encoder(ENCODER)
+                .streamName(STREAM_NAME)
+                .build(null, null, lifecycle, kinesis, "lingering-producer");
+        //wait for the first, empty, linger check
+        Thread.sleep(250);
+        lingering.send("abc");
+        Thread.sleep(100);
+        lingering.send("def");
+        assertThat(putRecordRequests).isEmpty();
+
+        Assertions.retry(10, Duration.milliseconds(50), () -> {
+            assertThat(putRecordRequests.size()).isEqualTo(1);
+            assertThat(putRecordRequests.get(0).getRecords()).hasSize(2);
+        });
+    }
+
+    @Test
+    public void recyclesPooledBuffersOnceBatchPut() throws Throwable {
+        MetricRegistry metrics = new MetricRegistry();
+        Producer<String> pooled = new BufferedProducerFactory<String>()
+                .flushPeriod(Duration.hours(1))
+                .maxBufferSize(MAX_BUFFER_SIZE)
+                .bufferPool(new ByteBufferPoolFactory().maxBuffers(100))
+                .encoder(ENCODER)
+                .streamName(STREAM_NAME)
+                .build(metrics, null, lifecycle, kinesis, "pooled-producer");
+        for (int i = 0; i <= MAX_BUFFER_SIZE; i++) {
+            pooled.send(Integer.toString(i));
+        }
+        Assertions.retry(10, Duration.milliseconds(50), () -> {
+            assertThat(putRecordRequests).hasSize(1);
+            assertThat(metrics.getGauges().get("pooled-producer-pooled-buffers").getValue()).isEqualTo(MAX_BUFFER_SIZE);
+        });
+    }
+
+    @Test
+    public void encodeStageBuffersInSendOrder() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        Producer<String> staged = new BufferedProducerFactory<String>()
+                .flushPeriod(Duration.hours(1))
+                .maxBufferSize(MAX_BUFFER_SIZE)
+                .encodeStage(new EncodeStageFactory().threads(4))
+                .partitionKeyFn(s -> "same")
+                .encoder(ENCODER)
+                .streamName(STREAM_NAME)
+                .build(metrics, null, lifecycle, kinesis, "staged-producer");
+        assertThat(metrics.getGauges()).containsKey("staged-producer-encode-queue-size");
+
+        List<CompletableFuture<PutRecordsResultEntry>> futures = new ArrayList<>();
+        for (int i = 0; i < 3 * MAX_BUFFER_SIZE - 1; i++) {
+            futures.add(staged.sendAsync(Integer.toString(i)));
+        }
+        staged.stop(); //waits for encode stage, then flushes
+
+        for (CompletableFuture<PutRecordsResultEntry> future : futures) {
+            assertThat(future.get(5, TimeUnit.SECONDS).getSequenceNumber()).isEqualTo("123");
+        }
+        List<String> sent = new ArrayList<>();
+        synchronized (putRecordRequests) {
+            for (PutRecordsRequest request : putRecordRequests) {
+                for (PutRecordsRequestEntry record : request.getRecords()) {
+                    sent.add(ENCODER.decode(record.getData()));
+                }
+            }
+        }
+        assertThat(sent).hasSize(3 * MAX_BUFFER_SIZE - 1);
+        for (int i = 0; i < sent.size(); i++) {
+            assertThat(sent.get(i)).isEqualTo(Integer.toString(i));
+        }
+        assertThat(metrics.getTimers().get("staged-producer-encode-time").getCount()).isEqualTo(3 * MAX_BUFFER_SIZE - 1);
+    }
+
+    @Test
+    public void producersShareRuntime() throws Throwable {
+        MetricRegistry metrics = new MetricRegistry();
+        ProducerRuntime runtime = new ProducerRuntimeFactory()
+                .deliveryThreads(1)
+                .build(metrics, lifecycle, "runtime");
+        List<Producer<String>> producers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            producers.add(new BufferedProducerFactory<String>()
+                    .flushPeriod(FLUSH_PERIOD)
+                    .maxBufferSize(MAX_BUFFER_SIZE)
+                    .maxInFlightBatches(2)
+                    .runtime(runtime)
+                    .encoder(ENCODER)
+                    .streamName(STREAM_NAME)
+                    .build(metrics, null, lifecycle, kinesis, "shared-producer-" + i));
+        }
+        for (Producer<String> shared : producers) {
+            for (int i = 0; i < MAX_BUFFER_SIZE + 1; i++) {
+                shared.send(Integer.toString(i));
+            }
+        }
+        //full batches, then the one left over each is flushed by the shared scheduler
+        Assertions.retry(10, FLUSH_PERIOD, () -> assertThat(putRecordRequests.size()).isEqualTo(6));
+        assertThat(metrics.getGauges()).containsKeys("runtime-waiting-lanes", "runtime-active-lanes");
+        for (int i = 0; i < 3; i++) {
+            assertThat(metrics.getCounters().get("shared-producer-" + i + "-buffer-size").getCount()).isEqualTo(0);
+        }
+        long threads = Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("shared-producer-"))
+                .count();
+        assertThat(threads).isEqualTo(0);
+    }
+
+    @Test
+    public void keyBalancingSpreadsHotKey() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        Producer<String> balanced = new BufferedProducerFactory<String>()
+                .flushPeriod(Duration.hours(1))
+                .maxBufferSize(MAX_BUFFER_SIZE)
+                .keyBalancing(new KeyBalancerFactory().orderingNotRequired(true).counters(10).hotShare(0.5).slots(4))
+                .partitionKeyFn(s -> "hot")
+                .encoder(ENCODER)
+                .streamName(STREAM_NAME)
+                .build(metrics, null, lifecycle, kinesis, "balanced-producer");
+        for (int i = 0; i < 50; i++) {
+            balanced.send(Integer.toString(i));
+        }
+        balanced.stop();
+
+        List<PutRecordsRequestEntry> records = new ArrayList<>();
+        synchronized (putRecordRequests) {
+            for (PutRecordsRequest request : putRecordRequests) {
+                records.addAll(request.getRecords());
+            }
+        }
+        assertThat(records).hasSize(50);
+        //first records were sent before the key was known to be hot
+        assertThat(records.get(0).getExplicitHashKey()).isNull();
+        assertThat(records.stream().map(PutRecordsRequestEntry::getExplicitHashKey).filter(k -> k != null).distinct().count()).isGreaterThan(1);
+        assertThat(metrics.getMeters().get("balanced-producer-balanced").getCount()).isGreaterThan(0);
+        assertThat(metrics.getGauges().get("balanced-producer-hot-keys").getValue()).isEqualTo(1);
+    }
+
     @Test
     public void flushOnShutdown() throws Exception {
         for (int i = 0; i < MAX_BUFFER_SIZE - 1; i++) {
@@ -176,6 +389,458 @@ public class BufferedProducerTest {
         }
     }
 
+    @Test
+    public void manyInFlightBatchesKeepOrderPerPartitionKey() throws Exception {
+        Producer<String> laned = new BufferedProducerFactory<String>()
+                .flushPeriod(Duration.hours(1))
+                .maxBufferSize(MAX_BUFFER_SIZE)
+                .maxInFlightBatches(4)
+                .partitionKeyFn(s -> s.substring(0, 1))
+                .encoder(ENCODER)
+                .streamName(STREAM_NAME)
+                .build(null, null, lifecycle, kinesis, "laned-producer");
+        for (int i = 0; i < MAX_BUFFER_SIZE * 8; i++) {
+            laned.send("abcdefgh".charAt(i % 8) + Integer.toString(i));
+        }
+        laned.stop();
+
+        Map<String, List<Integer>> sentByKey = new HashMap<>();
+        synchronized (putRecordRequests) {
+            for (PutRecordsRequest request : putRecordRequests) {
+                for (PutRecordsRequestEntry record : request.getRecords()) {
+                    String event = ENCODER.decode(record.getData());
+                    sentByKey.computeIfAbsent(record.getPartitionKey(), k -> new ArrayList<>())
+                            .add(Integer.parseInt(event.substring(1)));
+                }
+            }
+        }
+        assertThat(sentByKey.size()).isEqualTo(8);
+        for (List<Integer> sent : sentByKey.values()) {
+            assertThat(sent.size()).isEqualTo(MAX_BUFFER_SIZE);
+            assertThat(sent).isSorted();
+        }
+    }
+
+    @Test
+    public void shardAwareBatchesPerShard() throws Exception {
+        when(kinesis.describeStream(any(DescribeStreamRequest.class))).thenReturn(new DescribeStreamResult()
+                .withStreamDescription(new StreamDescription()
+                        .withStreamName(STREAM_NAME)
+                        .withStreamStatus(StreamStatus.ACTIVE)
+                        .withShards(ShardMapTest.shards(2))
+                        .withHasMoreShards(false)));
+        Producer<String> shardAware = new BufferedProducerFactory<String>()
+                .flushPeriod(Duration.hours(1))
+                .maxBufferSize(MAX_BUFFER_SIZE)
+                .shardAware(true)
+                .encoder(ENCODER)
+                .streamName(STREAM_NAME)
+                .build(null, null, lifecycle, kinesis, "shard-aware-producer");
+        ShardMap shardMap = new ShardMap(() -> ShardMapTest.shards(2));
+        shardMap.refresh();
+
+        for (int i = 0; i < MAX_BUFFER_SIZE; i++) {
+            shardAware.send(Integer.toString(i));
+        }
+        shardAware.stop();
+
+        assertThat(putRecordRequests.size()).isEqualTo(2);
+        for (PutRecordsRequest request : putRecordRequests) {
+            String shardId = shardMap.shardId(request.getRecords().get(0));
+            for (PutRecordsRequestEntry record : request.getRecords()) {
+                assertThat(shardMap.shardId(record)).isEqualTo(shardId);
+            }
+        }
+    }
+
+    @Test
+    public void retiredShardGaugesRemoved() throws Exception {
+        when(kinesis.describeStream(any(DescribeStreamRequest.class))).thenReturn(new DescribeStreamResult()
+                .withStreamDescription(new StreamDescription()
+                        .withStreamName(STREAM_NAME)
+                        .withStreamStatus(StreamStatus.ACTIVE)
+                        .withShards(ShardMapTest.shards(2))
+                        .withHasMoreShards(false)));
+        MetricRegistry metrics = new MetricRegistry();
+        BufferedProducer<String> shardAware = (BufferedProducer<String>) new BufferedProducerFactory<String>()
+                .flushPeriod(Duration.hours(1))
+                .shardRefreshPeriod(Duration.hours(1))
+                .maxBufferSize(MAX_BUFFER_SIZE)
+                .shardAware(true)
+                .rateLimit(new AdaptiveAcquireLimiterFactory())
+                .encoder(ENCODER)
+                .streamName(STREAM_NAME)
+                .build(metrics, null, lifecycle, kinesis, "retiring-producer");
+
+        for (int i = 0; i < MAX_BUFFER_SIZE; i++) {
+            shardAware.send(Integer.toString(i));
+        }
+        assertThat(metrics.getGauges().keySet()).contains(
+                "retiring-producer-shard-0-rate-limit-rate",
+                "retiring-producer-shard-1-rate-limit-rate");
+
+        when(kinesis.describeStream(any(DescribeStreamRequest.class))).thenReturn(new DescribeStreamResult()
+                .withStreamDescription(new StreamDescription()
+                        .withStreamName(STREAM_NAME)
+                        .withStreamStatus(StreamStatus.ACTIVE)
+                        .withShards(ShardMapTest.splitFirst(ShardMapTest.shards(2)))
+                        .withHasMoreShards(false)));
+        shardAware.refreshShards();
+
+        assertThat(metrics.getGauges().keySet())
+                .doesNotContain("retiring-producer-shard-0-rate-limit-rate")
+                .contains("retiring-producer-shard-1-rate-limit-rate");
+        shardAware.stop();
+    }
+
+    @Test
+    public void childShardsWaitForRetiredParent() throws Throwable {
+        when(kinesis.describeStream(any(DescribeStreamRequest.class))).thenReturn(new DescribeStreamResult()
+                .withStreamDescription(new StreamDescription()
+                        .withStreamName(STREAM_NAME)
+                        .withStreamStatus(StreamStatus.ACTIVE)
+                        .withShards(ShardMapTest.shards(2))
+                        .withHasMoreShards(false)));
+        BufferedProducer<String> shardAware = (BufferedProducer<String>) new BufferedProducerFactory<String>()
+                .flushPeriod(Duration.hours(1))
+                .shardRefreshPeriod(Duration.hours(1))
+                .maxBufferSize(MAX_BUFFER_SIZE)
+                .maxInFlightBatches(4)
+                .shardAware(true)
+                .encoder(ENCODER)
+                .streamName(STREAM_NAME)
+                .build(null, null, lifecycle, kinesis, "splitting-producer");
+        ShardMap splitMap = new ShardMap(() -> ShardMapTest.splitFirst(ShardMapTest.shards(2)));
+        splitMap.refresh();
+        List<String> parentEvents = new ArrayList<>();
+        List<String> childEvents = new ArrayList<>();
+        for (int i = 0; parentEvents.size() < 3 || childEvents.size() < 3; i++) {
+            String event = Integer.toString(i);
+            String shardId = splitMap.shardId(new PutRecordsRequestEntry().withPartitionKey(event));
+            if (shardId.startsWith("shard-0-")) {
+                (parentEvents.size() < 3 ? parentEvents : childEvents).add(event);
+            }
+        }
+
+        shardAware.sendAll(parentEvents);
+        putsReleased = new CountDownLatch(1);
+        when(kinesis.describeStream(any(DescribeStreamRequest.class))).thenReturn(new DescribeStreamResult()
+                .withStreamDescription(new StreamDescription()
+                        .withStreamName(STREAM_NAME)
+                        .withStreamStatus(StreamStatus.ACTIVE)
+                        .withShards(ShardMapTest.splitFirst(ShardMapTest.shards(2)))
+                        .withHasMoreShards(false)));
+        try {
+            //parent retired, its last batch is being put
+            shardAware.refreshShards();
+            Assertions.retry(5, FLUSH_PERIOD, () -> assertThat(putsStarted.get()).isEqualTo(1));
+
+            shardAware.sendAll(childEvents);
+            shardAware.flush();
+            Thread.sleep(200);
+            assertThat(putsStarted.get()).isEqualTo(1);
+        } finally {
+            putsReleased.countDown();
+        }
+        Assertions.retry(5, FLUSH_PERIOD, () -> {
+            int records = 0;
+            for (PutRecordsRequest request : putRecordRequests) {
+                records += request.getRecords().size();
+            }
+            assertThat(records).isEqualTo(6);
+        });
+        List<String> putEvents = new ArrayList<>();
+        for (PutRecordsRequestEntry record : putRecordRequests.get(0).getRecords()) {
+            putEvents.add(ENCODER.decode(record.getData()));
+        }
+        assertThat(putEvents).isEqualTo(parentEvents);
+        shardAware.stop();
+    }
+
+    @Test
+    public void builderChecksOptions() throws Exception {
+        ExecutorService deliveryExecutor = Executors.newSingleThreadExecutor();
+        try {
+            BufferedProducer.Builder<String> builder = new BufferedProducer.Builder<String>()
+                    .streamName(STREAM_NAME)
+                    .partitionKeyFn(s -> s)
+                    .encoder(ENCODER)
+                    .maxBufferSize(MAX_BUFFER_SIZE)
+                    .deliveryExecutors(Collections.singletonList(deliveryExecutor))
+                    .metrics(new BufferedProducerMetrics(null, "test-producer"))
+                    .putter(request -> 0);
+            assertThat(builder.build()).isNotNull();
+
+            try {
+                builder.maxAggregatedRecordSize(1024).build();
+                fail("aggregation without a shard map should be rejected");
+            } catch (IllegalArgumentException e) {
+                assertThat(e.getMessage()).contains("shard map");
+            }
+        } finally {
+            deliveryExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void aggregatesPerShard() throws Exception {
+        when(kinesis.describeStream(any(DescribeStreamRequest.class))).thenReturn(new DescribeStreamResult()
+                .withStreamDescription(new StreamDescription()
+                        .withStreamName(STREAM_NAME)
+                        .withStreamStatus(StreamStatus.ACTIVE)
+                        .withShards(ShardMapTest.shards(2))
+                        .withHasMoreShards(false)));
+        Producer<String> aggregating = new BufferedProducerFactory<String>()
+                .flushPeriod(Duration.hours(1))
+                .maxBufferSize(MAX_BUFFER_SIZE)
+                .shardAware(true)
+                .aggregate(true)
+                .encoder(ENCODER)
+                .streamName(STREAM_NAME)
+                .build(null, null, lifecycle, kinesis, "aggregating-producer");
+
+        for (int i = 0; i < MAX_BUFFER_SIZE; i++) {
+            aggregating.send(Integer.toString(i));
+        }
+        aggregating.stop();
+
+        //everything fits in one aggregated record per shard
+        assertThat(putRecordRequests.size()).isEqualTo(2);
+        int userRecords = 0;
+        for (PutRecordsRequest request : putRecordRequests) {
+            assertThat(request.getRecords()).hasSize(1);
+            userRecords += RecordAggregator.userRecordCount(request.getRecords());
+        }
+        assertThat(userRecords).isEqualTo(MAX_BUFFER_SIZE);
+    }
+
+    @Test
+    public void sendAsyncCompletesOncePut() throws Exception {
+        List<CompletableFuture<PutRecordsResultEntry>> futures = new ArrayList<>();
+        for (int i = 0; i < MAX_BUFFER_SIZE - 1; i++) {
+            futures.add(producer.sendAsync(Integer.toString(i)));
+        }
+        //still buffered
+        assertThat(futures.get(0).isDone()).isFalse();
+
+        producer.stop();
+        for (CompletableFuture<PutRecordsResultEntry> future : futures) {
+            assertThat(future.get(1, TimeUnit.SECONDS).getShardId()).isEqualTo("shard-0");
+        }
+    }
+
+    @Test
+    public void sendAsyncFailsRatherThanWaitForLane() throws Throwable {
+        putsReleased = new CountDownLatch(1);
+        Producer<String> unflushed = new BufferedProducerFactory<String>()
+                .flushPeriod(Duration.hours(1))
+                .maxBufferSize(MAX_BUFFER_SIZE)
+                .encoder(ENCODER)
+                .streamName(STREAM_NAME)
+                .build(null, null, lifecycle, kinesis, "unflushed-producer");
+        List<CompletableFuture<PutRecordsResultEntry>> futures = new ArrayList<>();
+        //one batch being put, one waiting in the lane's queue, one full batch buffered
+        for (int i = 0; i < 3 * MAX_BUFFER_SIZE; i++) {
+            futures.add(unflushed.sendAsync(Integer.toString(i)));
+            if (i == MAX_BUFFER_SIZE) {
+                Assertions.retry(10, Duration.milliseconds(100), () -> assertThat(putsStarted.get()).isEqualTo(1));
+            }
+        }
+        //would fill the buffered batch, which the lane cannot take
+        CompletableFuture<PutRecordsResultEntry> rejected = unflushed.sendAsync("rejected");
+        assertThat(rejected.isCompletedExceptionally()).isTrue();
+        try {
+            rejected.get();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(InFlightLimitExceededException.class);
+        }
+
+        putsReleased.countDown();
+        unflushed.stop();
+        for (CompletableFuture<PutRecordsResultEntry> future : futures) {
+            assertThat(future.get(1, TimeUnit.SECONDS).getSequenceNumber()).isEqualTo("123");
+        }
+        synchronized (putRecordRequests) {
+            assertThat(putRecordRequests.stream().mapToInt(r -> r.getRecords().size()).sum()).isEqualTo(3 * MAX_BUFFER_SIZE);
+        }
+    }
+
+    @Test
+    public void sendAsyncAggregatedShareResult() throws Exception {
+        when(kinesis.describeStream(any(DescribeStreamRequest.class))).thenReturn(new DescribeStreamResult()
+                .withStreamDescription(new StreamDescription()
+                        .withStreamName(STREAM_NAME)
+                        .withStreamStatus(StreamStatus.ACTIVE)
+                        .withShards(ShardMapTest.shards(1))
+                        .withHasMoreShards(false)));
+        Producer<String> aggregating = new BufferedProducerFactory<String>()
+                .flushPeriod(Duration.hours(1))
+                .maxBufferSize(MAX_BUFFER_SIZE)
+                .shardAware(true)
+                .aggregate(true)
+                .encoder(ENCODER)
+                .streamName(STREAM_NAME)
+                .build(null, null, lifecycle, kinesis, "aggregating-producer");
+
+        CompletableFuture<PutRecordsResultEntry> first = aggregating.sendAsync("a");
+        CompletableFuture<PutRecordsResultEntry> second = aggregating.sendAsync("b");
+        aggregating.stop();
+
+        assertThat(putRecordRequests.size()).isEqualTo(1);
+        assertThat(first.get(1, TimeUnit.SECONDS)).isSameAs(second.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void spillsWhileLaneBusyKeepingOrder() throws Throwable {
+        putsReleased = new CountDownLatch(1);
+        MetricRegistry metrics = new MetricRegistry();
+        Producer<String> spilling = new BufferedProducerFactory<String>()
+                .flushPeriod(Duration.hours(1))
+                .maxBufferSize(MAX_BUFFER_SIZE)
+                .spill(new SpillQueueFactory().directory(folder.getRoot().getAbsolutePath()))
+                .encoder(ENCODER)
+                .streamName(STREAM_NAME)
+                .build(metrics, null, lifecycle, kinesis, "spilling-producer");
+        //five full batches, last record stays buffered
+        int count = MAX_BUFFER_SIZE * 5;
+        for (int i = 0; i <= count; i++) {
+            spilling.send(Integer.toString(i));
+            if (i == MAX_BUFFER_SIZE) {
+                //first batch taken off the lane's queue
+                Assertions.retry(10, Duration.milliseconds(100), () -> assertThat(putsStarted.get()).isEqualTo(1));
+            }
+        }
+        //one batch being put and one waiting, the rest did not block the sender
+        assertThat(metrics.meter("spilling-producer-spilled").getCount()).isEqualTo(MAX_BUFFER_SIZE * 3);
+        assertThat(metrics.getGauges().get("spilling-producer-spill-batches").getValue()).isEqualTo(3L);
+
+        putsReleased.countDown();
+        Assertions.retry(10, Duration.milliseconds(100), () -> {
+            synchronized (putRecordRequests) {
+                assertThat(putRecordRequests.stream().mapToInt(r -> r.getRecords().size()).sum()).isEqualTo(count);
+            }
+        });
+        List<Integer> sent = new ArrayList<>();
+        synchronized (putRecordRequests) {
+            for (PutRecordsRequest request : putRecordRequests) {
+                for (PutRecordsRequestEntry record : request.getRecords()) {
+                    sent.add(Integer.parseInt(ENCODER.decode(record.getData())));
+                }
+            }
+        }
+        assertThat(sent).isSorted();
+        assertThat(metrics.meter("spilling-producer-unspilled").getCount()).isEqualTo(MAX_BUFFER_SIZE * 3);
+    }
+
+    @Test
+    public void inFlightLimitFailsFast() throws Throwable {
+        putsReleased = new CountDownLatch(1);
+        MetricRegistry metrics = new MetricRegistry();
+        Producer<String> limited = limitedProducer(metrics, InFlightLimit.OverflowPolicy.FAIL, Duration.milliseconds(0));
+        //one batch being put, one waiting for lane, the rest buffered
+        for (int i = 0; i < 25; i++) {
+            limited.send(Integer.toString(i));
+        }
+        assertThat(metrics.getGauges().get("limited-producer-in-flight-records").getValue()).isEqualTo(25L);
+        try {
+            limited.send("too many");
+            fail("expected in flight limit to be exceeded");
+        } catch (InFlightLimitExceededException e) {
+            //expected
+        }
+        putsReleased.countDown();
+        limited.stop();
+        assertThat(metrics.getGauges().get("limited-producer-in-flight-records").getValue()).isEqualTo(0L);
+        assertThat(metrics.getGauges().get("limited-producer-in-flight-bytes").getValue()).isEqualTo(0L);
+    }
+
+    @Test
+    public void inFlightLimitBlocksWithTimeout() throws Throwable {
+        putsReleased = new CountDownLatch(1);
+        Producer<String> limited = limitedProducer(null, InFlightLimit.OverflowPolicy.BLOCK, Duration.milliseconds(100));
+        for (int i = 0; i < 25; i++) {
+            limited.send(Integer.toString(i));
+        }
+        CompletableFuture<PutRecordsResultEntry> timedOut = limited.sendAsync("blocked");
+        assertThat(timedOut.isCompletedExceptionally()).isTrue();
+
+        //room is made once batches were put
+        CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> {
+            try {
+                Thread.sleep(50);
+                putsReleased.countDown();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        limited.send("waits");
+        blocked.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void inFlightLimitDropsNewest() throws Throwable {
+        putsReleased = new CountDownLatch(1);
+        MetricRegistry metrics = new MetricRegistry();
+        Producer<String> limited = limitedProducer(metrics, InFlightLimit.OverflowPolicy.DROP_NEWEST, Duration.milliseconds(0));
+        List<CompletableFuture<PutRecordsResultEntry>> futures = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            futures.add(limited.sendAsync(Integer.toString(i)));
+            if (i == MAX_BUFFER_SIZE) {
+                //first batch taken off the lane's queue, so the lane can take the second without waiting
+                Assertions.retry(10, Duration.milliseconds(100), () -> assertThat(putsStarted.get()).isEqualTo(1));
+            }
+        }
+        assertThat(metrics.meter("limited-producer-dropped").getCount()).isEqualTo(5);
+        for (int i = 25; i < 30; i++) {
+            assertThat(futures.get(i).isCompletedExceptionally()).isTrue();
+        }
+        putsReleased.countDown();
+        limited.stop();
+        for (int i = 0; i < 25; i++) {
+            assertThat(futures.get(i).get(1, TimeUnit.SECONDS).getSequenceNumber()).isEqualTo("123");
+        }
+    }
+
+    @Test
+    public void inFlightLimitDropsOldestWaiting() throws Throwable {
+        putsReleased = new CountDownLatch(1);
+        MetricRegistry metrics = new MetricRegistry();
+        Producer<String> limited = limitedProducer(metrics, InFlightLimit.OverflowPolicy.DROP_OLDEST, Duration.milliseconds(0));
+        List<CompletableFuture<PutRecordsResultEntry>> futures = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            futures.add(limited.sendAsync(Integer.toString(i)));
+            if (i == 10) {
+                //let first batch start being put
+                Thread.sleep(200);
+            }
+        }
+        futures.add(limited.sendAsync("25"));
+        assertThat(metrics.meter("limited-producer-dropped").getCount()).isEqualTo(MAX_BUFFER_SIZE);
+
+        putsReleased.countDown();
+        limited.stop();
+        for (int i = 0; i < futures.size(); i++) {
+            //second batch was waiting for the lane, so it was dropped
+            boolean dropped = i >= MAX_BUFFER_SIZE && i < 2 * MAX_BUFFER_SIZE;
+            assertThat(futures.get(i).isCompletedExceptionally()).isEqualTo(dropped);
+        }
+    }
+
+    private Producer<String> limitedProducer(MetricRegistry metrics,
+                                             InFlightLimit.OverflowPolicy overflowPolicy,
+                                             Duration timeout) {
+        return new BufferedProducerFactory<String>()
+                .flushPeriod(Duration.hours(1))
+                .maxBufferSize(MAX_BUFFER_SIZE)
+                .inFlightLimit(new InFlightLimitFactory()
+                        .maxRecords(25)
+                        .overflowPolicy(overflowPolicy)
+                        .timeout(timeout))
+                .encoder(ENCODER)
+                .streamName(STREAM_NAME)
+                .build(metrics, null, lifecycle, kinesis, "limited-producer");
+    }
+
     @Test
     public void flushOnShutdownIfNotEmpty() throws Exception {
         producer.stop(); // forces immediate flush
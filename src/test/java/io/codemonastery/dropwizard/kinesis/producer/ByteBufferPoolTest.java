@@ -0,0 +1,45 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ByteBufferPoolTest {
+
+    @Test
+    public void reusesReleasedBuffers() throws Exception {
+        ByteBufferPool pool = new ByteBufferPool(16, 2);
+        ByteBuffer buffer = pool.acquire();
+        assertThat(buffer.capacity()).isEqualTo(16);
+        buffer.put((byte) 1).flip();
+
+        pool.release(buffer);
+        assertThat(pool.getPooled()).isEqualTo(1);
+        ByteBuffer reused = pool.acquire();
+        assertThat(reused).isSameAs(buffer);
+        assertThat(reused.position()).isEqualTo(0);
+        assertThat(reused.remaining()).isEqualTo(16);
+        assertThat(pool.getPooled()).isEqualTo(0);
+    }
+
+    @Test
+    public void ignoresOtherBuffers() throws Exception {
+        ByteBufferPool pool = new ByteBufferPool(16, 2);
+        pool.release(null);
+        pool.release(ByteBuffer.allocate(32));
+        pool.release(ByteBuffer.allocateDirect(16));
+        pool.release(ByteBuffer.allocate(16).asReadOnlyBuffer());
+        assertThat(pool.getPooled()).isEqualTo(0);
+    }
+
+    @Test
+    public void keepsAtMostMaxBuffers() throws Exception {
+        ByteBufferPool pool = new ByteBufferPool(16, 2);
+        for (int i = 0; i < 3; i++) {
+            pool.release(ByteBuffer.allocate(16));
+        }
+        assertThat(pool.getPooled()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,139 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EncodeStageTest {
+
+    private ExecutorService encodeExecutor;
+    private ExecutorService sequenceExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        encodeExecutor = Executors.newFixedThreadPool(4);
+        sequenceExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        encodeExecutor.shutdownNow();
+        sequenceExecutor.shutdownNow();
+    }
+
+    @Test
+    public void handsOnInSubmitOrder() throws Exception {
+        EncodeStage stage = new EncodeStage(encodeExecutor, sequenceExecutor, 10);
+        stage.start();
+        Random random = new Random(0);
+        List<Integer> handedOn = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 100; i++) {
+            int event = i;
+            int sleep = random.nextInt(3);
+            stage.submit(() -> {
+                //later events often finish encoding first
+                sleepQuietly(sleep);
+                return event;
+            }, handedOn::add);
+        }
+        stage.close();
+
+        assertThat(handedOn).hasSize(100);
+        for (int i = 0; i < 100; i++) {
+            assertThat(handedOn.get(i)).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void failedEncodeDoesNotStopStage() throws Exception {
+        EncodeStage stage = new EncodeStage(encodeExecutor, sequenceExecutor, 10);
+        stage.start();
+        List<String> handedOn = Collections.synchronizedList(new ArrayList<>());
+        stage.<String>submit(() -> {
+            throw new IllegalStateException("boom");
+        }, handedOn::add);
+        stage.submit(() -> "ok", handedOn::add);
+        stage.close();
+        assertThat(handedOn).containsExactly("ok");
+    }
+
+    @Test
+    public void submitBlocksWhileFull() throws Exception {
+        EncodeStage stage = new EncodeStage(encodeExecutor, sequenceExecutor, 1);
+        stage.start();
+        CountDownLatch release = new CountDownLatch(1);
+        //first is taken by the sequencing thread, second fills the queue
+        stage.submit(() -> "a", a -> awaitQuietly(release));
+        stage.submit(() -> "b", b -> {});
+        CompletableFuture<Void> third = CompletableFuture.runAsync(() -> {
+            try {
+                stage.submit(() -> "c", c -> {});
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertThat(third.isDone()).isFalse();
+        assertThat(stage.getQueued()).isEqualTo(1);
+
+        release.countDown();
+        third.get(5, TimeUnit.SECONDS);
+        stage.close();
+        assertThat(stage.getQueued()).isEqualTo(0);
+    }
+
+    @Test
+    public void offerFailsWhileFull() throws Exception {
+        EncodeStage stage = new EncodeStage(encodeExecutor, sequenceExecutor, 1);
+        stage.start();
+        CountDownLatch release = new CountDownLatch(1);
+        assertThat(stage.offer(() -> "a", a -> awaitQuietly(release))).isTrue();
+        //wait for the sequencing thread to take the first
+        for (int i = 0; i < 100 && stage.getQueued() > 0; i++) {
+            Thread.sleep(10);
+        }
+        List<String> handedOn = Collections.synchronizedList(new ArrayList<>());
+        assertThat(stage.offer(() -> "b", handedOn::add)).isTrue();
+        assertThat(stage.offer(() -> "c", handedOn::add)).isFalse();
+
+        release.countDown();
+        stage.close();
+        assertThat(handedOn).containsExactly("b");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedStageRejects() throws Exception {
+        EncodeStage stage = new EncodeStage(encodeExecutor, sequenceExecutor, 1);
+        stage.start();
+        stage.close();
+        stage.submit(() -> "a", a -> {});
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InFlightLimitTest {
+
+    @Test
+    public void limitsRecords() throws Exception {
+        InFlightLimit limit = new InFlightLimit(0, 2, InFlightLimit.OverflowPolicy.FAIL, 0);
+        assertThat(limit.tryAcquire(1, 1000)).isTrue();
+        assertThat(limit.tryAcquire(1, 1000)).isTrue();
+        assertThat(limit.tryAcquire(1, 1)).isFalse();
+        assertThat(limit.getRecords()).isEqualTo(2);
+        assertThat(limit.getBytes()).isEqualTo(2000);
+
+        limit.release(1, 1000);
+        assertThat(limit.tryAcquire(1, 1)).isTrue();
+    }
+
+    @Test
+    public void limitsBytes() throws Exception {
+        InFlightLimit limit = new InFlightLimit(100, 0, InFlightLimit.OverflowPolicy.FAIL, 0);
+        assertThat(limit.tryAcquire(1, 60)).isTrue();
+        assertThat(limit.tryAcquire(1, 60)).isFalse();
+        assertThat(limit.tryAcquire(1, 40)).isTrue();
+    }
+
+    @Test
+    public void oversizeRecordLetInWhenEmpty() throws Exception {
+        InFlightLimit limit = new InFlightLimit(100, 0, InFlightLimit.OverflowPolicy.FAIL, 0);
+        assertThat(limit.tryAcquire(1, 1000)).isTrue();
+        assertThat(limit.tryAcquire(1, 1)).isFalse();
+    }
+
+    @Test
+    public void acquireTimesOut() throws Exception {
+        InFlightLimit limit = new InFlightLimit(0, 1, InFlightLimit.OverflowPolicy.BLOCK, TimeUnit.MILLISECONDS.toNanos(50));
+        assertThat(limit.acquire(1, 1)).isTrue();
+        long start = System.nanoTime();
+        assertThat(limit.acquire(1, 1)).isFalse();
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void acquireWaitsForRelease() throws Exception {
+        InFlightLimit limit = new InFlightLimit(0, 1, InFlightLimit.OverflowPolicy.BLOCK, 0);
+        limit.acquire(1, 1);
+        CompletableFuture<Boolean> acquired = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limit.acquire(1, 1);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertThat(acquired.isDone()).isFalse();
+        limit.release(1, 1);
+        assertThat(acquired.get(1, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void weighsAggregatedRecordsByParts() throws Exception {
+        PutRecordsRequestEntry a = new PutRecordsRequestEntry().withPartitionKey("a").withData(ByteBuffer.wrap(new byte[10]));
+        PutRecordsRequestEntry b = new PutRecordsRequestEntry().withPartitionKey("bb").withData(ByteBuffer.wrap(new byte[20]));
+        assertThat(InFlightLimit.weight(a)).isEqualTo(11);
+
+        RecordAggregator aggregator = new RecordAggregator(1000);
+        aggregator.add(a);
+        aggregator.add(b);
+        List<PutRecordsRequestEntry> batch = new ArrayList<>(Arrays.asList(aggregator.drain()));
+        assertThat(InFlightLimit.weight(batch)).isEqualTo(33);
+        assertThat(InFlightLimit.weight(Arrays.asList(a, b))).isEqualTo(33);
+    }
+}
@@ -0,0 +1,79 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.google.common.hash.Hashing;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class KeyBalancerTest {
+
+    @Test
+    public void coldKeysNotSpread() throws Exception {
+        KeyBalancer balancer = new KeyBalancer(10, 0.2, 4, 1000);
+        for (int i = 0; i < 500; i++) {
+            assertThat(balancer.explicitHashKey(Integer.toString(i % 50))).isNull();
+        }
+        assertThat(balancer.getHotKeys()).isEqualTo(0);
+    }
+
+    @Test
+    public void hotKeySpreadOverSlots() throws Exception {
+        KeyBalancer balancer = new KeyBalancer(10, 0.2, 4, 100000);
+        Set<String> hashKeys = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            String hashKey = balancer.explicitHashKey("hot");
+            if (hashKey != null) {
+                hashKeys.add(hashKey);
+            }
+            assertThat(balancer.explicitHashKey("cold-" + i)).isNull();
+        }
+        assertThat(balancer.getHotKeys()).isEqualTo(1);
+        assertThat(hashKeys).hasSize(4);
+
+        //slots start where kinesis puts the key, evenly spaced from there
+        BigInteger range = BigInteger.ONE.shiftLeft(128);
+        BigInteger natural = new BigInteger(1, Hashing.md5().hashString("hot", StandardCharsets.UTF_8).asBytes());
+        for (int slot = 0; slot < 4; slot++) {
+            BigInteger expected = natural.add(range.divide(BigInteger.valueOf(4)).multiply(BigInteger.valueOf(slot))).mod(range);
+            assertThat(hashKeys).contains(expected.toString());
+        }
+    }
+
+    @Test
+    public void cooledKeyStopsBeingSpread() throws Exception {
+        KeyBalancer balancer = new KeyBalancer(10, 0.2, 4, 100);
+        for (int i = 0; i < 100; i++) {
+            balancer.explicitHashKey("hot");
+        }
+        assertThat(balancer.getHotKeys()).isEqualTo(1);
+        for (int i = 0; i < 1000; i++) {
+            balancer.explicitHashKey(Integer.toString(i % 20));
+        }
+        assertThat(balancer.explicitHashKey("hot")).isNull();
+    }
+
+    @Test
+    public void newKeyReplacesLeastCounted() throws Exception {
+        KeyBalancer balancer = new KeyBalancer(2, 0.5, 4, 1000);
+        for (int i = 0; i < 3; i++) {
+            balancer.explicitHashKey("a");
+        }
+        balancer.explicitHashKey("b");
+
+        //takes over b's count of one, so 2 of 5 records
+        assertThat(balancer.explicitHashKey("c")).isNull();
+        //3 of 6 records
+        assertThat(balancer.explicitHashKey("c")).isNotNull();
+        assertThat(balancer.getHotKeys()).isEqualTo(2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void factoryRequiresOptIn() throws Exception {
+        new KeyBalancerFactory().build();
+    }
+}
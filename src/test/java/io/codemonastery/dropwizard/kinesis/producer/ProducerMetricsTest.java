@@ -1,6 +1,8 @@
 package io.codemonastery.dropwizard.kinesis.producer;
 
 import com.codahale.metrics.MetricRegistry;
+import io.codemonastery.dropwizard.kinesis.producer.ratelimit.AdaptiveAcquireLimiterFactory;
+import io.codemonastery.dropwizard.kinesis.producer.ratelimit.NoLimitAcquireLimiter;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -139,4 +141,38 @@ public class ProducerMetricsTest {
         assertThat(metrics.highFailureMetrics().size()).isEqualTo(1);
         assertThat(metrics.highFailureMetrics().get(0)).contains("% send failure");
     }
+
+    @Test
+    public void retried() throws Exception {
+        MetricRegistry metricsRegistry = new MetricRegistry();
+        ProducerMetrics metrics = new ProducerMetrics(metricsRegistry, "foo");
+        assertThat(metricsRegistry.meter("foo-retried").getCount()).isEqualTo(0);
+        metrics.retried(3);
+        assertThat(metricsRegistry.meter("foo-retried").getCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void rateLimiterGauges() throws Exception {
+        MetricRegistry metricsRegistry = new MetricRegistry();
+        ProducerMetrics metrics = new ProducerMetrics(metricsRegistry, "foo");
+        metrics.rateLimiter("", new AdaptiveAcquireLimiterFactory().initialPerSecond(500).build());
+        metrics.rateLimiter("shard-1", new AdaptiveAcquireLimiterFactory().build());
+        //no gauges, nothing registered
+        metrics.rateLimiter("shard-2", new NoLimitAcquireLimiter());
+        assertThat(metricsRegistry.getGauges().keySet()).containsOnly(
+                "foo-rate-limit-rate",
+                "foo-rate-limit-capacity",
+                "foo-shard-1-rate-limit-rate",
+                "foo-shard-1-rate-limit-capacity");
+        assertThat(metricsRegistry.getGauges().get("foo-rate-limit-rate").getValue()).isEqualTo(500.0);
+
+        //replaced by a new limiter of the same scope
+        metrics.rateLimiter("", new AdaptiveAcquireLimiterFactory().initialPerSecond(700).build());
+        assertThat(metricsRegistry.getGauges().get("foo-rate-limit-rate").getValue()).isEqualTo(700.0);
+
+        metrics.removeRateLimiter("shard-1");
+        assertThat(metricsRegistry.getGauges().keySet()).containsOnly(
+                "foo-rate-limit-rate",
+                "foo-rate-limit-capacity");
+    }
 }
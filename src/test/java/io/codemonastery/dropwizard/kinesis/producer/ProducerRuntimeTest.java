@@ -0,0 +1,135 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProducerRuntimeTest {
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService deliveryPool;
+    private ProducerRuntime runtime;
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = Executors.newScheduledThreadPool(1);
+        deliveryPool = Executors.newFixedThreadPool(2);
+        runtime = new ProducerRuntime(scheduler, deliveryPool);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdownNow();
+        deliveryPool.shutdownNow();
+    }
+
+    @Test
+    public void laneRunsOneAtATimeInOrder() throws Exception {
+        ExecutorService lane = runtime.lane();
+        List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            int task = i;
+            futures.add(lane.submit(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                ran.add(task);
+                running.decrementAndGet();
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertThat(maxRunning.get()).isEqualTo(1);
+        assertThat(ran).hasSize(50);
+        for (int i = 0; i < 50; i++) {
+            assertThat(ran.get(i)).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void submitBlocksWhileDeliveryWaits() throws Exception {
+        ExecutorService lane = runtime.lane();
+        CountDownLatch release = new CountDownLatch(1);
+        lane.submit(() -> {
+            release.await();
+            return null;
+        });
+        lane.submit(() -> {});
+        CompletableFuture<Void> third = CompletableFuture.runAsync(() -> lane.submit(() -> {}));
+        Thread.sleep(200);
+        assertThat(third.isDone()).isFalse();
+
+        release.countDown();
+        third.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void busyLaneTakesTurns() throws Exception {
+        ExecutorService onePool = Executors.newFixedThreadPool(1);
+        try {
+            ProducerRuntime oneThread = new ProducerRuntime(scheduler, onePool);
+            ExecutorService busy = oneThread.lane();
+            ExecutorService quiet = oneThread.lane();
+            List<String> ran = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch release = new CountDownLatch(1);
+            busy.submit(() -> {
+                release.await();
+                ran.add("busy-1");
+                return null;
+            });
+            Thread.sleep(100);
+            Future<?> busyNext = busy.submit(() -> ran.add("busy-2"));
+            Future<?> quietNext = quiet.submit(() -> ran.add("quiet-1"));
+            assertThat(oneThread.getActiveLanes()).isEqualTo(1);
+            assertThat(oneThread.getWaitingLanes()).isEqualTo(1);
+
+            release.countDown();
+            busyNext.get(5, TimeUnit.SECONDS);
+            quietNext.get(5, TimeUnit.SECONDS);
+            assertThat(ran).containsExactly("busy-1", "quiet-1", "busy-2");
+        } finally {
+            onePool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void laneFinishesAcceptedTasksWhenPoolShutdown() throws Exception {
+        ExecutorService lane = runtime.lane();
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> first = lane.submit(() -> {
+            release.await();
+            return null;
+        });
+        Thread.sleep(100);
+        Future<?> second = lane.submit(() -> {});
+        deliveryPool.shutdown();
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void shutdownLaneRejects() throws Exception {
+        ExecutorService lane = runtime.lane();
+        lane.shutdown();
+        assertThat(lane.awaitTermination(1, TimeUnit.SECONDS)).isTrue();
+        lane.submit(() -> {});
+    }
+}
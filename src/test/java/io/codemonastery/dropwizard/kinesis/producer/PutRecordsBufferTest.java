@@ -5,7 +5,17 @@ import org.junit.Test;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -39,6 +49,22 @@ public class PutRecordsBufferTest {
         }
     }
 
+    @Test
+    public void batchesFollowAdaptiveSize() throws Exception {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(1, 10, 1, 1, 0.1);
+        PutRecordsBuffer buffer = new PutRecordsBuffer(10, Producer.MAX_REQUEST_SIZE, batchSize);
+        batchSize.update(10, 10, 0);
+        batchSize.update(10, 10, 0);
+        //current batch was started at ten records, the next one takes the target of two
+        for (int i = 0; i < 9; i++) {
+            buffer.add(entry(1));
+        }
+        assertThat(buffer.add(entry(1))).isNull();
+        assertThat(buffer.add(entry(1))).hasSize(10);
+        assertThat(buffer.add(entry(1))).isNull();
+        assertThat(buffer.add(entry(1))).hasSize(2);
+    }
+
     @Test
     public void extremeDegenerateCase() throws Exception {
         PutRecordsBuffer buffer = new PutRecordsBuffer(10, 1024);
@@ -46,6 +72,26 @@ public class PutRecordsBufferTest {
         assertThat(buffer.drain()).isEmpty();
     }
 
+    @Test
+    public void agesFromFirstRecordOfBatch() throws Exception {
+        PutRecordsBuffer buffer = new PutRecordsBuffer(2, 1024);
+        long now = System.nanoTime();
+        assertThat(buffer.ageNanos(now)).isEqualTo(0);
+
+        buffer.add(entry(1), now - 1000);
+        buffer.add(entry(1), now - 10);
+        assertThat(buffer.ageNanos(now)).isEqualTo(1000);
+
+        //third record starts the next batch
+        buffer.add(entry(1), now - 100);
+        assertThat(buffer.ageNanos(now)).isEqualTo(100);
+
+        buffer.drain();
+        assertThat(buffer.ageNanos(now)).isEqualTo(0);
+        buffer.add(entry(1));
+        assertThat(buffer.ageNanos(System.nanoTime() + 1000)).isGreaterThanOrEqualTo(1000);
+    }
+
     @Test
     public void sendAll() throws Exception {
         List<PutRecordsRequestEntry> entries = new ArrayList<>();
@@ -61,6 +107,146 @@ public class PutRecordsBufferTest {
                 .withFailMessage("Should have one record left over");
     }
 
+    @Test
+    public void addAllReportsEntriesRejectedByClose() throws Exception {
+        PutRecordsBuffer buffer = new PutRecordsBuffer(10, 1024);
+        buffer.close();
+        List<PutRecordsRequestEntry> entries = new ArrayList<>();
+        entries.add(entry(1));
+        entries.add(entry(2));
+        List<PutRecordsRequestEntry> closed = new ArrayList<>();
+        assertThat(buffer.addAll(entries, closed)).isEmpty();
+        assertThat(closed).isEqualTo(entries);
+    }
+
+    @Test
+    public void closeRejectsLaterAdds() throws Exception {
+        PutRecordsBuffer buffer = new PutRecordsBuffer(10, 1024);
+        buffer.add(entry(1));
+        assertThat(buffer.close()).hasSize(1);
+        assertThat(buffer.add(entry(1))).isSameAs(PutRecordsBuffer.CLOSED);
+        assertThat(buffer.drain()).isEmpty();
+        assertThat(buffer.close()).isEmpty();
+    }
+
+    @Test
+    public void concurrentAddsLoseNothing() throws Exception {
+        int threads = 8;
+        int perThread = 10000;
+        PutRecordsBuffer buffer = new PutRecordsBuffer(10, 1024);
+        List<List<PutRecordsRequestEntry>> submitted = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < perThread; i++) {
+                    List<PutRecordsRequestEntry> submitMe = buffer.add(entry(1 + (i % 200)).withPartitionKey(thread + ":" + i));
+                    if (submitMe != null) {
+                        submitted.add(submitMe);
+                    }
+                    if (i % 1000 == 0) {
+                        submitted.add(buffer.drain());
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        submitted.add(buffer.drain());
+
+        Set<String> seen = new HashSet<>();
+        for (List<PutRecordsRequestEntry> batch : submitted) {
+            assertThat(batch.size()).isLessThanOrEqualTo(10);
+            assertThat(batch.stream().mapToInt(e -> e.getData().limit()).sum()).isLessThanOrEqualTo(1024);
+            for (PutRecordsRequestEntry entry : batch) {
+                assertThat(seen.add(entry.getPartitionKey())).isTrue();
+            }
+        }
+        assertThat(seen).hasSize(threads * perThread);
+    }
+
+    @Test
+    public void contendedAddsWhileDrainingAndClosing() throws Exception {
+        int threads = 8;
+        int perThread = 20000;
+        PutRecordsBuffer buffer = new PutRecordsBuffer(10, 1024);
+        List<List<PutRecordsRequestEntry>> submitted = Collections.synchronizedList(new ArrayList<>());
+        List<PutRecordsRequestEntry> closed = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger added = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < perThread; i++) {
+                    PutRecordsRequestEntry entry = entry(1 + (i % 100)).withPartitionKey(thread + ":" + i);
+                    List<PutRecordsRequestEntry> submitMe = buffer.add(entry);
+                    if (submitMe == PutRecordsBuffer.CLOSED) {
+                        closed.add(entry);
+                    } else if (submitMe != null) {
+                        submitted.add(submitMe);
+                    }
+                    added.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        //drains as fast as it can, then closes while adds are still going
+        Future<?> drainer = executor.submit(() -> {
+            start.await();
+            while (added.get() < threads * perThread / 2) {
+                submitted.add(buffer.drain());
+            }
+            submitted.add(buffer.close());
+            return null;
+        });
+        start.countDown();
+        drainer.get();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        Set<String> seen = new HashSet<>();
+        for (List<PutRecordsRequestEntry> batch : submitted) {
+            assertThat(batch.size()).isLessThanOrEqualTo(10);
+            assertThat(batch.stream().mapToInt(e -> e.getData().remaining()).sum()).isLessThanOrEqualTo(1024);
+            //records of one thread keep their order within a batch
+            Map<String, Integer> last = new HashMap<>();
+            for (PutRecordsRequestEntry entry : batch) {
+                assertThat(seen.add(entry.getPartitionKey())).isTrue();
+                String[] threadAndIndex = entry.getPartitionKey().split(":");
+                int index = Integer.parseInt(threadAndIndex[1]);
+                assertThat(last.getOrDefault(threadAndIndex[0], -1)).isLessThan(index);
+                last.put(threadAndIndex[0], index);
+            }
+        }
+        for (PutRecordsRequestEntry entry : closed) {
+            assertThat(seen.add(entry.getPartitionKey())).isTrue();
+        }
+        assertThat(seen).hasSize(threads * perThread);
+    }
+
+    @Test
+    public void sizedByRemainingBytes() throws Exception {
+        PutRecordsBuffer buffer = new PutRecordsBuffer(10, 1024);
+        ByteBuffer data = ByteBuffer.wrap(new byte[1024]);
+        data.position(1000);
+        //only 24 bytes remaining, fits alongside a 1000 byte record
+        buffer.add(new PutRecordsRequestEntry().withData(data));
+        assertThat(buffer.add(entry(1000))).isNull();
+        assertThat(buffer.drain()).hasSize(2);
+    }
+
     private PutRecordsRequestEntry entry(int size) {
         return new PutRecordsRequestEntry().withData(ByteBuffer.wrap(new byte[size]));
     }
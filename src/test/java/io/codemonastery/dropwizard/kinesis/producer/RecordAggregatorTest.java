@@ -0,0 +1,114 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.amazonaws.services.kinesis.clientlibrary.types.UserRecord;
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import com.amazonaws.services.kinesis.model.Record;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RecordAggregatorTest {
+
+    @Test
+    public void emptyDrainsNull() throws Exception {
+        RecordAggregator aggregator = new RecordAggregator(1024);
+        assertThat(aggregator.isEmpty()).isTrue();
+        assertThat(aggregator.drain()).isNull();
+    }
+
+    @Test
+    public void singleRecordNotAggregated() throws Exception {
+        RecordAggregator aggregator = new RecordAggregator(1024);
+        PutRecordsRequestEntry entry = entry("a", "aaa");
+        assertThat(aggregator.add(entry)).isNull();
+        assertThat(aggregator.drain()).isSameAs(entry);
+        assertThat(aggregator.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void roundTripsThroughDeaggregate() throws Exception {
+        RecordAggregator aggregator = new RecordAggregator(1024);
+        List<PutRecordsRequestEntry> entries = Arrays.asList(
+                entry("a", "aaa"),
+                entry("b", "bbb"),
+                entry("a", "ccc").withExplicitHashKey("12345"));
+        for (PutRecordsRequestEntry entry : entries) {
+            assertThat(aggregator.add(entry)).isNull();
+        }
+        PutRecordsRequestEntry aggregated = aggregator.drain();
+        assertThat(aggregated.getPartitionKey()).isEqualTo("a");
+        assertThat(aggregated.getData().array()).startsWith(RecordAggregator.MAGIC);
+        assertThat(RecordAggregator.userRecordCount(Collections.singletonList(aggregated))).isEqualTo(3);
+
+        List<UserRecord> userRecords = deaggregate(aggregated);
+        assertThat(userRecords.stream().map(Record::getPartitionKey).collect(Collectors.toList()))
+                .containsExactly("a", "b", "a");
+        assertThat(userRecords.stream().map(RecordAggregatorTest::data).collect(Collectors.toList()))
+                .containsExactly("aaa", "bbb", "ccc");
+        assertThat(userRecords.get(2).getExplicitHashKey()).isEqualTo("12345");
+    }
+
+    @Test
+    public void respectsMaxSize() throws Exception {
+        int maxSize = 200;
+        RecordAggregator aggregator = new RecordAggregator(maxSize);
+        List<PutRecordsRequestEntry> aggregates = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            PutRecordsRequestEntry ready = aggregator.add(entry("key-" + i, "data-" + i));
+            if (ready != null) {
+                aggregates.add(ready);
+            }
+        }
+        aggregates.add(aggregator.drain());
+
+        assertThat(aggregates.size()).isGreaterThan(1);
+        assertThat(RecordAggregator.userRecordCount(aggregates)).isEqualTo(50);
+        List<String> data = new ArrayList<>();
+        for (PutRecordsRequestEntry aggregate : aggregates) {
+            assertThat(aggregate.getData().remaining()).isLessThanOrEqualTo(maxSize);
+            deaggregate(aggregate).forEach(record -> data.add(data(record)));
+        }
+        assertThat(data).hasSize(50);
+        assertThat(data.get(0)).isEqualTo("data-0");
+        assertThat(data.get(49)).isEqualTo("data-49");
+    }
+
+    @Test
+    public void userRecordCountOfPlainEntries() throws Exception {
+        assertThat(RecordAggregator.userRecordCount(Arrays.asList(entry("a", "a"), entry("b", "b")))).isEqualTo(2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxSizeCannotExceedMaxRecordSize() throws Exception {
+        new RecordAggregator(Producer.MAX_RECORD_SIZE + 1);
+    }
+
+    private static List<UserRecord> deaggregate(PutRecordsRequestEntry entry) {
+        Record record = new Record()
+                .withPartitionKey(entry.getPartitionKey())
+                .withSequenceNumber("1")
+                .withData(entry.getData().duplicate());
+        return UserRecord.deaggregate(Collections.singletonList(record));
+    }
+
+    private static String data(Record record) {
+        ByteBuffer data = record.getData().duplicate();
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static PutRecordsRequestEntry entry(String partitionKey, String data) {
+        return new PutRecordsRequestEntry()
+                .withPartitionKey(partitionKey)
+                .withData(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)));
+    }
+}
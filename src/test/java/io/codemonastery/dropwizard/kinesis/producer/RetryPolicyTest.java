@@ -0,0 +1,76 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import io.dropwizard.util.Duration;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void defaultClassification() throws Exception {
+        RetryPolicy policy = new RetryPolicy();
+        assertThat(policy.classify("ProvisionedThroughputExceededException")).isEqualTo(RetryPolicy.Classification.THROTTLED);
+        assertThat(policy.classify("InternalFailure")).isEqualTo(RetryPolicy.Classification.RETRYABLE);
+        assertThat(policy.classify("SomethingElse")).isEqualTo(RetryPolicy.Classification.PERMANENT);
+    }
+
+    @Test
+    public void configuredErrorCodesMergedWithDefaults() throws Exception {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setErrorCodes(Collections.singletonMap("KMSThrottlingException", RetryPolicy.Classification.THROTTLED));
+        assertThat(policy.classify("KMSThrottlingException")).isEqualTo(RetryPolicy.Classification.THROTTLED);
+        assertThat(policy.classify("InternalFailure")).isEqualTo(RetryPolicy.Classification.RETRYABLE);
+    }
+
+    @Test
+    public void deadlineByDefault() throws Exception {
+        RetryPolicy policy = new RetryPolicy();
+        assertThat(policy.canRetry(1000, System.nanoTime())).isTrue();
+        assertThat(policy.canRetry(1, System.nanoTime() - Duration.minutes(1).toNanoseconds())).isFalse();
+    }
+
+    @Test
+    public void throttledUnlimitedByDefault() throws Exception {
+        RetryPolicy policy = new RetryPolicy().maxAttempts(3);
+        long hourAgo = System.nanoTime() - Duration.hours(1).toNanoseconds();
+        assertThat(policy.canRetry(RetryPolicy.Classification.THROTTLED, 1000, hourAgo)).isTrue();
+        assertThat(policy.canRetry(RetryPolicy.Classification.RETRYABLE, 1000, hourAgo)).isFalse();
+
+        policy.limitThrottled(true);
+        assertThat(policy.canRetry(RetryPolicy.Classification.THROTTLED, 1000, hourAgo)).isFalse();
+    }
+
+    @Test
+    public void unlimitedIfBothZero() throws Exception {
+        RetryPolicy policy = new RetryPolicy().maxAttempts(0).deadline(Duration.milliseconds(0));
+        assertThat(policy.canRetry(1000, System.nanoTime() - Duration.hours(1).toNanoseconds())).isTrue();
+    }
+
+    @Test
+    public void maxAttempts() throws Exception {
+        RetryPolicy policy = new RetryPolicy().maxAttempts(3);
+        assertThat(policy.canRetry(2, System.nanoTime())).isTrue();
+        assertThat(policy.canRetry(3, System.nanoTime())).isFalse();
+    }
+
+    @Test
+    public void deadline() throws Exception {
+        RetryPolicy policy = new RetryPolicy().deadline(Duration.seconds(1));
+        assertThat(policy.canRetry(1, System.nanoTime())).isTrue();
+        assertThat(policy.canRetry(1, System.nanoTime() - Duration.seconds(2).toNanoseconds())).isFalse();
+    }
+
+    @Test
+    public void backoffIsJitteredAndCapped() throws Exception {
+        RetryPolicy policy = new RetryPolicy()
+                .initialBackoff(Duration.milliseconds(100))
+                .maxBackoff(Duration.seconds(1));
+        for (int attempts = 1; attempts < 100; attempts++) {
+            long expectedCap = Math.min(1000, 100L << Math.min(attempts - 1, 30));
+            assertThat(policy.backoffMillis(attempts)).isBetween(0L, expectedCap);
+        }
+    }
+}
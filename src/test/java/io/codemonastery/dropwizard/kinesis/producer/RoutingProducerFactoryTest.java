@@ -0,0 +1,53 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.amazonaws.util.StringInputStream;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.codemonastery.dropwizard.kinesis.ConfigurationFactories;
+import io.dropwizard.Configuration;
+import io.dropwizard.configuration.ConfigurationFactory;
+import org.junit.Test;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RoutingProducerFactoryTest {
+
+    public static final class FakeConfiguration extends Configuration {
+
+        @JsonProperty
+        @NotNull
+        @Valid
+        public RoutingProducerFactory<String> router;
+
+    }
+
+    @Test
+    public void canConfigure() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream(
+                "router:\n  streams: [b, c]\n  runtime:\n    deliveryThreads: 4\n  producer:\n    streamName: a\n    maxBufferSize: 20"), "");
+        RoutingProducerFactory<String> router = configuration.router;
+        assertThat(router.getStreams()).containsExactly("b", "c");
+        assertThat(router.getRuntime().getDeliveryThreads()).isEqualTo(4);
+        assertThat(router.getProducer().getStreamName()).isEqualTo("a");
+        assertThat(router.getProducer().getMaxBufferSize()).isEqualTo(20);
+    }
+
+    @Test
+    public void allTheThings() throws Exception {
+        BufferedProducerFactory<String> producer = new BufferedProducerFactory<String>().streamName("a");
+        ProducerRuntimeFactory runtime = new ProducerRuntimeFactory().deliveryThreads(2);
+        RoutingProducerFactory<String> factory = new RoutingProducerFactory<String>()
+                .producer(producer)
+                .streams(Arrays.asList("b"))
+                .runtime(runtime)
+                .streamSelector(s -> s.substring(0, 1));
+        assertThat(factory.getProducer()).isSameAs(producer);
+        assertThat(factory.getStreams()).containsExactly("b");
+        assertThat(factory.getRuntime()).isSameAs(runtime);
+        assertThat(factory.getStreamSelector().apply("b1")).isEqualTo("b");
+    }
+}
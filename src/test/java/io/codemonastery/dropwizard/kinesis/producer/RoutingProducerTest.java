@@ -0,0 +1,184 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.amazonaws.services.kinesis.AmazonKinesis;
+import com.amazonaws.services.kinesis.model.PutRecordsRequest;
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import com.amazonaws.services.kinesis.model.PutRecordsResult;
+import com.amazonaws.services.kinesis.model.PutRecordsResultEntry;
+import com.codahale.metrics.MetricRegistry;
+import io.codemonastery.dropwizard.kinesis.EventObjectMapper;
+import io.codemonastery.dropwizard.kinesis.KinesisResults;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.lifecycle.JettyManaged;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+import io.dropwizard.util.Duration;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class RoutingProducerTest {
+
+    private static final EventObjectMapper<String> ENCODER = new EventObjectMapper<>(Jackson.newObjectMapper(), String.class);
+
+    @Mock
+    private AmazonKinesis kinesis;
+
+    private List<PutRecordsRequest> putRecordRequests;
+
+    private MetricRegistry metrics;
+    private LifecycleEnvironment lifecycle;
+    private RoutingProducer<String> producer;
+
+    @Before
+    public void setUp() throws Exception {
+        metrics = new MetricRegistry();
+        lifecycle = new LifecycleEnvironment();
+        putRecordRequests = Collections.synchronizedList(new ArrayList<>());
+
+        initMocks(this);
+        when(kinesis.describeStream(anyString())).then(invocationOnMock ->
+                KinesisResults.activeStream((String) invocationOnMock.getArguments()[0]));
+        when(kinesis.putRecords(any())).then(invocationOnMock -> {
+            PutRecordsRequest request = (PutRecordsRequest) invocationOnMock.getArguments()[0];
+            putRecordRequests.add(request);
+            List<PutRecordsResultEntry> resultRecords = request.getRecords()
+                    .stream()
+                    .map(r -> new PutRecordsResultEntry().withShardId("shard-0").withSequenceNumber("123"))
+                    .collect(Collectors.toList());
+            return new PutRecordsResult()
+                    .withRecords(resultRecords)
+                    .withFailedRecordCount(0);
+        });
+
+        //events starting with a stream name go to that stream
+        producer = new RoutingProducerFactory<String>()
+                .producer(new BufferedProducerFactory<String>()
+                        .flushPeriod(Duration.hours(1))
+                        .encoder(ENCODER)
+                        .streamName("a"))
+                .streams(Arrays.asList("b", "c"))
+                .runtime(new ProducerRuntimeFactory().deliveryThreads(1))
+                .streamSelector(s -> s.length() > 1 && s.charAt(1) == '-' ? s.substring(0, 1) : null)
+                .build(metrics, null, lifecycle, kinesis, "router");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (LifeCycle lifeCycle : lifecycle.getManagedObjects()) {
+            lifeCycle.stop();
+        }
+    }
+
+    @Test
+    public void batchesPerStream() throws Exception {
+        producer.send("a-1");
+        producer.send("b-1");
+        producer.send("no stream");
+        producer.sendAll(Arrays.asList("c-1", "b-2", "c-2"));
+        producer.stop();
+
+        Map<String, List<String>> sent = sent();
+        assertThat(sent.keySet()).containsOnly("a", "b", "c");
+        assertThat(sent.get("a")).containsExactly("a-1", "no stream");
+        assertThat(sent.get("b")).containsExactly("b-1", "b-2");
+        assertThat(sent.get("c")).containsExactly("c-1", "c-2");
+        //one runtime for all streams
+        assertThat(metrics.getGauges()).containsKey("router-runtime-active-lanes");
+        assertThat(metrics.getMeters()).containsKeys("router-a-sent", "router-b-sent", "router-c-sent");
+        assertThat(Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("router-a") || thread.getName().startsWith("router-b"))
+                .count()).isEqualTo(0);
+    }
+
+    @Test
+    public void onlyRoutingProducerManaged() throws Exception {
+        List<Object> managed = lifecycle.getManagedObjects().stream()
+                .filter(lifeCycle -> lifeCycle instanceof JettyManaged)
+                .map(lifeCycle -> ((JettyManaged) lifeCycle).getManaged())
+                .collect(Collectors.toList());
+        assertThat(managed).contains(producer);
+        assertThat(managed).doesNotContainAnyElementsOf(producer.getProducers().values());
+    }
+
+    @Test
+    public void sendAllEncodedOnceOnRoutingStage() throws Exception {
+        RoutingProducer<String> staged = new RoutingProducerFactory<String>()
+                .producer(new BufferedProducerFactory<String>()
+                        .flushPeriod(Duration.hours(1))
+                        .encodeStage(new EncodeStageFactory().threads(1))
+                        .encoder(ENCODER)
+                        .streamName("a"))
+                .streams(Collections.singletonList("b"))
+                .runtime(new ProducerRuntimeFactory().deliveryThreads(1))
+                .streamSelector(s -> s.length() > 1 && s.charAt(1) == '-' ? s.substring(0, 1) : null)
+                .build(metrics, null, lifecycle, kinesis, "staged");
+        staged.sendAll(Arrays.asList("a-1", "b-1", "b-2"));
+        staged.stop();
+
+        assertThat(metrics.meter("staged-encode-success").getCount()).isEqualTo(3);
+        assertThat(metrics.meter("staged-a-encode-success").getCount()).isEqualTo(0);
+        assertThat(metrics.meter("staged-b-encode-success").getCount()).isEqualTo(0);
+        Map<String, List<String>> sent = sent();
+        assertThat(sent.get("a")).containsExactly("a-1");
+        assertThat(sent.get("b")).containsExactly("b-1", "b-2");
+    }
+
+    @Test
+    public void unknownStreamFailsFuture() throws Exception {
+        CompletableFuture<PutRecordsResultEntry> future = producer.sendAsync("x-1");
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("stream x has no producer");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(IllegalArgumentException.class);
+        }
+        CompletableFuture<PutRecordsResultEntry> routed = producer.sendAsync("b-1");
+        producer.stop();
+        assertThat(routed.get(1, TimeUnit.SECONDS).getSequenceNumber()).isEqualTo("123");
+        assertThat(sent().get("b")).containsExactly("b-1");
+    }
+
+    @Test
+    public void sendAllAfterStopFails() throws Exception {
+        producer.stop();
+        try {
+            producer.sendAll(Arrays.asList("b-1", "c-1"));
+            fail("producer was stopped");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).contains("shutdown");
+        }
+        assertThat(sent()).isEmpty();
+    }
+
+    private Map<String, List<String>> sent() throws Exception {
+        Map<String, List<String>> sent = new HashMap<>();
+        synchronized (putRecordRequests) {
+            for (PutRecordsRequest request : putRecordRequests) {
+                for (PutRecordsRequestEntry record : request.getRecords()) {
+                    sent.computeIfAbsent(request.getStreamName(), s -> new ArrayList<>()).add(ENCODER.decode(record.getData()));
+                }
+            }
+        }
+        return sent;
+    }
+}
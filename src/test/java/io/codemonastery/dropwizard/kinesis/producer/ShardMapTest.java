@@ -0,0 +1,157 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.amazonaws.services.kinesis.model.HashKeyRange;
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import com.amazonaws.services.kinesis.model.SequenceNumberRange;
+import com.amazonaws.services.kinesis.model.Shard;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ShardMapTest {
+
+    private static final BigInteger MAX_HASH_KEY = BigInteger.ONE.shiftLeft(128).subtract(BigInteger.ONE);
+
+    @Test
+    public void emptyUntilRefreshed() throws Exception {
+        ShardMap shardMap = new ShardMap(() -> shards(1));
+        assertThat(shardMap.shardId(entry("abc"))).isNull();
+        assertThat(shardMap.refresh()).isTrue();
+        assertThat(shardMap.shardId(entry("abc"))).isEqualTo("shard-0");
+        assertThat(shardMap.refresh()).isFalse();
+    }
+
+    @Test
+    public void md5OfPartitionKey() throws Exception {
+        ShardMap shardMap = new ShardMap(() -> shards(2));
+        shardMap.refresh();
+        //md5("a") = 0cc175b9..., lower half; md5("b") = 92eb5ffe..., upper half
+        assertThat(shardMap.shardId(entry("a"))).isEqualTo("shard-0");
+        assertThat(shardMap.shardId(entry("b"))).isEqualTo("shard-1");
+    }
+
+    @Test
+    public void explicitHashKeyWins() throws Exception {
+        ShardMap shardMap = new ShardMap(() -> shards(4));
+        shardMap.refresh();
+        PutRecordsRequestEntry entry = entry("a").withExplicitHashKey(MAX_HASH_KEY.toString());
+        assertThat(shardMap.shardId(entry)).isEqualTo("shard-3");
+        entry.setExplicitHashKey("0");
+        assertThat(shardMap.shardId(entry)).isEqualTo("shard-0");
+    }
+
+    @Test
+    public void closedShardsIgnored() throws Exception {
+        List<Shard> shards = shards(2);
+        shards.stream()
+                .filter(shard -> "shard-0".equals(shard.getShardId()))
+                .forEach(shard -> shard.getSequenceNumberRange().setEndingSequenceNumber("100"));
+        ShardMap shardMap = new ShardMap(() -> shards);
+        shardMap.refresh();
+        assertThat(shardMap.shardIds()).containsExactly("shard-1");
+        assertThat(shardMap.shardId(entry("a"))).isNull();
+        assertThat(shardMap.shardId(entry("b"))).isEqualTo("shard-1");
+    }
+
+    @Test
+    public void refreshPicksUpSplit() throws Exception {
+        AtomicReference<List<Shard>> shards = new AtomicReference<>(shards(1));
+        ShardMap shardMap = new ShardMap(shards::get);
+        shardMap.refresh();
+        assertThat(shardMap.shardIds()).containsExactly("shard-0");
+
+        shards.set(shards(2));
+        assertThat(shardMap.refresh()).isTrue();
+        assertThat(shardMap.shardIds()).containsExactly("shard-0", "shard-1");
+    }
+
+    @Test
+    public void childrenKnowTheirParent() throws Exception {
+        ShardMap shardMap = new ShardMap(() -> splitFirst(shards(2)));
+        shardMap.refresh();
+        assertThat(shardMap.shardIds()).containsOnly("shard-0-0", "shard-0-1", "shard-1");
+        assertThat(shardMap.parentShardIds("shard-0-0")).containsExactly("shard-0");
+        assertThat(shardMap.parentShardIds("shard-0-1")).containsExactly("shard-0");
+        assertThat(shardMap.parentShardIds("shard-1")).isEmpty();
+        assertThat(shardMap.parentShardIds("shard-0")).isEmpty();
+    }
+
+    @Test
+    public void failedListingKeepsPreviousMap() throws Exception {
+        AtomicReference<List<Shard>> shards = new AtomicReference<>(shards(2));
+        ShardMap shardMap = new ShardMap(shards::get);
+        shardMap.refresh();
+
+        shards.set(null);
+        assertThat(shardMap.refresh()).isFalse();
+        assertThat(shardMap.shardIds()).containsExactly("shard-0", "shard-1");
+
+        ShardMap throwing = new ShardMap(() -> {
+            throw new RuntimeException("no");
+        });
+        assertThat(throwing.refresh()).isFalse();
+        assertThat(throwing.shardIds()).isEmpty();
+    }
+
+    static List<Shard> shards(int count) {
+        List<Shard> shards = new ArrayList<>();
+        BigInteger width = MAX_HASH_KEY.add(BigInteger.ONE).divide(BigInteger.valueOf(count));
+        for (int i = 0; i < count; i++) {
+            BigInteger start = width.multiply(BigInteger.valueOf(i));
+            BigInteger end = i == count - 1 ? MAX_HASH_KEY : start.add(width).subtract(BigInteger.ONE);
+            shards.add(new Shard()
+                    .withShardId("shard-" + i)
+                    .withHashKeyRange(new HashKeyRange()
+                            .withStartingHashKey(start.toString())
+                            .withEndingHashKey(end.toString()))
+                    .withSequenceNumberRange(new SequenceNumberRange().withStartingSequenceNumber("0")));
+        }
+        //should not depend on order shards are listed in
+        Collections.reverse(shards);
+        return shards;
+    }
+
+    /**
+     * Closes shard-0 of the given shards and adds its two children, shard-0-0 and shard-0-1, splitting its range in half.
+     */
+    static List<Shard> splitFirst(List<Shard> shards) {
+        List<Shard> split = new ArrayList<>();
+        for (Shard shard : shards) {
+            if (!shard.getShardId().equals("shard-0")) {
+                split.add(shard);
+                continue;
+            }
+            BigInteger start = new BigInteger(shard.getHashKeyRange().getStartingHashKey());
+            BigInteger end = new BigInteger(shard.getHashKeyRange().getEndingHashKey());
+            BigInteger middle = start.add(end).shiftRight(1);
+            split.add(shard.clone().withSequenceNumberRange(new SequenceNumberRange()
+                    .withStartingSequenceNumber("0")
+                    .withEndingSequenceNumber("100")));
+            split.add(new Shard()
+                    .withShardId("shard-0-0")
+                    .withParentShardId("shard-0")
+                    .withHashKeyRange(new HashKeyRange()
+                            .withStartingHashKey(start.toString())
+                            .withEndingHashKey(middle.toString()))
+                    .withSequenceNumberRange(new SequenceNumberRange().withStartingSequenceNumber("101")));
+            split.add(new Shard()
+                    .withShardId("shard-0-1")
+                    .withParentShardId("shard-0")
+                    .withHashKeyRange(new HashKeyRange()
+                            .withStartingHashKey(middle.add(BigInteger.ONE).toString())
+                            .withEndingHashKey(end.toString()))
+                    .withSequenceNumberRange(new SequenceNumberRange().withStartingSequenceNumber("101")));
+        }
+        return split;
+    }
+
+    private static PutRecordsRequestEntry entry(String partitionKey) {
+        return new PutRecordsRequestEntry().withPartitionKey(partitionKey);
+    }
+}
@@ -3,6 +3,7 @@ package io.codemonastery.dropwizard.kinesis.producer;
 import com.amazonaws.services.kinesis.AmazonKinesis;
 import com.amazonaws.util.StringInputStream;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.codemonastery.dropwizard.kinesis.Compression;
 import io.codemonastery.dropwizard.kinesis.ConfigurationFactories;
 import io.codemonastery.dropwizard.kinesis.Environments;
 import io.codemonastery.dropwizard.kinesis.EventEncoder;
@@ -49,6 +50,13 @@ public class SimpleProducerFactoryTest {
         assertThat(configuration.producer).isInstanceOf(SimpleProducerFactory.class);
     }
 
+    @Test
+    public void canConfigureCompression() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("producer:\n  type: simple\n  streamName: xyz\n  compression: gzip"), "");
+        assertThat(configuration.producer.getCompression()).isEqualTo(Compression.GZIP);
+    }
+
     @Test
     public void allTheTings() throws Exception {
         String streamName = "xyz";
@@ -15,10 +15,16 @@ import org.mockito.Mock;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -45,7 +51,7 @@ public class SimpleProducerTest {
             putRecordRequests.add(request);
             List<PutRecordsResultEntry> resultRecords = request.getRecords()
                     .stream()
-                    .map(r -> (PutRecordsResultEntry) null)
+                    .map(r -> new PutRecordsResultEntry().withShardId("shard-0").withSequenceNumber("123"))
                     .collect(Collectors.toList());
             return new PutRecordsResult()
                     .withRecords(resultRecords)
@@ -72,6 +78,51 @@ public class SimpleProducerTest {
         assertThat(firstRecord.getPartitionKey()).isEqualTo("abc");
     }
 
+    @Test
+    public void recyclesPooledBufferOncePut() throws Exception {
+        ByteBufferPool pool = new ByteBufferPool(1024, 4);
+        Producer<String> pooled = new SimpleProducer<>(STREAM_NAME,
+                String::toString,
+                ENCODER,
+                ProducerMetrics.noOp(),
+                request -> {
+                    putRecordRequests.add(request);
+                    return 0;
+                },
+                pool);
+        pooled.send("abc");
+        assertThat(pool.getPooled()).isEqualTo(1);
+        pooled.send("def");
+        assertThat(putRecordRequests).hasSize(2);
+        assertThat(putRecordRequests.get(1).getRecords().get(0).getData())
+                .isSameAs(putRecordRequests.get(0).getRecords().get(0).getData());
+    }
+
+    @Test
+    public void keyBalancingKeepsHashKeySetByExtra() throws Exception {
+        List<PutRecordsRequestEntry> sent = new ArrayList<>();
+        Producer<String> balanced = new Producer<String>(s -> "hot", ENCODER, ProducerMetrics.noOp(), null, null, new KeyBalancer(1, 0.5, 4, 100)) {
+            @Override
+            protected PutRecordsRequestEntry extra(PutRecordsRequestEntry record, String event) {
+                return event.startsWith("pinned") ? record.withExplicitHashKey("42") : record;
+            }
+
+            @Override
+            protected void send(PutRecordsRequestEntry record) throws Exception {
+                sent.add(record);
+            }
+        };
+        for (int i = 0; i < 10; i++) {
+            balanced.send("pinned-" + i);
+            balanced.send("free-" + i);
+        }
+        assertThat(sent).hasSize(20);
+        for (int i = 0; i < 20; i += 2) {
+            assertThat(sent.get(i).getExplicitHashKey()).isEqualTo("42");
+            assertThat(sent.get(i + 1).getExplicitHashKey()).isNotNull().isNotEqualTo("42");
+        }
+    }
+
     @Test
     public void sendAll() throws Exception {
         producer.sendAll(Arrays.asList("abc", "def"));
@@ -95,4 +146,67 @@ public class SimpleProducerTest {
             assertThat(firstRecord.getPartitionKey()).isEqualTo("def");
         }
     }
+
+    @Test
+    public void sendAsync() throws Exception {
+        Producer<String> staged = stagedProducer(s -> s);
+        PutRecordsResultEntry result = staged.sendAsync("abc").get(5, TimeUnit.SECONDS);
+        assertThat(result.getShardId()).isEqualTo("shard-0");
+        assertThat(result.getSequenceNumber()).isEqualTo("123");
+        assertThat(putRecordRequests.size()).isEqualTo(1);
+        staged.stop();
+    }
+
+    @Test
+    public void sendAsyncPermanentFailure() throws Exception {
+        doReturn(new PutRecordsResult()
+                .withFailedRecordCount(1)
+                .withRecords(new PutRecordsResultEntry().withErrorCode("KMSAccessDeniedException").withErrorMessage("oops")))
+                .when(kinesis).putRecords(any());
+
+        Producer<String> staged = stagedProducer(s -> s);
+        CompletableFuture<PutRecordsResultEntry> future = staged.sendAsync("abc");
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("expected record to fail");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(PutRecordFailedException.class);
+            assertThat(((PutRecordFailedException) e.getCause()).getResult().getErrorCode()).isEqualTo("KMSAccessDeniedException");
+        }
+        staged.stop();
+    }
+
+    @Test
+    public void sendAsyncCannotPartition() throws Exception {
+        Producer<String> noPartitionKey = stagedProducer(s -> null);
+        try {
+            noPartitionKey.sendAsync("abc").get(5, TimeUnit.SECONDS);
+            fail("expected event to be skipped");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(IllegalArgumentException.class);
+        }
+        assertThat(putRecordRequests).isEmpty();
+        noPartitionKey.stop();
+    }
+
+    @Test
+    public void sendAsyncNeedsEncodeStage() throws Exception {
+        CompletableFuture<PutRecordsResultEntry> future = producer.sendAsync("abc");
+        assertThat(future.isCompletedExceptionally()).isTrue();
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(UnsupportedOperationException.class);
+        }
+        assertThat(putRecordRequests).isEmpty();
+    }
+
+    private Producer<String> stagedProducer(Function<String, String> partitionKeyFn) {
+        return new SimpleProducerFactory<String>()
+                .encodeStage(new EncodeStageFactory().threads(1))
+                .encoder(ENCODER)
+                .partitionKeyFn(partitionKeyFn)
+                .streamName(STREAM_NAME)
+                .build(null, kinesis, "staged-producer");
+    }
 }
@@ -0,0 +1,170 @@
+package io.codemonastery.dropwizard.kinesis.producer;
+
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SpillQueueTest {
+
+    private static final int SEGMENT_SIZE = SpillQueue.MIN_SEGMENT_SIZE;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void emptyPeekTimesOut() throws Exception {
+        try (SpillQueue queue = new SpillQueue(folder.getRoot().toPath(), SEGMENT_SIZE, SEGMENT_SIZE)) {
+            assertThat(queue.isEmpty()).isTrue();
+            assertThat(queue.peek(10, TimeUnit.MILLISECONDS)).isNull();
+        }
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        try (SpillQueue queue = new SpillQueue(folder.getRoot().toPath(), SEGMENT_SIZE, SEGMENT_SIZE)) {
+            PutRecordsRequestEntry withHashKey = entry("b", "world").withExplicitHashKey("12345");
+            assertThat(queue.put(Arrays.asList(entry("a", "hello"), withHashKey))).isTrue();
+            assertThat(queue.batches()).isEqualTo(1);
+            assertThat(queue.sizeBytes()).isPositive();
+
+            List<PutRecordsRequestEntry> batch = queue.peek(1, TimeUnit.SECONDS);
+            assertThat(batch).hasSize(2);
+            assertThat(batch.get(0).getPartitionKey()).isEqualTo("a");
+            assertThat(batch.get(0).getExplicitHashKey()).isNull();
+            assertThat(string(batch.get(0))).isEqualTo("hello");
+            assertThat(batch.get(1).getPartitionKey()).isEqualTo("b");
+            assertThat(batch.get(1).getExplicitHashKey()).isEqualTo("12345");
+            assertThat(string(batch.get(1))).isEqualTo("world");
+
+            //peek again returns same batch until removed
+            assertThat(queue.peek(1, TimeUnit.SECONDS)).isSameAs(batch);
+            queue.remove();
+            assertThat(queue.isEmpty()).isTrue();
+            assertThat(queue.sizeBytes()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void keepsOrder() throws Exception {
+        try (SpillQueue queue = new SpillQueue(folder.getRoot().toPath(), SEGMENT_SIZE, SEGMENT_SIZE)) {
+            for (int i = 0; i < 100; i++) {
+                queue.put(Arrays.asList(entry("key", Integer.toString(i))));
+            }
+            for (int i = 0; i < 100; i++) {
+                assertThat(string(queue.peek(1, TimeUnit.SECONDS).get(0))).isEqualTo(Integer.toString(i));
+                queue.remove();
+            }
+        }
+    }
+
+    @Test
+    public void survivesRestart() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (SpillQueue queue = new SpillQueue(directory, SEGMENT_SIZE, SEGMENT_SIZE)) {
+            for (int i = 0; i < 3; i++) {
+                queue.put(Arrays.asList(entry("key", Integer.toString(i))));
+            }
+            queue.peek(1, TimeUnit.SECONDS);
+            queue.remove();
+        }
+        //recovered segment is never appended to, needs room for another
+        try (SpillQueue queue = new SpillQueue(directory, SEGMENT_SIZE, 2L * SEGMENT_SIZE)) {
+            assertThat(queue.batches()).isEqualTo(2);
+            assertThat(string(queue.peek(1, TimeUnit.SECONDS).get(0))).isEqualTo("1");
+            queue.remove();
+            queue.put(Arrays.asList(entry("key", "3")));
+            assertThat(string(queue.peek(1, TimeUnit.SECONDS).get(0))).isEqualTo("2");
+            queue.remove();
+            assertThat(string(queue.peek(1, TimeUnit.SECONDS).get(0))).isEqualTo("3");
+            queue.remove();
+            assertThat(queue.isEmpty()).isTrue();
+        }
+        //recovered segment was deleted once read
+        assertThat(Files.list(directory).count()).isEqualTo(1);
+    }
+
+    @Test
+    public void rollsAndDeletesSegments() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        byte[] big = new byte[SEGMENT_SIZE / 3];
+        try (SpillQueue queue = new SpillQueue(directory, SEGMENT_SIZE, 3L * SEGMENT_SIZE)) {
+            for (int i = 0; i < 4; i++) {
+                queue.put(Arrays.asList(new PutRecordsRequestEntry().withPartitionKey("key").withData(ByteBuffer.wrap(big))));
+            }
+            assertThat(Files.list(directory).count()).isEqualTo(2);
+            for (int i = 0; i < 4; i++) {
+                assertThat(queue.peek(1, TimeUnit.SECONDS).get(0).getData().remaining()).isEqualTo(big.length);
+                queue.remove();
+            }
+            assertThat(Files.list(directory).count()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void putWaitsWhileFull() throws Exception {
+        byte[] big = new byte[SEGMENT_SIZE / 2];
+        try (SpillQueue queue = new SpillQueue(folder.getRoot().toPath(), SEGMENT_SIZE, SEGMENT_SIZE)) {
+            queue.put(Arrays.asList(new PutRecordsRequestEntry().withPartitionKey("key").withData(ByteBuffer.wrap(big))));
+            CompletableFuture<Boolean> put = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return queue.put(Arrays.asList(new PutRecordsRequestEntry().withPartitionKey("key").withData(ByteBuffer.wrap(big))));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            Thread.sleep(200);
+            assertThat(put.isDone()).isFalse();
+
+            queue.peek(1, TimeUnit.SECONDS);
+            queue.remove();
+            assertThat(put.get(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(queue.batches()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void keepsPendingEntries() throws Exception {
+        try (SpillQueue queue = new SpillQueue(folder.getRoot().toPath(), SEGMENT_SIZE, SEGMENT_SIZE)) {
+            PendingEntry pending = new PendingEntry(new CompletableFuture<>());
+            pending.withPartitionKey("a").withData(ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8)));
+            List<PutRecordsRequestEntry> batch = new ArrayList<>();
+            batch.add(pending);
+            queue.put(batch);
+            assertThat(queue.peek(1, TimeUnit.SECONDS).get(0)).isSameAs(pending);
+        }
+    }
+
+    @Test
+    public void closedQueueRejects() throws Exception {
+        SpillQueue queue = new SpillQueue(folder.getRoot().toPath(), SEGMENT_SIZE, SEGMENT_SIZE);
+        queue.close();
+        assertThat(queue.put(Arrays.asList(entry("a", "b")))).isFalse();
+        assertThat(queue.peek(10, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    private static PutRecordsRequestEntry entry(String partitionKey, String data) {
+        return new PutRecordsRequestEntry()
+                .withPartitionKey(partitionKey)
+                .withData(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String string(PutRecordsRequestEntry entry) {
+        ByteBuffer data = entry.getData().duplicate();
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,67 @@
+package io.codemonastery.dropwizard.kinesis.producer.ratelimit;
+
+import com.amazonaws.util.StringInputStream;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.codemonastery.dropwizard.kinesis.ConfigurationFactories;
+import io.dropwizard.Configuration;
+import io.dropwizard.configuration.ConfigurationFactory;
+import io.dropwizard.configuration.ConfigurationValidationException;
+import org.junit.Test;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdaptiveAcquireLimiterFactoryTest {
+
+    public static final class FakeConfiguration extends Configuration {
+
+        @JsonProperty
+        @NotNull
+        @Valid
+        public AcquireLimiterFactory rateLimit;
+
+    }
+
+    @Test
+    public void typeAdaptive() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("rateLimit:\n  type: adaptive\n"), "");
+        assertThat(configuration).isNotNull();
+        assertThat(configuration.rateLimit).isInstanceOf(AdaptiveAcquireLimiterFactory.class);
+    }
+
+    @Test
+    public void canConfigure() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("rateLimit:\n  type: adaptive\n  initialPerSecond: 500\n  maxPerSecond: 5000\n  beta: 0.5\n  cubic: 0.4\n  latencyTolerance: 3"), "");
+        AdaptiveAcquireLimiterFactory factory = (AdaptiveAcquireLimiterFactory) configuration.rateLimit;
+        assertThat(factory.getInitialPerSecond()).isEqualTo(500.0);
+        assertThat(factory.getMaxPerSecond()).isEqualTo(5000.0);
+        assertThat(factory.getBeta()).isEqualTo(0.5);
+        assertThat(factory.getCubic()).isEqualTo(0.4);
+        assertThat(factory.getLatencyTolerance()).isEqualTo(3.0);
+    }
+
+    @Test(expected = ConfigurationValidationException.class)
+    public void betaMustBeFraction() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        configurationFactory.build((s) -> new StringInputStream("rateLimit:\n  type: adaptive\n  beta: 1.5"), "");
+    }
+
+    @Test
+    public void allTheThings() throws Exception {
+        AdaptiveAcquireLimiterFactory factory = new AdaptiveAcquireLimiterFactory()
+                .initialPerSecond(500)
+                .minPerSecond(10)
+                .maxPerSecond(1000)
+                .beta(0.8)
+                .cubic(0.2)
+                .latencyTolerance(1.5);
+        assertThat(factory.getMinPerSecond()).isEqualTo(10.0);
+        AdaptiveAcquireLimiter limiter = factory.build();
+        assertThat(limiter.getRate()).isEqualTo(500.0);
+        assertThat(limiter.getCapacity()).isEqualTo(500.0);
+    }
+}
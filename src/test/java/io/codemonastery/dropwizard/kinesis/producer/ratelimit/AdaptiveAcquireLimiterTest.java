@@ -0,0 +1,99 @@
+package io.codemonastery.dropwizard.kinesis.producer.ratelimit;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class AdaptiveAcquireLimiterTest {
+
+    private static final long FAST_PUT = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void throttleDropsRateAndSetsCapacity() throws Exception {
+        AdaptiveAcquireLimiter limiter = new AdaptiveAcquireLimiter(1000, 1, 0, 0.7, 0.1, 2);
+        limiter.update(100, 5, FAST_PUT);
+        assertThat(limiter.getRate()).isCloseTo(700.0, within(0.001));
+        assertThat(limiter.getCapacity()).isEqualTo(1000.0);
+    }
+
+    @Test
+    public void oneDecreasePerRoundTrip() throws Exception {
+        AdaptiveAcquireLimiter limiter = new AdaptiveAcquireLimiter(1000, 1, 0, 0.5, 0.1, 2);
+        limiter.update(100, 5);
+        limiter.update(100, 5);
+        assertThat(limiter.getRate()).isCloseTo(500.0, within(0.001));
+
+        Thread.sleep(150);
+        limiter.update(100, 5);
+        assertThat(limiter.getRate()).isLessThan(500.0);
+    }
+
+    @Test
+    public void recoversToCapacityQuickly() throws Exception {
+        //returns to capacity cbrt(0.3 / 100) = 0.14 seconds after throttling
+        AdaptiveAcquireLimiter limiter = new AdaptiveAcquireLimiter(1000, 1, 0, 0.7, 100, 2);
+        limiter.update(100, 5);
+        limiter.update(100, 0);
+        assertThat(limiter.getRate()).isLessThan(1000.0);
+
+        Thread.sleep(300);
+        limiter.update(100, 0);
+        assertThat(limiter.getRate()).isCloseTo(1000.0, within(1.0));
+    }
+
+    @Test
+    public void doesNotProbeBeyondDemand() throws Exception {
+        AdaptiveAcquireLimiter limiter = new AdaptiveAcquireLimiter(1000, 1, 0, 0.7, 100, 2);
+        Thread.sleep(1100);
+        limiter.update(1, 0);
+        assertThat(limiter.getRate()).isEqualTo(1000.0);
+    }
+
+    @Test
+    public void probesBeyondCapacityWithDemand() throws Exception {
+        AdaptiveAcquireLimiter limiter = new AdaptiveAcquireLimiter(1000, 1, 5000, 0.7, 100, 2);
+        Thread.sleep(1100);
+        limiter.update(10000, 0);
+        assertThat(limiter.getRate()).isEqualTo(5000.0);
+        assertThat(limiter.getCapacity()).isEqualTo(1000.0);
+    }
+
+    @Test
+    public void slowPutsScaleRateDown() throws Exception {
+        AdaptiveAcquireLimiter limiter = new AdaptiveAcquireLimiter(1000, 1, 0, 0.7, 0.1, 2);
+        for (int i = 0; i < 10; i++) {
+            limiter.update(10, 0, FAST_PUT);
+        }
+        assertThat(limiter.getRate()).isCloseTo(1000.0, within(0.001));
+        for (int i = 0; i < 20; i++) {
+            limiter.update(10, 0, 10 * FAST_PUT);
+        }
+        assertThat(limiter.getRate()).isLessThan(1000.0).isGreaterThanOrEqualTo(500.0);
+        assertThat(limiter.getCapacity()).isEqualTo(1000.0);
+    }
+
+    @Test
+    public void neverBelowMin() throws Exception {
+        AdaptiveAcquireLimiter limiter = new AdaptiveAcquireLimiter(10, 8, 0, 0.5, 0.1, 2);
+        limiter.update(10, 10);
+        assertThat(limiter.getRate()).isEqualTo(8.0);
+    }
+
+    @Test
+    public void hasGauges() throws Exception {
+        AdaptiveAcquireLimiter limiter = new AdaptiveAcquireLimiter(1000, 1, 0, 0.7, 0.1, 2);
+        assertThat(limiter.gauges()).containsOnlyKeys("rate", "capacity");
+        assertThat(limiter.gauges().get("rate").getValue()).isEqualTo(1000.0);
+        assertThat(limiter.gauges().get("capacity").getValue()).isEqualTo(1000.0);
+    }
+
+    @Test
+    public void acquires() throws Exception {
+        AdaptiveAcquireLimiter limiter = new AdaptiveAcquireLimiter(100, 1, 0, 0.7, 0.1, 2);
+        assertThat(limiter.acquire(100)).isEqualTo(0.0);
+        assertThat(limiter.acquire(100)).isCloseTo(1.0, within(0.1));
+    }
+}
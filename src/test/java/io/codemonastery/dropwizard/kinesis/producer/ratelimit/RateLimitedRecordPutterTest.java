@@ -0,0 +1,265 @@
+package io.codemonastery.dropwizard.kinesis.producer.ratelimit;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.kinesis.AmazonKinesis;
+import com.amazonaws.services.kinesis.model.PutRecordsRequest;
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import com.amazonaws.services.kinesis.model.PutRecordsResult;
+import com.amazonaws.services.kinesis.model.PutRecordsResultEntry;
+import com.amazonaws.services.kinesis.model.ResourceNotFoundException;
+import com.codahale.metrics.MetricRegistry;
+import io.codemonastery.dropwizard.kinesis.producer.AdaptiveBatchSize;
+import io.codemonastery.dropwizard.kinesis.producer.ProducerMetrics;
+import io.codemonastery.dropwizard.kinesis.producer.PutRecordFailedException;
+import io.codemonastery.dropwizard.kinesis.producer.RetryPolicy;
+import io.dropwizard.util.Duration;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class RateLimitedRecordPutterTest {
+
+    @Mock
+    private AmazonKinesis kinesis;
+
+    private MetricRegistry metricRegistry;
+    private RetryPolicy retryPolicy;
+    private List<Throwable> failures;
+    private RateLimitedRecordPutter putter;
+
+    @Before
+    public void setUp() throws Exception {
+        initMocks(this);
+        metricRegistry = new MetricRegistry();
+        retryPolicy = new RetryPolicy()
+                .initialBackoff(Duration.milliseconds(1))
+                .maxBackoff(Duration.milliseconds(2));
+        failures = new ArrayList<>();
+        putter = new RateLimitedRecordPutter(kinesis,
+                new ProducerMetrics(metricRegistry, "foo"),
+                new NoLimitAcquireLimiter(),
+                retryPolicy,
+                (record, cause, attempts) -> failures.add(cause));
+    }
+
+    @Test
+    public void internalFailureRetried() throws Exception {
+        when(kinesis.putRecords(any())).thenReturn(
+                result(ok(), error("InternalFailure")),
+                result(ok()));
+
+        assertThat(putter.send(request(2))).isEqualTo(0);
+        verify(kinesis, times(2)).putRecords(any());
+        assertThat(failures).isEmpty();
+        assertThat(metricRegistry.meter("foo-sent").getCount()).isEqualTo(2);
+        assertThat(metricRegistry.meter("foo-retried").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void permanentFailureNotRetried() throws Exception {
+        when(kinesis.putRecords(any())).thenReturn(result(ok(), error("ValidationError")));
+
+        assertThat(putter.send(request(2))).isEqualTo(1);
+        verify(kinesis, times(1)).putRecords(any());
+        assertThat(failures).hasSize(1);
+        assertThat(failures.get(0)).isInstanceOf(PutRecordFailedException.class);
+        assertThat(metricRegistry.meter("foo-sent").getCount()).isEqualTo(1);
+        assertThat(metricRegistry.meter("foo-failed").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void classificationConfigurable() throws Exception {
+        retryPolicy.errorCode("InternalFailure", RetryPolicy.Classification.PERMANENT);
+        when(kinesis.putRecords(any())).thenReturn(result(error("InternalFailure")));
+
+        assertThat(putter.send(request(1))).isEqualTo(1);
+        verify(kinesis, times(1)).putRecords(any());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws Exception {
+        retryPolicy.maxAttempts(3);
+        when(kinesis.putRecords(any())).thenReturn(result(error("InternalFailure")));
+
+        assertThat(putter.send(request(1))).isEqualTo(1);
+        verify(kinesis, times(3)).putRecords(any());
+        assertThat(failures).hasSize(1);
+    }
+
+    @Test
+    public void givesUpAfterDeadline() throws Exception {
+        retryPolicy.deadline(Duration.milliseconds(50));
+        when(kinesis.putRecords(any())).thenReturn(result(error("InternalFailure")));
+
+        long start = System.currentTimeMillis();
+        assertThat(putter.send(request(1))).isEqualTo(1);
+        assertThat(System.currentTimeMillis() - start).isLessThan(5000);
+        assertThat(failures).hasSize(1);
+    }
+
+    @Test
+    public void throttledRecordsOutliveDeadlineByDefault() throws Exception {
+        retryPolicy.deadline(Duration.milliseconds(50));
+        PutRecordsResult throttled = result(error("ProvisionedThroughputExceededException"));
+        List<PutRecordsResult> results = new ArrayList<>(Collections.nCopies(100, throttled));
+        results.add(result(ok()));
+        when(kinesis.putRecords(any())).thenReturn(throttled, results.toArray(new PutRecordsResult[results.size()]));
+
+        long start = System.nanoTime();
+        assertThat(putter.send(request(1))).isEqualTo(0);
+        assertThat(System.nanoTime() - start).isGreaterThan(Duration.milliseconds(50).toNanoseconds());
+        verify(kinesis, times(102)).putRecords(any());
+        assertThat(failures).isEmpty();
+    }
+
+    @Test
+    public void throttledRecordsLimitedIfConfigured() throws Exception {
+        retryPolicy.maxAttempts(3).limitThrottled(true);
+        when(kinesis.putRecords(any())).thenReturn(result(error("ProvisionedThroughputExceededException")));
+
+        assertThat(putter.send(request(1))).isEqualTo(1);
+        verify(kinesis, times(3)).putRecords(any());
+        assertThat(failures).hasSize(1);
+    }
+
+    @Test
+    public void limiterWaitNotCountedTowardsDeadline() throws Exception {
+        retryPolicy.deadline(Duration.milliseconds(50));
+        putter = new RateLimitedRecordPutter(kinesis, new ProducerMetrics(metricRegistry, "foo"), new NoLimitAcquireLimiter() {
+            @Override
+            public double acquire(int numPermits, int numBytes) {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 0.1;
+            }
+        }, retryPolicy, (record, cause, attempts) -> failures.add(cause));
+        when(kinesis.putRecords(any())).thenReturn(result(error("InternalFailure")), result(ok()));
+
+        assertThat(putter.send(request(1))).isEqualTo(0);
+        verify(kinesis, times(2)).putRecords(any());
+        assertThat(failures).isEmpty();
+    }
+
+    @Test
+    public void serverErrorRetried() throws Exception {
+        AmazonServiceException serverError = new AmazonServiceException("brownout");
+        serverError.setErrorType(AmazonServiceException.ErrorType.Service);
+        when(kinesis.putRecords(any())).thenThrow(serverError).thenReturn(result(ok()));
+
+        assertThat(putter.send(request(1))).isEqualTo(0);
+        verify(kinesis, times(2)).putRecords(any());
+    }
+
+    @Test
+    public void serverErrorFailsRecordsOnceDeadlinePassed() throws Exception {
+        retryPolicy.deadline(Duration.milliseconds(50));
+        AmazonServiceException serverError = new AmazonServiceException("brownout");
+        serverError.setErrorType(AmazonServiceException.ErrorType.Service);
+        when(kinesis.putRecords(any())).thenThrow(serverError);
+
+        assertThat(putter.send(request(2))).isEqualTo(2);
+        assertThat(failures).containsExactly(serverError, serverError);
+    }
+
+    @Test
+    public void limitsUtf8BytesOfPartitionKeys() throws Exception {
+        List<Integer> acquiredBytes = new ArrayList<>();
+        putter = new RateLimitedRecordPutter(kinesis, new ProducerMetrics(metricRegistry, "foo"), new NoLimitAcquireLimiter() {
+            @Override
+            public double acquire(int numPermits, int numBytes) {
+                acquiredBytes.add(numBytes);
+                return 0.0;
+            }
+        }, retryPolicy, null);
+        when(kinesis.putRecords(any())).thenReturn(result(ok()));
+
+        putter.send(new PutRecordsRequest().withStreamName("xyz").withRecords(new PutRecordsRequestEntry()
+                .withPartitionKey("\u00e9\u20ac")
+                .withData(ByteBuffer.wrap(new byte[10]))));
+        //two bytes for e acute and three for the euro sign
+        assertThat(acquiredBytes).containsExactly(15);
+    }
+
+    @Test
+    public void throttlingShrinksBatchSize() throws Exception {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(1, 100, 1, Duration.minutes(1).toNanoseconds(), 0.1);
+        putter = new RateLimitedRecordPutter(kinesis, new ProducerMetrics(metricRegistry, "bar"), new NoLimitAcquireLimiter(), retryPolicy, null, batchSize);
+        when(kinesis.putRecords(any())).thenReturn(
+                result(ok(), error("ProvisionedThroughputExceededException")),
+                result(ok()));
+
+        assertThat(putter.send(request(2))).isEqualTo(0);
+        assertThat(putter.batchSize()).isSameAs(batchSize);
+        //halved by the call with one of two records throttled, grown by the retry which was not
+        assertThat(batchSize.getRecords()).isEqualTo(51);
+    }
+
+    @Test
+    public void backoffNotCountedAsLatency() throws Exception {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(1, 100, 1, Duration.milliseconds(20).toNanoseconds(), 0.9);
+        putter = new RateLimitedRecordPutter(kinesis,
+                new ProducerMetrics(metricRegistry, "bar"),
+                new NoLimitAcquireLimiter(),
+                new RetryPolicy().initialBackoff(Duration.milliseconds(50)).maxBackoff(Duration.milliseconds(50)),
+                null,
+                batchSize);
+        when(kinesis.putRecords(any())).thenReturn(
+                result(ok(), error("ProvisionedThroughputExceededException")),
+                result(ok()));
+
+        assertThat(putter.send(request(2))).isEqualTo(0);
+        //the send took longer than the target latency, each call did not
+        assertThat(batchSize.getRecords()).isEqualTo(100);
+    }
+
+    @Test(expected = ResourceNotFoundException.class)
+    public void clientErrorThrown() throws Exception {
+        ResourceNotFoundException notFound = new ResourceNotFoundException("no stream");
+        notFound.setErrorType(AmazonServiceException.ErrorType.Client);
+        when(kinesis.putRecords(any())).thenThrow(notFound);
+        putter.send(request(1));
+    }
+
+    private static PutRecordsRequest request(int count) {
+        List<PutRecordsRequestEntry> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            records.add(new PutRecordsRequestEntry()
+                    .withPartitionKey(Integer.toString(i))
+                    .withData(ByteBuffer.wrap(new byte[1])));
+        }
+        return new PutRecordsRequest().withStreamName("xyz").withRecords(records);
+    }
+
+    private static PutRecordsResult result(PutRecordsResultEntry... entries) {
+        int failed = 0;
+        for (PutRecordsResultEntry entry : entries) {
+            if (entry.getErrorCode() != null) {
+                failed++;
+            }
+        }
+        return new PutRecordsResult().withFailedRecordCount(failed).withRecords(entries);
+    }
+
+    private static PutRecordsResultEntry ok() {
+        return new PutRecordsResultEntry().withShardId("shard-0").withSequenceNumber("1");
+    }
+
+    private static PutRecordsResultEntry error(String errorCode) {
+        return new PutRecordsResultEntry().withErrorCode(errorCode).withErrorMessage("test says so");
+    }
+}
@@ -0,0 +1,61 @@
+package io.codemonastery.dropwizard.kinesis.producer.ratelimit;
+
+import com.amazonaws.util.StringInputStream;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.codemonastery.dropwizard.kinesis.ConfigurationFactories;
+import io.dropwizard.Configuration;
+import io.dropwizard.configuration.ConfigurationFactory;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import org.junit.Test;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ShardAwareAcquireLimiterFactoryTest {
+
+    public static final class FakeConfiguration extends Configuration {
+
+        @JsonProperty
+        @NotNull
+        @Valid
+        public AcquireLimiterFactory rateLimit;
+
+    }
+
+    @Test
+    public void typeShardAware() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("rateLimit:\n  type: shardAware\n"), "");
+        assertThat(configuration).isNotNull();
+        assertThat(configuration.rateLimit).isInstanceOf(ShardAwareAcquireLimiterFactory.class);
+    }
+
+    @Test
+    public void canConfigure() throws Exception {
+        ConfigurationFactory<FakeConfiguration> configurationFactory = ConfigurationFactories.make(FakeConfiguration.class);
+        FakeConfiguration configuration = configurationFactory.build((s) -> new StringInputStream("rateLimit:\n  type: shardAware\n  recordsPerShardPerSecond: 900\n  bytesPerShardPerSecond: 900KB\n  shardCountRefreshPeriod: 30s"), "");
+        ShardAwareAcquireLimiterFactory factory = (ShardAwareAcquireLimiterFactory) configuration.rateLimit;
+        assertThat(factory.getRecordsPerShardPerSecond()).isEqualTo(900.0);
+        assertThat(factory.getBytesPerShardPerSecond()).isEqualTo(Size.kilobytes(900));
+        assertThat(factory.getShardCountRefreshPeriod()).isEqualTo(Duration.seconds(30));
+    }
+
+    @Test
+    public void allTheThings() throws Exception {
+        ShardAwareAcquireLimiterFactory factory = new ShardAwareAcquireLimiterFactory()
+                .recordsPerShardPerSecond(500)
+                .bytesPerShardPerSecond(Size.kilobytes(500))
+                .shardCountRefreshPeriod(Duration.seconds(10));
+        assertThat(factory.getRecordsPerShardPerSecond()).isEqualTo(500.0);
+
+        ShardAwareAcquireLimiter singleShard = factory.build();
+        assertThat(singleShard.getRecordRate()).isEqualTo(500.0);
+        assertThat(singleShard.getByteRate()).isEqualTo(500.0 * 1024);
+
+        ShardAwareAcquireLimiter threeShards = factory.build(() -> 3);
+        assertThat(threeShards.getRecordRate()).isEqualTo(1500.0);
+    }
+}
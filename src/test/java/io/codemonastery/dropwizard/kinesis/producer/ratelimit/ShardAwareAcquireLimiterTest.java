@@ -0,0 +1,87 @@
+package io.codemonastery.dropwizard.kinesis.producer.ratelimit;
+
+import io.codemonastery.dropwizard.kinesis.Assertions;
+import io.dropwizard.util.Duration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.runners.model.Statement;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+
+public class ShardAwareAcquireLimiterTest {
+
+    @Rule
+    public final TestRule RETRY_BECAUSE_SLEEPS = (statement, description) -> new Statement() {
+        @Override
+        public void evaluate() throws Throwable {
+            Assertions.retry(3, Duration.milliseconds(0), statement::evaluate);
+        }
+    };
+
+    @Test
+    public void limitsRecords() throws Exception {
+        ShardAwareAcquireLimiter rateLimiter = new ShardAwareAcquireLimiter(100, 1000 * 1000, () -> 1, Long.MAX_VALUE);
+        rateLimiter.update(0, 0); // test coverage
+        assertEquals(0.0, rateLimiter.acquire(100, 10), 0.0);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1.0, rateLimiter.acquire(100, 10), 0.1);
+        }
+    }
+
+    @Test
+    public void limitsBytes() throws Exception {
+        ShardAwareAcquireLimiter rateLimiter = new ShardAwareAcquireLimiter(1000, 1000, () -> 1, Long.MAX_VALUE);
+        assertEquals(0.0, rateLimiter.acquire(1, 500), 0.0);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0.5, rateLimiter.acquire(1, 500), 0.1);
+        }
+    }
+
+    @Test
+    public void scalesWithShardCount() throws Exception {
+        ShardAwareAcquireLimiter rateLimiter = new ShardAwareAcquireLimiter(100, 1000, () -> 4, Long.MAX_VALUE);
+        assertThat(rateLimiter.getShardCount()).isEqualTo(4);
+        assertThat(rateLimiter.getRecordRate()).isEqualTo(400.0);
+        assertThat(rateLimiter.getByteRate()).isEqualTo(4000.0);
+        assertEquals(0.0, rateLimiter.acquire(200), 0.0);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0.5, rateLimiter.acquire(200), 0.1);
+        }
+    }
+
+    @Test
+    public void rescalesOnResharding() throws Exception {
+        AtomicInteger shards = new AtomicInteger(2);
+        ShardAwareAcquireLimiter rateLimiter = new ShardAwareAcquireLimiter(100, 1000, shards::get, 0);
+        assertThat(rateLimiter.getRecordRate()).isEqualTo(200.0);
+
+        shards.set(3);
+        rateLimiter.acquire(1, 1);
+        assertThat(rateLimiter.getShardCount()).isEqualTo(3);
+        assertThat(rateLimiter.getRecordRate()).isEqualTo(300.0);
+        assertThat(rateLimiter.getByteRate()).isEqualTo(3000.0);
+    }
+
+    @Test
+    public void keepsShardCountIfCannotCount() throws Exception {
+        AtomicInteger shards = new AtomicInteger(2);
+        ShardAwareAcquireLimiter rateLimiter = new ShardAwareAcquireLimiter(100, 1000, () -> {
+            if (shards.get() < 0) {
+                throw new IllegalStateException("fake failure");
+            }
+            return shards.get();
+        }, 0);
+
+        shards.set(0);
+        rateLimiter.acquire(1, 1);
+        assertThat(rateLimiter.getShardCount()).isEqualTo(2);
+
+        shards.set(-1);
+        rateLimiter.acquire(1, 1);
+        assertThat(rateLimiter.getShardCount()).isEqualTo(2);
+    }
+}